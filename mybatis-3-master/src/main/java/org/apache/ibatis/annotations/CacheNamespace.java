@@ -24,6 +24,8 @@ import java.lang.annotation.Target;
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.decorators.LruCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.cache.serializer.CacheSerializer;
+import org.apache.ibatis.cache.serializer.JavaCacheSerializer;
 
 /**
  * The annotation that specify to use cache on namespace(e.g. mapper interface).
@@ -60,7 +62,8 @@ public @interface CacheNamespace {
   /**
    *缓存的策略 先进先出，还是杀
    *
-   * @return the cache evicting implementation type
+   * @return the cache evicting implementation type, the default {@code LruCache} is not applied to an
+   *         {@code OffHeapCache}, which is bounded by its capacity
    */
   Class<? extends Cache> eviction() default LruCache.class;
 
@@ -85,6 +88,14 @@ public @interface CacheNamespace {
    */
   boolean readWrite() default true;
 
+  /**
+   * Returns the serializer used by a read/write cache.
+   *
+   * @return the serializer type
+   * @since 3.5.8
+   */
+  Class<? extends CacheSerializer> serializer() default JavaCacheSerializer.class;
+
   /**
    * 是否使用阻塞缓存
    *
@@ -138,6 +138,15 @@ public @interface Options {
    */
   String resultSets() default "";
 
+  /**
+   * Returns the tables this statement reads or writes for the fine-grained second level cache invalidation.
+   *
+   * @return comma separated tables with an optional key column, e.g. {@code "person(id), address"}; inferred from the
+   *         sql when empty
+   * @since 3.5.8
+   */
+  String cacheTags() default "";
+
   /**
    * @return A database id that correspond this options
    * @since 3.5.5
@@ -65,6 +65,9 @@ import org.apache.ibatis.builder.CacheRefResolver;
 import org.apache.ibatis.builder.IncompleteElementException;
 import org.apache.ibatis.builder.MapperBuilderAssistant;
 import org.apache.ibatis.builder.xml.XMLMapperBuilder;
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.impl.OffHeapCache;
 import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
 import org.apache.ibatis.executor.keygen.KeyGenerator;
@@ -207,8 +210,13 @@ public class MapperAnnotationBuilder {
       Integer size = cacheDomain.size() == 0 ? null : cacheDomain.size();
       Long flushInterval = cacheDomain.flushInterval() == 0 ? null : cacheDomain.flushInterval();
       Properties props = convertToProperties(cacheDomain.properties());
+      /*注解分不出默认的LRU和明确指定的LRU，堆外缓存按不指定处理*/
+      Class<? extends Cache> eviction = cacheDomain.eviction();
+      if (OffHeapCache.class.equals(cacheDomain.implementation()) && LruCache.class.equals(eviction)) {
+        eviction = null;
+      }
       /*使用新缓存，命名空间级别的缓存--添加到configration对象中，后续和MappedStatement绑定*/
-      assistant.useNewCache(cacheDomain.implementation(), cacheDomain.eviction(), flushInterval, size, cacheDomain.readWrite(), cacheDomain.blocking(), props);
+      assistant.useNewCache(cacheDomain.implementation(), eviction, flushInterval, size, cacheDomain.readWrite(), cacheDomain.serializer(), cacheDomain.blocking(), props);
     }
   }
   /*解析属性值，根据configuration的Properties：比如一些公共的数据，比如数据的密码什么的根据${usernmae.xxx}*/
@@ -405,7 +413,8 @@ public class MapperAnnotationBuilder {
           statementAnnotation.getDatabaseId(),
           languageDriver,
           // ResultSets
-          options != null ? nullOrEmpty(options.resultSets()) : null);
+          options != null ? nullOrEmpty(options.resultSets()) : null,
+          options != null ? nullOrEmpty(options.cacheTags()) : null);
     });
   }
 
@@ -61,6 +61,19 @@ public interface Cache {
    */
   Object getObject(Object key);
 
+  /**
+   * Checks whether the cache holds an entry, without the side effects of {@link #getObject(Object)} such as access
+   * order, hit counts or locks. Decorators must ask their delegate unless they keep the entries themselves.
+   *
+   * @param key
+   *          The key
+   * @return false only if the cache is known not to hold the entry
+   * @since 3.5.8
+   */
+  default boolean containsKey(Object key) {
+    return true;
+  }
+
   /**
    * As of 3.3.0 this method is only called during a rollback
    * for any previous value that was missing in the cache.
@@ -90,6 +103,30 @@ public interface Cache {
    */
   int getSize();
 
+  /**
+   * Optional. This method is not called by the core.
+   *
+   * @return The estimated number of bytes retained by the elements stored in the cache, or -1 if the cache does not
+   *         track it.
+   * @since 3.5.8
+   */
+  default long getWeight() {
+    return -1L;
+  }
+
+  /**
+   * Optional. This method is not called by the core.
+   * <p>
+   * Decorators must return the metrics of their delegate, so the metrics of a namespace can be read from the cache held
+   * by the configuration.
+   *
+   * @return The statistics of the cache, or null if the cache does not record them.
+   * @since 3.5.8
+   */
+  default CacheMetrics getMetrics() {
+    return null;
+  }
+
   /**
    * Optional. As of 3.2.6 this method is no longer called by the core.
    * <p>
@@ -16,18 +16,27 @@
 package org.apache.ibatis.cache;
 
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 import java.util.StringJoiner;
 
 import org.apache.ibatis.reflection.ArrayUtil;
 
 /**
+ * Key of the first and second level caches and of the nested result objects.
+ * <p>
+ * Components are kept in a plain array that grows on demand, {@code int} and {@code long} components (boxed or not)
+ * are stored unboxed in a parallel {@code long} array. The hash is a 64-bit murmur3 style mix of the component hashes
+ * that is maintained on every update, equality is only checked component by component when the full 64-bit hashes are
+ * the same.
+ * <p>
+ * {@link #builder()} creates immutable keys, the keys created by the executors stay mutable because plugins are allowed
+ * to {@link #update(Object)} them.
+ *
  * @author Clinton Begin
  */
 public class CacheKey implements Cloneable, Serializable {
 
-  private static final long serialVersionUID = 1146682552656046210L;
+  private static final long serialVersionUID = -4907446513271634384L;
 
   public static final CacheKey NULL_CACHE_KEY = new CacheKey() {
 
@@ -36,28 +45,39 @@ public class CacheKey implements Cloneable, Serializable {
       throw new CacheException("Not allowed to update a null cache key instance.");
     }
 
+    @Override
+    public void update(int value) {
+      throw new CacheException("Not allowed to update a null cache key instance.");
+    }
+
+    @Override
+    public void update(long value) {
+      throw new CacheException("Not allowed to update a null cache key instance.");
+    }
+
     @Override
     public void updateAll(Object[] objects) {
       throw new CacheException("Not allowed to update a null cache key instance.");
     }
   };
 
-  private static final int DEFAULT_MULTIPLIER = 37;
-  private static final int DEFAULT_HASHCODE = 17;
+  private static final long DEFAULT_HASH = 17L;
+  private static final long GOLDEN_RATIO = 0x9E3779B97F4A7C15L;
+  private static final int DEFAULT_CAPACITY = 8;
 
-  private final int multiplier;
+  private long hash;
   private int hashcode;
-  private long checksum;
   private int count;
   // 8/21/2017 - Sonarlint flags this as needing to be marked transient. While true if content is not serializable, this
   // is not always true and thus should not be marked transient.
-  private List<Object> updateList;
+  /*组件，int/long 类型的组件在这里只放一个 Primitive 标记，值放在 primitives 里面*/
+  private Object[] updateList;
+  private long[] primitives;
 
   public CacheKey() {
-    this.hashcode = DEFAULT_HASHCODE;
-    this.multiplier = DEFAULT_MULTIPLIER;
+    this.hash = DEFAULT_HASH;
+    this.hashcode = fold(DEFAULT_HASH);
     this.count = 0;
-    this.updateList = new ArrayList<>();
   }
 
   public CacheKey(Object[] objects) {
@@ -65,20 +85,56 @@ public class CacheKey implements Cloneable, Serializable {
     updateAll(objects);
   }
 
+  /**
+   * Creates a builder of immutable cache keys.
+   *
+   * @return the builder
+   * @since 3.5.8
+   */
+  public static Builder builder() {
+    return new Builder(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Creates a builder of immutable cache keys sized for the expected number of components.
+   *
+   * @param expectedSize
+   *          the expected number of components
+   * @return the builder
+   * @since 3.5.8
+   */
+  public static Builder builder(int expectedSize) {
+    return new Builder(expectedSize);
+  }
+
   public int getUpdateCount() {
-    return updateList.size();
+    return count;
   }
 
   public void update(Object object) {
-    int baseHashCode = object == null ? 1 : ArrayUtil.hashCode(object);
-
-    count++;
-    checksum += baseHashCode;
-    baseHashCode *= count;
+    append(object);
+  }
 
-    hashcode = multiplier * hashcode + baseHashCode;
+  /**
+   * Same as {@code update(Integer.valueOf(value))} without boxing the value.
+   *
+   * @param value
+   *          the component
+   * @since 3.5.8
+   */
+  public void update(int value) {
+    appendInt(value);
+  }
 
-    updateList.add(object);
+  /**
+   * Same as {@code update(Long.valueOf(value))} without boxing the value.
+   *
+   * @param value
+   *          the component
+   * @since 3.5.8
+   */
+  public void update(long value) {
+    appendLong(value);
   }
 
   public void updateAll(Object[] objects) {
@@ -98,20 +154,21 @@ public class CacheKey implements Cloneable, Serializable {
 
     final CacheKey cacheKey = (CacheKey) object;
 
-    if (hashcode != cacheKey.hashcode) {
-      return false;
-    }
-    if (checksum != cacheKey.checksum) {
+    if (hash != cacheKey.hash) {
       return false;
     }
     if (count != cacheKey.count) {
       return false;
     }
 
-    for (int i = 0; i < updateList.size(); i++) {
-      Object thisObject = updateList.get(i);
-      Object thatObject = cacheKey.updateList.get(i);
-      if (!ArrayUtil.equals(thisObject, thatObject)) {
+    for (int i = 0; i < count; i++) {
+      Object thisObject = updateList[i];
+      Object thatObject = cacheKey.updateList[i];
+      if (thisObject instanceof Primitive) {
+        if (thisObject != thatObject || primitives[i] != cacheKey.primitives[i]) {
+          return false;
+        }
+      } else if (!ArrayUtil.equals(thisObject, thatObject)) {
         return false;
       }
     }
@@ -127,16 +184,219 @@ public class CacheKey implements Cloneable, Serializable {
   public String toString() {
     StringJoiner returnValue = new StringJoiner(":");
     returnValue.add(String.valueOf(hashcode));
-    returnValue.add(String.valueOf(checksum));
-    updateList.stream().map(ArrayUtil::toString).forEach(returnValue::add);
+    returnValue.add(Long.toHexString(hash));
+    for (int i = 0; i < count; i++) {
+      returnValue.add(ArrayUtil.toString(component(i)));
+    }
     return returnValue.toString();
   }
   /*简单深拷贝*/
   @Override
   public CacheKey clone() throws CloneNotSupportedException {
     CacheKey clonedCacheKey = (CacheKey) super.clone();
-    clonedCacheKey.updateList = new ArrayList<>(updateList);
+    clonedCacheKey.copyComponents(this, updateList == null ? 0 : updateList.length);
     return clonedCacheKey;
   }
 
+  private void append(Object object) {
+    if (object instanceof Integer) {
+      appendInt((Integer) object);
+    } else if (object instanceof Long) {
+      appendLong((Long) object);
+    } else {
+      ensureCapacity(count + 1);
+      updateList[count] = object;
+      mix(object == null ? 1 : ArrayUtil.hashCode(object));
+    }
+  }
+
+  private void appendInt(int value) {
+    ensurePrimitives(count + 1);
+    updateList[count] = Primitive.INT;
+    primitives[count] = value;
+    mix(value);
+  }
+
+  private void appendLong(long value) {
+    ensurePrimitives(count + 1);
+    updateList[count] = Primitive.LONG;
+    primitives[count] = value;
+    mix(value);
+  }
+
+  private void appendAll(CacheKey other) {
+    if (count == 0) {
+      // 最常见的情况：以另一个key为前缀，直接复制状态，不用重新计算hash
+      copyComponents(other, Math.max(other.count + 1, updateList == null ? DEFAULT_CAPACITY : updateList.length));
+      hash = other.hash;
+      hashcode = other.hashcode;
+      count = other.count;
+      return;
+    }
+    for (int i = 0; i < other.count; i++) {
+      Object component = other.updateList[i];
+      if (component == Primitive.INT) {
+        appendInt((int) other.primitives[i]);
+      } else if (component == Primitive.LONG) {
+        appendLong(other.primitives[i]);
+      } else {
+        append(component);
+      }
+    }
+  }
+
+  private Object component(int index) {
+    Object component = updateList[index];
+    if (component == Primitive.INT) {
+      return (int) primitives[index];
+    } else if (component == Primitive.LONG) {
+      return primitives[index];
+    }
+    return component;
+  }
+
+  private void mix(long componentHash) {
+    hash = mix64(hash * GOLDEN_RATIO + componentHash);
+    hashcode = fold(hash);
+    count++;
+  }
+
+  private void copyComponents(CacheKey source, int capacity) {
+    updateList = source.updateList == null ? null : Arrays.copyOf(source.updateList, capacity);
+    primitives = source.primitives == null ? null : Arrays.copyOf(source.primitives, capacity);
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (updateList == null) {
+      updateList = new Object[Math.max(capacity, DEFAULT_CAPACITY)];
+    } else if (updateList.length < capacity) {
+      int newCapacity = Math.max(capacity, Math.max(updateList.length << 1, DEFAULT_CAPACITY));
+      updateList = Arrays.copyOf(updateList, newCapacity);
+      if (primitives != null) {
+        primitives = Arrays.copyOf(primitives, newCapacity);
+      }
+    }
+  }
+
+  private void ensurePrimitives(int capacity) {
+    ensureCapacity(capacity);
+    if (primitives == null) {
+      primitives = new long[updateList.length];
+    }
+  }
+
+  /**
+   * Murmur3 64-bit finalizer.
+   */
+  private static long mix64(long z) {
+    z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+    z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+    return z ^ (z >>> 33);
+  }
+
+  private static int fold(long hash) {
+    return (int) (hash ^ (hash >>> 32));
+  }
+
+  private enum Primitive {
+    INT, LONG
+  }
+
+  /**
+   * Builds an immutable {@link CacheKey}, e.g. the row keys of nested result maps.
+   *
+   * @since 3.5.8
+   */
+  public static final class Builder {
+
+    private CacheKey cacheKey;
+
+    private Builder(int expectedSize) {
+      this.cacheKey = new ImmutableCacheKey();
+      if (expectedSize > 0) {
+        this.cacheKey.updateList = new Object[expectedSize];
+      }
+    }
+
+    public Builder add(Object object) {
+      key().append(object);
+      return this;
+    }
+
+    public Builder add(int value) {
+      key().appendInt(value);
+      return this;
+    }
+
+    public Builder add(long value) {
+      key().appendLong(value);
+      return this;
+    }
+
+    /**
+     * Appends all the components of the given key, the result equals the key updated with the components added
+     * after it.
+     *
+     * @param other
+     *          the key to copy the components of
+     * @return this builder
+     */
+    public Builder addAll(CacheKey other) {
+      key().appendAll(other);
+      return this;
+    }
+
+    public int getUpdateCount() {
+      return key().count;
+    }
+
+    public CacheKey build() {
+      CacheKey built = key();
+      cacheKey = null;
+      return built;
+    }
+
+    private CacheKey key() {
+      if (cacheKey == null) {
+        throw new IllegalStateException("The cache key has already been built.");
+      }
+      return cacheKey;
+    }
+  }
+
+  /**
+   * Cache key that cannot be updated, {@link #clone()} returns a mutable copy.
+   */
+  private static final class ImmutableCacheKey extends CacheKey {
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public void update(Object object) {
+      throw new CacheException("Not allowed to update an immutable cache key instance.");
+    }
+
+    @Override
+    public void update(int value) {
+      throw new CacheException("Not allowed to update an immutable cache key instance.");
+    }
+
+    @Override
+    public void update(long value) {
+      throw new CacheException("Not allowed to update an immutable cache key instance.");
+    }
+
+    @Override
+    public void updateAll(Object[] objects) {
+      throw new CacheException("Not allowed to update an immutable cache key instance.");
+    }
+
+    @Override
+    public CacheKey clone() {
+      CacheKey clonedCacheKey = new CacheKey();
+      clonedCacheKey.appendAll(this);
+      return clonedCacheKey;
+    }
+  }
+
 }
@@ -0,0 +1,76 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import org.apache.ibatis.util.LatencyHistogram;
+
+/**
+ * Statistics of a cache, obtained with {@link Cache#getMetrics()}.
+ * <p>
+ * The counters are cumulative since the cache was built. The latencies are measured around the whole decorator chain
+ * below the {@link org.apache.ibatis.cache.decorators.LoggingCache}, e.g. they include the serialization of read-write
+ * caches.
+ *
+ * @since 3.5.8
+ */
+public interface CacheMetrics {
+
+  /**
+   * @return the id of the cache, usually the mapper namespace
+   */
+  String getId();
+
+  long getHits();
+
+  long getMisses();
+
+  default double getHitRatio() {
+    long requests = getHits() + getMisses();
+    return requests == 0 ? 0.0 : (double) getHits() / requests;
+  }
+
+  long getPuts();
+
+  /**
+   * @return the number of entries removed by the eviction policy (lru, fifo, soft, weak...)
+   */
+  long getEvictions();
+
+  /**
+   * @return the number of times the cache was cleared, including flushes and scheduled clears
+   */
+  long getClears();
+
+  /**
+   * @return the number of reads that waited for another session to put the value in a blocking cache
+   */
+  long getBlockedWaits();
+
+  LatencyHistogram getGetLatency();
+
+  LatencyHistogram getPutLatency();
+
+  /**
+   * @return the current number of entries
+   */
+  int getSize();
+
+  /**
+   * @return the current estimated weight in bytes, or -1 if the cache does not track it
+   */
+  long getWeight();
+
+}
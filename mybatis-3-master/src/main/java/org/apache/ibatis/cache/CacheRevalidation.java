@@ -0,0 +1,69 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+/**
+ * Hands the stale entries served by a {@link org.apache.ibatis.cache.decorators.ScheduledCache} over to the executor
+ * that read them, so it can refresh them in the background.
+ * <p>
+ * The cache and the executor run in the same thread: the cache requests the refresh of the key it just served, the
+ * executor consumes the request right after the read. The thread refreshing an entry is marked as revalidating, the
+ * cache serves it a miss instead of the stale value.
+ *
+ * @since 3.5.8
+ */
+public final class CacheRevalidation {
+
+  private static final ThreadLocal<Object> REQUESTED_KEY = new ThreadLocal<>();
+  private static final ThreadLocal<Boolean> REVALIDATING = new ThreadLocal<>();
+
+  private CacheRevalidation() {
+    super();
+  }
+
+  public static void requestRefresh(Object key) {
+    REQUESTED_KEY.set(key);
+  }
+
+  /**
+   * Clears the pending request of the current thread.
+   *
+   * @param key
+   *          the key just read
+   * @return true if the cache served a stale value for this key and the caller should refresh it
+   */
+  public static boolean consumeRefreshRequest(Object key) {
+    Object requestedKey = REQUESTED_KEY.get();
+    if (requestedKey == null) {
+      return false;
+    }
+    REQUESTED_KEY.remove();
+    return requestedKey.equals(key);
+  }
+
+  public static boolean isRevalidating() {
+    return REVALIDATING.get() != null;
+  }
+
+  public static void setRevalidating(boolean revalidating) {
+    if (revalidating) {
+      REVALIDATING.set(Boolean.TRUE);
+    } else {
+      REVALIDATING.remove();
+    }
+  }
+
+}
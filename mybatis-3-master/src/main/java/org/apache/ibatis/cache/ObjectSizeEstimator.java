@@ -0,0 +1,191 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.ibatis.reflection.Reflector;
+import org.apache.ibatis.util.MapUtil;
+
+/**
+ * Estimates the heap retained by a cached value.
+ * <p>
+ * The estimate assumes a 64-bit JVM with compressed references. Byte arrays (e.g. values stored by a
+ * {@link org.apache.ibatis.cache.decorators.SerializedCache}) are measured exactly; collections, maps, arrays and
+ * result objects are walked field by field. JDK types that are not known value types are counted by their header only,
+ * and the fields of runtime generated proxies (lazy loading) are not followed, so the loader state and the
+ * configuration it refers to are never counted.
+ */
+public final class ObjectSizeEstimator {
+
+  private static final int HEADER = 16;
+  private static final int REFERENCE = 4;
+  private static final int MAX_OBJECTS = 1_000_000;
+  private static final Map<Class<?>, Field[]> FIELDS = new ConcurrentHashMap<>();
+
+  private ObjectSizeEstimator() {
+    super();
+  }
+
+  /**
+   * Estimates the number of bytes retained by the given value.
+   *
+   * @param value
+   *          the value, may be null
+   * @return the estimated size in bytes
+   */
+  public static long estimate(Object value) {
+    if (value == null) {
+      return 0L;
+    }
+    if (value instanceof byte[]) {
+      return align(HEADER + ((byte[]) value).length);
+    }
+    long size = 0L;
+    IdentityHashMap<Object, Boolean> visited = new IdentityHashMap<>();
+    Deque<Object> pending = new ArrayDeque<>();
+    pending.push(value);
+    while (!pending.isEmpty() && visited.size() < MAX_OBJECTS) {
+      Object current = pending.pop();
+      if (visited.put(current, Boolean.TRUE) == null) {
+        size += shallowSize(current, pending);
+      }
+    }
+    return size;
+  }
+
+  private static long shallowSize(Object value, Deque<Object> pending) {
+    Class<?> type = value.getClass();
+    if (value instanceof String) {
+      return align(HEADER + 8) + align(HEADER + ((String) value).length() * 2L);
+    } else if (value instanceof BigDecimal) {
+      return align(HEADER + 24) + align(HEADER + ((BigDecimal) value).unscaledValue().bitLength() / 8);
+    } else if (value instanceof BigInteger) {
+      return align(HEADER + 24) + align(HEADER + ((BigInteger) value).bitLength() / 8);
+    } else if (value instanceof Long || value instanceof Double) {
+      return align(HEADER + 8);
+    } else if (value instanceof Number || value instanceof Boolean || value instanceof Character) {
+      return align(HEADER + 4);
+    } else if (type.isArray()) {
+      return arraySize(value, type.getComponentType(), pending);
+    } else if (value instanceof Collection) {
+      Collection<?> collection = (Collection<?>) value;
+      for (Object element : collection) {
+        pushIfNotNull(pending, element);
+      }
+      return align(HEADER + 16) + align(HEADER + collection.size() * (long) REFERENCE) + collection.size() * 16L;
+    } else if (value instanceof Map) {
+      Map<?, ?> map = (Map<?, ?>) value;
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        pushIfNotNull(pending, entry.getKey());
+        pushIfNotNull(pending, entry.getValue());
+      }
+      return align(HEADER + 32) + align(HEADER + map.size() * (long) REFERENCE) + map.size() * 32L;
+    } else if (isJdkType(type)) {
+      return align(HEADER + 16);
+    }
+    long size = HEADER;
+    for (Field field : fieldsOf(type)) {
+      Class<?> fieldType = field.getType();
+      if (fieldType.isPrimitive()) {
+        size += fieldType == long.class || fieldType == double.class ? 8 : 4;
+        continue;
+      }
+      size += REFERENCE;
+      try {
+        pushIfNotNull(pending, field.get(value));
+      } catch (IllegalAccessException e) {
+        // not accessible, count the reference only
+      }
+    }
+    return align(size);
+  }
+
+  private static long arraySize(Object array, Class<?> componentType, Deque<Object> pending) {
+    int length = Array.getLength(array);
+    if (componentType.isPrimitive()) {
+      int width = componentType == long.class || componentType == double.class ? 8
+          : componentType == byte.class || componentType == boolean.class ? 1
+          : componentType == char.class || componentType == short.class ? 2 : 4;
+      return align(HEADER + (long) length * width);
+    }
+    for (Object element : (Object[]) array) {
+      pushIfNotNull(pending, element);
+    }
+    return align(HEADER + (long) length * REFERENCE);
+  }
+
+  private static Field[] fieldsOf(Class<?> type) {
+    return MapUtil.computeIfAbsent(FIELDS, type, ObjectSizeEstimator::collectFields);
+  }
+
+  private static Field[] collectFields(Class<?> type) {
+    List<Field> fields = new ArrayList<>();
+    boolean accessible = Reflector.canControlMemberAccessible();
+    for (Class<?> current = type; current != null && !isJdkType(current); current = current.getSuperclass()) {
+      if (current.getName().contains("$$")) {
+        // runtime generated proxy, skip the handler and loader state
+        continue;
+      }
+      for (Field field : current.getDeclaredFields()) {
+        if (Modifier.isStatic(field.getModifiers())) {
+          continue;
+        }
+        if (!field.getType().isPrimitive()) {
+          if (!accessible) {
+            continue;
+          }
+          try {
+            field.setAccessible(true);
+          } catch (RuntimeException e) {
+            continue;
+          }
+        }
+        fields.add(field);
+      }
+    }
+    return fields.toArray(new Field[0]);
+  }
+
+  private static boolean isJdkType(Class<?> type) {
+    String name = type.getName();
+    return name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("sun.")
+        || name.startsWith("jdk.");
+  }
+
+  private static void pushIfNotNull(Deque<Object> pending, Object value) {
+    if (value != null) {
+      pending.push(value);
+    }
+  }
+
+  private static long align(long size) {
+    return (size + 7) & ~7L;
+  }
+
+}
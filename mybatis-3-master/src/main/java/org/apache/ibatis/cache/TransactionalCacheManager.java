@@ -16,9 +16,15 @@
 package org.apache.ibatis.cache;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
 
+import org.apache.ibatis.cache.decorators.BlockingCache;
 import org.apache.ibatis.cache.decorators.TransactionalCache;
+import org.apache.ibatis.cache.tag.CacheInvalidation;
+import org.apache.ibatis.cache.tag.CacheTag;
+import org.apache.ibatis.cache.tag.CacheTagIndex;
 import org.apache.ibatis.util.MapUtil;
 
 /**
@@ -28,6 +34,20 @@ import org.apache.ibatis.util.MapUtil;
 public class TransactionalCacheManager {
 
   private final Map<Cache, TransactionalCache> transactionalCaches = new HashMap<>();
+  private final Function<Cache, CacheTagIndex> tagIndexes;
+
+  public TransactionalCacheManager() {
+    this(null);
+  }
+
+  /**
+   * @param tagIndexes
+   *          gives the tag index of a cache, null to clear the whole cache on every write
+   * @since 3.5.8
+   */
+  public TransactionalCacheManager(Function<Cache, CacheTagIndex> tagIndexes) {
+    this.tagIndexes = tagIndexes;
+  }
 
   public void clear(Cache cache) {
     getTransactionalCache(cache).clear();
@@ -41,6 +61,31 @@ public class TransactionalCacheManager {
     getTransactionalCache(cache).putObject(key, value);
   }
 
+  /**
+   * @since 3.5.8
+   */
+  public void putObject(Cache cache, CacheKey key, Object value, List<CacheTag> tags) {
+    getTransactionalCache(cache).putObject(key, value, tags);
+  }
+
+  /**
+   * @since 3.5.8
+   */
+  public void invalidate(Cache cache, List<CacheInvalidation> invalidations) {
+    getTransactionalCache(cache).invalidate(invalidations);
+  }
+
+  /**
+   * @param cache
+   *          the cache
+   * @return true if the session wrote to the cache in this transaction
+   * @since 3.5.8
+   */
+  public boolean isClearOnCommit(Cache cache) {
+    TransactionalCache txCache = transactionalCaches.get(cache);
+    return txCache != null && txCache.isDirty();
+  }
+
   public void commit() {
     for (TransactionalCache txCache : transactionalCaches.values()) {
       txCache.commit();
@@ -54,7 +99,15 @@ public class TransactionalCacheManager {
   }
 
   private TransactionalCache getTransactionalCache(Cache cache) {
-    return MapUtil.computeIfAbsent(transactionalCaches, cache, TransactionalCache::new);
+    return MapUtil.computeIfAbsent(transactionalCaches, cache, this::newTransactionalCache);
+  }
+
+  private TransactionalCache newTransactionalCache(Cache cache) {
+    // a blocking cache can't remove single entries of other sessions, it is cleared
+    if (tagIndexes == null || cache instanceof BlockingCache) {
+      return new TransactionalCache(cache);
+    }
+    return new TransactionalCache(cache, tagIndexes.apply(cache));
   }
 
 }
@@ -20,6 +20,8 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheMetrics;
+import org.apache.ibatis.cache.impl.DefaultCacheMetrics;
 import org.apache.ibatis.cache.CacheException;
 
 /**
@@ -40,10 +42,12 @@ public class BlockingCache implements Cache {
 
   private long timeout;
   private final Cache delegate;
+  private final DefaultCacheMetrics metrics;
   private final ConcurrentHashMap<Object, CountDownLatch> locks;
 
   public BlockingCache(Cache delegate) {
     this.delegate = delegate;
+    this.metrics = DefaultCacheMetrics.of(delegate);
     this.locks = new ConcurrentHashMap<>();
   }
 
@@ -56,6 +60,16 @@ public class BlockingCache implements Cache {
   public int getSize() {
     return delegate.getSize();
   }
+
+  @Override
+  public long getWeight() {
+    return delegate.getWeight();
+  }
+
+  @Override
+  public CacheMetrics getMetrics() {
+    return delegate.getMetrics();
+  }
   /*当指定的key的值被设置，那么在getObject获取值的线程就会被释放而得到返回值。*/
   @Override
   public void putObject(Object key, Object value) {
@@ -76,6 +90,11 @@ public class BlockingCache implements Cache {
     return value;
   }
 
+  @Override
+  public boolean containsKey(Object key) {
+    return delegate.containsKey(key);
+  }
+
   @Override
   public Object removeObject(Object key) {
     // despite of its name, this method is called only to release locks
@@ -96,6 +115,7 @@ public class BlockingCache implements Cache {
   * */
   private void acquireLock(Object key) {
     CountDownLatch newLatch = new CountDownLatch(1);
+    boolean waited = false;
     while (true) {
    /*   而putIfAbsent在放入数据时，如果存在重复的key，那么putIfAbsent不会放入值。*/
       /*如果已经存在值，那么返回存在的值，如果不存在值，那么put一个值，并返回null，返回null，那么直接不阻塞的，*/
@@ -103,6 +123,10 @@ public class BlockingCache implements Cache {
       if (latch == null) {
         break;
       }
+      if (!waited) {
+        waited = true;
+        metrics.recordBlockedWait();
+      }
       try {
         if (timeout > 0) {
           boolean acquired = latch.await(timeout, TimeUnit.MILLISECONDS);
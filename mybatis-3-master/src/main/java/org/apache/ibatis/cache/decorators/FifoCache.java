@@ -19,6 +19,8 @@ import java.util.Deque;
 import java.util.LinkedList;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheMetrics;
+import org.apache.ibatis.cache.impl.DefaultCacheMetrics;
 
 /**
  * FIFO (first in, first out) cache decorator.
@@ -28,11 +30,13 @@ import org.apache.ibatis.cache.Cache;
 public class FifoCache implements Cache {
 
   private final Cache delegate;
+  private final DefaultCacheMetrics metrics;
   private final Deque<Object> keyList;
   private int size;
 
   public FifoCache(Cache delegate) {
     this.delegate = delegate;
+    this.metrics = DefaultCacheMetrics.of(delegate);
     this.keyList = new LinkedList<>();
     this.size = 1024;
   }
@@ -47,6 +51,16 @@ public class FifoCache implements Cache {
     return delegate.getSize();
   }
 
+  @Override
+  public long getWeight() {
+    return delegate.getWeight();
+  }
+
+  @Override
+  public CacheMetrics getMetrics() {
+    return delegate.getMetrics();
+  }
+
   public void setSize(int size) {
     this.size = size;
   }
@@ -63,6 +77,11 @@ public class FifoCache implements Cache {
     return delegate.getObject(key);
   }
 
+  @Override
+  public boolean containsKey(Object key) {
+    return delegate.containsKey(key);
+  }
+
   @Override
   public Object removeObject(Object key) {
     return delegate.removeObject(key);
@@ -79,6 +98,7 @@ public class FifoCache implements Cache {
     if (keyList.size() > size) {
       Object oldestKey = keyList.removeFirst();
       delegate.removeObject(oldestKey);
+      metrics.recordEviction();
     }
   }
 
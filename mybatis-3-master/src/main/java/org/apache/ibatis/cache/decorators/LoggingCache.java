@@ -15,23 +15,33 @@
  */
 package org.apache.ibatis.cache.decorators;
 
+import java.util.concurrent.atomic.LongAdder;
+
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheMetrics;
+import org.apache.ibatis.cache.impl.DefaultCacheMetrics;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
 
 /**
+ * Logs the hit ratio and records the hits, misses, puts, clears and latencies of the {@link CacheMetrics}.
+ *
  * @author Clinton Begin
  */
 public class LoggingCache implements Cache {
 
   private final Log log;
   private final Cache delegate;
-  protected int requests = 0;
-  protected int hits = 0;
+  private final DefaultCacheMetrics metrics;
+  /*并发的淘汰策略不会再套 SynchronizedCache，计数需要线程安全*/
+  protected final LongAdder requests = new LongAdder();
+  protected final LongAdder hits = new LongAdder();
 
   public LoggingCache(Cache delegate) {
     this.delegate = delegate;
     this.log = LogFactory.getLog(getId());
+    /*自定义缓存没有记录指标的话，这里新建一个*/
+    this.metrics = DefaultCacheMetrics.of(delegate);
   }
 
   @Override
@@ -44,17 +54,34 @@ public class LoggingCache implements Cache {
     return delegate.getSize();
   }
 
+  @Override
+  public long getWeight() {
+    return delegate.getWeight();
+  }
+
+  @Override
+  public CacheMetrics getMetrics() {
+    return metrics;
+  }
+
   @Override
   public void putObject(Object key, Object object) {
+    long start = System.nanoTime();
     delegate.putObject(key, object);
+    metrics.recordPut(System.nanoTime() - start);
   }
 
   @Override
   public Object getObject(Object key) {
-    requests++;
+    requests.increment();
+    long start = System.nanoTime();
     final Object value = delegate.getObject(key);
+    long elapsed = System.nanoTime() - start;
     if (value != null) {
-      hits++;
+      hits.increment();
+      metrics.recordHit(elapsed);
+    } else {
+      metrics.recordMiss(elapsed);
     }
     if (log.isDebugEnabled()) {
       log.debug("Cache Hit Ratio [" + getId() + "]: " + getHitRatio());
@@ -62,6 +89,11 @@ public class LoggingCache implements Cache {
     return value;
   }
 
+  @Override
+  public boolean containsKey(Object key) {
+    return delegate.containsKey(key);
+  }
+
   @Override
   public Object removeObject(Object key) {
     return delegate.removeObject(key);
@@ -70,6 +102,7 @@ public class LoggingCache implements Cache {
   @Override
   public void clear() {
     delegate.clear();
+    metrics.recordClear();
   }
 
   @Override
@@ -83,7 +116,7 @@ public class LoggingCache implements Cache {
   }
 
   private double getHitRatio() {
-    return (double) hits / (double) requests;
+    return (double) hits.sum() / (double) requests.sum();
   }
 
 }
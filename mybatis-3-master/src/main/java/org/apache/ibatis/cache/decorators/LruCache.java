@@ -19,6 +19,8 @@ import java.util.LinkedHashMap;
 import java.util.Map;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheMetrics;
+import org.apache.ibatis.cache.impl.DefaultCacheMetrics;
 
 /**
  * Lru (最近最少使用) cache decorator.
@@ -28,11 +30,13 @@ import org.apache.ibatis.cache.Cache;
 public class LruCache implements Cache {
 
   private final Cache delegate;
+  private final DefaultCacheMetrics metrics;
   private Map<Object, Object> keyMap;
   private Object eldestKey;
 
   public LruCache(Cache delegate) {
     this.delegate = delegate;
+    this.metrics = DefaultCacheMetrics.of(delegate);
     setSize(1024);
   }
 
@@ -46,6 +50,16 @@ public class LruCache implements Cache {
     return delegate.getSize();
   }
 
+  @Override
+  public long getWeight() {
+    return delegate.getWeight();
+  }
+
+  @Override
+  public CacheMetrics getMetrics() {
+    return delegate.getMetrics();
+  }
+
   public void setSize(final int size) {
     keyMap = new LinkedHashMap<Object, Object>(size, .75F, true) {
       private static final long serialVersionUID = 4267176411845948333L;
@@ -73,6 +87,11 @@ public class LruCache implements Cache {
     return delegate.getObject(key);
   }
 
+  @Override
+  public boolean containsKey(Object key) {
+    return delegate.containsKey(key);
+  }
+
   @Override
   public Object removeObject(Object key) {
     return delegate.removeObject(key);
@@ -88,6 +107,7 @@ public class LruCache implements Cache {
     keyMap.put(key, key);
     if (eldestKey != null) {
       delegate.removeObject(eldestKey);
+      metrics.recordEviction();
       eldestKey = null;
     }
   }
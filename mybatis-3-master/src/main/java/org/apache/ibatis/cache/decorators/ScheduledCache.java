@@ -15,28 +15,91 @@
  */
 package org.apache.ibatis.cache.decorators;
 
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheMetrics;
+import org.apache.ibatis.cache.CacheRevalidation;
+import org.apache.ibatis.cache.impl.DefaultCacheMetrics;
 
 /**
- * 执行时判断是否到了时间然后进行判断是否要清除所有缓存。
+ * 每个缓存项单独过期，不再到时间就清空整个缓存。
+ * <p>
+ * Each entry expires {@code clearInterval} milliseconds after it was put, shortened by a random jitter (10% of the
+ * interval by default) so the entries loaded together do not expire together.
+ * <p>
+ * With a {@code staleWhileRevalidate} window, an expired entry is still served during the window and the first reader
+ * asks its executor (see {@link CacheRevalidation}) to re-execute the statement in the background; the entry is
+ * replaced when the refresh commits. Entries older than the window are removed.
+ * <p>
+ * The expired entries nobody reads again are removed at most once per interval, so {@link #getSize()} may still count
+ * them until then. The expiration times of the entries evicted by the delegate are dropped once there are twice as
+ * many of them as entries in the delegate.
+ *
  * @author Clinton Begin
  */
 public class ScheduledCache implements Cache {
 
+  private static final int MIN_PRUNE_THRESHOLD = 64;
+
   private final Cache delegate;
+  private final DefaultCacheMetrics metrics;
+  private final Map<Object, Long> expirations;
+  private final Set<Object> refreshing;
   protected long clearInterval;
   protected long lastClear;
+  private double jitter;
+  private long staleWhileRevalidate;
+  private volatile long nextSweep;
+  private volatile int pruneThreshold = MIN_PRUNE_THRESHOLD;
 
   public ScheduledCache(Cache delegate) {
     this.delegate = delegate;
+    this.metrics = DefaultCacheMetrics.of(delegate);
+    this.expirations = new ConcurrentHashMap<>();
+    this.refreshing = ConcurrentHashMap.newKeySet();
     this.clearInterval = TimeUnit.HOURS.toMillis(1);
     this.lastClear = System.currentTimeMillis();
+    this.jitter = 0.1;
+    this.nextSweep = lastClear + clearInterval;
   }
 
   public void setClearInterval(long clearInterval) {
     this.clearInterval = clearInterval;
+    this.nextSweep = System.currentTimeMillis() + clearInterval;
+  }
+
+  /**
+   * Sets the part of the interval randomly cut off the lifetime of each entry.
+   *
+   * @param jitter
+   *          between 0 (every entry lives exactly the interval) and 1 (excluded)
+   * @since 3.5.8
+   */
+  public void setJitter(double jitter) {
+    if (jitter < 0.0 || jitter >= 1.0) {
+      throw new IllegalArgumentException("Jitter must be between 0 and 1 but was " + jitter);
+    }
+    this.jitter = jitter;
+  }
+
+  /**
+   * Sets how long an expired entry is still served while it is refreshed.
+   *
+   * @param staleWhileRevalidate
+   *          the window in milliseconds, 0 (the default) to never serve an expired entry
+   * @since 3.5.8
+   */
+  public void setStaleWhileRevalidate(long staleWhileRevalidate) {
+    if (staleWhileRevalidate < 0) {
+      throw new IllegalArgumentException("staleWhileRevalidate must not be negative but was " + staleWhileRevalidate);
+    }
+    this.staleWhileRevalidate = staleWhileRevalidate;
   }
 
   @Override
@@ -46,24 +109,71 @@ public class ScheduledCache implements Cache {
 
   @Override
   public int getSize() {
-    clearWhenStale();
+    long now = System.currentTimeMillis();
+    if (now >= nextSweep) {
+      removeExpiredEntries(now);
+    }
     return delegate.getSize();
   }
 
+  @Override
+  public long getWeight() {
+    return delegate.getWeight();
+  }
+
+  @Override
+  public CacheMetrics getMetrics() {
+    return delegate.getMetrics();
+  }
+
   @Override
   public void putObject(Object key, Object object) {
-    clearWhenStale();
+    long now = System.currentTimeMillis();
+    if (now >= nextSweep) {
+      removeExpiredEntries(now);
+    }
     delegate.putObject(key, object);
+    expirations.put(key, now + timeToLive());
+    refreshing.remove(key);
+    if (expirations.size() > pruneThreshold) {
+      removeEvictedEntries();
+    }
   }
 
   @Override
   public Object getObject(Object key) {
-    return clearWhenStale() ? null : delegate.getObject(key);
+    Long expiration = expirations.get(key);
+    if (expiration == null) {
+      return delegate.getObject(key);
+    }
+    long now = System.currentTimeMillis();
+    if (now <= expiration) {
+      return delegate.getObject(key);
+    }
+    if (now <= expiration + staleWhileRevalidate) {
+      if (CacheRevalidation.isRevalidating()) {
+        // the refresh must query the database
+        return null;
+      }
+      Object value = delegate.getObject(key);
+      if (value != null && refreshing.add(key)) {
+        CacheRevalidation.requestRefresh(key);
+      }
+      return value;
+    }
+    expire(key, expiration);
+    return null;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return delegate.containsKey(key);
   }
 
   @Override
   public Object removeObject(Object key) {
-    clearWhenStale();
+    expirations.remove(key);
+    refreshing.remove(key);
     return delegate.removeObject(key);
   }
 
@@ -71,6 +181,9 @@ public class ScheduledCache implements Cache {
   public void clear() {
     lastClear = System.currentTimeMillis();
     delegate.clear();
+    expirations.clear();
+    refreshing.clear();
+    pruneThreshold = MIN_PRUNE_THRESHOLD;
   }
 
   @Override
@@ -83,12 +196,42 @@ public class ScheduledCache implements Cache {
     return delegate.equals(obj);
   }
 
-  private boolean clearWhenStale() {
-    if (System.currentTimeMillis() - lastClear > clearInterval) {
-      clear();
-      return true;
+  private long timeToLive() {
+    if (jitter == 0.0) {
+      return clearInterval;
+    }
+    return clearInterval - (long) (clearInterval * jitter * ThreadLocalRandom.current().nextDouble());
+  }
+
+  /*过期后没人读的缓存项在这里清理，每个 clearInterval 最多扫描一次*/
+  private void removeExpiredEntries(long now) {
+    nextSweep = now + clearInterval;
+    Iterator<Map.Entry<Object, Long>> entries = expirations.entrySet().iterator();
+    while (entries.hasNext()) {
+      Map.Entry<Object, Long> entry = entries.next();
+      if (now > entry.getValue() + staleWhileRevalidate) {
+        expire(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  /*淘汰策略删掉的缓存项不会通知这里，过期时间比缓存项多一倍的时候清理一次*/
+  private void removeEvictedEntries() {
+    expirations.forEach((key, expiration) -> {
+      if (!delegate.containsKey(key) && expirations.remove(key, expiration)) {
+        refreshing.remove(key);
+      }
+    });
+    /*委托不知道自己有哪些缓存项的时候，阈值翻倍避免每次 put 都扫描*/
+    pruneThreshold = Math.max(MIN_PRUNE_THRESHOLD, 2 * Math.max(expirations.size(), delegate.getSize()));
+  }
+
+  private void expire(Object key, Long expiration) {
+    if (expirations.remove(key, expiration)) {
+      refreshing.remove(key);
+      delegate.removeObject(key);
+      metrics.recordEviction();
     }
-    return false;
   }
 
 }
@@ -21,6 +21,8 @@ import java.util.Deque;
 import java.util.LinkedList;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheMetrics;
+import org.apache.ibatis.cache.impl.DefaultCacheMetrics;
 
 /**
  * Soft Reference cache decorator
@@ -32,10 +34,12 @@ public class SoftCache implements Cache {
   private final Deque<Object> hardLinksToAvoidGarbageCollection;
   private final ReferenceQueue<Object> queueOfGarbageCollectedEntries;
   private final Cache delegate;
+  private final DefaultCacheMetrics metrics;
   private int numberOfHardLinks;
 
   public SoftCache(Cache delegate) {
     this.delegate = delegate;
+    this.metrics = DefaultCacheMetrics.of(delegate);
     this.numberOfHardLinks = 256;
     this.hardLinksToAvoidGarbageCollection = new LinkedList<>();
     this.queueOfGarbageCollectedEntries = new ReferenceQueue<>();
@@ -52,6 +56,11 @@ public class SoftCache implements Cache {
     return delegate.getSize();
   }
 
+  @Override
+  public CacheMetrics getMetrics() {
+    return delegate.getMetrics();
+  }
+
   public void setSize(int size) {
     this.numberOfHardLinks = size;
   }
@@ -71,6 +80,7 @@ public class SoftCache implements Cache {
       result = softReference.get();
       if (result == null) {
         delegate.removeObject(key);
+        metrics.recordEviction();
       } else {
         // See #586 (and #335) modifications need more than a read lock
         synchronized (hardLinksToAvoidGarbageCollection) {
@@ -84,6 +94,11 @@ public class SoftCache implements Cache {
     return result;
   }
 
+  @Override
+  public boolean containsKey(Object key) {
+    return delegate.containsKey(key);
+  }
+
   @Override
   public Object removeObject(Object key) {
     removeGarbageCollectedItems();
@@ -102,7 +117,9 @@ public class SoftCache implements Cache {
   private void removeGarbageCollectedItems() {
     SoftEntry sv;
     while ((sv = (SoftEntry) queueOfGarbageCollectedEntries.poll()) != null) {
-      delegate.removeObject(sv.key);
+      if (delegate.removeObject(sv.key) != null) {
+        metrics.recordEviction();
+      }
     }
   }
 
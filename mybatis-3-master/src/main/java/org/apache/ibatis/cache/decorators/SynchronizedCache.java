@@ -16,6 +16,7 @@
 package org.apache.ibatis.cache.decorators;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheMetrics;
 
 /**
  * @author Clinton Begin
@@ -38,6 +39,16 @@ public class SynchronizedCache implements Cache {
     return delegate.getSize();
   }
 
+  @Override
+  public synchronized long getWeight() {
+    return delegate.getWeight();
+  }
+
+  @Override
+  public synchronized CacheMetrics getMetrics() {
+    return delegate.getMetrics();
+  }
+
   @Override
   public synchronized void putObject(Object key, Object object) {
     delegate.putObject(key, object);
@@ -48,6 +59,11 @@ public class SynchronizedCache implements Cache {
     return delegate.getObject(key);
   }
 
+  @Override
+  public synchronized boolean containsKey(Object key) {
+    return delegate.containsKey(key);
+  }
+
   @Override
   public synchronized Object removeObject(Object key) {
     return delegate.removeObject(key);
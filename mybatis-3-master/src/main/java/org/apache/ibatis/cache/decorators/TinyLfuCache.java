@@ -0,0 +1,347 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheMetrics;
+import org.apache.ibatis.cache.impl.DefaultCacheMetrics;
+import org.apache.ibatis.cache.ConcurrentCache;
+
+/**
+ * W-TinyLFU cache decorator that is safe for concurrent use.
+ * <p>
+ * New entries enter a small LRU admission window (1% of the capacity). Entries leaving the window compete with the
+ * eviction victim of the main segmented LRU (probation + protected) and the one with the higher estimated access
+ * frequency survives.
+ * <p>
+ * The values are stored in the delegate, this decorator only keeps the access metadata of the keys in a
+ * {@link ConcurrentHashMap}. Reads record the access in the frequency sketch and set a reference bit on the entry
+ * without locking when the delegate is a {@link ConcurrentCache}, under a shared read lock otherwise. Writes, the
+ * policy maintenance and the evictions from the delegate run under the write lock, the reference bits are used as a
+ * CLOCK approximation of the access order when a victim is chosen.
+ */
+public class TinyLfuCache implements ConcurrentCache {
+
+  private static final int WINDOW = 0;
+  private static final int PROBATION = 1;
+  private static final int PROTECTED = 2;
+
+  private final Cache delegate;
+  private final DefaultCacheMetrics metrics;
+  private final ConcurrentHashMap<Object, Node> data;
+  private final Lock evictionLock;
+  /*委托本身不是线程安全的时候，读也要加锁（共享锁）*/
+  private final Lock readLock;
+  private final Node window;
+  private final Node probation;
+  private final Node protectedQueue;
+  private volatile FrequencySketch sketch;
+  private int maximumSize;
+  private int windowMaximum;
+  private int protectedMaximum;
+  private int windowSize;
+  private int protectedSize;
+
+  public TinyLfuCache(Cache delegate) {
+    this.delegate = delegate;
+    this.metrics = DefaultCacheMetrics.of(delegate);
+    this.data = new ConcurrentHashMap<>();
+    ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    this.evictionLock = lock.writeLock();
+    this.readLock = delegate instanceof ConcurrentCache ? null : lock.readLock();
+    this.window = Node.sentinel();
+    this.probation = Node.sentinel();
+    this.protectedQueue = Node.sentinel();
+    setSize(1024);
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    if (readLock == null) {
+      return delegate.getSize();
+    }
+    readLock.lock();
+    try {
+      return delegate.getSize();
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  @Override
+  public CacheMetrics getMetrics() {
+    return delegate.getMetrics();
+  }
+
+  public void setSize(final int size) {
+    if (size < 1) {
+      throw new IllegalArgumentException("Cache size must be positive but was " + size);
+    }
+    evictionLock.lock();
+    try {
+      this.maximumSize = size;
+      this.windowMaximum = Math.max(1, size / 100);
+      this.protectedMaximum = (int) ((size - windowMaximum) * 0.8);
+      this.sketch = new FrequencySketch(size);
+      evictEntries();
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    if (value == null) {
+      removeObject(key);
+      return;
+    }
+    sketch.increment(key);
+    evictionLock.lock();
+    try {
+      delegate.putObject(key, value);
+      Node node = data.get(key);
+      if (node != null) {
+        node.referenced = true;
+        return;
+      }
+      node = new Node(key);
+      data.put(key, node);
+      node.queue = WINDOW;
+      window.linkFirst(node);
+      windowSize++;
+      evictEntries();
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    sketch.increment(key);
+    Node node = data.get(key);
+    if (node != null && !node.referenced) {
+      node.referenced = true;
+    }
+    if (readLock == null) {
+      return delegate.getObject(key);
+    }
+    readLock.lock();
+    try {
+      return delegate.getObject(key);
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    if (readLock == null) {
+      return delegate.containsKey(key);
+    }
+    readLock.lock();
+    try {
+      return delegate.containsKey(key);
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    evictionLock.lock();
+    try {
+      Node node = data.remove(key);
+      if (node != null) {
+        unlink(node);
+      }
+      return delegate.removeObject(key);
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  @Override
+  public void clear() {
+    evictionLock.lock();
+    try {
+      delegate.clear();
+      data.clear();
+      window.clearLinks();
+      probation.clearLinks();
+      protectedQueue.clearLinks();
+      windowSize = 0;
+      protectedSize = 0;
+      sketch.clear();
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  @Override
+  public int hashCode() {
+    return delegate.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return delegate.equals(obj);
+  }
+
+  private void evictEntries() {
+    while (windowSize > windowMaximum || data.size() > maximumSize) {
+      Node candidate = null;
+      if (windowSize > windowMaximum) {
+        candidate = window.last();
+        unlink(candidate);
+      }
+      if (data.size() <= maximumSize) {
+        admitToProbation(candidate);
+        continue;
+      }
+      Node victim = nextVictim();
+      if (candidate == null) {
+        evict(victim != null ? victim : window.last());
+      } else if (victim == null) {
+        admitToProbation(candidate);
+      } else if (sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+        evict(victim);
+        admitToProbation(candidate);
+      } else {
+        evict(candidate);
+      }
+    }
+  }
+
+  /**
+   * Sweeps the tail of the probation queue, promoting referenced entries to the protected queue, and returns the
+   * first unreferenced entry.
+   */
+  private Node nextVictim() {
+    Node victim = probation.last();
+    while (victim != null && victim.referenced) {
+      victim.referenced = false;
+      unlink(victim);
+      victim.queue = PROTECTED;
+      protectedQueue.linkFirst(victim);
+      protectedSize++;
+      demoteProtected();
+      victim = probation.last();
+    }
+    if (victim == null) {
+      Node demoted = protectedQueue.last();
+      if (demoted != null) {
+        demoted.referenced = false;
+        unlink(demoted);
+        admitToProbation(demoted);
+        victim = demoted;
+      }
+    }
+    return victim;
+  }
+
+  private void demoteProtected() {
+    while (protectedSize > protectedMaximum) {
+      Node node = protectedQueue.last();
+      unlink(node);
+      if (node.referenced) {
+        node.referenced = false;
+        protectedQueue.linkFirst(node);
+        protectedSize++;
+      } else {
+        admitToProbation(node);
+      }
+    }
+  }
+
+  private void admitToProbation(Node node) {
+    if (node != null) {
+      node.queue = PROBATION;
+      probation.linkFirst(node);
+    }
+  }
+
+  private void evict(Node node) {
+    unlink(node);
+    if (data.remove(node.key, node)) {
+      delegate.removeObject(node.key);
+      metrics.recordEviction();
+    }
+  }
+
+  private void unlink(Node node) {
+    if (node.prev == null) {
+      return;
+    }
+    if (node.queue == WINDOW) {
+      windowSize--;
+    } else if (node.queue == PROTECTED) {
+      protectedSize--;
+    }
+    node.unlink();
+  }
+
+  private static final class Node {
+    final Object key;
+    volatile boolean referenced;
+    int queue;
+    Node prev;
+    Node next;
+
+    Node(Object key) {
+      this.key = key;
+    }
+
+    static Node sentinel() {
+      Node sentinel = new Node(null);
+      sentinel.prev = sentinel;
+      sentinel.next = sentinel;
+      return sentinel;
+    }
+
+    void linkFirst(Node node) {
+      node.prev = this;
+      node.next = next;
+      next.prev = node;
+      next = node;
+    }
+
+    Node last() {
+      return prev == this ? null : prev;
+    }
+
+    void unlink() {
+      prev.next = next;
+      next.prev = prev;
+      prev = null;
+      next = null;
+    }
+
+    void clearLinks() {
+      prev = this;
+      next = this;
+    }
+  }
+
+}
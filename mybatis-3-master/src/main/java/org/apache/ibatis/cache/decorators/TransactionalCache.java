@@ -15,12 +15,19 @@
  */
 package org.apache.ibatis.cache.decorators;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheMetrics;
+import org.apache.ibatis.cache.tag.CacheInvalidation;
+import org.apache.ibatis.cache.tag.CacheTag;
+import org.apache.ibatis.cache.tag.CacheTagIndex;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
 
@@ -44,15 +51,32 @@ public class TransactionalCache implements Cache {
   private static final Log log = LogFactory.getLog(TransactionalCache.class);
 
   private final Cache delegate;
+  private final CacheTagIndex tagIndex;
   private boolean clearOnCommit;
   private final Map<Object, Object> entriesToAddOnCommit;
   private final Set<Object> entriesMissedInCache;
+  private final Map<Object, List<CacheTag>> tagsToAddOnCommit;
+  private final List<CacheInvalidation> invalidationsOnCommit;
 
   public TransactionalCache(Cache delegate) {
+    this(delegate, null);
+  }
+
+  /**
+   * @param delegate
+   *          the second level cache
+   * @param tagIndex
+   *          the tag index of the cache, null to clear the whole cache on every write
+   * @since 3.5.8
+   */
+  public TransactionalCache(Cache delegate, CacheTagIndex tagIndex) {
     this.delegate = delegate;
+    this.tagIndex = tagIndex;
     this.clearOnCommit = false;
     this.entriesToAddOnCommit = new HashMap<>();
     this.entriesMissedInCache = new HashSet<>();
+    this.tagsToAddOnCommit = new HashMap<>();
+    this.invalidationsOnCommit = new ArrayList<>();
   }
 
   @Override
@@ -65,6 +89,16 @@ public class TransactionalCache implements Cache {
     return delegate.getSize();
   }
 
+  @Override
+  public long getWeight() {
+    return delegate.getWeight();
+  }
+
+  @Override
+  public CacheMetrics getMetrics() {
+    return delegate.getMetrics();
+  }
+
   @Override
   public Object getObject(Object key) {
     // issue #116
@@ -75,6 +109,9 @@ public class TransactionalCache implements Cache {
     // issue #146
     if (clearOnCommit) {
       return null;
+    } else if (object != null && !invalidationsOnCommit.isEmpty() && tagIndex.isAffected(key, invalidationsOnCommit)) {
+      /*本会话改过的行，提交之前不能读缓存*/
+      return null;
     } else {
       return object;
     }
@@ -85,6 +122,51 @@ public class TransactionalCache implements Cache {
     entriesToAddOnCommit.put(key, object);
   }
 
+  /**
+   * Puts a result that will be invalidated by the writes touching the tagged tables and rows.
+   *
+   * @param key
+   *          the key
+   * @param object
+   *          the result
+   * @param tags
+   *          what the result depends on
+   * @since 3.5.8
+   */
+  public void putObject(Object key, Object object, List<CacheTag> tags) {
+    entriesToAddOnCommit.put(key, object);
+    tagsToAddOnCommit.put(key, tags);
+  }
+
+  /**
+   * Removes on commit the entries the write may have changed. Clears the whole cache instead when the cache has no tag
+   * index.
+   *
+   * @param invalidations
+   *          the rows touched by the write
+   * @since 3.5.8
+   */
+  public void invalidate(List<CacheInvalidation> invalidations) {
+    if (tagIndex == null) {
+      clear();
+      return;
+    }
+    invalidationsOnCommit.addAll(invalidations);
+    Iterator<Object> pending = entriesToAddOnCommit.keySet().iterator();
+    while (pending.hasNext()) {
+      Object key = pending.next();
+      if (CacheTagIndex.isAffected(tagsToAddOnCommit.get(key), invalidations)) {
+        pending.remove();
+        tagsToAddOnCommit.remove(key);
+      }
+    }
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return delegate.containsKey(key);
+  }
+
   @Override
   public Object removeObject(Object key) {
     return null;
@@ -94,11 +176,35 @@ public class TransactionalCache implements Cache {
   public void clear() {
     clearOnCommit = true;
     entriesToAddOnCommit.clear();
+    tagsToAddOnCommit.clear();
+    invalidationsOnCommit.clear();
+  }
+
+  /**
+   * @return true if the cache will be cleared on commit, the session may see data the others must not see yet
+   * @since 3.5.8
+   */
+  public boolean isClearOnCommit() {
+    return clearOnCommit;
+  }
+
+  /**
+   * @return true if the session wrote to the cache, it may see data the others must not see yet
+   * @since 3.5.8
+   */
+  public boolean isDirty() {
+    return clearOnCommit || !invalidationsOnCommit.isEmpty();
   }
 
   public void commit() {
     if (clearOnCommit) {
-      delegate.clear();
+      if (tagIndex != null) {
+        tagIndex.clear(delegate);
+      } else {
+        delegate.clear();
+      }
+    } else if (!invalidationsOnCommit.isEmpty()) {
+      tagIndex.invalidate(delegate, invalidationsOnCommit);
     }
     flushPendingEntries();
     reset();
@@ -113,11 +219,17 @@ public class TransactionalCache implements Cache {
     clearOnCommit = false;
     entriesToAddOnCommit.clear();
     entriesMissedInCache.clear();
+    tagsToAddOnCommit.clear();
+    invalidationsOnCommit.clear();
   }
 
   private void flushPendingEntries() {
     for (Map.Entry<Object, Object> entry : entriesToAddOnCommit.entrySet()) {
-      delegate.putObject(entry.getKey(), entry.getValue());
+      if (tagIndex != null) {
+        tagIndex.putObject(delegate, entry.getKey(), entry.getValue(), tagsToAddOnCommit.get(entry.getKey()));
+      } else {
+        delegate.putObject(entry.getKey(), entry.getValue());
+      }
     }
     for (Object entry : entriesMissedInCache) {
       if (!entriesToAddOnCommit.containsKey(entry)) {
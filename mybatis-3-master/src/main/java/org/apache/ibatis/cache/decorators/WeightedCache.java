@@ -0,0 +1,159 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheMetrics;
+import org.apache.ibatis.cache.impl.DefaultCacheMetrics;
+import org.apache.ibatis.cache.ObjectSizeEstimator;
+
+/**
+ * Lru cache decorator bounded by the estimated size of the cached values instead of their number.
+ * <p>
+ * The weight of an entry is estimated by {@link ObjectSizeEstimator} when it is put. When the cache is read-write the
+ * {@link SerializedCache} sits above this decorator, so the weight is the exact length of the serialized value.
+ * Values heavier than {@code maxBytes} on their own are not cached.
+ */
+public class WeightedCache implements Cache {
+
+  private final Cache delegate;
+  private final DefaultCacheMetrics metrics;
+  private final Map<Object, Long> weights;
+  private long maxBytes;
+  private int size;
+  private long weight;
+
+  public WeightedCache(Cache delegate) {
+    this.delegate = delegate;
+    this.metrics = DefaultCacheMetrics.of(delegate);
+    this.weights = new LinkedHashMap<>(16, .75F, true);
+    this.maxBytes = 64L * 1024 * 1024;
+    this.size = Integer.MAX_VALUE;
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  @Override
+  public long getWeight() {
+    return weight;
+  }
+
+  @Override
+  public CacheMetrics getMetrics() {
+    return delegate.getMetrics();
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  public void setMaxBytes(long maxBytes) {
+    if (maxBytes <= 0) {
+      throw new IllegalArgumentException("maxBytes must be positive but was " + maxBytes);
+    }
+    this.maxBytes = maxBytes;
+    evictEntries();
+  }
+
+  /**
+   * Optional bound on the number of entries, not bounded by default.
+   *
+   * @param size
+   *          the maximum number of entries
+   */
+  public void setSize(int size) {
+    this.size = size;
+    evictEntries();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    long entryWeight = ObjectSizeEstimator.estimate(key) + ObjectSizeEstimator.estimate(value);
+    Long previous = weights.remove(key);
+    if (previous != null) {
+      weight -= previous;
+    }
+    if (entryWeight > maxBytes) {
+      delegate.removeObject(key);
+      return;
+    }
+    delegate.putObject(key, value);
+    weights.put(key, entryWeight);
+    weight += entryWeight;
+    evictEntries();
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    weights.get(key); // touch
+    return delegate.getObject(key);
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return delegate.containsKey(key);
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    Long previous = weights.remove(key);
+    if (previous != null) {
+      weight -= previous;
+    }
+    return delegate.removeObject(key);
+  }
+
+  @Override
+  public void clear() {
+    delegate.clear();
+    weights.clear();
+    weight = 0L;
+  }
+
+  @Override
+  public int hashCode() {
+    return delegate.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return delegate.equals(obj);
+  }
+
+  private void evictEntries() {
+    Iterator<Map.Entry<Object, Long>> eldest = weights.entrySet().iterator();
+    while ((weight > maxBytes || weights.size() > size) && eldest.hasNext()) {
+      Map.Entry<Object, Long> entry = eldest.next();
+      eldest.remove();
+      weight -= entry.getValue();
+      delegate.removeObject(entry.getKey());
+      metrics.recordEviction();
+    }
+  }
+
+}
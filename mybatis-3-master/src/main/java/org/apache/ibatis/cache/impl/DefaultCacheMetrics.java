@@ -0,0 +1,168 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.impl;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheMetrics;
+import org.apache.ibatis.util.LatencyHistogram;
+
+/**
+ * Thread-safe recorder of the {@link CacheMetrics} of one cache.
+ * <p>
+ * The instance is held by the base cache and shared by the whole decorator chain: each decorator records what only it
+ * knows about (evictions, blocked waits...) with {@link #of(Cache)}.
+ *
+ * @since 3.5.8
+ */
+public class DefaultCacheMetrics implements CacheMetrics {
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder puts = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private final LongAdder clears = new LongAdder();
+  private final LongAdder blockedWaits = new LongAdder();
+  private final LatencyHistogram getLatency = new LatencyHistogram();
+  private final LatencyHistogram putLatency = new LatencyHistogram();
+  private volatile Cache cache;
+
+  public DefaultCacheMetrics(Cache cache) {
+    this.cache = cache;
+  }
+
+  /**
+   * Returns the metrics recorded by the given cache chain, or a new detached instance when the chain does not record
+   * any (e.g. custom caches).
+   *
+   * @param cache
+   *          the cache
+   * @return the metrics
+   */
+  public static DefaultCacheMetrics of(Cache cache) {
+    CacheMetrics metrics = cache.getMetrics();
+    if (metrics instanceof DefaultCacheMetrics) {
+      return (DefaultCacheMetrics) metrics;
+    }
+    return new DefaultCacheMetrics(cache);
+  }
+
+  /**
+   * Sets the cache the size and the weight are read from. The top of the decorator chain knows them better than the
+   * base cache, e.g. when an eviction decorator keeps the entries itself.
+   *
+   * @param cache
+   *          the cache
+   */
+  public void setCache(Cache cache) {
+    this.cache = cache;
+  }
+
+  public void recordHit(long nanos) {
+    hits.increment();
+    getLatency.record(nanos);
+  }
+
+  public void recordMiss(long nanos) {
+    misses.increment();
+    getLatency.record(nanos);
+  }
+
+  public void recordPut(long nanos) {
+    puts.increment();
+    putLatency.record(nanos);
+  }
+
+  public void recordEviction() {
+    evictions.increment();
+  }
+
+  public void recordEvictions(long count) {
+    evictions.add(count);
+  }
+
+  public void recordClear() {
+    clears.increment();
+  }
+
+  public void recordBlockedWait() {
+    blockedWaits.increment();
+  }
+
+  @Override
+  public String getId() {
+    return cache.getId();
+  }
+
+  @Override
+  public long getHits() {
+    return hits.sum();
+  }
+
+  @Override
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  @Override
+  public long getPuts() {
+    return puts.sum();
+  }
+
+  @Override
+  public long getEvictions() {
+    return evictions.sum();
+  }
+
+  @Override
+  public long getClears() {
+    return clears.sum();
+  }
+
+  @Override
+  public long getBlockedWaits() {
+    return blockedWaits.sum();
+  }
+
+  @Override
+  public LatencyHistogram getGetLatency() {
+    return getLatency;
+  }
+
+  @Override
+  public LatencyHistogram getPutLatency() {
+    return putLatency;
+  }
+
+  @Override
+  public int getSize() {
+    return cache.getSize();
+  }
+
+  @Override
+  public long getWeight() {
+    return cache.getWeight();
+  }
+
+  @Override
+  public String toString() {
+    return "CacheMetrics [" + getId() + "] hits=" + getHits() + ", misses=" + getMisses() + ", puts=" + getPuts()
+        + ", evictions=" + getEvictions() + ", clears=" + getClears() + ", blockedWaits=" + getBlockedWaits()
+        + ", size=" + getSize() + ", weight=" + getWeight() + ", get={" + getLatency + "}, put={" + putLatency + "}";
+  }
+
+}
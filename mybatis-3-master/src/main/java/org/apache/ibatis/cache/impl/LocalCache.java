@@ -0,0 +1,184 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.impl;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.ObjectSizeEstimator;
+import org.apache.ibatis.executor.ExecutionPlaceholder;
+
+/**
+ * Session (first level) cache that can be bounded by its number of entries and by the estimated size of its values.
+ * <p>
+ * Entries are never evicted on put: the executor calls {@link #evictEntries()} when no query is running, so the
+ * placeholders that detect circular references and the results pending deferred loads stay in the cache as long as
+ * they are needed. The least recently used entries are evicted first, and the entries of the companion cache (the
+ * output parameters of the same keys) are removed with them.
+ *
+ * @since 3.5.8
+ */
+public class LocalCache extends PerpetualCache {
+
+  private final Map<Object, Object> entries = new LinkedHashMap<>(16, .75F, true);
+  private final Map<Object, Long> weights = new HashMap<>();
+  private final Cache companion;
+  private int maxEntries;
+  private long maxBytes;
+  private long weight;
+  private long evictions;
+
+  public LocalCache(String id) {
+    this(id, null);
+  }
+
+  /**
+   * @param id
+   *          the id
+   * @param companion
+   *          cache whose entries are removed with the evicted entries of this cache, may be null
+   */
+  public LocalCache(String id, Cache companion) {
+    super(id);
+    this.companion = companion;
+  }
+
+  /**
+   * Sets the bounds, zero or less means unbounded. They apply from the next {@link #evictEntries()}.
+   *
+   * @param maxEntries
+   *          the maximum number of entries
+   * @param maxBytes
+   *          the maximum estimated size of the values
+   */
+  public void setLimits(int maxEntries, long maxBytes) {
+    this.maxEntries = maxEntries;
+    this.maxBytes = maxBytes;
+    if (maxBytes <= 0) {
+      weights.clear();
+      weight = 0L;
+    }
+  }
+
+  public int getMaxEntries() {
+    return maxEntries;
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * @return the number of entries evicted since this cache was created
+   */
+  public long getEvictions() {
+    return evictions;
+  }
+
+  @Override
+  public int getSize() {
+    return entries.size();
+  }
+
+  @Override
+  public long getWeight() {
+    return weight;
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    entries.put(key, value);
+    forgetWeight(key);
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    return entries.get(key);
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return entries.containsKey(key);
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    forgetWeight(key);
+    return entries.remove(key);
+  }
+
+  @Override
+  public void clear() {
+    entries.clear();
+    weights.clear();
+    weight = 0L;
+  }
+
+  /**
+   * @return a copy of the entries, the least recently used first
+   */
+  public Map<Object, Object> copyEntries() {
+    return new LinkedHashMap<>(entries);
+  }
+
+  /**
+   * Evicts the least recently used entries until the cache is within its bounds. Must not be called while a query
+   * of the session is running.
+   */
+  public void evictEntries() {
+    if (maxEntries <= 0 && maxBytes <= 0) {
+      return;
+    }
+    if (maxBytes > 0 && weights.size() < entries.size()) {
+      // values are measured once complete, nested results and lazy properties are set after the put
+      for (Map.Entry<Object, Object> entry : entries.entrySet()) {
+        if (!weights.containsKey(entry.getKey())) {
+          long entryWeight = ObjectSizeEstimator.estimate(entry.getKey()) + ObjectSizeEstimator.estimate(entry.getValue());
+          weights.put(entry.getKey(), entryWeight);
+          weight += entryWeight;
+        }
+      }
+    }
+    Iterator<Map.Entry<Object, Object>> eldest = entries.entrySet().iterator();
+    while (isOverLimits() && eldest.hasNext()) {
+      Map.Entry<Object, Object> entry = eldest.next();
+      if (entry.getValue() == ExecutionPlaceholder.EXECUTION_PLACEHOLDER) {
+        continue;
+      }
+      eldest.remove();
+      forgetWeight(entry.getKey());
+      if (companion != null) {
+        companion.removeObject(entry.getKey());
+      }
+      evictions++;
+    }
+  }
+
+  private boolean isOverLimits() {
+    return (maxEntries > 0 && entries.size() > maxEntries) || (maxBytes > 0 && weight > maxBytes);
+  }
+
+  private void forgetWeight(Object key) {
+    Long previous = weights.remove(key);
+    if (previous != null) {
+      weight -= previous;
+    }
+  }
+
+}
@@ -0,0 +1,590 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.impl;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.ibatis.builder.InitializingObject;
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheMetrics;
+import org.apache.ibatis.cache.ConcurrentCache;
+import org.apache.ibatis.cache.serializer.BinaryCacheSerializer;
+import org.apache.ibatis.cache.serializer.CacheSerializer;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.SystemMetaObject;
+
+/**
+ * Cache that keeps the serialized entries outside of the java heap.
+ * <p>
+ * Entries are appended to fixed size segments allocated as direct buffers or, when {@code file} is set, mapped from a
+ * file. Only an index from the key hash code to the entry position stays on the heap. When every segment is full the
+ * oldest one is recycled and the entries it holds are evicted. Removals are written as tombstones, so a cache backed
+ * by a file is reloaded with its previous content when it is initialized again, e.g. after a restart.
+ * <p>
+ * Keys and values are copied with a {@link CacheSerializer}, {@link BinaryCacheSerializer} by default. The classes read
+ * back from a file must be listed with {@code allowedClasses}, the serializer must support that property.
+ * <p>
+ * Lookups share a read lock, writes to the segments and the index take the write lock; values are serialized and
+ * deserialized outside of the lock. {@link #close()} releases the segments, the next use of the cache allocates or maps
+ * them again.
+ */
+public class OffHeapCache implements ConcurrentCache, InitializingObject, Closeable {
+
+  private static final int SEGMENT_HEADER = 16;
+  private static final int ENTRY_HEADER = 8;
+  private static final int SEGMENT_MAGIC = 0x4d424f48;
+  private static final int TOMBSTONE = -1;
+
+  private final String id;
+  private final Map<Integer, long[]> index = new HashMap<>();
+  private final DefaultCacheMetrics metrics = new DefaultCacheMetrics(this);
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private long capacity = 64L * 1024 * 1024;
+  private int segmentSize = 4 * 1024 * 1024;
+  private String file;
+  private CacheSerializer serializer = new BinaryCacheSerializer();
+  private String allowedClasses;
+  private volatile ByteBuffer[] segments;
+  private int activeSegment;
+  private long generation;
+  private int size;
+
+  public OffHeapCache(String id) {
+    this.id = id;
+  }
+
+  /**
+   * Sets the total number of bytes kept off-heap, 64 MiB by default.
+   *
+   * @param capacity
+   *          the capacity in bytes
+   */
+  public void setCapacity(long capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * Sets the size of a segment, which is also the largest entry that can be cached. 4 MiB by default.
+   *
+   * @param segmentSize
+   *          the segment size in bytes
+   */
+  public void setSegmentSize(int segmentSize) {
+    this.segmentSize = segmentSize;
+  }
+
+  /**
+   * Sets the file the segments are mapped from. Direct buffers are used when it is not set.
+   *
+   * @param file
+   *          the path of the file
+   */
+  public void setFile(String file) {
+    this.file = file;
+  }
+
+  /**
+   * Sets the {@link CacheSerializer} used to copy keys and values.
+   *
+   * @param serializer
+   *          the fully qualified class name of the serializer
+   */
+  public void setSerializer(String serializer) {
+    try {
+      this.serializer = (CacheSerializer) Resources.classForName(serializer).getConstructor().newInstance();
+    } catch (Exception e) {
+      throw new CacheException("Could not instantiate cache serializer (" + serializer + "). Cause: " + e, e);
+    }
+  }
+
+  /**
+   * Sets the classes the values and keys may be made of, in addition to the JDK value types and collections. It is
+   * applied to the serializer, and required to read the entries of a file.
+   *
+   * @param allowedClasses
+   *          comma separated class names and package patterns, see {@link ClassAllowList}
+   */
+  public void setAllowedClasses(String allowedClasses) {
+    this.allowedClasses = allowedClasses;
+  }
+
+  @Override
+  public void initialize() throws IOException {
+    lock.writeLock().lock();
+    try {
+      if (segments == null) {
+        allocate();
+      }
+    } catch (IOException | RuntimeException e) {
+      segments = null;
+      throw e;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void allocate() throws IOException {
+    if (file != null || allowedClasses != null) {
+      // a file may have been written by another process, only the allowed classes are read from it
+      MetaObject metaSerializer = SystemMetaObject.forObject(serializer);
+      if (!metaSerializer.hasSetter("allowedClasses")) {
+        throw new CacheException("The serializer of cache '" + id + "' can't restrict the classes it reads: "
+            + serializer.getClass().getName());
+      }
+      metaSerializer.setValue("allowedClasses", allowedClasses);
+    }
+    if (segmentSize <= SEGMENT_HEADER + ENTRY_HEADER) {
+      throw new CacheException("The segment size of cache '" + id + "' is too small: " + segmentSize);
+    }
+    int segmentCount = (int) Math.max(2, Math.min(Integer.MAX_VALUE, capacity / segmentSize));
+    segments = new ByteBuffer[segmentCount];
+    if (file == null) {
+      for (int i = 0; i < segmentCount; i++) {
+        segments[i] = ByteBuffer.allocateDirect(segmentSize);
+      }
+      resetSegments();
+    } else {
+      // the mappings stay valid once the channel is closed, they are released by close()
+      File mappedFile = new File(file);
+      boolean reload = mappedFile.length() == (long) segmentCount * segmentSize;
+      try (RandomAccessFile randomAccessFile = new RandomAccessFile(mappedFile, "rw")) {
+        randomAccessFile.setLength((long) segmentCount * segmentSize);
+        FileChannel channel = randomAccessFile.getChannel();
+        for (int i = 0; i < segmentCount; i++) {
+          segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, (long) i * segmentSize, segmentSize);
+        }
+      }
+      if (reload) {
+        try {
+          reload();
+        } catch (CacheException e) {
+          // unreadable entries, e.g. of classes that are not allowed
+          resetSegments();
+        }
+      } else {
+        resetSegments();
+      }
+    }
+  }
+
+  @Override
+  public String getId() {
+    return id;
+  }
+
+  @Override
+  public int getSize() {
+    lock.readLock().lock();
+    try {
+      return size;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public long getWeight() {
+    lock.readLock().lock();
+    try {
+      if (segments == null) {
+        return 0L;
+      }
+      long weight = 0L;
+      for (ByteBuffer segment : segments) {
+        if (segment.getLong(0) != 0L) {
+          weight += segment.getInt(8);
+        }
+      }
+      return weight;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public CacheMetrics getMetrics() {
+    return metrics;
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    byte[] keyBytes = serializer.serialize(key);
+    byte[] valueBytes = value == null ? null : serializer.serialize(value);
+    int length = ENTRY_HEADER + keyBytes.length + (valueBytes == null ? 0 : valueBytes.length);
+    if (valueBytes == null || length > segmentSize - SEGMENT_HEADER) {
+      removeObject(key);
+      return;
+    }
+    lockForWrite();
+    try {
+      long address = append(keyBytes, valueBytes);
+      int hash = key.hashCode();
+      int slot = findSlot(hash, key);
+      long[] addresses = index.get(hash);
+      if (slot >= 0) {
+        addresses[slot] = address;
+      } else {
+        index.put(hash, addresses == null ? new long[] { address } : append(addresses, address));
+        size++;
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    byte[] valueBytes;
+    lockForRead();
+    try {
+      valueBytes = readValue(key);
+    } finally {
+      lock.readLock().unlock();
+    }
+    return valueBytes == null ? null : serializer.deserialize(valueBytes);
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    lockForRead();
+    try {
+      return findSlot(key.hashCode(), key) >= 0;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    byte[] keyBytes = serializer.serialize(key);
+    byte[] valueBytes;
+    lockForWrite();
+    try {
+      valueBytes = readValue(key);
+      if (valueBytes == null) {
+        return null;
+      }
+      int hash = key.hashCode();
+      removeSlot(hash, findSlot(hash, key));
+      append(keyBytes, null);
+    } finally {
+      lock.writeLock().unlock();
+    }
+    return serializer.deserialize(valueBytes);
+  }
+
+  @Override
+  public void clear() {
+    lockForWrite();
+    try {
+      resetSegments();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Releases the segments: the mapped ones are written to the file and unmapped, the direct buffers are freed. The
+   * cache can be used again afterwards, it is then initialized again (and reloaded from its file).
+   */
+  @Override
+  public void close() {
+    lock.writeLock().lock();
+    try {
+      ByteBuffer[] released = segments;
+      if (released == null) {
+        return;
+      }
+      segments = null;
+      index.clear();
+      size = 0;
+      for (ByteBuffer segment : released) {
+        if (segment instanceof MappedByteBuffer) {
+          ((MappedByteBuffer) segment).force();
+        }
+        free(segment);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (getId() == null) {
+      throw new CacheException("Cache instances require an ID.");
+    }
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Cache)) {
+      return false;
+    }
+
+    Cache otherCache = (Cache) o;
+    return getId().equals(otherCache.getId());
+  }
+
+  @Override
+  public int hashCode() {
+    if (getId() == null) {
+      throw new CacheException("Cache instances require an ID.");
+    }
+    return getId().hashCode();
+  }
+
+  private void lockForRead() {
+    Lock readLock = lock.readLock();
+    readLock.lock();
+    while (segments == null) {
+      readLock.unlock();
+      lockForWrite();
+      // downgrade, so no close() can run in between
+      readLock.lock();
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void lockForWrite() {
+    lock.writeLock().lock();
+    if (segments == null) {
+      try {
+        allocate();
+      } catch (IOException | RuntimeException e) {
+        segments = null;
+        lock.writeLock().unlock();
+        throw new CacheException("Failed cache initialization for '" + id + "'. Cause: " + e, e);
+      }
+    }
+  }
+
+  private byte[] readValue(Object key) {
+    int hash = key.hashCode();
+    int slot = findSlot(hash, key);
+    if (slot < 0) {
+      return null;
+    }
+    ByteBuffer entry = entry(index.get(hash)[slot]);
+    int keyLength = entry.getInt();
+    byte[] valueBytes = new byte[entry.getInt()];
+    entry.position(entry.position() + keyLength);
+    entry.get(valueBytes);
+    return valueBytes;
+  }
+
+  /*
+   * 不等GC，直接释放直接内存和文件映射（Java 9+ 用 Unsafe.invokeCleaner，Java 8 用 DirectByteBuffer.cleaner()），
+   * 失败的话留给GC释放
+   */
+  private static void free(ByteBuffer buffer) {
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      try {
+        Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+        theUnsafe.setAccessible(true);
+        invokeCleaner.invoke(theUnsafe.get(null), buffer);
+      } catch (NoSuchMethodException e) {
+        Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+        cleanerMethod.setAccessible(true);
+        Object cleaner = cleanerMethod.invoke(buffer);
+        if (cleaner != null) {
+          cleaner.getClass().getMethod("clean").invoke(cleaner);
+        }
+      }
+    } catch (Exception e) {
+      // released by the garbage collector
+    }
+  }
+
+  private int findSlot(int hash, Object key) {
+    long[] addresses = index.get(hash);
+    if (addresses == null) {
+      return -1;
+    }
+    for (int i = 0; i < addresses.length; i++) {
+      if (key.equals(readKey(addresses[i]))) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private void removeSlot(int hash, int slot) {
+    long[] addresses = index.get(hash);
+    if (addresses.length == 1) {
+      index.remove(hash);
+    } else {
+      long[] remaining = new long[addresses.length - 1];
+      System.arraycopy(addresses, 0, remaining, 0, slot);
+      System.arraycopy(addresses, slot + 1, remaining, slot, remaining.length - slot);
+      index.put(hash, remaining);
+    }
+    size--;
+  }
+
+  private Object readKey(long address) {
+    ByteBuffer entry = entry(address);
+    byte[] keyBytes = new byte[entry.getInt()];
+    entry.getInt();
+    entry.get(keyBytes);
+    return serializer.deserialize(keyBytes);
+  }
+
+  private ByteBuffer entry(long address) {
+    ByteBuffer entry = segments[(int) (address >>> 32)].duplicate();
+    entry.position((int) address);
+    return entry;
+  }
+
+  private long append(byte[] keyBytes, byte[] valueBytes) {
+    int length = ENTRY_HEADER + keyBytes.length + (valueBytes == null ? 0 : valueBytes.length);
+    ByteBuffer segment = segments[activeSegment];
+    int position = segment.getInt(8);
+    if (position + length > segmentSize) {
+      activeSegment = (activeSegment + 1) % segments.length;
+      recycle(activeSegment);
+      segment = segments[activeSegment];
+      position = SEGMENT_HEADER;
+    }
+    ByteBuffer entry = segment.duplicate();
+    entry.position(position);
+    entry.putInt(keyBytes.length);
+    entry.putInt(valueBytes == null ? TOMBSTONE : valueBytes.length);
+    entry.put(keyBytes);
+    if (valueBytes != null) {
+      entry.put(valueBytes);
+    }
+    segment.putInt(8, position + length);
+    return ((long) activeSegment << 32) | position;
+  }
+
+  /**
+   * Evicts the entries of a segment and makes it the newest one.
+   */
+  private void recycle(int segmentIndex) {
+    Iterator<Map.Entry<Integer, long[]>> entries = index.entrySet().iterator();
+    int evicted = 0;
+    while (entries.hasNext()) {
+      Map.Entry<Integer, long[]> entry = entries.next();
+      long[] addresses = entry.getValue();
+      long[] remaining = Arrays.stream(addresses).filter(address -> (int) (address >>> 32) != segmentIndex).toArray();
+      evicted += addresses.length - remaining.length;
+      if (remaining.length == 0) {
+        entries.remove();
+      } else if (remaining.length != addresses.length) {
+        entry.setValue(remaining);
+      }
+    }
+    size -= evicted;
+    metrics.recordEvictions(evicted);
+    startSegment(segments[segmentIndex]);
+  }
+
+  private void startSegment(ByteBuffer segment) {
+    segment.putLong(0, ++generation);
+    segment.putInt(8, SEGMENT_HEADER);
+    segment.putInt(12, SEGMENT_MAGIC);
+  }
+
+  private void resetSegments() {
+    index.clear();
+    size = 0;
+    generation = 0L;
+    for (ByteBuffer segment : segments) {
+      segment.putLong(0, 0L);
+      segment.putInt(8, SEGMENT_HEADER);
+      segment.putInt(12, SEGMENT_MAGIC);
+    }
+    activeSegment = 0;
+    startSegment(segments[0]);
+  }
+
+  /**
+   * Rebuilds the index from the segments of a mapped file, replaying them from the oldest to the newest.
+   */
+  private void reload() {
+    List<Integer> order = new ArrayList<>();
+    for (int i = 0; i < segments.length; i++) {
+      ByteBuffer segment = segments[i];
+      int position = segment.getInt(8);
+      if (segment.getInt(12) != SEGMENT_MAGIC || position < SEGMENT_HEADER || position > segmentSize) {
+        resetSegments();
+        return;
+      }
+      if (segment.getLong(0) != 0L) {
+        order.add(i);
+      }
+    }
+    if (order.isEmpty()) {
+      resetSegments();
+      return;
+    }
+    order.sort((left, right) -> Long.compare(segments[left].getLong(0), segments[right].getLong(0)));
+    for (int segmentIndex : order) {
+      ByteBuffer segment = segments[segmentIndex];
+      int limit = segment.getInt(8);
+      int position = SEGMENT_HEADER;
+      while (position < limit) {
+        ByteBuffer entry = segment.duplicate();
+        entry.position(position);
+        int keyLength = entry.getInt();
+        int valueLength = entry.getInt();
+        long address = ((long) segmentIndex << 32) | position;
+        Object key = readKey(address);
+        int hash = key.hashCode();
+        int slot = findSlot(hash, key);
+        if (slot >= 0) {
+          removeSlot(hash, slot);
+        }
+        if (valueLength != TOMBSTONE) {
+          long[] addresses = index.get(hash);
+          index.put(hash, addresses == null ? new long[] { address } : append(addresses, address));
+          size++;
+        }
+        position += ENTRY_HEADER + keyLength + Math.max(valueLength, 0);
+      }
+      generation = Math.max(generation, segment.getLong(0));
+    }
+    activeSegment = order.get(order.size() - 1);
+  }
+
+  private static long[] append(long[] addresses, long address) {
+    long[] result = Arrays.copyOf(addresses, addresses.length + 1);
+    result[addresses.length] = address;
+    return result;
+  }
+
+}
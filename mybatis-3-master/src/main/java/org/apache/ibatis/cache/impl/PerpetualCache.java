@@ -20,6 +20,7 @@ import java.util.Map;
 
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheMetrics;
 
 /**
  * @author Clinton Begin
@@ -30,6 +31,9 @@ public class PerpetualCache implements Cache {
 
   private final Map<Object, Object> cache = new HashMap<>();
 
+  /*只有被装饰成二级缓存时才会创建，一级缓存不需要*/
+  private DefaultCacheMetrics metrics;
+
   public PerpetualCache(String id) {
     this.id = id;
   }
@@ -44,6 +48,14 @@ public class PerpetualCache implements Cache {
     return cache.size();
   }
 
+  @Override
+  public CacheMetrics getMetrics() {
+    if (metrics == null) {
+      metrics = new DefaultCacheMetrics(this);
+    }
+    return metrics;
+  }
+
   @Override
   public void putObject(Object key, Object value) {
     cache.put(key, value);
@@ -54,6 +66,11 @@ public class PerpetualCache implements Cache {
     return cache.get(key);
   }
 
+  @Override
+  public boolean containsKey(Object key) {
+    return cache.containsKey(key);
+  }
+
   @Override
   public Object removeObject(Object key) {
     return cache.remove(key);
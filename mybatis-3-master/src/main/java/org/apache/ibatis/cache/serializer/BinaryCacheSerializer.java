@@ -0,0 +1,964 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.serializer;
+
+import java.io.Externalizable;
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.OffsetTime;
+import java.time.Year;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.reflection.Reflector;
+import org.apache.ibatis.util.MapUtil;
+
+/**
+ * Compact binary serializer for the values MyBatis puts in the second level cache.
+ * <p>
+ * Result objects are written field by field in a fixed order without field names; class names, enum constants and
+ * repeated strings are written once per value and referred to by index afterwards. Maps, the common
+ * {@code java.util} collections, arrays and the JDBC and JSR-310 value types supported by the type handlers have their
+ * own encoding. Shared and circular references
+ * are preserved. Anything else (for example lazy loading proxies, or classes with custom serialization) falls back to
+ * Java serialization and must be {@link Serializable}.
+ * <p>
+ * When {@code compressionThreshold} is set, serialized values larger than that number of bytes are compressed.
+ */
+public class BinaryCacheSerializer implements CacheSerializer {
+
+  private static final int FLAG_COMPRESSED = 1;
+
+  private static final int NULL = 0;
+  private static final int REFERENCE = 1;
+  private static final int TRUE = 2;
+  private static final int FALSE = 3;
+  private static final int BYTE = 4;
+  private static final int SHORT = 5;
+  private static final int INTEGER = 6;
+  private static final int LONG = 7;
+  private static final int FLOAT = 8;
+  private static final int DOUBLE = 9;
+  private static final int CHARACTER = 10;
+  private static final int STRING = 11;
+  private static final int BIG_DECIMAL = 12;
+  private static final int BIG_INTEGER = 13;
+  private static final int BYTES = 14;
+  private static final int DATE = 15;
+  private static final int SQL_DATE = 16;
+  private static final int SQL_TIME = 17;
+  private static final int SQL_TIMESTAMP = 18;
+  private static final int LOCAL_DATE = 19;
+  private static final int LOCAL_TIME = 20;
+  private static final int LOCAL_DATE_TIME = 21;
+  private static final int INSTANT = 22;
+  private static final int OFFSET_DATE_TIME = 23;
+  private static final int OFFSET_TIME = 24;
+  private static final int ZONED_DATE_TIME = 25;
+  private static final int YEAR = 26;
+  private static final int YEAR_MONTH = 27;
+  private static final int DURATION = 28;
+  private static final int ENUM = 29;
+  private static final int COLLECTION = 30;
+  private static final int MAP = 31;
+  private static final int ARRAY = 32;
+  private static final int BEAN = 33;
+  private static final int JAVA = 34;
+  private static final int STRING_REFERENCE = 35;
+
+  private static final Map<Class<?>, Integer> VALUE_TYPES = new HashMap<>();
+  private static final List<Class<?>> COLLECTION_TYPES = Arrays.asList(ArrayList.class, LinkedList.class,
+      HashSet.class, LinkedHashSet.class, TreeSet.class, HashMap.class, LinkedHashMap.class, TreeMap.class);
+
+  static {
+    VALUE_TYPES.put(Boolean.class, TRUE);
+    VALUE_TYPES.put(Byte.class, BYTE);
+    VALUE_TYPES.put(Short.class, SHORT);
+    VALUE_TYPES.put(Integer.class, INTEGER);
+    VALUE_TYPES.put(Long.class, LONG);
+    VALUE_TYPES.put(Float.class, FLOAT);
+    VALUE_TYPES.put(Double.class, DOUBLE);
+    VALUE_TYPES.put(Character.class, CHARACTER);
+    VALUE_TYPES.put(String.class, STRING);
+    VALUE_TYPES.put(BigDecimal.class, BIG_DECIMAL);
+    VALUE_TYPES.put(BigInteger.class, BIG_INTEGER);
+    VALUE_TYPES.put(byte[].class, BYTES);
+    VALUE_TYPES.put(Date.class, DATE);
+    VALUE_TYPES.put(java.sql.Date.class, SQL_DATE);
+    VALUE_TYPES.put(java.sql.Time.class, SQL_TIME);
+    VALUE_TYPES.put(java.sql.Timestamp.class, SQL_TIMESTAMP);
+    VALUE_TYPES.put(LocalDate.class, LOCAL_DATE);
+    VALUE_TYPES.put(LocalTime.class, LOCAL_TIME);
+    VALUE_TYPES.put(LocalDateTime.class, LOCAL_DATE_TIME);
+    VALUE_TYPES.put(Instant.class, INSTANT);
+    VALUE_TYPES.put(OffsetDateTime.class, OFFSET_DATE_TIME);
+    VALUE_TYPES.put(OffsetTime.class, OFFSET_TIME);
+    VALUE_TYPES.put(ZonedDateTime.class, ZONED_DATE_TIME);
+    VALUE_TYPES.put(Year.class, YEAR);
+    VALUE_TYPES.put(YearMonth.class, YEAR_MONTH);
+    VALUE_TYPES.put(Duration.class, DURATION);
+  }
+
+  private final Map<Class<?>, BeanCodec> beanCodecs = new ConcurrentHashMap<>();
+  private final JavaCacheSerializer javaSerializer = new JavaCacheSerializer();
+  private int compressionThreshold = -1;
+  private ClassAllowList allowedClasses;
+
+  public int getCompressionThreshold() {
+    return compressionThreshold;
+  }
+
+  /**
+   * Sets the size in bytes above which serialized values are compressed, a negative value disables compression.
+   *
+   * @param compressionThreshold
+   *          the compression threshold
+   */
+  public void setCompressionThreshold(int compressionThreshold) {
+    this.compressionThreshold = compressionThreshold;
+  }
+
+  /**
+   * Restricts the classes a value may be made of when it is read, any class is read by default.
+   *
+   * @param allowedClasses
+   *          comma separated class names and package patterns, see {@link ClassAllowList}
+   * @since 3.5.8
+   */
+  public void setAllowedClasses(String allowedClasses) {
+    this.allowedClasses = new ClassAllowList(allowedClasses);
+    javaSerializer.setAllowedClasses(allowedClasses);
+  }
+
+  @Override
+  public byte[] serialize(Object value) {
+    Output out = new Output();
+    out.writeByte(0);
+    try {
+      new Writer(out).writeValue(value);
+    } catch (CacheException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new CacheException("Error serializing object.  Cause: " + e, e);
+    }
+    int length = out.size - 1;
+    if (compressionThreshold >= 0 && length > compressionThreshold) {
+      return compress(out.buffer, length);
+    }
+    return out.toByteArray();
+  }
+
+  @Override
+  public Object deserialize(byte[] bytes) {
+    Input in = new Input(bytes, 1);
+    if ((bytes[0] & FLAG_COMPRESSED) != 0) {
+      in = new Input(decompress(bytes), 0);
+    }
+    try {
+      return new Reader(in).readValue();
+    } catch (CacheException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new CacheException("Error deserializing object.  Cause: " + e, e);
+    }
+  }
+
+  private static byte[] compress(byte[] buffer, int length) {
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try {
+      deflater.setInput(buffer, 1, length);
+      deflater.finish();
+      Output out = new Output();
+      out.writeByte(FLAG_COMPRESSED);
+      out.writeVarInt(length);
+      byte[] chunk = new byte[8192];
+      while (!deflater.finished()) {
+        int count = deflater.deflate(chunk);
+        out.writeBytes(chunk, 0, count);
+      }
+      return out.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private static byte[] decompress(byte[] bytes) {
+    Input header = new Input(bytes, 1);
+    int length = header.readVarInt();
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(bytes, header.position, bytes.length - header.position);
+      byte[] result = new byte[length];
+      int offset = 0;
+      while (offset < length) {
+        int count = inflater.inflate(result, offset, length - offset);
+        if (count == 0 && (inflater.finished() || inflater.needsInput())) {
+          throw new CacheException("Error deserializing object.  Cause: truncated compressed value");
+        }
+        offset += count;
+      }
+      return result;
+    } catch (DataFormatException e) {
+      throw new CacheException("Error deserializing object.  Cause: " + e, e);
+    } finally {
+      inflater.end();
+    }
+  }
+
+  private BeanCodec beanCodec(Class<?> type) {
+    return MapUtil.computeIfAbsent(beanCodecs, type, BeanCodec::new);
+  }
+
+  private static boolean isJdkType(Class<?> type) {
+    String name = type.getName();
+    return name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("sun.")
+        || name.startsWith("jdk.");
+  }
+
+  private class Writer {
+
+    private final Output out;
+    private final Map<Object, Integer> references = new IdentityHashMap<>();
+    private final Map<Class<?>, Integer> classes = new HashMap<>();
+    private final Map<String, Integer> strings = new HashMap<>();
+
+    Writer(Output out) {
+      this.out = out;
+    }
+
+    void writeValue(Object value) throws Exception {
+      if (value == null) {
+        out.writeByte(NULL);
+        return;
+      }
+      Class<?> type = value.getClass();
+      Integer tag = VALUE_TYPES.get(type);
+      if (tag != null) {
+        writeValueType(tag, value);
+        return;
+      }
+      Integer reference = references.get(value);
+      if (reference != null) {
+        out.writeByte(REFERENCE);
+        out.writeVarInt(reference);
+        return;
+      }
+      references.put(value, references.size());
+      if (value instanceof Enum) {
+        out.writeByte(ENUM);
+        writeClass(((Enum<?>) value).getDeclaringClass());
+        out.writeString(((Enum<?>) value).name());
+        return;
+      }
+      if (COLLECTION_TYPES.contains(type) && !hasComparator(value)) {
+        if (value instanceof Map) {
+          writeMap(type, (Map<?, ?>) value);
+        } else {
+          writeCollection(type, (Collection<?>) value);
+        }
+      } else if (type.isArray()) {
+        writeArray(type.getComponentType(), value);
+      } else {
+        BeanCodec codec = beanCodec(type);
+        if (codec.fields != null) {
+          out.writeByte(BEAN);
+          writeClass(type);
+          codec.write(this, value);
+        } else {
+          out.writeByte(JAVA);
+          out.writeByteArray(javaSerializer.serialize(value));
+        }
+      }
+    }
+
+    private void writeValueType(int tag, Object value) {
+      switch (tag) {
+        case TRUE:
+          out.writeByte((Boolean) value ? TRUE : FALSE);
+          return;
+        case BYTE:
+          out.writeByte(tag);
+          out.writeByte((Byte) value);
+          return;
+        case SHORT:
+          out.writeByte(tag);
+          out.writeVarInt((Short) value);
+          return;
+        case INTEGER:
+          out.writeByte(tag);
+          out.writeVarInt((Integer) value);
+          return;
+        case LONG:
+          out.writeByte(tag);
+          out.writeVarLong((Long) value);
+          return;
+        case FLOAT:
+          out.writeByte(tag);
+          out.writeFixedInt(Float.floatToIntBits((Float) value));
+          return;
+        case DOUBLE:
+          out.writeByte(tag);
+          out.writeFixedLong(Double.doubleToLongBits((Double) value));
+          return;
+        case CHARACTER:
+          out.writeByte(tag);
+          out.writeVarInt((Character) value);
+          return;
+        case STRING:
+          Integer index = strings.get(value);
+          if (index != null) {
+            out.writeByte(STRING_REFERENCE);
+            out.writeVarInt(index);
+          } else {
+            strings.put((String) value, strings.size());
+            out.writeByte(tag);
+            out.writeString((String) value);
+          }
+          return;
+        case BIG_DECIMAL:
+          out.writeByte(tag);
+          out.writeVarInt(((BigDecimal) value).scale());
+          out.writeByteArray(((BigDecimal) value).unscaledValue().toByteArray());
+          return;
+        case BIG_INTEGER:
+          out.writeByte(tag);
+          out.writeByteArray(((BigInteger) value).toByteArray());
+          return;
+        case BYTES:
+          out.writeByte(tag);
+          out.writeByteArray((byte[]) value);
+          return;
+        case DATE:
+        case SQL_DATE:
+        case SQL_TIME:
+          out.writeByte(tag);
+          out.writeVarLong(((Date) value).getTime());
+          return;
+        case SQL_TIMESTAMP:
+          out.writeByte(tag);
+          out.writeVarLong(((Date) value).getTime());
+          out.writeVarInt(((java.sql.Timestamp) value).getNanos());
+          return;
+        case LOCAL_DATE:
+          out.writeByte(tag);
+          out.writeVarLong(((LocalDate) value).toEpochDay());
+          return;
+        case LOCAL_TIME:
+          out.writeByte(tag);
+          out.writeVarLong(((LocalTime) value).toNanoOfDay());
+          return;
+        case LOCAL_DATE_TIME:
+          out.writeByte(tag);
+          writeLocalDateTime((LocalDateTime) value);
+          return;
+        case INSTANT:
+          out.writeByte(tag);
+          out.writeVarLong(((Instant) value).getEpochSecond());
+          out.writeVarInt(((Instant) value).getNano());
+          return;
+        case OFFSET_DATE_TIME:
+          out.writeByte(tag);
+          writeLocalDateTime(((OffsetDateTime) value).toLocalDateTime());
+          out.writeVarInt(((OffsetDateTime) value).getOffset().getTotalSeconds());
+          return;
+        case OFFSET_TIME:
+          out.writeByte(tag);
+          out.writeVarLong(((OffsetTime) value).toLocalTime().toNanoOfDay());
+          out.writeVarInt(((OffsetTime) value).getOffset().getTotalSeconds());
+          return;
+        case ZONED_DATE_TIME:
+          out.writeByte(tag);
+          writeLocalDateTime(((ZonedDateTime) value).toLocalDateTime());
+          out.writeVarInt(((ZonedDateTime) value).getOffset().getTotalSeconds());
+          out.writeString(((ZonedDateTime) value).getZone().getId());
+          return;
+        case YEAR:
+          out.writeByte(tag);
+          out.writeVarInt(((Year) value).getValue());
+          return;
+        case YEAR_MONTH:
+          out.writeByte(tag);
+          out.writeVarInt(((YearMonth) value).getYear());
+          out.writeVarInt(((YearMonth) value).getMonthValue());
+          return;
+        case DURATION:
+          out.writeByte(tag);
+          out.writeVarLong(((Duration) value).getSeconds());
+          out.writeVarInt(((Duration) value).getNano());
+          return;
+        default:
+          throw new IllegalStateException("Unknown value tag " + tag);
+      }
+    }
+
+    private void writeLocalDateTime(LocalDateTime value) {
+      out.writeVarLong(value.toLocalDate().toEpochDay());
+      out.writeVarLong(value.toLocalTime().toNanoOfDay());
+    }
+
+    private void writeCollection(Class<?> type, Collection<?> collection) throws Exception {
+      out.writeByte(COLLECTION);
+      out.writeVarInt(COLLECTION_TYPES.indexOf(type));
+      out.writeVarInt(collection.size());
+      for (Object element : collection) {
+        writeValue(element);
+      }
+    }
+
+    private void writeMap(Class<?> type, Map<?, ?> map) throws Exception {
+      out.writeByte(MAP);
+      out.writeVarInt(COLLECTION_TYPES.indexOf(type));
+      out.writeVarInt(map.size());
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        writeValue(entry.getKey());
+        writeValue(entry.getValue());
+      }
+    }
+
+    private void writeArray(Class<?> componentType, Object array) throws Exception {
+      out.writeByte(ARRAY);
+      writeClass(componentType);
+      int length = Array.getLength(array);
+      out.writeVarInt(length);
+      if (componentType.isPrimitive()) {
+        for (int i = 0; i < length; i++) {
+          writePrimitive(componentType, Array.get(array, i));
+        }
+      } else {
+        for (Object element : (Object[]) array) {
+          writeValue(element);
+        }
+      }
+    }
+
+    void writePrimitive(Class<?> type, Object value) {
+      if (type == int.class) {
+        out.writeVarInt((Integer) value);
+      } else if (type == long.class) {
+        out.writeVarLong((Long) value);
+      } else if (type == boolean.class) {
+        out.writeByte((Boolean) value ? 1 : 0);
+      } else if (type == double.class) {
+        out.writeFixedLong(Double.doubleToLongBits((Double) value));
+      } else if (type == float.class) {
+        out.writeFixedInt(Float.floatToIntBits((Float) value));
+      } else if (type == short.class) {
+        out.writeVarInt((Short) value);
+      } else if (type == char.class) {
+        out.writeVarInt((Character) value);
+      } else {
+        out.writeByte((Byte) value);
+      }
+    }
+
+    private void writeClass(Class<?> type) {
+      Integer index = classes.get(type);
+      if (index != null) {
+        out.writeVarInt(index + 1);
+        return;
+      }
+      classes.put(type, classes.size());
+      out.writeVarInt(0);
+      out.writeString(type.getName());
+    }
+
+    private boolean hasComparator(Object value) {
+      Comparator<?> comparator = null;
+      if (value instanceof SortedMap) {
+        comparator = ((SortedMap<?, ?>) value).comparator();
+      } else if (value instanceof SortedSet) {
+        comparator = ((SortedSet<?>) value).comparator();
+      }
+      return comparator != null;
+    }
+  }
+
+  private class Reader {
+
+    private final Input in;
+    private final List<Object> references = new ArrayList<>();
+    private final List<Class<?>> classes = new ArrayList<>();
+    private final List<String> strings = new ArrayList<>();
+
+    Reader(Input in) {
+      this.in = in;
+    }
+
+    Object readValue() throws Exception {
+      int tag = in.readByte();
+      switch (tag) {
+        case NULL:
+          return null;
+        case REFERENCE:
+          return references.get(in.readVarInt());
+        case TRUE:
+          return Boolean.TRUE;
+        case FALSE:
+          return Boolean.FALSE;
+        case BYTE:
+          return (byte) in.readByte();
+        case SHORT:
+          return (short) in.readVarInt();
+        case INTEGER:
+          return in.readVarInt();
+        case LONG:
+          return in.readVarLong();
+        case FLOAT:
+          return Float.intBitsToFloat(in.readFixedInt());
+        case DOUBLE:
+          return Double.longBitsToDouble(in.readFixedLong());
+        case CHARACTER:
+          return (char) in.readVarInt();
+        case STRING:
+          String string = in.readString();
+          strings.add(string);
+          return string;
+        case STRING_REFERENCE:
+          return strings.get(in.readVarInt());
+        case BIG_DECIMAL:
+          int scale = in.readVarInt();
+          return new BigDecimal(new BigInteger(in.readByteArray()), scale);
+        case BIG_INTEGER:
+          return new BigInteger(in.readByteArray());
+        case BYTES:
+          return in.readByteArray();
+        case DATE:
+          return new Date(in.readVarLong());
+        case SQL_DATE:
+          return new java.sql.Date(in.readVarLong());
+        case SQL_TIME:
+          return new java.sql.Time(in.readVarLong());
+        case SQL_TIMESTAMP:
+          java.sql.Timestamp timestamp = new java.sql.Timestamp(in.readVarLong());
+          timestamp.setNanos(in.readVarInt());
+          return timestamp;
+        case LOCAL_DATE:
+          return LocalDate.ofEpochDay(in.readVarLong());
+        case LOCAL_TIME:
+          return LocalTime.ofNanoOfDay(in.readVarLong());
+        case LOCAL_DATE_TIME:
+          return readLocalDateTime();
+        case INSTANT:
+          return Instant.ofEpochSecond(in.readVarLong(), in.readVarInt());
+        case OFFSET_DATE_TIME:
+          return OffsetDateTime.of(readLocalDateTime(), ZoneOffset.ofTotalSeconds(in.readVarInt()));
+        case OFFSET_TIME:
+          return OffsetTime.of(LocalTime.ofNanoOfDay(in.readVarLong()), ZoneOffset.ofTotalSeconds(in.readVarInt()));
+        case ZONED_DATE_TIME:
+          LocalDateTime dateTime = readLocalDateTime();
+          ZoneOffset offset = ZoneOffset.ofTotalSeconds(in.readVarInt());
+          return ZonedDateTime.ofLocal(dateTime, ZoneId.of(in.readString()), offset);
+        case YEAR:
+          return Year.of(in.readVarInt());
+        case YEAR_MONTH:
+          int year = in.readVarInt();
+          return YearMonth.of(year, in.readVarInt());
+        case DURATION:
+          return Duration.ofSeconds(in.readVarLong(), in.readVarInt());
+        case ENUM:
+          return readEnum();
+        case COLLECTION:
+          return readCollection();
+        case MAP:
+          return readMap();
+        case ARRAY:
+          return readArray();
+        case BEAN:
+          Class<?> type = readClass();
+          return beanCodec(type).read(this, references);
+        case JAVA:
+          int slot = references.size();
+          references.add(null);
+          Object value = javaSerializer.deserialize(in.readByteArray());
+          references.set(slot, value);
+          return value;
+        default:
+          throw new CacheException("Error deserializing object.  Cause: unknown tag " + tag);
+      }
+    }
+
+    private LocalDateTime readLocalDateTime() {
+      LocalDate date = LocalDate.ofEpochDay(in.readVarLong());
+      return LocalDateTime.of(date, LocalTime.ofNanoOfDay(in.readVarLong()));
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private Object readEnum() throws ClassNotFoundException {
+      Class type = readClass();
+      Object value = Enum.valueOf(type, in.readString());
+      references.add(value);
+      return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object readCollection() throws Exception {
+      Class<?> type = COLLECTION_TYPES.get(in.readVarInt());
+      int size = in.readVarInt();
+      Collection<Object> collection = type == ArrayList.class ? new ArrayList<>(size)
+          : (Collection<Object>) type.getDeclaredConstructor().newInstance();
+      references.add(collection);
+      for (int i = 0; i < size; i++) {
+        collection.add(readValue());
+      }
+      return collection;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object readMap() throws Exception {
+      Class<?> type = COLLECTION_TYPES.get(in.readVarInt());
+      int size = in.readVarInt();
+      Map<Object, Object> map = (Map<Object, Object>) type.getDeclaredConstructor().newInstance();
+      references.add(map);
+      for (int i = 0; i < size; i++) {
+        Object key = readValue();
+        map.put(key, readValue());
+      }
+      return map;
+    }
+
+    private Object readArray() throws Exception {
+      Class<?> componentType = readClass();
+      int length = in.readVarInt();
+      Object array = Array.newInstance(componentType, length);
+      references.add(array);
+      if (componentType.isPrimitive()) {
+        for (int i = 0; i < length; i++) {
+          Array.set(array, i, readPrimitive(componentType));
+        }
+      } else {
+        Object[] elements = (Object[]) array;
+        for (int i = 0; i < length; i++) {
+          elements[i] = readValue();
+        }
+      }
+      return array;
+    }
+
+    Object readPrimitive(Class<?> type) {
+      if (type == int.class) {
+        return in.readVarInt();
+      } else if (type == long.class) {
+        return in.readVarLong();
+      } else if (type == boolean.class) {
+        return in.readByte() != 0;
+      } else if (type == double.class) {
+        return Double.longBitsToDouble(in.readFixedLong());
+      } else if (type == float.class) {
+        return Float.intBitsToFloat(in.readFixedInt());
+      } else if (type == short.class) {
+        return (short) in.readVarInt();
+      } else if (type == char.class) {
+        return (char) in.readVarInt();
+      } else {
+        return (byte) in.readByte();
+      }
+    }
+
+    private Class<?> readClass() throws ClassNotFoundException {
+      int index = in.readVarInt();
+      if (index > 0) {
+        return classes.get(index - 1);
+      }
+      Class<?> type = primitiveType(in.readString());
+      classes.add(type);
+      return type;
+    }
+
+    private Class<?> primitiveType(String name) throws ClassNotFoundException {
+      switch (name) {
+        case "int":
+          return int.class;
+        case "long":
+          return long.class;
+        case "boolean":
+          return boolean.class;
+        case "double":
+          return double.class;
+        case "float":
+          return float.class;
+        case "short":
+          return short.class;
+        case "char":
+          return char.class;
+        case "byte":
+          return byte.class;
+        default:
+          if (allowedClasses != null && !allowedClasses.isAllowed(name)) {
+            throw new CacheException("Error deserializing object.  Cause: " + name
+                + " is not in the allowed classes of the cache");
+          }
+          return Resources.classForName(name);
+      }
+    }
+  }
+
+  /**
+   * Field order encoding of a result object. {@code fields} is null when the class must use Java serialization.
+   */
+  private static class BeanCodec {
+
+    private final Constructor<?> constructor;
+    private final Field[] fields;
+
+    BeanCodec(Class<?> type) {
+      Constructor<?> defaultConstructor = null;
+      Field[] beanFields = null;
+      if (isCodable(type)) {
+        try {
+          defaultConstructor = type.getDeclaredConstructor();
+          defaultConstructor.setAccessible(true);
+          beanFields = collectFields(type);
+        } catch (Exception e) {
+          defaultConstructor = null;
+          beanFields = null;
+        }
+      }
+      if (beanFields == null && !Serializable.class.isAssignableFrom(type)) {
+        throw new CacheException("SharedCache failed to make a copy of a non-serializable object of type: " + type);
+      }
+      this.constructor = defaultConstructor;
+      this.fields = beanFields;
+    }
+
+    void write(Writer writer, Object bean) throws Exception {
+      for (Field field : fields) {
+        Class<?> type = field.getType();
+        if (type.isPrimitive()) {
+          writer.writePrimitive(type, field.get(bean));
+        } else {
+          writer.writeValue(field.get(bean));
+        }
+      }
+    }
+
+    Object read(Reader reader, List<Object> references) throws Exception {
+      Object bean = constructor.newInstance();
+      references.add(bean);
+      for (Field field : fields) {
+        Class<?> type = field.getType();
+        field.set(bean, type.isPrimitive() ? reader.readPrimitive(type) : reader.readValue());
+      }
+      return bean;
+    }
+
+    private static boolean isCodable(Class<?> type) {
+      if (isJdkType(type) || type.isInterface() || Modifier.isAbstract(type.getModifiers())
+          || type.getName().contains("$$") || Externalizable.class.isAssignableFrom(type)
+          || !Reflector.canControlMemberAccessible()) {
+        return false;
+      }
+      for (Class<?> current = type; current != null && !isJdkType(current); current = current.getSuperclass()) {
+        if (declares(current, "writeReplace") || declares(current, "readResolve") || declares(current, "writeObject")
+            || declares(current, "readObject", java.io.ObjectInputStream.class)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private static boolean declares(Class<?> type, String name, Class<?>... parameterTypes) {
+      for (Method method : type.getDeclaredMethods()) {
+        if (method.getName().equals(name)
+            && (parameterTypes.length == 0 || Arrays.equals(method.getParameterTypes(), parameterTypes))) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private static Field[] collectFields(Class<?> type) {
+      List<Field> fields = new ArrayList<>();
+      for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+        if (isJdkType(current)) {
+          if (current != Object.class) {
+            throw new IllegalArgumentException("Cannot encode subclass of " + current);
+          }
+          break;
+        }
+        Field[] declared = current.getDeclaredFields();
+        Arrays.sort(declared, Comparator.comparing(Field::getName));
+        for (Field field : declared) {
+          int modifiers = field.getModifiers();
+          if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) {
+            continue;
+          }
+          field.setAccessible(true);
+          fields.add(field);
+        }
+      }
+      return fields.toArray(new Field[0]);
+    }
+  }
+
+  private static class Output {
+
+    private byte[] buffer = new byte[256];
+    private int size;
+
+    void writeByte(int value) {
+      ensureCapacity(1);
+      buffer[size++] = (byte) value;
+    }
+
+    void writeBytes(byte[] bytes, int offset, int length) {
+      ensureCapacity(length);
+      System.arraycopy(bytes, offset, buffer, size, length);
+      size += length;
+    }
+
+    void writeByteArray(byte[] bytes) {
+      writeVarInt(bytes.length);
+      writeBytes(bytes, 0, bytes.length);
+    }
+
+    void writeString(String value) {
+      writeByteArray(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    void writeVarInt(int value) {
+      writeVarLong(value);
+    }
+
+    void writeVarLong(long value) {
+      long zigzag = (value << 1) ^ (value >> 63);
+      ensureCapacity(10);
+      while ((zigzag & ~0x7FL) != 0) {
+        buffer[size++] = (byte) ((zigzag & 0x7F) | 0x80);
+        zigzag >>>= 7;
+      }
+      buffer[size++] = (byte) zigzag;
+    }
+
+    void writeFixedInt(int value) {
+      ensureCapacity(4);
+      for (int shift = 24; shift >= 0; shift -= 8) {
+        buffer[size++] = (byte) (value >>> shift);
+      }
+    }
+
+    void writeFixedLong(long value) {
+      writeFixedInt((int) (value >>> 32));
+      writeFixedInt((int) value);
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(buffer, size);
+    }
+
+    private void ensureCapacity(int length) {
+      if (size + length > buffer.length) {
+        buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + length));
+      }
+    }
+  }
+
+  private static class Input {
+
+    private final byte[] buffer;
+    private int position;
+
+    Input(byte[] buffer, int position) {
+      this.buffer = buffer;
+      this.position = position;
+    }
+
+    int readByte() {
+      return buffer[position++];
+    }
+
+    byte[] readByteArray() {
+      int length = readVarInt();
+      byte[] bytes = Arrays.copyOfRange(buffer, position, position + length);
+      position += length;
+      return bytes;
+    }
+
+    String readString() {
+      int length = readVarInt();
+      String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+      position += length;
+      return value;
+    }
+
+    int readVarInt() {
+      return (int) readVarLong();
+    }
+
+    long readVarLong() {
+      long zigzag = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = buffer[position++];
+        zigzag |= (long) (b & 0x7F) << shift;
+        shift += 7;
+      } while ((b & 0x80) != 0);
+      return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+    int readFixedInt() {
+      int value = 0;
+      for (int i = 0; i < 4; i++) {
+        value = (value << 8) | (buffer[position++] & 0xFF);
+      }
+      return value;
+    }
+
+    long readFixedLong() {
+      long high = readFixedInt();
+      return (high << 32) | (readFixedInt() & 0xFFFFFFFFL);
+    }
+  }
+
+}
@@ -0,0 +1,40 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.serializer;
+
+/**
+ * SPI used by {@link org.apache.ibatis.cache.decorators.SerializedCache} to copy cached values.
+ * <p>
+ * Implementations must have a public no-arg constructor and be thread-safe. Properties of the {@code <cache>} element
+ * that match a setter of the serializer are applied to it.
+ */
+public interface CacheSerializer {
+
+  /**
+   * @param value
+   *          the value to store, never null
+   * @return the serialized form
+   */
+  byte[] serialize(Object value);
+
+  /**
+   * @param bytes
+   *          a value returned by {@link #serialize(Object)}
+   * @return a copy of the serialized value
+   */
+  Object deserialize(byte[] bytes);
+
+}
@@ -0,0 +1,99 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.serializer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The classes a {@link CacheSerializer} may load when it reads a value, e.g. from a file another process could have
+ * written. Patterns are class names, which also match their nested classes, or package names followed by {@code .*}
+ * which also match the sub packages.
+ * Primitives, boxed primitives, strings, numbers, dates, the JDK collections and the cache keys are always allowed.
+ *
+ * @since 3.5.8
+ */
+public final class ClassAllowList {
+
+  private static final List<String> DEFAULT_PATTERNS = Arrays.asList("java.lang.Object", "java.lang.Boolean",
+      "java.lang.Byte", "java.lang.Short", "java.lang.Integer", "java.lang.Long", "java.lang.Float", "java.lang.Double",
+      "java.lang.Character", "java.lang.String", "java.lang.Number", "java.lang.Enum", "java.math.*", "java.time.*",
+      "java.util.ArrayList", "java.util.LinkedList", "java.util.HashSet", "java.util.LinkedHashSet",
+      "java.util.TreeSet", "java.util.HashMap", "java.util.LinkedHashMap", "java.util.TreeMap", "java.util.Date",
+      "java.sql.Date", "java.sql.Time", "java.sql.Timestamp", "org.apache.ibatis.cache.CacheKey",
+      "org.apache.ibatis.cache.NullCacheKey");
+  private static final Set<String> PRIMITIVES = new HashSet<>(
+      Arrays.asList("int", "long", "boolean", "double", "float", "short", "char", "byte"));
+
+  private final Set<String> classes = new HashSet<>();
+  private final List<String> packages = new ArrayList<>();
+
+  /**
+   * @param patterns
+   *          comma separated class names and package patterns allowed in addition to the default ones, may be null
+   */
+  public ClassAllowList(String patterns) {
+    DEFAULT_PATTERNS.forEach(this::add);
+    if (patterns != null) {
+      for (String pattern : patterns.split(",")) {
+        if (!pattern.trim().isEmpty()) {
+          add(pattern.trim());
+        }
+      }
+    }
+  }
+
+  /**
+   * @param className
+   *          a class name as returned by {@link Class#getName()}
+   * @return true if the class may be loaded
+   */
+  public boolean isAllowed(String className) {
+    String name = className;
+    while (name.startsWith("[")) {
+      name = name.substring(1);
+    }
+    if (name.length() == 1 || PRIMITIVES.contains(name)) {
+      // primitive type or array of primitives
+      return true;
+    }
+    if (name.startsWith("L") && name.endsWith(";")) {
+      name = name.substring(1, name.length() - 1);
+    }
+    int nested = name.indexOf('$');
+    if (classes.contains(name) || nested > 0 && classes.contains(name.substring(0, nested))) {
+      return true;
+    }
+    for (String prefix : packages) {
+      if (name.startsWith(prefix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void add(String pattern) {
+    if (pattern.endsWith(".*")) {
+      packages.add(pattern.substring(0, pattern.length() - 1));
+    } else {
+      classes.add(pattern);
+    }
+  }
+
+}
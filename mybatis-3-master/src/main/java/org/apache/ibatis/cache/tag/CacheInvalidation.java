@@ -0,0 +1,96 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.tag;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Describes the rows a write touched: a table and, for the columns that are known, the values those rows had or have
+ * after the write.
+ * <p>
+ * A cached result tagged with a column the write does not know may depend on any of the touched rows, so it is
+ * invalidated whatever its value. A write without known columns invalidates everything cached for the table.
+ *
+ * @since 3.5.8
+ */
+public final class CacheInvalidation {
+
+  private final String table;
+  private final Map<String, Set<String>> keys;
+
+  private CacheInvalidation(String table, Map<String, Set<String>> keys) {
+    this.table = table;
+    this.keys = keys;
+  }
+
+  public static CacheInvalidation table(String table) {
+    return new CacheInvalidation(CacheTag.normalize(table), Collections.emptyMap());
+  }
+
+  public static CacheInvalidation rows(String table, Map<String, ? extends Iterable<?>> keys) {
+    Map<String, Set<String>> normalized = new HashMap<>();
+    for (Map.Entry<String, ? extends Iterable<?>> entry : keys.entrySet()) {
+      Set<String> values = new HashSet<>();
+      for (Object value : entry.getValue()) {
+        values.add(String.valueOf(value));
+      }
+      normalized.put(CacheTag.normalize(entry.getKey()), values);
+    }
+    return new CacheInvalidation(CacheTag.normalize(table), Collections.unmodifiableMap(normalized));
+  }
+
+  public String getTable() {
+    return table;
+  }
+
+  /**
+   * @param column
+   *          a column of the table
+   * @return the values of the touched rows, null when the write does not know them
+   */
+  public Set<String> getValues(String column) {
+    return keys.get(column);
+  }
+
+  /**
+   * @param tag
+   *          a tag of a cached result
+   * @return true if the result may have been changed by this write
+   */
+  public boolean affects(CacheTag tag) {
+    if (tag.isAll()) {
+      return true;
+    }
+    if (!table.equals(tag.getTable())) {
+      return false;
+    }
+    if (tag.getColumn() == null) {
+      return true;
+    }
+    Set<String> values = keys.get(tag.getColumn());
+    return values == null || values.contains(tag.getValue());
+  }
+
+  @Override
+  public String toString() {
+    return keys.isEmpty() ? table : table + keys;
+  }
+
+}
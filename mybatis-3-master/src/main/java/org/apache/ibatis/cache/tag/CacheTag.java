@@ -0,0 +1,96 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.tag;
+
+import java.util.Objects;
+
+/**
+ * Describes what a cached result depends on: a whole table, or the rows of a table whose key column has a value.
+ * <p>
+ * {@link #ALL} tags results whose tables could not be inferred, they are invalidated by any write.
+ *
+ * @since 3.5.8
+ */
+public final class CacheTag {
+
+  public static final CacheTag ALL = new CacheTag("*", null, null);
+
+  private final String table;
+  private final String column;
+  private final String value;
+
+  private CacheTag(String table, String column, String value) {
+    this.table = table;
+    this.column = column;
+    this.value = value;
+  }
+
+  public static CacheTag table(String table) {
+    return new CacheTag(normalize(table), null, null);
+  }
+
+  public static CacheTag row(String table, String column, Object value) {
+    return new CacheTag(normalize(table), normalize(column), String.valueOf(value));
+  }
+
+  static String normalize(String name) {
+    String trimmed = name.trim();
+    int dot = trimmed.lastIndexOf('.');
+    return (dot < 0 ? trimmed : trimmed.substring(dot + 1)).toLowerCase();
+  }
+
+  public String getTable() {
+    return table;
+  }
+
+  /**
+   * @return the key column, null when the result depends on the whole table
+   */
+  public String getColumn() {
+    return column;
+  }
+
+  public String getValue() {
+    return value;
+  }
+
+  public boolean isAll() {
+    return this == ALL;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof CacheTag)) {
+      return false;
+    }
+    CacheTag other = (CacheTag) o;
+    return table.equals(other.table) && Objects.equals(column, other.column) && Objects.equals(value, other.value);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(table, column, value);
+  }
+
+  @Override
+  public String toString() {
+    return column == null ? table : table + "[" + column + "=" + value + "]";
+  }
+
+}
@@ -0,0 +1,230 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.tag;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.ibatis.cache.Cache;
+
+/**
+ * Keeps the tags of the entries of one second level cache so a write removes only the entries it may have changed.
+ * <p>
+ * The cache is updated under the lock of the index, an entry can't be put between the lookup of the affected keys and
+ * their removal. Entries the cache drops on its own (eviction, expiry) stay indexed until the index grows past twice the
+ * cache size, then the keys the cache no longer holds (see {@link Cache#containsKey(Object)}) are removed from the
+ * index. A cache that cannot tell which keys it holds is cleared together with the index instead. A cache that already
+ * held entries when the index was created is cleared on the first write, those entries have no tags.
+ *
+ * @since 3.5.8
+ */
+public class CacheTagIndex {
+
+  private static final int MIN_ENTRIES = 4096;
+
+  private final Map<Object, List<CacheTag>> tagsByKey = new HashMap<>();
+  private final Map<String, TableKeys> tables = new HashMap<>();
+  private final Set<Object> untagged = new HashSet<>();
+  private boolean complete;
+
+  /**
+   * @param cache
+   *          the cache, its current entries are unknown to the index
+   */
+  public CacheTagIndex(Cache cache) {
+    this.complete = cache.getSize() == 0;
+  }
+
+  public synchronized void putObject(Cache cache, Object key, Object value, List<CacheTag> tags) {
+    unregister(key);
+    cache.putObject(key, value);
+    if (value == null) {
+      return;
+    }
+    register(key, tags == null || tags.isEmpty() ? Collections.singletonList(CacheTag.ALL) : tags);
+    if (tagsByKey.size() > Math.max(MIN_ENTRIES, cache.getSize() * 2L)) {
+      prune(cache);
+    }
+  }
+
+  /**
+   * Removes the entries the writes may have changed.
+   *
+   * @param cache
+   *          the cache
+   * @param invalidations
+   *          the writes
+   * @return the number of removed entries, -1 if the cache was cleared
+   */
+  public synchronized int invalidate(Cache cache, Collection<CacheInvalidation> invalidations) {
+    if (!complete) {
+      clear(cache);
+      return -1;
+    }
+    Set<Object> keys = new HashSet<>(untagged);
+    for (CacheInvalidation invalidation : invalidations) {
+      TableKeys tableKeys = tables.get(invalidation.getTable());
+      if (tableKeys != null) {
+        tableKeys.collect(invalidation, keys);
+      }
+    }
+    for (Object key : keys) {
+      unregister(key);
+      cache.removeObject(key);
+    }
+    return keys.size();
+  }
+
+  /**
+   * @param key
+   *          a key of the cache
+   * @param invalidations
+   *          writes that are not committed yet
+   * @return true if the entry may have been changed by the writes
+   */
+  public synchronized boolean isAffected(Object key, Collection<CacheInvalidation> invalidations) {
+    List<CacheTag> tags = tagsByKey.get(key);
+    return tags == null || isAffected(tags, invalidations);
+  }
+
+  public static boolean isAffected(List<CacheTag> tags, Collection<CacheInvalidation> invalidations) {
+    if (tags == null || tags.isEmpty()) {
+      return true;
+    }
+    for (CacheInvalidation invalidation : invalidations) {
+      for (CacheTag tag : tags) {
+        if (invalidation.affects(tag)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  public synchronized void clear(Cache cache) {
+    cache.clear();
+    tagsByKey.clear();
+    tables.clear();
+    untagged.clear();
+    complete = true;
+  }
+
+  public synchronized int size() {
+    return tagsByKey.size();
+  }
+
+  /*缓存淘汰、过期的条目不会通知索引，这里去掉缓存里已经没有的key。至少一半的key应该已经不在缓存里了，去不掉这么多说明缓存判断不了，只能清空*/
+  private void prune(Cache cache) {
+    int indexed = tagsByKey.size();
+    List<Object> gone = new ArrayList<>();
+    for (Object key : tagsByKey.keySet()) {
+      if (!cache.containsKey(key)) {
+        gone.add(key);
+      }
+    }
+    gone.forEach(this::unregister);
+    if (tagsByKey.size() * 2L > indexed) {
+      clear(cache);
+    }
+  }
+
+  private void register(Object key, List<CacheTag> tags) {
+    tagsByKey.put(key, tags);
+    for (CacheTag tag : tags) {
+      if (tag.isAll()) {
+        untagged.add(key);
+      } else {
+        tables.computeIfAbsent(tag.getTable(), k -> new TableKeys()).add(key, tag);
+      }
+    }
+  }
+
+  private void unregister(Object key) {
+    List<CacheTag> tags = tagsByKey.remove(key);
+    if (tags == null) {
+      return;
+    }
+    for (CacheTag tag : tags) {
+      if (tag.isAll()) {
+        untagged.remove(key);
+        continue;
+      }
+      TableKeys tableKeys = tables.get(tag.getTable());
+      if (tableKeys != null && tableKeys.remove(key, tag)) {
+        tables.remove(tag.getTable());
+      }
+    }
+  }
+
+  private static class TableKeys {
+    private final Set<Object> wide = new HashSet<>();
+    private final Map<String, Map<String, Set<Object>>> columns = new HashMap<>();
+
+    void add(Object key, CacheTag tag) {
+      if (tag.getColumn() == null) {
+        wide.add(key);
+      } else {
+        columns.computeIfAbsent(tag.getColumn(), k -> new HashMap<>())
+            .computeIfAbsent(tag.getValue(), k -> new HashSet<>()).add(key);
+      }
+    }
+
+    /**
+     * @return true if no key is left for the table
+     */
+    boolean remove(Object key, CacheTag tag) {
+      if (tag.getColumn() == null) {
+        wide.remove(key);
+      } else {
+        Map<String, Set<Object>> values = columns.get(tag.getColumn());
+        if (values != null) {
+          Set<Object> keys = values.get(tag.getValue());
+          if (keys != null && keys.remove(key) && keys.isEmpty()) {
+            values.remove(tag.getValue());
+            if (values.isEmpty()) {
+              columns.remove(tag.getColumn());
+            }
+          }
+        }
+      }
+      return wide.isEmpty() && columns.isEmpty();
+    }
+
+    void collect(CacheInvalidation invalidation, Set<Object> keys) {
+      keys.addAll(wide);
+      for (Map.Entry<String, Map<String, Set<Object>>> column : columns.entrySet()) {
+        Set<String> values = invalidation.getValues(column.getKey());
+        if (values == null) {
+          column.getValue().values().forEach(keys::addAll);
+        } else {
+          for (String value : values) {
+            Set<Object> valueKeys = column.getValue().get(value);
+            if (valueKeys != null) {
+              keys.addAll(valueKeys);
+            }
+          }
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,210 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.tag;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.tag.SqlTagParser.ParsedSql;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.ParameterMode;
+import org.apache.ibatis.mapping.StatementType;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.type.TypeHandlerRegistry;
+import org.apache.ibatis.util.MapUtil;
+
+/**
+ * Works out the tags of the results of a select and the rows touched by a write, and keeps the tag index of each
+ * second level cache of a configuration.
+ * <p>
+ * Statements may declare their tags with the {@code cacheTags} attribute, e.g. {@code "person(id), address"}. The key
+ * value of a declared column is taken from the matching predicate of the sql or else from the parameter property of
+ * the same name. Statements without declared tags get the tables and key column inferred from their sql.
+ *
+ * @since 3.5.8
+ */
+public class CacheTagResolver {
+
+  private static final int MAX_PARSED = 1024;
+
+  private final Configuration configuration;
+  private final Map<String, ParsedSql> parsed = new ConcurrentHashMap<>();
+  private final Map<String, CacheTagIndex> indexes = new ConcurrentHashMap<>();
+
+  public CacheTagResolver(Configuration configuration) {
+    this.configuration = configuration;
+  }
+
+  public CacheTagIndex getIndex(Cache cache) {
+    return MapUtil.computeIfAbsent(indexes, cache.getId(), k -> new CacheTagIndex(cache));
+  }
+
+  /**
+   * @param ms
+   *          a select
+   * @param boundSql
+   *          its sql
+   * @return the tags of the result, {@link CacheTag#ALL} when the tables are not known
+   */
+  public List<CacheTag> resolveTags(MappedStatement ms, BoundSql boundSql) {
+    ParsedSql sql = parse(ms, boundSql);
+    List<CacheTag> tags = new ArrayList<>();
+    if (ms.getCacheTags() != null) {
+      for (String declared : ms.getCacheTags()) {
+        String[] tableAndColumn = parseDeclaration(declared);
+        List<Object> values = tableAndColumn[1] == null ? null : keyValues(sql, tableAndColumn, boundSql);
+        if (values == null) {
+          tags.add(CacheTag.table(tableAndColumn[0]));
+        } else {
+          values.forEach(value -> tags.add(CacheTag.row(tableAndColumn[0], tableAndColumn[1], value)));
+        }
+      }
+      return tags;
+    }
+    if (sql.isUnknown() || sql.isWrite()) {
+      return Collections.singletonList(CacheTag.ALL);
+    }
+    if (sql.getKeys() != null) {
+      Map.Entry<String, List<Integer>> key = sql.getKeys().entrySet().iterator().next();
+      List<Object> values = parameterValues(key.getValue(), boundSql);
+      if (values != null) {
+        String table = sql.getTables().get(0);
+        values.forEach(value -> tags.add(CacheTag.row(table, key.getKey(), value)));
+        return tags;
+      }
+    }
+    sql.getTables().forEach(table -> tags.add(CacheTag.table(table)));
+    return tags;
+  }
+
+  /**
+   * @param ms
+   *          an insert, update or delete
+   * @param boundSql
+   *          its sql
+   * @return the rows touched by the statement, null when the tables are not known and the cache must be cleared
+   */
+  public List<CacheInvalidation> resolveInvalidations(MappedStatement ms, BoundSql boundSql) {
+    ParsedSql sql = parse(ms, boundSql);
+    List<CacheInvalidation> invalidations = new ArrayList<>();
+    if (ms.getCacheTags() != null) {
+      for (String declared : ms.getCacheTags()) {
+        String[] tableAndColumn = parseDeclaration(declared);
+        List<Object> values = tableAndColumn[1] == null ? null : keyValues(sql, tableAndColumn, boundSql);
+        invalidations.add(values == null ? CacheInvalidation.table(tableAndColumn[0])
+            : CacheInvalidation.rows(tableAndColumn[0], Collections.singletonMap(tableAndColumn[1], values)));
+      }
+      return invalidations;
+    }
+    if (sql.isUnknown() || !sql.isWrite()) {
+      return null;
+    }
+    String table = sql.getTables().get(0);
+    Map<String, List<Object>> keys = new HashMap<>();
+    for (Map.Entry<String, List<Integer>> key : sql.getKeys().entrySet()) {
+      List<Object> values = parameterValues(key.getValue(), boundSql);
+      if (values != null) {
+        keys.put(key.getKey(), values);
+      }
+    }
+    invalidations.add(CacheInvalidation.rows(table, keys));
+    return invalidations;
+  }
+
+  private ParsedSql parse(MappedStatement ms, BoundSql boundSql) {
+    if (ms.getStatementType() == StatementType.CALLABLE) {
+      return ParsedSql.UNKNOWN;
+    }
+    String sql = boundSql.getSql();
+    ParsedSql result = parsed.get(sql);
+    if (result == null) {
+      if (parsed.size() >= MAX_PARSED) {
+        parsed.clear();
+      }
+      result = SqlTagParser.parse(sql);
+      parsed.put(sql, result);
+    }
+    return result;
+  }
+
+  private static String[] parseDeclaration(String declared) {
+    String trimmed = declared.trim();
+    int open = trimmed.indexOf('(');
+    if (open < 0) {
+      return new String[] { trimmed, null };
+    }
+    int close = trimmed.indexOf(')', open);
+    return new String[] { trimmed.substring(0, open).trim(),
+        trimmed.substring(open + 1, close < 0 ? trimmed.length() : close).trim() };
+  }
+
+  private List<Object> keyValues(ParsedSql sql, String[] tableAndColumn, BoundSql boundSql) {
+    String table = CacheTag.normalize(tableAndColumn[0]);
+    String column = CacheTag.normalize(tableAndColumn[1]);
+    if (!sql.isUnknown() && sql.getKeys() != null && sql.getKeys().containsKey(column)
+        && CacheTag.normalize(sql.getTables().get(0)).equals(table) && sql.getTables().size() == 1) {
+      return parameterValues(sql.getKeys().get(column), boundSql);
+    }
+    Object value = propertyValue(tableAndColumn[1], boundSql);
+    return value == null ? null : Collections.singletonList(value);
+  }
+
+  /**
+   * @return the values of the parameters, null if one of them is not known
+   */
+  private List<Object> parameterValues(List<Integer> ordinals, BoundSql boundSql) {
+    List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
+    List<Object> values = new ArrayList<>(ordinals.size());
+    for (int ordinal : ordinals) {
+      if (ordinal >= parameterMappings.size()) {
+        return null;
+      }
+      ParameterMapping parameterMapping = parameterMappings.get(ordinal);
+      Object value = parameterMapping.getMode() == ParameterMode.OUT ? null
+          : propertyValue(parameterMapping.getProperty(), boundSql);
+      if (value == null) {
+        // e.g. a key generated by the database
+        return null;
+      }
+      values.add(value);
+    }
+    return values;
+  }
+
+  // mimic DefaultParameterHandler logic
+  private Object propertyValue(String propertyName, BoundSql boundSql) {
+    Object parameterObject = boundSql.getParameterObject();
+    TypeHandlerRegistry typeHandlerRegistry = configuration.getTypeHandlerRegistry();
+    if (boundSql.hasAdditionalParameter(propertyName)) {
+      return boundSql.getAdditionalParameter(propertyName);
+    } else if (parameterObject == null) {
+      return null;
+    } else if (typeHandlerRegistry.hasTypeHandler(parameterObject.getClass())) {
+      return parameterObject;
+    }
+    MetaObject metaObject = configuration.newMetaObject(parameterObject);
+    return metaObject.hasGetter(propertyName) ? metaObject.getValue(propertyName) : null;
+  }
+
+}
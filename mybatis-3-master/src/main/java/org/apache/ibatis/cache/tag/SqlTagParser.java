@@ -0,0 +1,488 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.tag;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the tables a statement reads or writes and the key column its rows are selected by.
+ * <p>
+ * This is not a sql parser: it tokenizes the statement and recognizes the common shapes only. A key column is found
+ * for single table statements whose where clause is a conjunction with a {@code column = ?} or
+ * {@code column in (?, ...)} predicate, and for the column list of an insert. Statements it does not understand are
+ * reported as unknown and the caller falls back to a coarser invalidation.
+ */
+final class SqlTagParser {
+
+  private static final Set<String> CLAUSE_END = new HashSet<>(Arrays.asList("group", "order", "having", "limit",
+      "offset", "fetch", "for", "union", "intersect", "except", "minus", "window", "returning"));
+  private static final Set<String> NOT_ALIAS = new HashSet<>(Arrays.asList("where", "join", "inner", "left",
+      "right", "full", "outer", "cross", "natural", "straight_join", "lateral", "on", "using", "set", "values",
+      "value", "select", "group", "order", "having", "limit", "offset", "fetch", "for", "union", "intersect",
+      "except", "minus", "window", "returning", "partition"));
+
+  private final List<String> tokens = new ArrayList<>();
+  private final List<Integer> params = new ArrayList<>();
+
+  private SqlTagParser(String sql) {
+    tokenize(sql);
+  }
+
+  /**
+   * @param sql
+   *          the sql sent to the database
+   * @return the parsed statement, {@link ParsedSql#UNKNOWN} when it is not understood
+   */
+  static ParsedSql parse(String sql) {
+    return new SqlTagParser(sql).parse();
+  }
+
+  private ParsedSql parse() {
+    while (!tokens.isEmpty() && ";".equals(tokens.get(tokens.size() - 1))) {
+      tokens.remove(tokens.size() - 1);
+    }
+    if (tokens.isEmpty() || tokens.contains(";")) {
+      return ParsedSql.UNKNOWN;
+    }
+    switch (tokens.get(0)) {
+      case "select":
+        return parseSelect();
+      case "insert":
+        return parseInsert();
+      case "update":
+        return parseUpdate();
+      case "delete":
+        return parseDelete();
+      default:
+        return ParsedSql.UNKNOWN;
+    }
+  }
+
+  private ParsedSql parseSelect() {
+    Set<String> tables = new LinkedHashSet<>();
+    boolean joined = false;
+    int selects = 0;
+    for (int i = 0; i < tokens.size(); i++) {
+      String token = tokens.get(i);
+      if ("select".equals(token)) {
+        selects++;
+      } else if ("from".equals(token)) {
+        readTables(i + 1, tables, true);
+        // tables listed after a join: from a join b on ..., c
+        int end = endOfClause(i + 1);
+        int where = indexOfTopLevel("where", i + 1, end);
+        for (int[] item : split(i + 1, where >= 0 ? where : end, ",")) {
+          readTables(item[0], tables, false);
+        }
+      } else if ("join".equals(token) || "straight_join".equals(token)) {
+        joined = true;
+        readTables(i + 1, tables, false);
+      } else if ("union".equals(token) || "intersect".equals(token) || "except".equals(token)) {
+        joined = true;
+      }
+    }
+    if (tables.isEmpty()) {
+      return ParsedSql.UNKNOWN;
+    }
+    Map<String, List<Integer>> keys = null;
+    if (tables.size() == 1 && selects == 1 && !joined) {
+      int where = indexOfTopLevel("where", 0);
+      if (where >= 0) {
+        keys = keyPredicate(where + 1);
+      }
+    }
+    return new ParsedSql(false, new ArrayList<>(tables), keys);
+  }
+
+  private ParsedSql parseUpdate() {
+    int i = skip(1, "low_priority", "ignore", "only");
+    if (!isName(i)) {
+      return ParsedSql.UNKNOWN;
+    }
+    String table = tokens.get(i);
+    i = skipAlias(i + 1);
+    if (!"set".equals(token(i))) {
+      return ParsedSql.UNKNOWN;
+    }
+    int where = indexOfTopLevel("where", i);
+    int end = where >= 0 ? where : endOfClause(i + 1);
+    Map<String, Integer> assignments = new HashMap<>();
+    for (int[] item : split(i + 1, end, ",")) {
+      if (item[1] - item[0] < 3 || !isName(item[0]) || !"=".equals(tokens.get(item[0] + 1))) {
+        return ParsedSql.UNKNOWN;
+      }
+      boolean single = item[1] - item[0] == 3;
+      assignments.put(CacheTag.normalize(tokens.get(item[0])), single ? params.get(item[0] + 2) : -1);
+    }
+    Map<String, List<Integer>> keys = where >= 0 ? keyPredicate(where + 1) : null;
+    if (keys == null) {
+      return new ParsedSql(true, Collections.singletonList(table), Collections.emptyMap());
+    }
+    for (Map.Entry<String, Integer> assignment : assignments.entrySet()) {
+      List<Integer> ordinals = keys.get(assignment.getKey());
+      if (ordinals == null) {
+        continue;
+      }
+      if (assignment.getValue() < 0) {
+        keys.remove(assignment.getKey());
+      } else {
+        // the rows move from the old to the new key, both are touched
+        ordinals.add(assignment.getValue());
+      }
+    }
+    return new ParsedSql(true, Collections.singletonList(table), keys);
+  }
+
+  private ParsedSql parseDelete() {
+    int i = skip(1, "low_priority", "quick", "ignore");
+    if (!"from".equals(token(i)) || !isName(i + 1)) {
+      return ParsedSql.UNKNOWN;
+    }
+    String table = tokens.get(i + 1);
+    i = skipAlias(i + 2);
+    Map<String, List<Integer>> keys = null;
+    if ("where".equals(token(i))) {
+      keys = keyPredicate(i + 1);
+    }
+    return new ParsedSql(true, Collections.singletonList(table), keys == null ? Collections.emptyMap() : keys);
+  }
+
+  private ParsedSql parseInsert() {
+    int i = skip(1, "low_priority", "delayed", "high_priority", "ignore");
+    if (!"into".equals(token(i)) || !isName(i + 1)) {
+      return ParsedSql.UNKNOWN;
+    }
+    List<String> table = Collections.singletonList(tokens.get(i + 1));
+    i += 2;
+    if (tokens.contains("duplicate") || tokens.contains("conflict") || !"(".equals(token(i))) {
+      return new ParsedSql(true, table, Collections.emptyMap());
+    }
+    int close = closing(i);
+    List<String> columns = new ArrayList<>();
+    for (int[] item : split(i + 1, close, ",")) {
+      if (item[1] - item[0] != 1 || !isName(item[0])) {
+        return new ParsedSql(true, table, Collections.emptyMap());
+      }
+      columns.add(CacheTag.normalize(tokens.get(item[0])));
+    }
+    i = close + 1;
+    if (!"values".equals(token(i)) && !"value".equals(token(i))) {
+      return new ParsedSql(true, table, Collections.emptyMap());
+    }
+    Map<String, List<Integer>> keys = new LinkedHashMap<>();
+    Set<String> unknown = new HashSet<>();
+    i++;
+    while ("(".equals(token(i))) {
+      close = closing(i);
+      List<int[]> values = split(i + 1, close, ",");
+      if (values.size() != columns.size()) {
+        return new ParsedSql(true, table, Collections.emptyMap());
+      }
+      for (int c = 0; c < columns.size(); c++) {
+        int[] value = values.get(c);
+        if (value[1] - value[0] == 1 && params.get(value[0]) >= 0) {
+          keys.computeIfAbsent(columns.get(c), k -> new ArrayList<>()).add(params.get(value[0]));
+        } else {
+          unknown.add(columns.get(c));
+        }
+      }
+      i = close + 1;
+      if (!",".equals(token(i))) {
+        break;
+      }
+      i++;
+    }
+    if (i < tokens.size()) {
+      return new ParsedSql(true, table, Collections.emptyMap());
+    }
+    keys.keySet().removeAll(unknown);
+    return new ParsedSql(true, table, keys);
+  }
+
+  private void readTables(int start, Set<String> tables, boolean list) {
+    int i = start;
+    while (isName(i) && !NOT_ALIAS.contains(tokens.get(i))) {
+      tables.add(CacheTag.normalize(tokens.get(i)));
+      i = skipAlias(i + 1);
+      if (!list || !",".equals(token(i))) {
+        return;
+      }
+      i++;
+    }
+  }
+
+  /**
+   * Finds the first {@code column = ?} or {@code column in (?, ...)} predicate of a conjunction.
+   */
+  private Map<String, List<Integer>> keyPredicate(int start) {
+    int end = endOfClause(start);
+    if (indexOfTopLevel("or", start, end) >= 0) {
+      return null;
+    }
+    for (int[] conjunct : split(start, end, "and")) {
+      int a = conjunct[0];
+      int length = conjunct[1] - a;
+      if (length == 3 && "=".equals(tokens.get(a + 1))) {
+        if (isName(a) && params.get(a + 2) >= 0) {
+          return key(tokens.get(a), Collections.singletonList(params.get(a + 2)));
+        } else if (params.get(a) >= 0 && isName(a + 2)) {
+          return key(tokens.get(a + 2), Collections.singletonList(params.get(a)));
+        }
+      } else if (length >= 4 && isName(a) && "in".equals(tokens.get(a + 1)) && "(".equals(tokens.get(a + 2))
+          && closing(a + 2) == conjunct[1] - 1) {
+        List<Integer> ordinals = new ArrayList<>();
+        for (int[] item : split(a + 3, conjunct[1] - 1, ",")) {
+          if (item[1] - item[0] != 1 || params.get(item[0]) < 0) {
+            ordinals = null;
+            break;
+          }
+          ordinals.add(params.get(item[0]));
+        }
+        if (ordinals != null && !ordinals.isEmpty()) {
+          return key(tokens.get(a), ordinals);
+        }
+      }
+    }
+    return null;
+  }
+
+  private static Map<String, List<Integer>> key(String column, List<Integer> ordinals) {
+    Map<String, List<Integer>> keys = new HashMap<>();
+    keys.put(CacheTag.normalize(column), new ArrayList<>(ordinals));
+    return keys;
+  }
+
+  private int skipAlias(int i) {
+    if ("as".equals(token(i))) {
+      return i + 2;
+    }
+    return isName(i) && !NOT_ALIAS.contains(tokens.get(i)) ? i + 1 : i;
+  }
+
+  private int skip(int i, String... optional) {
+    List<String> words = Arrays.asList(optional);
+    while (words.contains(token(i))) {
+      i++;
+    }
+    return i;
+  }
+
+  private int endOfClause(int start) {
+    int depth = 0;
+    for (int i = start; i < tokens.size(); i++) {
+      String token = tokens.get(i);
+      if ("(".equals(token)) {
+        depth++;
+      } else if (")".equals(token)) {
+        if (depth == 0) {
+          return i;
+        }
+        depth--;
+      } else if (depth == 0 && CLAUSE_END.contains(token)) {
+        return i;
+      }
+    }
+    return tokens.size();
+  }
+
+  private int indexOfTopLevel(String word, int start) {
+    return indexOfTopLevel(word, start, tokens.size());
+  }
+
+  private int indexOfTopLevel(String word, int start, int end) {
+    int depth = 0;
+    for (int i = start; i < end; i++) {
+      String token = tokens.get(i);
+      if ("(".equals(token)) {
+        depth++;
+      } else if (")".equals(token)) {
+        depth--;
+      } else if (depth == 0 && word.equals(token)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private int closing(int open) {
+    int depth = 0;
+    for (int i = open; i < tokens.size(); i++) {
+      String token = tokens.get(i);
+      if ("(".equals(token)) {
+        depth++;
+      } else if (")".equals(token) && --depth == 0) {
+        return i;
+      }
+    }
+    return tokens.size();
+  }
+
+  /**
+   * Splits the range at the top level separators, each item is a {start, end} pair.
+   */
+  private List<int[]> split(int start, int end, String separator) {
+    List<int[]> items = new ArrayList<>();
+    int depth = 0;
+    int itemStart = start;
+    for (int i = start; i < end; i++) {
+      String token = tokens.get(i);
+      if ("(".equals(token)) {
+        depth++;
+      } else if (")".equals(token)) {
+        depth--;
+      } else if (depth == 0 && separator.equals(token)) {
+        items.add(new int[] { itemStart, i });
+        itemStart = i + 1;
+      }
+    }
+    items.add(new int[] { itemStart, end });
+    return items;
+  }
+
+  private String token(int i) {
+    return i < tokens.size() ? tokens.get(i) : "";
+  }
+
+  private boolean isName(int i) {
+    if (i >= tokens.size()) {
+      return false;
+    }
+    char first = tokens.get(i).charAt(0);
+    return Character.isLetter(first) || first == '_';
+  }
+
+  private void tokenize(String sql) {
+    int length = sql.length();
+    int ordinal = 0;
+    int i = 0;
+    while (i < length) {
+      char c = sql.charAt(i);
+      if (Character.isWhitespace(c)) {
+        i++;
+      } else if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+        int newLine = sql.indexOf('\n', i);
+        i = newLine < 0 ? length : newLine + 1;
+      } else if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*') {
+        int close = sql.indexOf("*/", i + 2);
+        i = close < 0 ? length : close + 2;
+      } else if (c == '\'') {
+        i = skipQuoted(sql, i, '\'');
+        add("'", -1);
+      } else if (c == '?') {
+        add("?", ordinal++);
+        i++;
+      } else if (c == '"' || c == '`' || c == '[' || Character.isLetterOrDigit(c) || c == '_' || c == '$') {
+        StringBuilder name = new StringBuilder();
+        i = readName(sql, i, name);
+        while (i + 1 < length && sql.charAt(i) == '.' && isNameStart(sql.charAt(i + 1))) {
+          name.append('.');
+          i = readName(sql, i + 1, name);
+        }
+        add(name.toString().toLowerCase(), -1);
+      } else {
+        add(String.valueOf(c), -1);
+        i++;
+      }
+    }
+  }
+
+  private static boolean isNameStart(char c) {
+    return c == '"' || c == '`' || c == '[' || Character.isLetter(c) || c == '_';
+  }
+
+  private static int readName(String sql, int start, StringBuilder name) {
+    char c = sql.charAt(start);
+    if (c == '"' || c == '`' || c == '[') {
+      int end = skipQuoted(sql, start, c == '[' ? ']' : c);
+      name.append(sql, start + 1, Math.max(start + 1, end - 1));
+      return end;
+    }
+    int i = start;
+    while (i < sql.length()) {
+      char next = sql.charAt(i);
+      if (!Character.isLetterOrDigit(next) && next != '_' && next != '$' && next != '#') {
+        break;
+      }
+      i++;
+    }
+    name.append(sql, start, i);
+    return i;
+  }
+
+  private static int skipQuoted(String sql, int start, char quote) {
+    int i = start + 1;
+    while (i < sql.length()) {
+      if (sql.charAt(i) == quote) {
+        if (i + 1 < sql.length() && sql.charAt(i + 1) == quote) {
+          i += 2;
+          continue;
+        }
+        return i + 1;
+      }
+      i++;
+    }
+    return i;
+  }
+
+  private void add(String token, int ordinal) {
+    tokens.add(token);
+    params.add(ordinal);
+  }
+
+  static final class ParsedSql {
+
+    static final ParsedSql UNKNOWN = new ParsedSql(false, Collections.emptyList(), null);
+
+    private final boolean write;
+    private final List<String> tables;
+    private final Map<String, List<Integer>> keys;
+
+    ParsedSql(boolean write, List<String> tables, Map<String, List<Integer>> keys) {
+      this.write = write;
+      this.tables = tables;
+      this.keys = keys;
+    }
+
+    boolean isUnknown() {
+      return tables.isEmpty();
+    }
+
+    boolean isWrite() {
+      return write;
+    }
+
+    List<String> getTables() {
+      return tables;
+    }
+
+    /**
+     * @return the parameter ordinals of the known key columns, null or empty when none is known
+     */
+    Map<String, List<Integer>> getKeys() {
+      return keys;
+    }
+  }
+
+}
@@ -0,0 +1,80 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+/**
+ * Computes the size of a pool from its metrics, called by the housekeeper of the pool.
+ * <p>
+ * By Little's law the mean number of connections in use is the checkout rate times the mean time a connection is
+ * checked out. The pool grows at once to that number plus a headroom for bursts, and by the number of waiting threads
+ * when threads had to wait. It shrinks by half the surplus at each decision, so that a short lull does not close the
+ * connections the next peak needs.
+ */
+final class AdaptivePoolSizer {
+
+  private static final double HEADROOM = 1.25;
+
+  private boolean started;
+  private long lastNanos;
+  private long lastCheckouts;
+  private long lastReturns;
+  private long lastUsageNanos;
+  private long lastTimeouts;
+  private double meanUsageNanos;
+
+  /**
+   * Decides the size of the pool for the period since the previous call, the first call only records the metrics.
+   *
+   * @return the decision, null if there was not enough data
+   */
+  PoolResize evaluate(PoolMetrics metrics, int currentSize, int minimumSize, int maximumSize, long nowNanos) {
+    long checkouts = metrics.getWaitTime().getCount();
+    long returns = metrics.getUsageTime().getCount();
+    long usageNanos = metrics.getUsageTime().getTotalNanos();
+    long timeouts = metrics.getTimeouts();
+    boolean restarted = !started || checkouts < lastCheckouts || returns < lastReturns || nowNanos <= lastNanos;
+    double seconds = (nowNanos - lastNanos) / 1e9;
+    long newCheckouts = checkouts - lastCheckouts;
+    long newReturns = returns - lastReturns;
+    long newUsageNanos = usageNanos - lastUsageNanos;
+    long newTimeouts = Math.max(0, timeouts - lastTimeouts);
+    started = true;
+    lastNanos = nowNanos;
+    lastCheckouts = checkouts;
+    lastReturns = returns;
+    lastUsageNanos = usageNanos;
+    lastTimeouts = timeouts;
+    if (restarted) {
+      // first call, or the histograms were reset
+      return null;
+    }
+    if (newReturns > 0) {
+      meanUsageNanos = (double) newUsageNanos / newReturns;
+    }
+    double checkoutsPerSecond = newCheckouts / seconds;
+    double connectionsInUse = checkoutsPerSecond * meanUsageNanos / 1e9;
+    int pendingThreads = metrics.getPendingThreads();
+    int target = Math.max((int) Math.ceil(connectionsInUse * HEADROOM), metrics.getActiveConnections());
+    if (pendingThreads > 0 || newTimeouts > 0) {
+      target = Math.max(target, currentSize + Math.max(pendingThreads, 1));
+    }
+    int size = target >= currentSize ? target : currentSize - (currentSize - target + 1) / 2;
+    size = Math.max(minimumSize, Math.min(maximumSize, size));
+    return new PoolResize(currentSize, size, checkoutsPerSecond, meanUsageNanos / 1e6, connectionsInUse,
+        pendingThreads, newTimeouts);
+  }
+
+}
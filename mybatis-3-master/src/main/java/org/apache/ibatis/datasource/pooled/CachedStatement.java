@@ -0,0 +1,150 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.apache.ibatis.reflection.ExceptionUtil;
+
+/**
+ * Invocation handler of the statements handed out by a {@link StatementCache}. Closing the proxy returns the statement
+ * to the cache after its settings are restored; a statement whose settings cannot be restored is closed instead.
+ */
+final class CachedStatement implements InvocationHandler {
+
+  private final StatementCache cache;
+  final StatementCache.Key key;
+  final PreparedStatement statement;
+  private final int defaultQueryTimeout;
+  private final int defaultFetchSize;
+  private final int defaultMaxRows;
+
+  private PooledConnection owner;
+  private boolean closed;
+  private boolean modified;
+  private boolean batched;
+  private boolean dirty;
+
+  CachedStatement(StatementCache cache, StatementCache.Key key, PreparedStatement statement) throws SQLException {
+    this.cache = cache;
+    this.key = key;
+    this.statement = statement;
+    this.defaultQueryTimeout = statement.getQueryTimeout();
+    this.defaultFetchSize = statement.getFetchSize();
+    this.defaultMaxRows = statement.getMaxRows();
+  }
+
+  void checkout(PooledConnection owner) {
+    this.owner = owner;
+    this.closed = false;
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    String methodName = method.getName();
+    if (Object.class.equals(method.getDeclaringClass())) {
+      if ("equals".equals(methodName)) {
+        return proxy == args[0];
+      } else if ("hashCode".equals(methodName)) {
+        return System.identityHashCode(proxy);
+      }
+      return statement.toString();
+    }
+    switch (methodName) {
+      case "close":
+        close();
+        return null;
+      case "isClosed":
+        return closed || statement.isClosed();
+      case "getConnection":
+        return owner.getProxyConnection();
+      default:
+        break;
+    }
+    if (closed) {
+      throw new SQLException("Error accessing a cached PreparedStatement. Statement is closed.");
+    }
+    if ("addBatch".equals(methodName)) {
+      // PreparedStatement.addBatch() and Statement.addBatch(String) both leave rows for the next user
+      batched = true;
+    } else if (Statement.class.equals(method.getDeclaringClass())) {
+      track(methodName);
+    }
+    try {
+      return method.invoke(statement, args);
+    } catch (Throwable t) {
+      throw ExceptionUtil.unwrapThrowable(t);
+    }
+  }
+
+  private void track(String methodName) {
+    switch (methodName) {
+      case "setQueryTimeout":
+      case "setFetchSize":
+      case "setMaxRows":
+        modified = true;
+        break;
+      default:
+        if (methodName.startsWith("set") || "closeOnCompletion".equals(methodName)) {
+          dirty = true;
+        }
+        break;
+    }
+  }
+
+  private void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    if (dirty || !owner.isUsable()) {
+      closeQuietly();
+      return;
+    }
+    try {
+      statement.clearParameters();
+      statement.clearWarnings();
+      if (batched) {
+        statement.clearBatch();
+        batched = false;
+      }
+      if (modified) {
+        statement.setQueryTimeout(defaultQueryTimeout);
+        statement.setFetchSize(defaultFetchSize);
+        statement.setMaxRows(defaultMaxRows);
+        modified = false;
+      }
+    } catch (SQLException e) {
+      closeQuietly();
+      return;
+    }
+    owner = null;
+    cache.release(this);
+  }
+
+  void closeQuietly() {
+    try {
+      statement.close();
+    } catch (SQLException e) {
+      // ignore
+    }
+  }
+
+}
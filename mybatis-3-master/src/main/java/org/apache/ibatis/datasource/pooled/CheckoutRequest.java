@@ -0,0 +1,58 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A request for a connection of a {@link PooledDataSource}. A request that cannot be served at once waits in a FIFO
+ * queue until a connection is handed to it, blocking callers wait on its future instead of a monitor.
+ */
+final class CheckoutRequest {
+
+  final String username;
+  final String password;
+  final CheckoutTrace trace;
+  final long requestTimestamp = System.currentTimeMillis();
+  final long startNanos = System.nanoTime();
+  final CompletableFuture<PooledConnection> future = new CompletableFuture<>();
+
+  long waitTimestamp;
+  int badConnectionCount;
+  // set while the state lock is held, the future is completed once it is released
+  PooledConnection connection;
+  Exception failure;
+
+  CheckoutRequest(String username, String password, CheckoutTrace trace) {
+    this.username = username;
+    this.password = password;
+    this.trace = trace;
+  }
+
+  /**
+   * Completes the future with the outcome set while the lock was held.
+   *
+   * @return false if the requester gave up and the connection must go back to the pool
+   */
+  boolean complete() {
+    if (failure != null) {
+      future.completeExceptionally(failure);
+      return true;
+    }
+    return future.complete(connection);
+  }
+
+}
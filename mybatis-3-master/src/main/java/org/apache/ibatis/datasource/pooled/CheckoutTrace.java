@@ -0,0 +1,66 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.ibatis.executor.ErrorContext;
+
+/**
+ * What was running when a connection was checked out, recorded only when leak detection is enabled.
+ */
+final class CheckoutTrace {
+
+  private static final Set<String> POOL_CLASSES = new HashSet<>(Arrays.asList(CheckoutTrace.class.getName(),
+      PooledDataSource.class.getName(), ConcurrentPooledDataSource.class.getName()));
+
+  final String threadName;
+  final String statementId;
+  final String resource;
+  final Throwable stackTrace;
+  volatile boolean reported;
+
+  private CheckoutTrace(String threadName, String statementId, String resource, Throwable stackTrace) {
+    this.threadName = threadName;
+    this.statementId = statementId;
+    this.resource = resource;
+    this.stackTrace = stackTrace;
+  }
+
+  static CheckoutTrace capture(boolean stackTrace) {
+    ErrorContext context = ErrorContext.instance();
+    return new CheckoutTrace(Thread.currentThread().getName(), context.getObject(), context.getResource(),
+        stackTrace ? callerStack() : null);
+  }
+
+  /**
+   * Returns the current stack without the frames of the pool itself, so that it starts at the caller of
+   * getConnection().
+   */
+  private static Throwable callerStack() {
+    Throwable stack = new Throwable("Connection checked out here");
+    StackTraceElement[] frames = stack.getStackTrace();
+    int first = 0;
+    while (first < frames.length - 1 && POOL_CLASSES.contains(frames[first].getClassName())) {
+      first++;
+    }
+    stack.setStackTrace(Arrays.copyOfRange(frames, first, frames.length));
+    return stack;
+  }
+
+}
@@ -0,0 +1,283 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock free container of pooled entries.
+ * <p>
+ * Every entry carries its own atomic state, an entry is borrowed by moving it from {@link Entry#NOT_IN_USE} to
+ * {@link Entry#IN_USE}. A borrower first looks at the entries recently returned by its own thread, then scans the
+ * shared list. Borrowers that found nothing queue a future in FIFO order, so the entry returned while somebody is
+ * waiting goes to the longest waiting borrower instead of the one that happens to win a lock. Blocking borrowers wait
+ * on their future, which parks a virtual thread without pinning its carrier.
+ *
+ * @param <T>
+ *          the type of the entries
+ */
+class ConcurrentBag<T extends ConcurrentBag.Entry> {
+
+  private final CopyOnWriteArrayList<T> sharedList = new CopyOnWriteArrayList<>();
+  private final ThreadLocal<ArrayDeque<WeakReference<T>>> threadList = ThreadLocal.withInitial(ArrayDeque::new);
+  private final ConcurrentLinkedQueue<CompletableFuture<T>> waitQueue = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger waiters = new AtomicInteger();
+
+  /**
+   * Borrows an idle entry without waiting.
+   *
+   * @return the entry, or null if none is idle
+   */
+  T borrow() {
+    ArrayDeque<WeakReference<T>> list = threadList.get();
+    WeakReference<T> reference;
+    while ((reference = list.pollLast()) != null) {
+      T entry = reference.get();
+      if (entry != null && entry.compareAndSet(Entry.NOT_IN_USE, Entry.IN_USE)) {
+        return entry;
+      }
+    }
+    for (T entry : sharedList) {
+      if (entry.compareAndSet(Entry.NOT_IN_USE, Entry.IN_USE)) {
+        return entry;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Waits for an entry to be returned to the bag.
+   *
+   * @param timeout
+   *          the longest time to wait, zero or less to wait until an entry is returned
+   * @param unit
+   *          the unit of the timeout
+   * @return the entry, or null if none was returned in time
+   * @throws InterruptedException
+   *           if the thread was interrupted while waiting
+   */
+  T poll(long timeout, TimeUnit unit) throws InterruptedException {
+    CompletableFuture<T> waiter = await();
+    try {
+      return timeout > 0 ? waiter.get(timeout, unit) : waiter.get();
+    } catch (TimeoutException e) {
+      return cancel(waiter) ? null : waiter.join();
+    } catch (InterruptedException e) {
+      if (!cancel(waiter)) {
+        requite(waiter.join());
+      }
+      throw e;
+    } catch (ExecutionException e) {
+      // waiters are only completed with an entry
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  /**
+   * Queues a request for an entry behind the requests already waiting, blocking or not.
+   *
+   * @return a future completed with a borrowed entry, by the thread that returns the entry
+   */
+  CompletableFuture<T> await() {
+    CompletableFuture<T> waiter = new CompletableFuture<>();
+    waiters.incrementAndGet();
+    waiter.whenComplete((entry, failure) -> waiters.decrementAndGet());
+    waitQueue.add(waiter);
+    // an entry may have been returned before the waiter was queued
+    T entry = borrow();
+    if (entry != null && !waiter.complete(entry)) {
+      // the waiter got another entry in the meantime
+      requite(entry);
+    }
+    return waiter;
+  }
+
+  /**
+   * Withdraws a waiter.
+   *
+   * @param waiter
+   *          a future returned by {@link #await()}
+   * @return false if an entry was handed to the waiter before it could be withdrawn
+   */
+  boolean cancel(CompletableFuture<T> waiter) {
+    if (waiter.cancel(false)) {
+      waitQueue.remove(waiter);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Returns a borrowed entry to the bag, handing it directly to the oldest waiter if there is one.
+   *
+   * @param entry
+   *          the entry
+   * @return false if the entry was removed from the bag in the meantime
+   */
+  boolean requite(T entry) {
+    if (!entry.compareAndSet(Entry.IN_USE, Entry.NOT_IN_USE)) {
+      return false;
+    }
+    if (!handOff(entry)) {
+      ArrayDeque<WeakReference<T>> list = threadList.get();
+      if (list.size() < 16) {
+        list.add(new WeakReference<>(entry));
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Adds a new entry to the bag. An entry added in the {@link Entry#NOT_IN_USE} state is offered to the waiting
+   * threads.
+   *
+   * @param entry
+   *          the entry
+   */
+  void add(T entry) {
+    sharedList.add(entry);
+    handOff(entry);
+  }
+
+  /**
+   * Hands an idle entry to the oldest waiter. A waiter queued after the queue was found empty borrows the entry
+   * itself, see {@link #await()}.
+   */
+  private boolean handOff(T entry) {
+    while (!waitQueue.isEmpty() && entry.compareAndSet(Entry.NOT_IN_USE, Entry.IN_USE)) {
+      CompletableFuture<T> waiter;
+      while ((waiter = waitQueue.poll()) != null) {
+        if (waiter.complete(entry)) {
+          return true;
+        }
+      }
+      if (!entry.compareAndSet(Entry.IN_USE, Entry.NOT_IN_USE)) {
+        // removed in the meantime
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Removes a borrowed or reserved entry from the bag.
+   *
+   * @param entry
+   *          the entry
+   * @return true if this call removed the entry
+   */
+  boolean remove(T entry) {
+    if (!entry.compareAndSet(Entry.IN_USE, Entry.REMOVED) && !entry.compareAndSet(Entry.RESERVED, Entry.REMOVED)) {
+      return false;
+    }
+    sharedList.remove(entry);
+    return true;
+  }
+
+  /**
+   * Removes an entry whatever its state.
+   *
+   * @param entry
+   *          the entry
+   * @return true if this call removed the entry
+   */
+  boolean forceRemove(T entry) {
+    int current;
+    do {
+      current = entry.get();
+      if (current == Entry.REMOVED) {
+        return false;
+      }
+    } while (!entry.compareAndSet(current, Entry.REMOVED));
+    sharedList.remove(entry);
+    return true;
+  }
+
+  /**
+   * Takes an idle entry out of circulation, for example to validate or close it.
+   *
+   * @param entry
+   *          the entry
+   * @return true if the entry was idle and is now reserved
+   */
+  boolean reserve(T entry) {
+    return entry.compareAndSet(Entry.NOT_IN_USE, Entry.RESERVED);
+  }
+
+  void unreserve(T entry) {
+    if (entry.compareAndSet(Entry.RESERVED, Entry.IN_USE)) {
+      requite(entry);
+    }
+  }
+
+  List<T> values() {
+    return new ArrayList<>(sharedList);
+  }
+
+  List<T> values(int state) {
+    List<T> list = new ArrayList<>();
+    for (T entry : sharedList) {
+      if (entry.get() == state) {
+        list.add(entry);
+      }
+    }
+    return list;
+  }
+
+  int getCount(int state) {
+    int count = 0;
+    for (T entry : sharedList) {
+      if (entry.get() == state) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  int size() {
+    return sharedList.size();
+  }
+
+  int getWaitingThreadCount() {
+    return waiters.get();
+  }
+
+  static class Entry extends AtomicInteger {
+
+    private static final long serialVersionUID = 1L;
+
+    static final int NOT_IN_USE = 0;
+    static final int IN_USE = 1;
+    static final int REMOVED = -1;
+    static final int RESERVED = -2;
+
+    Entry(int state) {
+      super(state);
+    }
+
+  }
+
+}
@@ -0,0 +1,96 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics of a {@link ConcurrentPooledDataSource}. The counters are updated without locking, so the values read
+ * together are not an atomic snapshot.
+ */
+class ConcurrentPoolState extends PoolState {
+
+  private final ConcurrentBag<PoolEntry> bag;
+
+  final LongAdder requestCount = new LongAdder();
+  final LongAdder accumulatedRequestTime = new LongAdder();
+  final LongAdder accumulatedCheckoutTime = new LongAdder();
+  final LongAdder claimedOverdueConnectionCount = new LongAdder();
+  final LongAdder accumulatedCheckoutTimeOfOverdueConnections = new LongAdder();
+  final LongAdder accumulatedWaitTime = new LongAdder();
+  final LongAdder hadToWaitCount = new LongAdder();
+  final LongAdder badConnectionCount = new LongAdder();
+
+  ConcurrentPoolState(ConcurrentPooledDataSource dataSource, ConcurrentBag<PoolEntry> bag) {
+    super(dataSource);
+    this.bag = bag;
+  }
+
+  @Override
+  public long getRequestCount() {
+    return requestCount.sum();
+  }
+
+  @Override
+  public long getAverageRequestTime() {
+    long requests = requestCount.sum();
+    return requests == 0 ? 0 : accumulatedRequestTime.sum() / requests;
+  }
+
+  @Override
+  public long getAverageWaitTime() {
+    long waits = hadToWaitCount.sum();
+    return waits == 0 ? 0 : accumulatedWaitTime.sum() / waits;
+  }
+
+  @Override
+  public long getHadToWaitCount() {
+    return hadToWaitCount.sum();
+  }
+
+  @Override
+  public long getBadConnectionCount() {
+    return badConnectionCount.sum();
+  }
+
+  @Override
+  public long getClaimedOverdueConnectionCount() {
+    return claimedOverdueConnectionCount.sum();
+  }
+
+  @Override
+  public long getAverageOverdueCheckoutTime() {
+    long claimed = claimedOverdueConnectionCount.sum();
+    return claimed == 0 ? 0 : accumulatedCheckoutTimeOfOverdueConnections.sum() / claimed;
+  }
+
+  @Override
+  public long getAverageCheckoutTime() {
+    long requests = requestCount.sum();
+    return requests == 0 ? 0 : accumulatedCheckoutTime.sum() / requests;
+  }
+
+  @Override
+  public int getIdleConnectionCount() {
+    return bag.getCount(ConcurrentBag.Entry.NOT_IN_USE);
+  }
+
+  @Override
+  public int getActiveConnectionCount() {
+    return bag.getCount(ConcurrentBag.Entry.IN_USE);
+  }
+
+}
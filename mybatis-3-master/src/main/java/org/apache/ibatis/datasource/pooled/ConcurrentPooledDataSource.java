@@ -0,0 +1,533 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * Connection pool with the configuration and the behaviour of {@link PooledDataSource} that does not serialize the
+ * checkouts and the returns on a single monitor.
+ * <p>
+ * Connections are kept in a {@link ConcurrentBag}: a thread first gets back the connection it returned last, then
+ * any idle one, new connections are created as long as the number of connections is below
+ * {@code poolMaximumActiveConnections}, and an overdue connection is claimed as in {@link PooledDataSource}.
+ * Otherwise the thread waits in a fair queue and a returned connection is handed directly to the longest waiting
+ * thread.
+ */
+public class ConcurrentPooledDataSource extends PooledDataSource {
+
+  private static final Log log = LogFactory.getLog(ConcurrentPooledDataSource.class);
+
+  private final ConcurrentBag<PoolEntry> bag = new ConcurrentBag<>();
+  private final ConcurrentPoolState state = new ConcurrentPoolState(this, bag);
+  private final AtomicInteger totalConnections = new AtomicInteger();
+  private final DefaultPoolMetrics metrics = new DefaultPoolMetrics(state::getActiveConnectionCount,
+      state::getIdleConnectionCount, this::maximumActiveConnections);
+
+  private volatile int expectedConnectionTypeCode;
+
+  public ConcurrentPooledDataSource() {
+    super();
+  }
+
+  public ConcurrentPooledDataSource(UnpooledDataSource dataSource) {
+    super(dataSource);
+  }
+
+  public ConcurrentPooledDataSource(String driver, String url, String username, String password) {
+    super(driver, url, username, password);
+    expectedConnectionTypeCode = assembleConnectionTypeCode(url, username, password);
+  }
+
+  public ConcurrentPooledDataSource(String driver, String url, Properties driverProperties) {
+    super(driver, url, driverProperties);
+    expectedConnectionTypeCode = assembleConnectionTypeCode(url, getUsername(), getPassword());
+  }
+
+  public ConcurrentPooledDataSource(ClassLoader driverClassLoader, String driver, String url, String username, String password) {
+    super(driverClassLoader, driver, url, username, password);
+    expectedConnectionTypeCode = assembleConnectionTypeCode(url, username, password);
+  }
+
+  public ConcurrentPooledDataSource(ClassLoader driverClassLoader, String driver, String url, Properties driverProperties) {
+    super(driverClassLoader, driver, url, driverProperties);
+    expectedConnectionTypeCode = assembleConnectionTypeCode(url, getUsername(), getPassword());
+  }
+
+  @Override
+  public Connection getConnection() throws SQLException {
+    return popConnection(getUsername(), getPassword()).getProxyConnection();
+  }
+
+  @Override
+  public Connection getConnection(String username, String password) throws SQLException {
+    return popConnection(username, password).getProxyConnection();
+  }
+
+  /**
+   * Closes all active and idle connections in the pool.
+   */
+  @Override
+  public void forceCloseAll() {
+    expectedConnectionTypeCode = assembleConnectionTypeCode(getUrl(), getUsername(), getPassword());
+    for (PoolEntry entry : bag.values()) {
+      if (bag.forceRemove(entry)) {
+        totalConnections.decrementAndGet();
+        PooledConnection owner = entry.getOwner();
+        if (owner != null) {
+          owner.invalidate();
+          owner.exitBulkhead();
+        }
+        closeQuietly(entry);
+      }
+    }
+    if (log.isDebugEnabled()) {
+      log.debug("ConcurrentPooledDataSource forcefully closed/removed all connections.");
+    }
+    replenishWaiters();
+  }
+
+  @Override
+  public PoolState getPoolState() {
+    return state;
+  }
+
+  @Override
+  DefaultPoolMetrics getPoolMetrics() {
+    return metrics;
+  }
+
+  @Override
+  StatementCache newStatementCache() {
+    return poolPreparedStatementCacheSize > 0 ? new StatementCache(poolPreparedStatementCacheSize, metrics) : null;
+  }
+
+  @Override
+  protected void pushConnection(PooledConnection conn) throws SQLException {
+    conn.exitBulkhead();
+    PoolEntry entry = conn.getPoolEntry();
+    // a proxy closed twice, or closed after its connection was claimed as overdue, does not own the connection
+    boolean released = entry != null && entry.release(conn);
+    if (released) {
+      detectLeak(conn, false);
+    }
+    boolean valid = released && conn.isValid();
+    conn.invalidate();
+    if (!valid) {
+      if (log.isDebugEnabled()) {
+        log.debug("A bad connection (" + conn.getRealHashCode() + ") attempted to return to the pool, discarding connection.");
+      }
+      state.badConnectionCount.increment();
+      metrics.recordBadConnection();
+      if (released) {
+        discard(entry);
+      }
+      return;
+    }
+    state.accumulatedCheckoutTime.add(conn.getCheckoutTime());
+    metrics.recordReturn(conn.getCheckoutTime());
+    Connection realConn = conn.getRealConnection();
+    try {
+      if (!realConn.getAutoCommit()) {
+        realConn.rollback();
+      }
+    } catch (SQLException e) {
+      discard(entry);
+      throw e;
+    }
+    if (conn.getConnectionTypeCode() == expectedConnectionTypeCode && !isExpired(conn)
+        && (bag.getWaitingThreadCount() > 0 || state.getIdleConnectionCount() < maximumIdleConnections())) {
+      entry.setLastUsedTimestamp(conn.getLastUsedTimestamp());
+      if (!bag.requite(entry)) {
+        // removed by forceCloseAll() while it was checked out
+        closeQuietly(entry);
+        return;
+      }
+      if (log.isDebugEnabled()) {
+        log.debug("Returned connection " + conn.getRealHashCode() + " to pool.");
+      }
+    } else {
+      if (bag.remove(entry)) {
+        totalConnections.decrementAndGet();
+      }
+      realConn.close();
+      replenishWaiters();
+      if (log.isDebugEnabled()) {
+        log.debug("Closed connection " + conn.getRealHashCode() + ".");
+      }
+    }
+  }
+
+  @Override
+  protected void housekeep() {
+    int grown = adaptPoolSize();
+    if (poolLeakDetectionThreshold > 0) {
+      for (PoolEntry entry : bag.values(ConcurrentBag.Entry.IN_USE)) {
+        PooledConnection owner = entry.getOwner();
+        if (owner != null) {
+          detectLeak(owner, false);
+        }
+      }
+    }
+    for (PoolEntry entry : bag.values(ConcurrentBag.Entry.NOT_IN_USE)) {
+      if (!bag.reserve(entry)) {
+        continue;
+      }
+      if (isExpired(entry.getCreatedTimestamp(), entry.getRealConnection().hashCode())) {
+        if (log.isDebugEnabled()) {
+          log.debug("Retired connection " + entry.getRealConnection().hashCode() + " after "
+              + (System.currentTimeMillis() - entry.getCreatedTimestamp()) + " milliseconds.");
+        }
+        discard(entry);
+        continue;
+      }
+      if (totalConnections.get() > maximumActiveConnections()) {
+        // the pool shrank
+        if (log.isDebugEnabled()) {
+          log.debug("Closed idle connection " + entry.getRealConnection().hashCode() + " beyond the size of the pool.");
+        }
+        discard(entry);
+        continue;
+      }
+      if (poolPingEnabled && System.currentTimeMillis() - entry.getLastUsedTimestamp() > poolPingConnectionsNotUsedFor) {
+        PooledConnection probe = new PooledConnection(entry.getRealConnection(), this);
+        probe.setLastUsedTimestamp(entry.getLastUsedTimestamp());
+        if (!pingConnection(probe)) {
+          state.badConnectionCount.increment();
+          metrics.recordBadConnection();
+          discard(entry);
+          continue;
+        }
+        entry.setLastUsedTimestamp(System.currentTimeMillis());
+      }
+      bag.unreserve(entry);
+    }
+    // the threads waiting get the connections the pool grew by
+    while (grown-- > 0 && bag.getWaitingThreadCount() > 0) {
+      PoolEntry entry;
+      try {
+        entry = createEntry();
+      } catch (SQLException e) {
+        log.warn("Could not open a connection for a waiting thread. Cause: " + e);
+        return;
+      }
+      if (entry == null) {
+        break;
+      }
+      if (!bag.requite(entry)) {
+        closeQuietly(entry);
+        return;
+      }
+    }
+    int target = Math.min(poolMinimumIdle, maximumIdleConnections());
+    while (state.getIdleConnectionCount() < target) {
+      PoolEntry entry;
+      try {
+        entry = createEntry();
+      } catch (SQLException e) {
+        log.warn("Could not open an idle connection. Cause: " + e);
+        return;
+      }
+      if (entry == null) {
+        return;
+      }
+      if (log.isDebugEnabled()) {
+        log.debug("Created idle connection " + entry.getRealConnection().hashCode() + ".");
+      }
+      if (!bag.requite(entry)) {
+        closeQuietly(entry);
+        return;
+      }
+    }
+  }
+
+  private PooledConnection popConnection(String username, String password) throws SQLException {
+    PoolBulkhead bulkhead = enterBulkhead(true);
+    try {
+      PooledConnection conn = checkout(username, password);
+      conn.setBulkhead(bulkhead);
+      return conn;
+    } catch (SQLException | RuntimeException e) {
+      if (bulkhead != null) {
+        bulkhead.exit();
+      }
+      throw e;
+    }
+  }
+
+  private PooledConnection checkout(String username, String password) throws SQLException {
+    CheckoutRequest request = new CheckoutRequest(username, password, captureCheckoutTrace());
+    boolean countedWait = false;
+    while (true) {
+      PoolEntry entry = borrowWithoutWaiting();
+      if (entry == null) {
+        if (!countedWait) {
+          state.hadToWaitCount.increment();
+          countedWait = true;
+        }
+        if (log.isDebugEnabled()) {
+          log.debug(poolTimeToWait > 0 ? "Waiting as long as " + poolTimeToWait + " milliseconds for connection."
+              : "Waiting for connection.");
+        }
+        long wt = System.currentTimeMillis();
+        metrics.recordWaitStart();
+        try {
+          entry = bag.poll(poolTimeToWait, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new SQLException("ConcurrentPooledDataSource: Interrupted while waiting for a connection.", e);
+        } finally {
+          metrics.recordWaitEnd(entry == null);
+          state.accumulatedWaitTime.add(System.currentTimeMillis() - wt);
+        }
+        if (entry == null) {
+          continue;
+        }
+      }
+      PooledConnection conn = activate(entry, request);
+      if (conn != null) {
+        return conn;
+      }
+      checkBadConnectionTolerance(request);
+    }
+  }
+
+  @Override
+  CompletableFuture<PooledConnection> popConnectionAsync(String username, String password) throws SQLException {
+    CompletableFuture<PooledConnection> result = new CompletableFuture<>();
+    popConnectionAsync(new CheckoutRequest(username, password, captureCheckoutTrace()), result);
+    return result;
+  }
+
+  private void popConnectionAsync(CheckoutRequest request, CompletableFuture<PooledConnection> result) throws SQLException {
+    PoolEntry entry;
+    while ((entry = borrowWithoutWaiting()) != null) {
+      PooledConnection conn = activate(entry, request);
+      if (conn != null) {
+        result.complete(conn);
+        return;
+      }
+      checkBadConnectionTolerance(request);
+    }
+    state.hadToWaitCount.increment();
+    metrics.recordWaitStart();
+    long wt = System.currentTimeMillis();
+    CompletableFuture<PoolEntry> waiter = bag.await();
+    // runs on the thread that hands the entry over
+    waiter.whenComplete((handed, failure) -> {
+      metrics.recordWaitEnd(handed == null);
+      state.accumulatedWaitTime.add(System.currentTimeMillis() - wt);
+      if (handed == null) {
+        return;
+      }
+      try {
+        PooledConnection conn = activate(handed, request);
+        if (conn == null) {
+          checkBadConnectionTolerance(request);
+          popConnectionAsync(request, result);
+        } else if (!result.complete(conn)) {
+          returnAbandonedConnection(conn);
+        }
+      } catch (SQLException | RuntimeException e) {
+        result.completeExceptionally(e);
+      }
+    });
+    result.whenComplete((conn, failure) -> {
+      if (failure != null) {
+        bag.cancel(waiter);
+      }
+    });
+  }
+
+  private PoolEntry borrowWithoutWaiting() throws SQLException {
+    PoolEntry entry = bag.borrow();
+    if (entry == null) {
+      entry = createEntry();
+    }
+    if (entry == null) {
+      entry = claimOverdueEntry();
+    }
+    return entry;
+  }
+
+  /**
+   * Checks out a borrowed entry for a request after validating it.
+   *
+   * @return null if the connection was bad and has been discarded
+   */
+  private PooledConnection activate(PoolEntry entry, CheckoutRequest request) throws SQLException {
+    PooledConnection conn = entry.checkout(this);
+    // ping to server and check the connection is valid or not
+    if (conn.isValid()) {
+      try {
+        if (!conn.getRealConnection().getAutoCommit()) {
+          conn.getRealConnection().rollback();
+        }
+      } catch (SQLException e) {
+        entry.release(conn);
+        conn.invalidate();
+        discard(entry);
+        throw e;
+      }
+      conn.setConnectionTypeCode(assembleConnectionTypeCode(getUrl(), request.username, request.password));
+      conn.setCheckoutTimestamp(System.currentTimeMillis());
+      conn.setLastUsedTimestamp(System.currentTimeMillis());
+      conn.setCheckoutTrace(request.trace);
+      state.requestCount.increment();
+      state.accumulatedRequestTime.add(System.currentTimeMillis() - request.requestTimestamp);
+      metrics.recordCheckout(System.nanoTime() - request.startNanos);
+      if (log.isDebugEnabled()) {
+        log.debug("Checked out connection " + conn.getRealHashCode() + " from pool.");
+      }
+      return conn;
+    }
+    if (log.isDebugEnabled()) {
+      log.debug("A bad connection (" + conn.getRealHashCode() + ") was returned from the pool, getting another connection.");
+    }
+    entry.release(conn);
+    conn.invalidate();
+    discard(entry);
+    state.badConnectionCount.increment();
+    metrics.recordBadConnection();
+    return null;
+  }
+
+  private void checkBadConnectionTolerance(CheckoutRequest request) throws SQLException {
+    request.badConnectionCount++;
+    if (request.badConnectionCount > (poolMaximumIdleConnections + poolMaximumLocalBadConnectionTolerance)) {
+      if (log.isDebugEnabled()) {
+        log.debug("ConcurrentPooledDataSource: Could not get a good connection to the database.");
+      }
+      throw new SQLException("ConcurrentPooledDataSource: Could not get a good connection to the database.");
+    }
+  }
+
+  /**
+   * Opens a new connection if the pool has not reached its size ({@code poolMaximumActiveConnections} unless adaptive
+   * sizing lowered it) yet.
+   */
+  private PoolEntry createEntry() throws SQLException {
+    int total;
+    do {
+      total = totalConnections.get();
+      if (total >= maximumActiveConnections()) {
+        return null;
+      }
+    } while (!totalConnections.compareAndSet(total, total + 1));
+    try {
+      long start = System.nanoTime();
+      PoolEntry entry = new PoolEntry(getUnpooledDataSource().getConnection(), newStatementCache());
+      metrics.recordCreation(System.nanoTime() - start);
+      bag.add(entry);
+      if (log.isDebugEnabled()) {
+        log.debug("Created connection " + entry.getRealConnection().hashCode() + ".");
+      }
+      return entry;
+    } catch (SQLException | RuntimeException e) {
+      totalConnections.decrementAndGet();
+      throw e;
+    }
+  }
+
+  /**
+   * Takes the connection checked out for the longest time away from its owner if it is overdue.
+   */
+  private PoolEntry claimOverdueEntry() {
+    PooledConnection oldest = null;
+    for (PoolEntry entry : bag.values(ConcurrentBag.Entry.IN_USE)) {
+      PooledConnection owner = entry.getOwner();
+      if (owner != null && (oldest == null || owner.getCheckoutTimestamp() < oldest.getCheckoutTimestamp())) {
+        oldest = owner;
+      }
+    }
+    if (oldest == null) {
+      return null;
+    }
+    long longestCheckoutTime = oldest.getCheckoutTime();
+    PoolEntry entry = oldest.getPoolEntry();
+    if (longestCheckoutTime <= poolMaximumCheckoutTime) {
+      detectLeak(oldest, false);
+      return null;
+    }
+    if (!entry.release(oldest)) {
+      return null;
+    }
+    detectLeak(oldest, true);
+    oldest.invalidate();
+    oldest.exitBulkhead();
+    state.claimedOverdueConnectionCount.increment();
+    metrics.recordClaimedOverdueConnection();
+    state.accumulatedCheckoutTimeOfOverdueConnections.add(longestCheckoutTime);
+    state.accumulatedCheckoutTime.add(longestCheckoutTime);
+    try {
+      if (!entry.getRealConnection().getAutoCommit()) {
+        entry.getRealConnection().rollback();
+      }
+    } catch (SQLException e) {
+      // the connection is validated before it is handed out
+      log.debug("Bad connection. Could not roll back");
+    }
+    if (log.isDebugEnabled()) {
+      log.debug("Claimed overdue connection " + oldest.getRealHashCode() + ".");
+    }
+    return entry;
+  }
+
+  private void discard(PoolEntry entry) {
+    if (bag.remove(entry)) {
+      totalConnections.decrementAndGet();
+      closeQuietly(entry);
+      replenishWaiters();
+    }
+  }
+
+  /**
+   * Opens connections for the threads waiting, since a discarded connection is never returned to them and they wait
+   * without limit when {@code poolTimeToWait} is zero or less.
+   */
+  private void replenishWaiters() {
+    while (bag.getWaitingThreadCount() > 0) {
+      PoolEntry entry;
+      try {
+        entry = createEntry();
+      } catch (SQLException e) {
+        log.warn("Could not open a connection for a waiting thread. Cause: " + e);
+        return;
+      }
+      if (entry == null) {
+        return;
+      }
+      if (!bag.requite(entry)) {
+        closeQuietly(entry);
+        return;
+      }
+    }
+  }
+
+  private void closeQuietly(PoolEntry entry) {
+    closeQuietly(entry.getRealConnection());
+  }
+
+}
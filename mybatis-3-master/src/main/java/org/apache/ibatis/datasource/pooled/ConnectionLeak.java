@@ -0,0 +1,109 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * A connection held longer than the leak detection threshold of its pool.
+ *
+ * @since 3.5.8
+ */
+public class ConnectionLeak {
+
+  private final int connectionHashCode;
+  private final long heldMillis;
+  private final boolean reclaimed;
+  private final CheckoutTrace trace;
+
+  ConnectionLeak(int connectionHashCode, long heldMillis, boolean reclaimed, CheckoutTrace trace) {
+    this.connectionHashCode = connectionHashCode;
+    this.heldMillis = heldMillis;
+    this.reclaimed = reclaimed;
+    this.trace = trace;
+  }
+
+  /**
+   * @return the hash code of the physical connection, as shown in the debug logs of the pool
+   */
+  public int getConnectionHashCode() {
+    return connectionHashCode;
+  }
+
+  /**
+   * @return the time the connection had been checked out when the leak was detected
+   */
+  public long getHeldMillis() {
+    return heldMillis;
+  }
+
+  /**
+   * @return true if the pool took the connection back because it exceeded poolMaximumCheckoutTime
+   */
+  public boolean isReclaimed() {
+    return reclaimed;
+  }
+
+  /**
+   * @return the name of the thread that checked the connection out
+   */
+  public String getThreadName() {
+    return trace.threadName;
+  }
+
+  /**
+   * @return the id of the mapped statement running when the connection was checked out, may be null
+   */
+  public String getStatementId() {
+    return trace.statementId;
+  }
+
+  /**
+   * @return the mapper resource of that statement, may be null
+   */
+  public String getResource() {
+    return trace.resource;
+  }
+
+  /**
+   * @return the stack of the checkout, null unless poolLeakDetectionStackTrace is enabled
+   */
+  public Throwable getCheckoutStackTrace() {
+    return trace.stackTrace;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder message = new StringBuilder();
+    message.append("Connection ").append(connectionHashCode).append(" has been checked out for ").append(heldMillis)
+        .append(" milliseconds by thread '").append(trace.threadName).append('\'');
+    if (trace.statementId != null) {
+      message.append(" running '").append(trace.statementId).append('\'');
+      if (trace.resource != null) {
+        message.append(" of ").append(trace.resource);
+      }
+    }
+    message.append(reclaimed ? ", it was reclaimed as overdue." : ", possible connection leak.");
+    if (trace.stackTrace != null) {
+      StringWriter stack = new StringWriter();
+      trace.stackTrace.printStackTrace(new PrintWriter(stack));
+      message.append(System.lineSeparator()).append(stack);
+    }
+    return message.toString();
+  }
+
+}
@@ -0,0 +1,189 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+import org.apache.ibatis.util.LatencyHistogram;
+
+/**
+ * Thread-safe recorder of the {@link PoolMetrics} of one pool.
+ * <p>
+ * The active and idle gauges are read from the given suppliers, which must not lock the pool either.
+ *
+ * @since 3.5.8
+ */
+public class DefaultPoolMetrics implements PoolMetrics {
+
+  private final IntSupplier activeConnections;
+  private final IntSupplier idleConnections;
+  private final IntSupplier maximumActiveConnections;
+  private final AtomicInteger pendingThreads = new AtomicInteger();
+  private final LongAdder timeouts = new LongAdder();
+  private final LongAdder badConnections = new LongAdder();
+  private final LongAdder claimedOverdueConnections = new LongAdder();
+  private final LongAdder statementCacheHits = new LongAdder();
+  private final LongAdder statementCacheMisses = new LongAdder();
+  private final LongAdder resizes = new LongAdder();
+  private final LongAdder bulkheadRejections = new LongAdder();
+  private final LatencyHistogram waitTime = new LatencyHistogram();
+  private final LatencyHistogram usageTime = new LatencyHistogram();
+  private final LatencyHistogram creationTime = new LatencyHistogram();
+
+  public DefaultPoolMetrics(IntSupplier activeConnections, IntSupplier idleConnections,
+      IntSupplier maximumActiveConnections) {
+    this.activeConnections = activeConnections;
+    this.idleConnections = idleConnections;
+    this.maximumActiveConnections = maximumActiveConnections;
+  }
+
+  public void recordWaitStart() {
+    pendingThreads.incrementAndGet();
+  }
+
+  public void recordWaitEnd(boolean timedOut) {
+    pendingThreads.decrementAndGet();
+    if (timedOut) {
+      timeouts.increment();
+    }
+  }
+
+  /**
+   * Records a wait that timed out while the thread keeps waiting.
+   */
+  public void recordTimeout() {
+    timeouts.increment();
+  }
+
+  public void recordCheckout(long nanos) {
+    waitTime.record(nanos);
+  }
+
+  public void recordReturn(long checkoutMillis) {
+    usageTime.record(checkoutMillis * 1000000L);
+  }
+
+  public void recordCreation(long nanos) {
+    creationTime.record(nanos);
+  }
+
+  public void recordBadConnection() {
+    badConnections.increment();
+  }
+
+  public void recordClaimedOverdueConnection() {
+    claimedOverdueConnections.increment();
+  }
+
+  public void recordStatementCacheHit() {
+    statementCacheHits.increment();
+  }
+
+  public void recordStatementCacheMiss() {
+    statementCacheMisses.increment();
+  }
+
+  public void recordResize() {
+    resizes.increment();
+  }
+
+  public void recordBulkheadRejection() {
+    bulkheadRejections.increment();
+  }
+
+  @Override
+  public int getActiveConnections() {
+    return activeConnections.getAsInt();
+  }
+
+  @Override
+  public int getIdleConnections() {
+    return idleConnections.getAsInt();
+  }
+
+  @Override
+  public int getMaximumActiveConnections() {
+    return maximumActiveConnections.getAsInt();
+  }
+
+  @Override
+  public int getPendingThreads() {
+    return pendingThreads.get();
+  }
+
+  @Override
+  public long getTimeouts() {
+    return timeouts.sum();
+  }
+
+  @Override
+  public long getBadConnections() {
+    return badConnections.sum();
+  }
+
+  @Override
+  public long getClaimedOverdueConnections() {
+    return claimedOverdueConnections.sum();
+  }
+
+  @Override
+  public long getStatementCacheHits() {
+    return statementCacheHits.sum();
+  }
+
+  @Override
+  public long getStatementCacheMisses() {
+    return statementCacheMisses.sum();
+  }
+
+  @Override
+  public long getResizes() {
+    return resizes.sum();
+  }
+
+  @Override
+  public long getBulkheadRejections() {
+    return bulkheadRejections.sum();
+  }
+
+  @Override
+  public LatencyHistogram getWaitTime() {
+    return waitTime;
+  }
+
+  @Override
+  public LatencyHistogram getUsageTime() {
+    return usageTime;
+  }
+
+  @Override
+  public LatencyHistogram getCreationTime() {
+    return creationTime;
+  }
+
+  @Override
+  public String toString() {
+    return "active=" + getActiveConnections() + ", idle=" + getIdleConnections() + ", maximumActive="
+        + getMaximumActiveConnections() + ", pending=" + getPendingThreads() + ", timeouts=" + getTimeouts()
+        + ", bad=" + getBadConnections() + ", claimedOverdue=" + getClaimedOverdueConnections()
+        + ", statementCacheHits=" + getStatementCacheHits() + ", statementCacheMisses=" + getStatementCacheMisses()
+        + ", resizes=" + getResizes() + ", bulkheadRejections=" + getBulkheadRejections() + ", wait=[" + waitTime
+        + "], usage=[" + usageTime + "], creation=[" + creationTime + "]";
+  }
+
+}
@@ -0,0 +1,98 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the connections checked out for the statements of a mapper namespace, or for one mapped statement, so that
+ * slow statements cannot take the whole pool. See {@link PooledDataSource#setPoolBulkhead(String, int)}.
+ *
+ * @since 3.5.8
+ */
+public class PoolBulkhead {
+
+  private final String name;
+  private final int maximumConnections;
+  private final Semaphore permits;
+  private final LongAdder rejections = new LongAdder();
+
+  PoolBulkhead(String name, int maximumConnections) {
+    this.name = name;
+    this.maximumConnections = maximumConnections;
+    this.permits = new Semaphore(maximumConnections, true);
+  }
+
+  /**
+   * @return the namespace or the mapped statement id the bulkhead applies to
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return the number of connections the statements can have checked out together
+   */
+  public int getMaximumConnections() {
+    return maximumConnections;
+  }
+
+  /**
+   * @return the number of connections currently checked out for the statements
+   */
+  public int getActiveConnections() {
+    return maximumConnections - permits.availablePermits();
+  }
+
+  /**
+   * @return the number of threads waiting to enter the bulkhead
+   */
+  public int getWaitingThreads() {
+    return permits.getQueueLength();
+  }
+
+  /**
+   * @return the number of checkouts refused because the bulkhead was full
+   */
+  public long getRejections() {
+    return rejections.sum();
+  }
+
+  /**
+   * Takes a place in the bulkhead, waiting at most the given time for one, 0 does not wait.
+   */
+  boolean enter(long waitMillis) throws InterruptedException {
+    // honors the order of the threads already waiting, even without waiting
+    if (permits.tryAcquire(waitMillis, TimeUnit.MILLISECONDS)) {
+      return true;
+    }
+    rejections.increment();
+    return false;
+  }
+
+  void exit() {
+    permits.release();
+  }
+
+  @Override
+  public String toString() {
+    return name + ": active=" + getActiveConnections() + "/" + maximumConnections + ", waiting=" + getWaitingThreads()
+        + ", rejections=" + getRejections();
+  }
+
+}
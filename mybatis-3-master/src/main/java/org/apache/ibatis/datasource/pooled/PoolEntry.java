@@ -0,0 +1,93 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.sql.Connection;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A physical connection kept by {@link ConcurrentPooledDataSource}. Every checkout hands out a new
+ * {@link PooledConnection} proxy, the entry remembers which one currently owns the connection so that a proxy closed
+ * late (after its connection was claimed as overdue or the pool was reset) cannot return it a second time.
+ */
+class PoolEntry extends ConcurrentBag.Entry {
+
+  private static final long serialVersionUID = 1L;
+
+  private final transient Connection realConnection;
+  private final transient AtomicReference<PooledConnection> owner = new AtomicReference<>();
+  private final transient StatementCache statementCache;
+  private final long createdTimestamp;
+  private volatile long lastUsedTimestamp;
+
+  PoolEntry(Connection realConnection, StatementCache statementCache) {
+    super(IN_USE);
+    this.realConnection = realConnection;
+    this.statementCache = statementCache;
+    this.createdTimestamp = System.currentTimeMillis();
+    this.lastUsedTimestamp = createdTimestamp;
+  }
+
+  Connection getRealConnection() {
+    return realConnection;
+  }
+
+  long getCreatedTimestamp() {
+    return createdTimestamp;
+  }
+
+  long getLastUsedTimestamp() {
+    return lastUsedTimestamp;
+  }
+
+  void setLastUsedTimestamp(long lastUsedTimestamp) {
+    this.lastUsedTimestamp = lastUsedTimestamp;
+  }
+
+  PooledConnection getOwner() {
+    return owner.get();
+  }
+
+  /**
+   * Wraps the connection into a new proxy for a checkout.
+   */
+  PooledConnection checkout(PooledDataSource dataSource) {
+    PooledConnection conn = new PooledConnection(realConnection, dataSource);
+    conn.setPoolEntry(this);
+    conn.setStatementCache(statementCache);
+    conn.setCreatedTimestamp(createdTimestamp);
+    conn.setLastUsedTimestamp(lastUsedTimestamp);
+    // set before the proxy is published, an owner without checkout timestamp would look overdue
+    conn.setCheckoutTimestamp(System.currentTimeMillis());
+    owner.set(conn);
+    return conn;
+  }
+
+  /**
+   * Releases the connection from the proxy that owns it.
+   *
+   * @return true if {@code conn} owned the connection and this call released it
+   */
+  boolean release(PooledConnection conn) {
+    return conn != null && owner.compareAndSet(conn, null);
+  }
+
+  @Override
+  public String toString() {
+    return "PoolEntry[" + realConnection + ", state=" + get() + "]";
+  }
+
+}
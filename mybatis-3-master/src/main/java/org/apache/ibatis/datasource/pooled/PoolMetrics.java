@@ -0,0 +1,100 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import org.apache.ibatis.util.LatencyHistogram;
+
+/**
+ * Statistics of a connection pool, obtained with {@link PoolState#getMetrics()}.
+ * <p>
+ * Unlike the averages of {@link PoolState}, reading the metrics never takes the lock of the pool. The counters are
+ * cumulative since the pool was created, the gauges are the current values.
+ *
+ * @since 3.5.8
+ */
+public interface PoolMetrics {
+
+  /**
+   * @return the number of connections currently checked out
+   */
+  int getActiveConnections();
+
+  /**
+   * @return the number of connections currently idle in the pool
+   */
+  int getIdleConnections();
+
+  /**
+   * @return the current limit of checked out connections, which follows the load when adaptive sizing is enabled
+   */
+  int getMaximumActiveConnections();
+
+  /**
+   * @return the number of threads currently waiting for a connection
+   */
+  int getPendingThreads();
+
+  /**
+   * @return the number of times a thread waited poolTimeToWait without getting a connection
+   */
+  long getTimeouts();
+
+  /**
+   * @return the number of connections discarded because they failed the validation
+   */
+  long getBadConnections();
+
+  /**
+   * @return the number of overdue connections taken back from the threads that had checked them out
+   */
+  long getClaimedOverdueConnections();
+
+  /**
+   * @return the number of prepared statements reused from the statement cache of a connection
+   */
+  long getStatementCacheHits();
+
+  /**
+   * @return the number of prepared statements created because the statement cache of the connection had none
+   */
+  long getStatementCacheMisses();
+
+  /**
+   * @return the number of times adaptive sizing changed the size of the pool
+   */
+  long getResizes();
+
+  /**
+   * @return the number of checkouts refused because the bulkhead of the statement was full
+   */
+  long getBulkheadRejections();
+
+  /**
+   * @return the time threads took to get a connection, including the time spent waiting and validating it
+   */
+  LatencyHistogram getWaitTime();
+
+  /**
+   * @return the time connections were checked out, recorded when they are returned
+   */
+  LatencyHistogram getUsageTime();
+
+  /**
+   * @return the time taken to open new physical connections
+   */
+  LatencyHistogram getCreationTime();
+
+}
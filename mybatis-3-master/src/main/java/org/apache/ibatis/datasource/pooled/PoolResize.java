@@ -0,0 +1,106 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.util.Locale;
+
+/**
+ * A sizing decision of a pool with adaptive sizing, and the statistics it was based on.
+ *
+ * @since 3.5.8
+ */
+public class PoolResize {
+
+  private final int previousSize;
+  private final int newSize;
+  private final double checkoutsPerSecond;
+  private final double meanUsageMillis;
+  private final double connectionsInUse;
+  private final int pendingThreads;
+  private final long timeouts;
+
+  PoolResize(int previousSize, int newSize, double checkoutsPerSecond, double meanUsageMillis,
+      double connectionsInUse, int pendingThreads, long timeouts) {
+    this.previousSize = previousSize;
+    this.newSize = newSize;
+    this.checkoutsPerSecond = checkoutsPerSecond;
+    this.meanUsageMillis = meanUsageMillis;
+    this.connectionsInUse = connectionsInUse;
+    this.pendingThreads = pendingThreads;
+    this.timeouts = timeouts;
+  }
+
+  /**
+   * @return the maximum number of connections before the decision
+   */
+  public int getPreviousSize() {
+    return previousSize;
+  }
+
+  /**
+   * @return the maximum number of connections after the decision
+   */
+  public int getNewSize() {
+    return newSize;
+  }
+
+  /**
+   * @return the number of checkouts per second since the previous decision
+   */
+  public double getCheckoutsPerSecond() {
+    return checkoutsPerSecond;
+  }
+
+  /**
+   * @return the mean time the connections returned since the previous decision were checked out
+   */
+  public double getMeanUsageMillis() {
+    return meanUsageMillis;
+  }
+
+  /**
+   * @return the mean number of connections in use derived from the two values above (Little's law)
+   */
+  public double getConnectionsInUse() {
+    return connectionsInUse;
+  }
+
+  /**
+   * @return the number of threads waiting for a connection when the decision was made
+   */
+  public int getPendingThreads() {
+    return pendingThreads;
+  }
+
+  /**
+   * @return the number of waits that timed out since the previous decision
+   */
+  public long getTimeouts() {
+    return timeouts;
+  }
+
+  @Override
+  public String toString() {
+    String statistics = String.format(Locale.ROOT,
+        "%.1f checkouts/s x %.1f ms mean usage = %.1f connections in use, %d waiting, %d timeouts",
+        checkoutsPerSecond, meanUsageMillis, connectionsInUse, pendingThreads, timeouts);
+    if (newSize == previousSize) {
+      return "Kept the pool size at " + newSize + " connections: " + statistics + ".";
+    }
+    return "Resized the pool from " + previousSize + " to " + newSize + " connections: " + statistics + ".";
+  }
+
+}
@@ -15,22 +15,15 @@
  */
 package org.apache.ibatis.datasource.pooled;
 
-import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.Method;
-import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.SQLException;
-
-import org.apache.ibatis.reflection.ExceptionUtil;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * 连接池连接：代理了数据库的连接，用于实现数据库连接池，在关闭的时候把连接放回到 PooledDataSource中去
  * @author Clinton Begin
  */
-class PooledConnection implements InvocationHandler {
-
-  private static final String CLOSE = "close";
-  private static final Class<?>[] IFACES = new Class<?>[] { Connection.class };
+class PooledConnection {
 
   private final int hashCode;
   private final PooledDataSource dataSource;
@@ -40,7 +33,11 @@ class PooledConnection implements InvocationHandler {
   private long createdTimestamp;
   private long lastUsedTimestamp;
   private int connectionTypeCode;
-  private boolean valid;
+  private volatile boolean valid;
+  private PoolEntry poolEntry;
+  private volatile CheckoutTrace checkoutTrace;
+  private StatementCache statementCache;
+  private final AtomicReference<PoolBulkhead> bulkhead = new AtomicReference<>();
 
   /**
    * Constructor for SimplePooledConnection that uses the Connection and PooledDataSource passed in.
@@ -57,7 +54,7 @@ class PooledConnection implements InvocationHandler {
     this.createdTimestamp = System.currentTimeMillis();
     this.lastUsedTimestamp = System.currentTimeMillis();
     this.valid = true;
-    this.proxyConnection = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), IFACES, this);
+    this.proxyConnection = new ProxyConnection(this);
   }
 
   /**
@@ -76,6 +73,53 @@ class PooledConnection implements InvocationHandler {
     return valid && realConnection != null && dataSource.pingConnection(this);
   }
 
+  StatementCache getStatementCache() {
+    return statementCache;
+  }
+
+  void setStatementCache(StatementCache statementCache) {
+    this.statementCache = statementCache;
+  }
+
+  /**
+   * Checks the connection without pinging the database.
+   *
+   * @return false once the connection was returned to the pool or reclaimed
+   */
+  boolean isUsable() {
+    return valid;
+  }
+
+  CheckoutTrace getCheckoutTrace() {
+    return checkoutTrace;
+  }
+
+  void setCheckoutTrace(CheckoutTrace checkoutTrace) {
+    this.checkoutTrace = checkoutTrace;
+  }
+
+  void setBulkhead(PoolBulkhead bulkhead) {
+    this.bulkhead.set(bulkhead);
+  }
+
+  /**
+   * Leaves the bulkhead the connection was checked out in, once even if the connection is returned twice.
+   */
+  void exitBulkhead() {
+    PoolBulkhead entered = bulkhead.getAndSet(null);
+    if (entered != null) {
+      entered.exit();
+    }
+  }
+
+  PoolEntry getPoolEntry() {
+    return poolEntry;
+  }
+
+  void setPoolEntry(PoolEntry poolEntry) {
+    this.poolEntry = poolEntry;
+  }
+
   /**
    * Getter for the *real* connection that this wraps.
    *
@@ -229,38 +273,11 @@ class PooledConnection implements InvocationHandler {
     }
   }
 
-  /**
-   * Required for InvocationHandler implementation.
-   *
-   * @param proxy
-   *          - not used
-   * @param method
-   *          - the method to be executed
-   * @param args
-   *          - the parameters to be passed to the method
-   * @see java.lang.reflect.InvocationHandler#invoke(Object, java.lang.reflect.Method, Object[])
-   */
-  @Override
-  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-    String methodName = method.getName();
-    if (CLOSE.equals(methodName)) {
-      dataSource.pushConnection(this);
-      return null;
-    }
-    try {
-      if (!Object.class.equals(method.getDeclaringClass())) {
-        // issue #579 toString() should never fail
-        // throw an SQLException instead of a Runtime
-        checkConnection();
-      }
-      return method.invoke(realConnection, args);
-    } catch (Throwable t) {
-      throw ExceptionUtil.unwrapThrowable(t);
-    }
-
+  PooledDataSource getDataSource() {
+    return dataSource;
   }
 
-  private void checkConnection() throws SQLException {
+  void checkConnection() throws SQLException {
     if (!valid) {
       throw new SQLException("Error accessing PooledConnection. Connection is invalid.");
     }
@@ -16,18 +16,30 @@
 package org.apache.ibatis.datasource.pooled;
 
 import java.io.PrintWriter;
-import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Logger;
 
 import javax.sql.DataSource;
 
 import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
+import org.apache.ibatis.executor.ErrorContext;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
 
@@ -39,6 +51,7 @@ import org.apache.ibatis.logging.LogFactory;
 public class PooledDataSource implements DataSource {
 
   private static final Log log = LogFactory.getLog(PooledDataSource.class);
+  private static final int DEFAULT_ADAPTIVE_SIZING_PERIOD = 10000;
 
   private final PoolState state = new PoolState(this);
 
@@ -53,8 +66,27 @@ public class PooledDataSource implements DataSource {
   protected String poolPingQuery = "NO PING QUERY SET";
   protected boolean poolPingEnabled;
   protected int poolPingConnectionsNotUsedFor;
+  protected int poolMinimumIdle;
+  protected int poolMaximumLifetime;
+  protected int poolHousekeepingPeriod;
+  protected int poolLeakDetectionThreshold;
+  protected boolean poolLeakDetectionStackTrace;
+  protected int poolPreparedStatementCacheSize;
+  protected boolean poolAdaptiveSizing;
+  protected int poolAdaptiveMinimumConnections = 1;
+  protected boolean poolBulkheadFastFail;
 
   private int expectedConnectionTypeCode;
+  private PoolHousekeeper housekeeper;
+  private volatile int activeConnectionCount;
+  private volatile int idleConnectionCount;
+  private final DefaultPoolMetrics metrics = new DefaultPoolMetrics(() -> activeConnectionCount,
+      () -> idleConnectionCount, this::maximumActiveConnections);
+  private volatile ConnectionLeakListener connectionLeakListener = PooledDataSource::logLeak;
+  private final AdaptivePoolSizer sizer = new AdaptivePoolSizer();
+  private volatile int adaptivePoolSize = Integer.MAX_VALUE;
+  private volatile PoolResizeListener poolResizeListener;
+  private final Map<String, PoolBulkhead> bulkheads = new ConcurrentHashMap<>();
 
   public PooledDataSource() {
     dataSource = new UnpooledDataSource();
@@ -94,6 +126,75 @@ public class PooledDataSource implements DataSource {
     return popConnection(username, password).getProxyConnection();
   }
 
+  /**
+   * Gets a connection without waiting for the pool in the calling thread.
+   *
+   * @return a future completed with a connection once one is available
+   * @see #getConnectionAsync(long, TimeUnit)
+   * @since 3.5.8
+   */
+  public CompletableFuture<Connection> getConnectionAsync() {
+    return getConnectionAsync(0L, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Gets a connection without waiting for the pool in the calling thread. When the pool is exhausted the request is
+   * queued behind the ones already waiting, blocking or not, and the next connection returned to the pool is handed
+   * to the oldest request. The future may therefore be completed by the thread that closes a connection, dependent
+   * stages that block should run on their own executor. Cancelling the future withdraws the request, a connection
+   * handed to a cancelled request goes back to the pool. A request made for a statement whose bulkhead is full fails at
+   * once.
+   *
+   * @param timeout
+   *          the longest time to wait for a connection, 0 waits without limit
+   * @param unit
+   *          the unit of the timeout
+   * @return a future completed with a connection, or with an {@link SQLTimeoutException} when the timeout elapses
+   * @since 3.5.8
+   */
+  public CompletableFuture<Connection> getConnectionAsync(long timeout, TimeUnit unit) {
+    CompletableFuture<Connection> result = new CompletableFuture<>();
+    CompletableFuture<PooledConnection> checkout;
+    PoolBulkhead bulkhead = null;
+    try {
+      // never waits for the bulkhead, the request is refused when it is full
+      bulkhead = enterBulkhead(false);
+      checkout = popConnectionAsync(getUsername(), getPassword());
+    } catch (SQLException | RuntimeException e) {
+      if (bulkhead != null) {
+        bulkhead.exit();
+      }
+      result.completeExceptionally(e);
+      return result;
+    }
+    PoolBulkhead entered = bulkhead;
+    checkout.whenComplete((conn, failure) -> {
+      if (failure != null) {
+        if (entered != null) {
+          entered.exit();
+        }
+        result.completeExceptionally(failure);
+        return;
+      }
+      conn.setBulkhead(entered);
+      if (!result.complete(conn.getProxyConnection())) {
+        returnAbandonedConnection(conn);
+      }
+    });
+    result.whenComplete((conn, failure) -> {
+      if (failure != null) {
+        checkout.cancel(false);
+      }
+    });
+    if (timeout > 0 && !result.isDone()) {
+      ScheduledFuture<?> timer = CheckoutTimer.schedule(() -> result.completeExceptionally(new SQLTimeoutException(
+          "PooledDataSource: Timed out after " + unit.toMillis(timeout) + " milliseconds waiting for a connection.")),
+          timeout, unit);
+      result.whenComplete((conn, failure) -> timer.cancel(false));
+    }
+    return result;
+  }
+
   @Override
   public void setLoginTimeout(int loginTimeout) {
     DriverManager.setLoginTimeout(loginTimeout);
@@ -210,7 +311,7 @@ public class PooledDataSource implements DataSource {
   }
 
   /**
-   * The time to wait before retrying to get a connection.
+   * The time to wait before retrying to get a connection, zero or less to wait until a connection is available.
    *
    * @param poolTimeToWait
    *          The time to wait
@@ -254,6 +355,196 @@ public class PooledDataSource implements DataSource {
     forceCloseAll();
   }
 
+  /**
+   * The number of idle connections the housekeeper keeps open, never more than poolMaximumIdleConnections.
+   *
+   * @param poolMinimumIdle
+   *          the minimum number of idle connections
+   * @since 3.5.8
+   */
+  public void setPoolMinimumIdle(int poolMinimumIdle) {
+    this.poolMinimumIdle = poolMinimumIdle;
+  }
+
+  /**
+   * The time after which a connection is closed instead of being returned to the pool, 0 (the default) keeps
+   * connections open indefinitely. Each connection is retired up to 2.5% earlier, so that connections opened together
+   * are not all closed at the same time.
+   *
+   * @param milliseconds
+   *          the maximum lifetime of a connection
+   * @since 3.5.8
+   */
+  public void setPoolMaximumLifetime(int milliseconds) {
+    this.poolMaximumLifetime = milliseconds;
+  }
+
+  /**
+   * The delay between two runs of the housekeeper, 0 (the default) disables it. The housekeeper opens the connections
+   * missing to reach poolMinimumIdle, retires the idle connections that exceeded poolMaximumLifetime and, if
+   * poolPingEnabled, pings the idle connections not used for poolPingConnectionsNotUsedFor so that the ping does not
+   * happen on checkout.
+   *
+   * @param milliseconds
+   *          the delay between two runs
+   * @since 3.5.8
+   */
+  public void setPoolHousekeepingPeriod(int milliseconds) {
+    this.poolHousekeepingPeriod = milliseconds;
+  }
+
+  /**
+   * Reports the connections checked out for longer than this many milliseconds, 0 (the default) disables the leak
+   * detection. The leaks are detected when the connection is returned, claimed as overdue, or found by the
+   * housekeeper (see {@link #setPoolHousekeepingPeriod(int)}), and reported once per checkout.
+   *
+   * @param milliseconds
+   *          the leak detection threshold
+   * @since 3.5.8
+   */
+  public void setPoolLeakDetectionThreshold(int milliseconds) {
+    this.poolLeakDetectionThreshold = milliseconds;
+  }
+
+  /**
+   * Records the stack of each checkout when leak detection is enabled. The mapped statement and the thread are
+   * always recorded, the stack shows the caller but makes checkouts noticeably slower.
+   *
+   * @param poolLeakDetectionStackTrace
+   *          true to record the checkout stack
+   * @since 3.5.8
+   */
+  public void setPoolLeakDetectionStackTrace(boolean poolLeakDetectionStackTrace) {
+    this.poolLeakDetectionStackTrace = poolLeakDetectionStackTrace;
+  }
+
+  /**
+   * The number of prepared statements cached by each connection, 0 (the default) disables the cache. The cache is
+   * keyed by the arguments of {@code prepareStatement} and survives the return of the connection to the pool, so a
+   * statement is prepared once per physical connection. Closing a statement puts it back in the cache, the least
+   * recently used statements are closed when the cache is full.
+   *
+   * @param poolPreparedStatementCacheSize
+   *          the number of statements cached per connection
+   * @since 3.5.8
+   */
+  public void setPoolPreparedStatementCacheSize(int poolPreparedStatementCacheSize) {
+    this.poolPreparedStatementCacheSize = poolPreparedStatementCacheSize;
+    forceCloseAll();
+  }
+
+  /**
+   * Lets the pool grow and shrink with the load between poolAdaptiveMinimumConnections and
+   * poolMaximumActiveConnections, instead of keeping up to poolMaximumIdleConnections connections open. At each run,
+   * the housekeeper sizes the pool for the checkout rate times the mean checkout time it observed (Little's law) plus
+   * a headroom, grows it further when threads had to wait, and closes the idle connections beyond the new size. The
+   * pool starts at poolMaximumActiveConnections. The housekeeper runs every 10 seconds if poolHousekeepingPeriod is not
+   * set.
+   *
+   * @param poolAdaptiveSizing
+   *          true to size the pool from its metrics
+   * @since 3.5.8
+   */
+  public void setPoolAdaptiveSizing(boolean poolAdaptiveSizing) {
+    this.poolAdaptiveSizing = poolAdaptiveSizing;
+    this.adaptivePoolSize = Integer.MAX_VALUE;
+  }
+
+  /**
+   * The size adaptive sizing never goes below.
+   *
+   * @param poolAdaptiveMinimumConnections
+   *          the minimum size of the pool
+   * @since 3.5.8
+   */
+  public void setPoolAdaptiveMinimumConnections(int poolAdaptiveMinimumConnections) {
+    this.poolAdaptiveMinimumConnections = poolAdaptiveMinimumConnections;
+  }
+
+  /**
+   * Sets the listener the size changes made by adaptive sizing are reported to. Every decision is also logged at the
+   * debug level.
+   *
+   * @param poolResizeListener
+   *          the listener, may be null
+   * @since 3.5.8
+   */
+  public void setPoolResizeListener(PoolResizeListener poolResizeListener) {
+    this.poolResizeListener = poolResizeListener;
+  }
+
+  /**
+   * Sets the bulkheads of the pool from a list of {@code name=maximumConnections} separated by commas, where name is a
+   * mapper namespace or a mapped statement id, e.g. {@code com.example.ReportMapper=2}. Replaces the bulkheads set
+   * before.
+   *
+   * @param bulkheads
+   *          the bulkheads, null or empty removes them
+   * @see #setPoolBulkhead(String, int)
+   * @since 3.5.8
+   */
+  public void setPoolBulkheads(String bulkheads) {
+    this.bulkheads.clear();
+    if (bulkheads == null) {
+      return;
+    }
+    for (String bulkhead : bulkheads.split(",")) {
+      if (bulkhead.trim().isEmpty()) {
+        continue;
+      }
+      int separator = bulkhead.lastIndexOf('=');
+      if (separator < 0) {
+        throw new IllegalArgumentException(
+            "Invalid pool bulkhead '" + bulkhead.trim() + "', expected name=maximumConnections.");
+      }
+      String name = bulkhead.substring(0, separator).trim();
+      setPoolBulkhead(name, Integer.parseInt(bulkhead.substring(separator + 1).trim()));
+    }
+  }
+
+  /**
+   * Limits the connections checked out for the statements of a mapper namespace, or for one mapped statement, so that
+   * they cannot take the whole pool. The bulkhead of the statement id applies if there is one, else the one of its
+   * namespace. The connection is counted from the checkout made for the statement until it is closed, even if the
+   * session runs other statements on it. A checkout made when the bulkhead is full waits up to poolTimeToWait for a
+   * place, or fails at once with poolBulkheadFastFail, and is refused with an SQLException.
+   *
+   * @param name
+   *          the mapper namespace or the mapped statement id
+   * @param maximumConnections
+   *          the number of connections the statements can have checked out together, 0 or less removes the bulkhead
+   * @since 3.5.8
+   */
+  public void setPoolBulkhead(String name, int maximumConnections) {
+    if (maximumConnections > 0) {
+      bulkheads.put(name, new PoolBulkhead(name, maximumConnections));
+    } else {
+      bulkheads.remove(name);
+    }
+  }
+
+  /**
+   * Refuses the checkouts made when their bulkhead is full at once, instead of waiting up to poolTimeToWait.
+   *
+   * @param poolBulkheadFastFail
+   *          true to fail fast
+   * @since 3.5.8
+   */
+  public void setPoolBulkheadFastFail(boolean poolBulkheadFastFail) {
+    this.poolBulkheadFastFail = poolBulkheadFastFail;
+  }
+
+  /**
+   * Sets the listener the leaks are reported to, by default they are logged as warnings.
+   *
+   * @param connectionLeakListener
+   *          the listener, null restores the default one
+   * @since 3.5.8
+   */
+  public void setConnectionLeakListener(ConnectionLeakListener connectionLeakListener) {
+    this.connectionLeakListener = connectionLeakListener == null ? PooledDataSource::logLeak : connectionLeakListener;
+  }
+
   public String getDriver() {
     return dataSource.getDriver();
   }
@@ -324,16 +615,101 @@ public class PooledDataSource implements DataSource {
     return poolPingConnectionsNotUsedFor;
   }
 
+  public int getPoolMinimumIdle() {
+    return poolMinimumIdle;
+  }
+
+  public int getPoolMaximumLifetime() {
+    return poolMaximumLifetime;
+  }
+
+  public int getPoolHousekeepingPeriod() {
+    return poolHousekeepingPeriod;
+  }
+
+  public int getPoolPreparedStatementCacheSize() {
+    return poolPreparedStatementCacheSize;
+  }
+
+  public int getPoolLeakDetectionThreshold() {
+    return poolLeakDetectionThreshold;
+  }
+
+  public boolean isPoolLeakDetectionStackTrace() {
+    return poolLeakDetectionStackTrace;
+  }
+
+  public boolean isPoolAdaptiveSizing() {
+    return poolAdaptiveSizing;
+  }
+
+  public int getPoolAdaptiveMinimumConnections() {
+    return poolAdaptiveMinimumConnections;
+  }
+
+  public PoolResizeListener getPoolResizeListener() {
+    return poolResizeListener;
+  }
+
+  public boolean isPoolBulkheadFastFail() {
+    return poolBulkheadFastFail;
+  }
+
+  /**
+   * Returns the bulkheads of the pool, with the connections they hold and the checkouts they refused.
+   *
+   * @return the bulkheads
+   * @since 3.5.8
+   */
+  public Collection<PoolBulkhead> getBulkheads() {
+    return Collections.unmodifiableCollection(bulkheads.values());
+  }
+
+  public ConnectionLeakListener getConnectionLeakListener() {
+    return connectionLeakListener;
+  }
+
+  /**
+   * Starts the background housekeeping if poolHousekeepingPeriod is set or poolAdaptiveSizing enabled. The first run
+   * warms the pool up to poolMinimumIdle connections. {@link PooledDataSourceFactory} calls this method once the
+   * properties are set.
+   *
+   * @since 3.5.8
+   */
+  public synchronized void startHousekeeping() {
+    stopHousekeeping();
+    if (poolHousekeepingPeriod > 0) {
+      housekeeper = PoolHousekeeper.start(this, poolHousekeepingPeriod);
+    } else if (poolAdaptiveSizing) {
+      housekeeper = PoolHousekeeper.start(this, DEFAULT_ADAPTIVE_SIZING_PERIOD);
+    }
+  }
+
+  /**
+   * Stops the background housekeeping.
+   *
+   * @since 3.5.8
+   */
+  public synchronized void stopHousekeeping() {
+    if (housekeeper != null) {
+      housekeeper.stop();
+      housekeeper = null;
+    }
+  }
+
   /**
    * Closes all active and idle connections in the pool.
    */
   public void forceCloseAll() {
-    synchronized (state) {
+    List<CheckoutRequest> served;
+    state.lock.lock();
+    try {
       expectedConnectionTypeCode = assembleConnectionTypeCode(dataSource.getUrl(), dataSource.getUsername(), dataSource.getPassword());
       for (int i = state.activeConnections.size(); i > 0; i--) {
         try {
           PooledConnection conn = state.activeConnections.remove(i - 1);
           conn.invalidate();
+          conn.exitBulkhead();
 
           Connection realConn = conn.getRealConnection();
           if (!realConn.getAutoCommit()) {
@@ -358,7 +734,13 @@ public class PooledDataSource implements DataSource {
           // ignore
         }
       }
+      updateConnectionCounts();
+      // the waiting requests can open new connections now
+      served = servePendingCheckouts();
+    } finally {
+      state.lock.unlock();
     }
+    completeCheckouts(served);
     if (log.isDebugEnabled()) {
       log.debug("PooledDataSource forcefully closed/removed all connections.");
     }
@@ -368,30 +750,161 @@ public class PooledDataSource implements DataSource {
     return state;
   }
 
-  private int assembleConnectionTypeCode(String url, String username, String password) {
+  DefaultPoolMetrics getPoolMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Enters the bulkhead of the mapped statement running in this thread, before a connection is checked out for it.
+   *
+   * @return the bulkhead entered, null if the statement has none
+   * @throws SQLException
+   *           if the bulkhead is full
+   */
+  PoolBulkhead enterBulkhead(boolean mayWait) throws SQLException {
+    if (bulkheads.isEmpty()) {
+      return null;
+    }
+    PoolBulkhead bulkhead = findBulkhead(ErrorContext.instance().getObject());
+    if (bulkhead == null) {
+      return null;
+    }
+    try {
+      if (bulkhead.enter(mayWait && !poolBulkheadFastFail ? poolTimeToWait : 0)) {
+        return bulkhead;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("PooledDataSource: Interrupted while waiting for a connection.", e);
+    }
+    getPoolMetrics().recordBulkheadRejection();
+    if (log.isDebugEnabled()) {
+      log.debug("Refused a connection to the bulkhead " + bulkhead + ".");
+    }
+    throw new SQLException("PooledDataSource: The bulkhead of '" + bulkhead.getName() + "' has its "
+        + bulkhead.getMaximumConnections() + " connections checked out.");
+  }
+
+  private PoolBulkhead findBulkhead(String statementId) {
+    if (statementId == null) {
+      return null;
+    }
+    PoolBulkhead bulkhead = bulkheads.get(statementId);
+    int lastDot = statementId.lastIndexOf('.');
+    if (bulkhead == null && lastDot > 0) {
+      bulkhead = bulkheads.get(statementId.substring(0, lastDot));
+    }
+    return bulkhead;
+  }
+
+  /**
+   * The number of connections that can be checked out, poolMaximumActiveConnections unless adaptive sizing lowered it.
+   */
+  int maximumActiveConnections() {
+    return poolAdaptiveSizing ? Math.min(adaptivePoolSize, poolMaximumActiveConnections) : poolMaximumActiveConnections;
+  }
+
+  /**
+   * The number of connections kept open when they are returned, the size of the pool with adaptive sizing.
+   */
+  int maximumIdleConnections() {
+    return poolAdaptiveSizing ? maximumActiveConnections() : poolMaximumIdleConnections;
+  }
+
+  /**
+   * Sizes the pool from the metrics gathered since the previous run, called by the housekeeper.
+   *
+   * @return the number of connections that can be opened for the waiting threads, 0 unless the pool grew
+   */
+  int adaptPoolSize() {
+    if (!poolAdaptiveSizing) {
+      return 0;
+    }
+    int currentSize = maximumActiveConnections();
+    PoolResize resize = sizer.evaluate(getPoolMetrics(), currentSize,
+        Math.min(poolAdaptiveMinimumConnections, poolMaximumActiveConnections), poolMaximumActiveConnections,
+        System.nanoTime());
+    if (resize == null) {
+      return 0;
+    }
+    if (log.isDebugEnabled()) {
+      log.debug(resize.toString());
+    }
+    if (resize.getNewSize() == currentSize) {
+      return 0;
+    }
+    adaptivePoolSize = resize.getNewSize();
+    getPoolMetrics().recordResize();
+    PoolResizeListener listener = poolResizeListener;
+    if (listener != null) {
+      try {
+        listener.onResize(resize);
+      } catch (RuntimeException e) {
+        log.warn("Error calling the pool resize listener. Cause: " + e);
+      }
+    }
+    return Math.max(0, resize.getNewSize() - currentSize);
+  }
+
+  /*在持有 state 锁的时候调用，让读取 metrics 的线程不用再去拿锁*/
+  private void updateConnectionCounts() {
+    activeConnectionCount = state.activeConnections.size();
+    idleConnectionCount = state.idleConnections.size();
+  }
+
+  StatementCache newStatementCache() {
+    return poolPreparedStatementCacheSize > 0 ? new StatementCache(poolPreparedStatementCacheSize, metrics) : null;
+  }
+
+  private PooledConnection wrapNewConnection() throws SQLException {
+    PooledConnection conn = new PooledConnection(openConnection(), this);
+    conn.setStatementCache(newStatementCache());
+    return conn;
+  }
+
+  private Connection openConnection() throws SQLException {
+    long start = System.nanoTime();
+    Connection connection = dataSource.getConnection();
+    metrics.recordCreation(System.nanoTime() - start);
+    return connection;
+  }
+
+  UnpooledDataSource getUnpooledDataSource() {
+    return dataSource;
+  }
+
+  int assembleConnectionTypeCode(String url, String username, String password) {
     return ("" + url + username + password).hashCode();
   }
 
   protected void pushConnection(PooledConnection conn) throws SQLException {
 
-    synchronized (state) {
+    conn.exitBulkhead();
+    detectLeak(conn, false);
+    List<CheckoutRequest> served = Collections.emptyList();
+    state.lock.lock();
+    try {
       state.activeConnections.remove(conn);
+      updateConnectionCounts();
       if (conn.isValid()) {
-        if (state.idleConnections.size() < poolMaximumIdleConnections && conn.getConnectionTypeCode() == expectedConnectionTypeCode) {
+        metrics.recordReturn(conn.getCheckoutTime());
+        // a connection is kept for the pending checkouts even when poolMaximumIdleConnections is reached
+        if ((state.idleConnections.size() < maximumIdleConnections() || !state.pendingCheckouts.isEmpty())
+            && conn.getConnectionTypeCode() == expectedConnectionTypeCode && !isExpired(conn)) {
           state.accumulatedCheckoutTime += conn.getCheckoutTime();
           if (!conn.getRealConnection().getAutoCommit()) {
             conn.getRealConnection().rollback();
           }
           PooledConnection newConn = new PooledConnection(conn.getRealConnection(), this);
+          newConn.setStatementCache(conn.getStatementCache());
           state.idleConnections.add(newConn);
+          updateConnectionCounts();
           newConn.setCreatedTimestamp(conn.getCreatedTimestamp());
           newConn.setLastUsedTimestamp(conn.getLastUsedTimestamp());
           conn.invalidate();
           if (log.isDebugEnabled()) {
             log.debug("Returned connection " + newConn.getRealHashCode() + " to pool.");
           }
-          /*当连接达到最大的时候 添加了连接之后，通知其他在等待的线程popConnection（）已经有连接了*/
-          state.notifyAll();
         } else {
           state.accumulatedCheckoutTime += conn.getCheckoutTime();
           if (!conn.getRealConnection().getAutoCommit()) {
@@ -408,124 +921,498 @@ public class PooledDataSource implements DataSource {
           log.debug("A bad connection (" + conn.getRealHashCode() + ") attempted to return to the pool, discarding connection.");
         }
         state.badConnectionCount++;
+        metrics.recordBadConnection();
+      }
+    } finally {
+      /*归还或关闭连接之后，把空闲连接交给排队最久的请求*/
+      try {
+        served = servePendingCheckouts();
+      } finally {
+        state.lock.unlock();
       }
+      completeCheckouts(served);
     }
   }
 
   private PooledConnection popConnection(String username, String password) throws SQLException {
-    boolean countedWait = false;
-    PooledConnection conn = null;
-    long t = System.currentTimeMillis();
-    int localBadConnectionCount = 0;
-   /*使用自旋锁获取连接，当没有的时候就会进入睡眠，（当连接数达到最大的时候，没有获取到连接的线程会进入睡眠，如果没有达到最大值，那么新建就行）当线程释放连接的时候，又得到连接，继续执行获取连接，直到获取到连接才在这个方法返回。*/
-    while (conn == null) {
-      synchronized (state) {
-        if (!state.idleConnections.isEmpty()) {
-          // Pool has available connection
-          conn = state.idleConnections.remove(0);
-          if (log.isDebugEnabled()) {
-            log.debug("Checked out connection " + conn.getRealHashCode() + " from pool.");
-          }
-        } else {
-          // Pool does not have available connection
-          if (state.activeConnections.size() < poolMaximumActiveConnections) {
-            // Can create new connection
-            conn = new PooledConnection(dataSource.getConnection(), this);
-            if (log.isDebugEnabled()) {
-              log.debug("Created connection " + conn.getRealHashCode() + ".");
-            }
-          } else {
-            // Cannot create new connection
-            PooledConnection oldestActiveConnection = state.activeConnections.get(0);
-            long longestCheckoutTime = oldestActiveConnection.getCheckoutTime();
-            if (longestCheckoutTime > poolMaximumCheckoutTime) {
-              // Can claim overdue connection
-              state.claimedOverdueConnectionCount++;
-              state.accumulatedCheckoutTimeOfOverdueConnections += longestCheckoutTime;
-              state.accumulatedCheckoutTime += longestCheckoutTime;
-              state.activeConnections.remove(oldestActiveConnection);
-              if (!oldestActiveConnection.getRealConnection().getAutoCommit()) {
-                try {
-                  oldestActiveConnection.getRealConnection().rollback();
-                } catch (SQLException e) {
-                  /*
-                     Just log a message for debug and continue to execute the following
-                     statement like nothing happened.
-                     Wrap the bad connection with a new PooledConnection, this will help
-                     to not interrupt current executing thread and give current thread a
-                     chance to join the next competition for another valid/good database
-                     connection. At the end of this loop, bad {@link @conn} will be set as null.
-                   */
-                  log.debug("Bad connection. Could not roll back");
-                }
-              }
-              conn = new PooledConnection(oldestActiveConnection.getRealConnection(), this);
-              conn.setCreatedTimestamp(oldestActiveConnection.getCreatedTimestamp());
-              conn.setLastUsedTimestamp(oldestActiveConnection.getLastUsedTimestamp());
-              oldestActiveConnection.invalidate();
-              if (log.isDebugEnabled()) {
-                log.debug("Claimed overdue connection " + conn.getRealHashCode() + ".");
-              }
-            } else {
-              // Must wait
-              try {
-                if (!countedWait) {
-                  state.hadToWaitCount++;
-                  countedWait = true;
-                }
-                if (log.isDebugEnabled()) {
-                  log.debug("Waiting as long as " + poolTimeToWait + " milliseconds for connection.");
-                }
-                long wt = System.currentTimeMillis();
-                state.wait(poolTimeToWait);
-                state.accumulatedWaitTime += System.currentTimeMillis() - wt;
-              } catch (InterruptedException e) {
-                break;
-              }
-            }
-          }
+    PoolBulkhead bulkhead = enterBulkhead(true);
+    try {
+      PooledConnection conn = checkout(username, password);
+      conn.setBulkhead(bulkhead);
+      return conn;
+    } catch (SQLException | RuntimeException e) {
+      if (bulkhead != null) {
+        bulkhead.exit();
+      }
+      throw e;
+    }
+  }
+
+  private PooledConnection checkout(String username, String password) throws SQLException {
+    CheckoutRequest request = new CheckoutRequest(username, password, captureCheckoutTrace());
+    state.lock.lock();
+    try {
+      if (checkoutNow(request)) {
+        return request.connection;
+      }
+      enqueue(request);
+    } finally {
+      state.lock.unlock();
+    }
+    /*没有可用连接的时候，排队等待归还的连接被直接交到这个请求上，每等待 poolTimeToWait 就再尝试回收超时的连接，poolTimeToWait 不大于 0 时一直等待*/
+    while (true) {
+      if (log.isDebugEnabled()) {
+        log.debug(poolTimeToWait > 0 ? "Waiting as long as " + poolTimeToWait + " milliseconds for connection."
+            : "Waiting for connection.");
+      }
+      try {
+        return poolTimeToWait > 0 ? request.future.get(poolTimeToWait, TimeUnit.MILLISECONDS) : request.future.get();
+      } catch (TimeoutException e) {
+        metrics.recordTimeout();
+        List<CheckoutRequest> served;
+        state.lock.lock();
+        try {
+          served = servePendingCheckouts();
+        } finally {
+          state.lock.unlock();
         }
-        if (conn != null) {
-          // ping to server and check the connection is valid or not
-          if (conn.isValid()) {
-            if (!conn.getRealConnection().getAutoCommit()) {
-              conn.getRealConnection().rollback();
-            }
-            conn.setConnectionTypeCode(assembleConnectionTypeCode(dataSource.getUrl(), username, password));
-            conn.setCheckoutTimestamp(System.currentTimeMillis());
-            conn.setLastUsedTimestamp(System.currentTimeMillis());
-            state.activeConnections.add(conn);
-            state.requestCount++;
-            state.accumulatedRequestTime += System.currentTimeMillis() - t;
-          } else {
-            if (log.isDebugEnabled()) {
-              log.debug("A bad connection (" + conn.getRealHashCode() + ") was returned from the pool, getting another connection.");
-            }
-            state.badConnectionCount++;
-            localBadConnectionCount++;
-            conn = null;
-            if (localBadConnectionCount > (poolMaximumIdleConnections + poolMaximumLocalBadConnectionTolerance)) {
-              if (log.isDebugEnabled()) {
-                log.debug("PooledDataSource: Could not get a good connection to the database.");
-              }
-              throw new SQLException("PooledDataSource: Could not get a good connection to the database.");
-            }
-          }
+        completeCheckouts(served);
+      } catch (InterruptedException e) {
+        if (!request.future.cancel(false) && !request.future.isCompletedExceptionally()) {
+          returnAbandonedConnection(request.future.join());
         }
+        Thread.currentThread().interrupt();
+        throw new SQLException("PooledDataSource: Interrupted while waiting for a connection.", e);
+      } catch (ExecutionException e) {
+        throw unwrapCheckoutFailure(e.getCause());
       }
+    }
+  }
 
+  /**
+   * Returns a future completed with a connection once one is available, the requests that have to wait are served in
+   * the order they were made. The calling thread never waits for the pool, although it opens a new connection itself
+   * when the pool may grow. The future may be completed by the thread that returns a connection to the pool, so the
+   * dependent stages should not block.
+   */
+  CompletableFuture<PooledConnection> popConnectionAsync(String username, String password) throws SQLException {
+    CheckoutRequest request = new CheckoutRequest(username, password, captureCheckoutTrace());
+    state.lock.lock();
+    try {
+      if (checkoutNow(request)) {
+        request.future.complete(request.connection);
+      } else {
+        enqueue(request);
+      }
+    } finally {
+      state.lock.unlock();
     }
+    return request.future;
+  }
 
-    if (conn == null) {
-      if (log.isDebugEnabled()) {
-        log.debug("PooledDataSource: Unknown severe error condition.  The connection pool returned a null connection.");
+  /*
+   * Gets a connection without waiting, called with the state lock held. A request does not bypass the ones already
+   * waiting in the queue.
+   */
+  private boolean checkoutNow(CheckoutRequest request) throws SQLException {
+    if (!state.pendingCheckouts.isEmpty()) {
+      return false;
+    }
+    PooledConnection conn;
+    while ((conn = takeConnection()) != null) {
+      if (activate(conn, request)) {
+        request.connection = conn;
+        return true;
       }
-      throw new SQLException("PooledDataSource: Unknown severe error condition.  The connection pool returned a null connection.");
+      checkBadConnectionTolerance(request);
     }
+    return false;
+  }
+
+  private void enqueue(CheckoutRequest request) {
+    state.hadToWaitCount++;
+    metrics.recordWaitStart();
+    request.waitTimestamp = System.currentTimeMillis();
+    state.pendingCheckouts.addLast(request);
+    request.future.whenComplete((conn, failure) -> {
+      if (request.future.isCancelled()) {
+        withdraw(request);
+      }
+    });
+  }
+
+  private void withdraw(CheckoutRequest request) {
+    state.lock.lock();
+    try {
+      state.pendingCheckouts.remove(request);
+      state.accumulatedWaitTime += System.currentTimeMillis() - request.waitTimestamp;
+    } finally {
+      state.lock.unlock();
+    }
+    metrics.recordWaitEnd(true);
+  }
+
+  /*
+   * Hands connections to the requests waiting the longest, called with the state lock held. The futures of the
+   * returned requests are completed by completeCheckouts() once the lock is released.
+   */
+  private List<CheckoutRequest> servePendingCheckouts() {
+    List<CheckoutRequest> served = null;
+    CheckoutRequest request;
+    while ((request = state.pendingCheckouts.peekFirst()) != null) {
+      if (request.future.isDone()) {
+        state.pendingCheckouts.pollFirst();
+        continue;
+      }
+      try {
+        PooledConnection conn = takeConnection();
+        if (conn == null) {
+          break;
+        }
+        if (!activate(conn, request)) {
+          checkBadConnectionTolerance(request);
+          continue;
+        }
+        request.connection = conn;
+      } catch (SQLException | RuntimeException e) {
+        request.failure = e;
+      }
+      state.pendingCheckouts.pollFirst();
+      state.accumulatedWaitTime += System.currentTimeMillis() - request.waitTimestamp;
+      metrics.recordWaitEnd(false);
+      if (served == null) {
+        served = new ArrayList<>();
+      }
+      served.add(request);
+    }
+    return served == null ? Collections.emptyList() : served;
+  }
 
+  private void completeCheckouts(List<CheckoutRequest> served) {
+    for (CheckoutRequest request : served) {
+      if (!request.complete()) {
+        // the requester gave up in the meantime
+        returnAbandonedConnection(request.connection);
+      }
+    }
+  }
+
+  /**
+   * Returns a connection checked out for a request that was withdrawn before it got the connection.
+   */
+  void returnAbandonedConnection(PooledConnection conn) {
+    try {
+      pushConnection(conn);
+    } catch (SQLException e) {
+      log.debug("Could not return an abandoned connection to the pool. Cause: " + e);
+    }
+  }
+
+  /*
+   * Takes an idle connection, opens a new one or claims an overdue one, called with the state lock held.
+   */
+  private PooledConnection takeConnection() throws SQLException {
+    PooledConnection conn;
+    // the idle connections beyond a pool that shrank are closed by the housekeeping, not checked out
+    if (!state.idleConnections.isEmpty() && state.activeConnections.size() < maximumActiveConnections()) {
+      // Pool has available connection
+      conn = state.idleConnections.remove(0);
+      if (log.isDebugEnabled()) {
+        log.debug("Checked out connection " + conn.getRealHashCode() + " from pool.");
+      }
+      return conn;
+    }
+    // Pool does not have available connection
+    if (state.idleConnections.isEmpty() && state.activeConnections.size() < maximumActiveConnections()) {
+      // Can create new connection
+      conn = wrapNewConnection();
+      if (log.isDebugEnabled()) {
+        log.debug("Created connection " + conn.getRealHashCode() + ".");
+      }
+      return conn;
+    }
+    // Cannot create new connection
+    PooledConnection oldestActiveConnection = state.activeConnections.get(0);
+    long longestCheckoutTime = oldestActiveConnection.getCheckoutTime();
+    if (longestCheckoutTime <= poolMaximumCheckoutTime) {
+      detectLeak(oldestActiveConnection, false);
+      // Must wait
+      return null;
+    }
+    // Can claim overdue connection
+    state.claimedOverdueConnectionCount++;
+    metrics.recordClaimedOverdueConnection();
+    detectLeak(oldestActiveConnection, true);
+    state.accumulatedCheckoutTimeOfOverdueConnections += longestCheckoutTime;
+    state.accumulatedCheckoutTime += longestCheckoutTime;
+    state.activeConnections.remove(oldestActiveConnection);
+    oldestActiveConnection.exitBulkhead();
+    if (!oldestActiveConnection.getRealConnection().getAutoCommit()) {
+      try {
+        oldestActiveConnection.getRealConnection().rollback();
+      } catch (SQLException e) {
+        /*
+           Just log a message for debug and continue to execute the following
+           statement like nothing happened.
+           Wrap the bad connection with a new PooledConnection, this will help
+           to not interrupt current executing thread and give current thread a
+           chance to join the next competition for another valid/good database
+           connection. At the end of this loop, bad {@link @conn} will be set as null.
+         */
+        log.debug("Bad connection. Could not roll back");
+      }
+    }
+    conn = new PooledConnection(oldestActiveConnection.getRealConnection(), this);
+    conn.setStatementCache(oldestActiveConnection.getStatementCache());
+    conn.setCreatedTimestamp(oldestActiveConnection.getCreatedTimestamp());
+    conn.setLastUsedTimestamp(oldestActiveConnection.getLastUsedTimestamp());
+    oldestActiveConnection.invalidate();
+    if (log.isDebugEnabled()) {
+      log.debug("Claimed overdue connection " + conn.getRealHashCode() + ".");
+    }
     return conn;
   }
 
+  /*
+   * Validates a connection and records it as active for the request, called with the state lock held.
+   */
+  private boolean activate(PooledConnection conn, CheckoutRequest request) throws SQLException {
+    // ping to server and check the connection is valid or not
+    if (conn.isValid()) {
+      if (!conn.getRealConnection().getAutoCommit()) {
+        conn.getRealConnection().rollback();
+      }
+      conn.setConnectionTypeCode(assembleConnectionTypeCode(dataSource.getUrl(), request.username, request.password));
+      conn.setCheckoutTimestamp(System.currentTimeMillis());
+      conn.setLastUsedTimestamp(System.currentTimeMillis());
+      conn.setCheckoutTrace(request.trace);
+      state.activeConnections.add(conn);
+      updateConnectionCounts();
+      state.requestCount++;
+      state.accumulatedRequestTime += System.currentTimeMillis() - request.requestTimestamp;
+      metrics.recordCheckout(System.nanoTime() - request.startNanos);
+      return true;
+    }
+    if (log.isDebugEnabled()) {
+      log.debug("A bad connection (" + conn.getRealHashCode() + ") was returned from the pool, getting another connection.");
+    }
+    state.badConnectionCount++;
+    metrics.recordBadConnection();
+    updateConnectionCounts();
+    return false;
+  }
+
+  private void checkBadConnectionTolerance(CheckoutRequest request) throws SQLException {
+    request.badConnectionCount++;
+    if (request.badConnectionCount > (poolMaximumIdleConnections + poolMaximumLocalBadConnectionTolerance)) {
+      if (log.isDebugEnabled()) {
+        log.debug("PooledDataSource: Could not get a good connection to the database.");
+      }
+      throw new SQLException("PooledDataSource: Could not get a good connection to the database.");
+    }
+  }
+
+  static SQLException unwrapCheckoutFailure(Throwable failure) {
+    if (failure instanceof SQLException) {
+      return (SQLException) failure;
+    }
+    return new SQLException("Error getting a pooled connection. Cause: " + failure, failure);
+  }
+
+  /**
+   * Resizes the pool if adaptive sizing is enabled, retires the idle connections past poolMaximumLifetime or beyond the
+   * size of the pool, validates the idle connections off the request path and opens the connections missing to reach
+   * poolMinimumIdle.
+   */
+  protected void housekeep() {
+    adaptPoolSize();
+    List<PooledConnection> expired = new ArrayList<>();
+    List<PooledConnection> surplus = new ArrayList<>();
+    List<PooledConnection> toValidate = new ArrayList<>();
+    List<PooledConnection> active = new ArrayList<>();
+    List<CheckoutRequest> served;
+    state.lock.lock();
+    try {
+      if (poolLeakDetectionThreshold > 0) {
+        active.addAll(state.activeConnections);
+      }
+      for (Iterator<PooledConnection> it = state.idleConnections.iterator(); it.hasNext();) {
+        PooledConnection conn = it.next();
+        if (isExpired(conn)) {
+          it.remove();
+          expired.add(conn);
+        } else if (poolPingEnabled && conn.getTimeElapsedSinceLastUse() > poolPingConnectionsNotUsedFor) {
+          // taken out of the pool while the ping runs
+          it.remove();
+          toValidate.add(conn);
+        }
+      }
+      // the least recently returned connections go first when the pool shrank
+      int excess = state.activeConnections.size() + state.idleConnections.size() + toValidate.size()
+          - maximumActiveConnections();
+      while (excess-- > 0 && !state.idleConnections.isEmpty()) {
+        surplus.add(state.idleConnections.remove(0));
+      }
+      updateConnectionCounts();
+      // the waiting requests may claim a connection that became overdue
+      served = servePendingCheckouts();
+    } finally {
+      state.lock.unlock();
+    }
+    completeCheckouts(served);
+    for (PooledConnection conn : active) {
+      detectLeak(conn, false);
+    }
+    for (PooledConnection conn : expired) {
+      conn.invalidate();
+      closeQuietly(conn.getRealConnection());
+      if (log.isDebugEnabled()) {
+        log.debug("Retired connection " + conn.getRealHashCode() + " after " + conn.getAge() + " milliseconds.");
+      }
+    }
+    for (PooledConnection conn : surplus) {
+      conn.invalidate();
+      closeQuietly(conn.getRealConnection());
+      if (log.isDebugEnabled()) {
+        log.debug("Closed idle connection " + conn.getRealHashCode() + " beyond the size of the pool.");
+      }
+    }
+    for (PooledConnection conn : toValidate) {
+      if (pingConnection(conn)) {
+        conn.setLastUsedTimestamp(System.currentTimeMillis());
+        returnIdleConnection(conn);
+      } else {
+        conn.invalidate();
+        closeQuietly(conn.getRealConnection());
+        state.lock.lock();
+        try {
+          state.badConnectionCount++;
+        } finally {
+          state.lock.unlock();
+        }
+        metrics.recordBadConnection();
+      }
+    }
+    int target = Math.min(poolMinimumIdle, maximumIdleConnections());
+    while (canOpenIdleConnection(target)) {
+      PooledConnection conn;
+      try {
+        conn = wrapNewConnection();
+      } catch (SQLException e) {
+        log.warn("Could not open an idle connection. Cause: " + e);
+        return;
+      }
+      if (log.isDebugEnabled()) {
+        log.debug("Created idle connection " + conn.getRealHashCode() + ".");
+      }
+      if (!returnIdleConnection(conn, true)) {
+        return;
+      }
+    }
+  }
+
+  /*最小空闲连接也计入最大活动连接数：活动连接加空闲连接不能超过 poolMaximumActiveConnections*/
+  private boolean canOpenIdleConnection(int target) {
+    state.lock.lock();
+    try {
+      return state.idleConnections.size() < target
+          && state.activeConnections.size() + state.idleConnections.size() < maximumActiveConnections();
+    } finally {
+      state.lock.unlock();
+    }
+  }
+
+  private boolean returnIdleConnection(PooledConnection conn) {
+    return returnIdleConnection(conn, false);
+  }
+
+  private boolean returnIdleConnection(PooledConnection conn, boolean opened) {
+    List<CheckoutRequest> served;
+    state.lock.lock();
+    try {
+      if (opened && state.activeConnections.size() + state.idleConnections.size() >= maximumActiveConnections()) {
+        // the checkouts opened connections while this one was opened
+        served = null;
+      } else if (state.idleConnections.size() >= maximumIdleConnections() && state.pendingCheckouts.isEmpty()) {
+        served = null;
+      } else {
+        state.idleConnections.add(conn);
+        updateConnectionCounts();
+        served = servePendingCheckouts();
+      }
+    } finally {
+      state.lock.unlock();
+    }
+    if (served != null) {
+      completeCheckouts(served);
+      return true;
+    }
+    conn.invalidate();
+    closeQuietly(conn.getRealConnection());
+    return false;
+  }
+
+  /**
+   * Checks whether a connection exceeded poolMaximumLifetime. The limit is lowered by up to 2.5%, derived from the
+   * identity of the connection, so that the connections opened at the same time are retired at different times.
+   */
+  boolean isExpired(PooledConnection conn) {
+    return isExpired(conn.getCreatedTimestamp(), conn.getRealHashCode());
+  }
+
+  boolean isExpired(long createdTimestamp, int realHashCode) {
+    if (poolMaximumLifetime <= 0) {
+      return false;
+    }
+    int variance = poolMaximumLifetime / 40;
+    int jitter = variance == 0 ? 0 : (realHashCode & Integer.MAX_VALUE) % variance;
+    return System.currentTimeMillis() - createdTimestamp > poolMaximumLifetime - jitter;
+  }
+
+  /**
+   * Records the caller of getConnection when leak detection is enabled, before the request possibly waits and gets its
+   * connection on another thread.
+   */
+  CheckoutTrace captureCheckoutTrace() {
+    return poolLeakDetectionThreshold > 0 ? CheckoutTrace.capture(poolLeakDetectionStackTrace) : null;
+  }
+
+  /**
+   * Reports a connection to the leak listener if it has been checked out for longer than the threshold, or if it is
+   * being reclaimed as overdue.
+   */
+  void detectLeak(PooledConnection conn, boolean reclaimed) {
+    CheckoutTrace trace = conn.getCheckoutTrace();
+    if (trace == null || (trace.reported && !reclaimed)) {
+      return;
+    }
+    long heldMillis = conn.getCheckoutTime();
+    if (!reclaimed && heldMillis <= poolLeakDetectionThreshold) {
+      return;
+    }
+    trace.reported = true;
+    try {
+      connectionLeakListener.onLeak(new ConnectionLeak(conn.getRealHashCode(), heldMillis, reclaimed, trace));
+    } catch (RuntimeException e) {
+      log.warn("Error reporting a connection leak. Cause: " + e);
+    }
+  }
+
+  private static void logLeak(ConnectionLeak leak) {
+    log.warn(leak.toString());
+  }
+
+  static void closeQuietly(Connection realConn) {
+    try {
+      if (!realConn.getAutoCommit()) {
+        realConn.rollback();
+      }
+      realConn.close();
+    } catch (Exception e) {
+      // ignore
+    }
+  }
+
   /**
    * Method to check to see if a connection is still usable
    *
@@ -586,17 +1473,15 @@ public class PooledDataSource implements DataSource {
    * @return The 'real' connection
    */
   public static Connection unwrapConnection(Connection conn) {
-    if (Proxy.isProxyClass(conn.getClass())) {
-      InvocationHandler handler = Proxy.getInvocationHandler(conn);
-      if (handler instanceof PooledConnection) {
-        return ((PooledConnection) handler).getRealConnection();
-      }
+    if (conn instanceof ProxyConnection) {
+      return ((ProxyConnection) conn).getPooledConnection().getRealConnection();
     }
     return conn;
   }
 
   @Override
   protected void finalize() throws Throwable {
+    stopHousekeeping();
     forceCloseAll();
     super.finalize();
   }
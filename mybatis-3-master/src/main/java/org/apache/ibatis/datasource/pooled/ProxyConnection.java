@@ -0,0 +1,433 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.CallableStatement;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.NClob;
+import java.sql.PreparedStatement;
+import java.sql.SQLClientInfoException;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Struct;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executor;
+
+/**
+ * The connection handed out by the pooled data sources. Each call is checked against the {@link PooledConnection} and
+ * delegated to the real connection directly; closing it returns the connection to the pool.
+ */
+final class ProxyConnection implements Connection {
+
+  private final PooledConnection pooledConnection;
+  private final Connection realConnection;
+
+  ProxyConnection(PooledConnection pooledConnection) {
+    this.pooledConnection = pooledConnection;
+    this.realConnection = pooledConnection.getRealConnection();
+  }
+
+  PooledConnection getPooledConnection() {
+    return pooledConnection;
+  }
+
+  @Override
+  public void close() throws SQLException {
+    pooledConnection.getDataSource().pushConnection(pooledConnection);
+  }
+
+  @Override
+  public Statement createStatement() throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.createStatement();
+  }
+
+  @Override
+  public Statement createStatement(int resultSetType, int resultSetConcurrency) throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.createStatement(resultSetType, resultSetConcurrency);
+  }
+
+  @Override
+  public Statement createStatement(int resultSetType, int resultSetConcurrency, int resultSetHoldability)
+      throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.createStatement(resultSetType, resultSetConcurrency, resultSetHoldability);
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(String sql) throws SQLException {
+    pooledConnection.checkConnection();
+    StatementCache cache = pooledConnection.getStatementCache();
+    if (cache != null) {
+      return cache.prepareStatement(pooledConnection, c -> c.prepareStatement(sql), sql);
+    }
+    return realConnection.prepareStatement(sql);
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency)
+      throws SQLException {
+    pooledConnection.checkConnection();
+    StatementCache cache = pooledConnection.getStatementCache();
+    if (cache != null) {
+      return cache.prepareStatement(pooledConnection,
+          c -> c.prepareStatement(sql, resultSetType, resultSetConcurrency), sql, resultSetType, resultSetConcurrency);
+    }
+    return realConnection.prepareStatement(sql, resultSetType, resultSetConcurrency);
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency,
+      int resultSetHoldability) throws SQLException {
+    pooledConnection.checkConnection();
+    StatementCache cache = pooledConnection.getStatementCache();
+    if (cache != null) {
+      return cache.prepareStatement(pooledConnection,
+          c -> c.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability), sql, resultSetType,
+          resultSetConcurrency, resultSetHoldability);
+    }
+    return realConnection.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+    pooledConnection.checkConnection();
+    StatementCache cache = pooledConnection.getStatementCache();
+    if (cache != null) {
+      return cache.prepareStatement(pooledConnection, c -> c.prepareStatement(sql, autoGeneratedKeys), sql,
+          autoGeneratedKeys);
+    }
+    return realConnection.prepareStatement(sql, autoGeneratedKeys);
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
+    pooledConnection.checkConnection();
+    StatementCache cache = pooledConnection.getStatementCache();
+    if (cache != null) {
+      return cache.prepareStatement(pooledConnection, c -> c.prepareStatement(sql, columnIndexes), sql, columnIndexes);
+    }
+    return realConnection.prepareStatement(sql, columnIndexes);
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException {
+    pooledConnection.checkConnection();
+    StatementCache cache = pooledConnection.getStatementCache();
+    if (cache != null) {
+      return cache.prepareStatement(pooledConnection, c -> c.prepareStatement(sql, columnNames), sql, columnNames);
+    }
+    return realConnection.prepareStatement(sql, columnNames);
+  }
+
+  @Override
+  public CallableStatement prepareCall(String sql) throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.prepareCall(sql);
+  }
+
+  @Override
+  public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.prepareCall(sql, resultSetType, resultSetConcurrency);
+  }
+
+  @Override
+  public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency,
+      int resultSetHoldability) throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+  }
+
+  @Override
+  public String nativeSQL(String sql) throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.nativeSQL(sql);
+  }
+
+  @Override
+  public void setAutoCommit(boolean autoCommit) throws SQLException {
+    pooledConnection.checkConnection();
+    realConnection.setAutoCommit(autoCommit);
+  }
+
+  @Override
+  public boolean getAutoCommit() throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.getAutoCommit();
+  }
+
+  @Override
+  public void commit() throws SQLException {
+    pooledConnection.checkConnection();
+    realConnection.commit();
+  }
+
+  @Override
+  public void rollback() throws SQLException {
+    pooledConnection.checkConnection();
+    realConnection.rollback();
+  }
+
+  @Override
+  public boolean isClosed() throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.isClosed();
+  }
+
+  @Override
+  public DatabaseMetaData getMetaData() throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.getMetaData();
+  }
+
+  @Override
+  public void setReadOnly(boolean readOnly) throws SQLException {
+    pooledConnection.checkConnection();
+    realConnection.setReadOnly(readOnly);
+  }
+
+  @Override
+  public boolean isReadOnly() throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.isReadOnly();
+  }
+
+  @Override
+  public void setCatalog(String catalog) throws SQLException {
+    pooledConnection.checkConnection();
+    realConnection.setCatalog(catalog);
+  }
+
+  @Override
+  public String getCatalog() throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.getCatalog();
+  }
+
+  @Override
+  public void setTransactionIsolation(int level) throws SQLException {
+    pooledConnection.checkConnection();
+    realConnection.setTransactionIsolation(level);
+  }
+
+  @Override
+  public int getTransactionIsolation() throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.getTransactionIsolation();
+  }
+
+  @Override
+  public SQLWarning getWarnings() throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.getWarnings();
+  }
+
+  @Override
+  public void clearWarnings() throws SQLException {
+    pooledConnection.checkConnection();
+    realConnection.clearWarnings();
+  }
+
+  @Override
+  public Map<String, Class<?>> getTypeMap() throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.getTypeMap();
+  }
+
+  @Override
+  public void setTypeMap(Map<String, Class<?>> map) throws SQLException {
+    pooledConnection.checkConnection();
+    realConnection.setTypeMap(map);
+  }
+
+  @Override
+  public void setHoldability(int holdability) throws SQLException {
+    pooledConnection.checkConnection();
+    realConnection.setHoldability(holdability);
+  }
+
+  @Override
+  public int getHoldability() throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.getHoldability();
+  }
+
+  @Override
+  public Savepoint setSavepoint() throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.setSavepoint();
+  }
+
+  @Override
+  public Savepoint setSavepoint(String name) throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.setSavepoint(name);
+  }
+
+  @Override
+  public void rollback(Savepoint savepoint) throws SQLException {
+    pooledConnection.checkConnection();
+    realConnection.rollback(savepoint);
+  }
+
+  @Override
+  public void releaseSavepoint(Savepoint savepoint) throws SQLException {
+    pooledConnection.checkConnection();
+    realConnection.releaseSavepoint(savepoint);
+  }
+
+  @Override
+  public Clob createClob() throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.createClob();
+  }
+
+  @Override
+  public Blob createBlob() throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.createBlob();
+  }
+
+  @Override
+  public NClob createNClob() throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.createNClob();
+  }
+
+  @Override
+  public SQLXML createSQLXML() throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.createSQLXML();
+  }
+
+  @Override
+  public boolean isValid(int timeout) throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.isValid(timeout);
+  }
+
+  @Override
+  public void setClientInfo(String name, String value) throws SQLClientInfoException {
+    checkClientInfo();
+    realConnection.setClientInfo(name, value);
+  }
+
+  @Override
+  public void setClientInfo(Properties properties) throws SQLClientInfoException {
+    checkClientInfo();
+    realConnection.setClientInfo(properties);
+  }
+
+  @Override
+  public String getClientInfo(String name) throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.getClientInfo(name);
+  }
+
+  @Override
+  public Properties getClientInfo() throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.getClientInfo();
+  }
+
+  @Override
+  public Array createArrayOf(String typeName, Object[] elements) throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.createArrayOf(typeName, elements);
+  }
+
+  @Override
+  public Struct createStruct(String typeName, Object[] attributes) throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.createStruct(typeName, attributes);
+  }
+
+  @Override
+  public void setSchema(String schema) throws SQLException {
+    pooledConnection.checkConnection();
+    realConnection.setSchema(schema);
+  }
+
+  @Override
+  public String getSchema() throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.getSchema();
+  }
+
+  @Override
+  public void abort(Executor executor) throws SQLException {
+    pooledConnection.checkConnection();
+    realConnection.abort(executor);
+  }
+
+  @Override
+  public void setNetworkTimeout(Executor executor, int milliseconds) throws SQLException {
+    pooledConnection.checkConnection();
+    realConnection.setNetworkTimeout(executor, milliseconds);
+  }
+
+  @Override
+  public int getNetworkTimeout() throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.getNetworkTimeout();
+  }
+
+  @Override
+  public <T> T unwrap(Class<T> iface) throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.unwrap(iface);
+  }
+
+  @Override
+  public boolean isWrapperFor(Class<?> iface) throws SQLException {
+    pooledConnection.checkConnection();
+    return realConnection.isWrapperFor(iface);
+  }
+
+  private void checkClientInfo() throws SQLClientInfoException {
+    if (!pooledConnection.isUsable()) {
+      throw new SQLClientInfoException("Error accessing PooledConnection. Connection is invalid.", null);
+    }
+  }
+
+  // issue #579 toString() should never fail
+
+  @Override
+  public int hashCode() {
+    return realConnection.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return realConnection.equals(obj);
+  }
+
+  @Override
+  public String toString() {
+    return realConnection.toString();
+  }
+
+}
@@ -0,0 +1,134 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Lru cache of the prepared statements of one physical connection, kept across checkouts.
+ * <p>
+ * A statement is taken out of the cache while it is in use, so two statements with the same SQL can be open on the
+ * same connection. Closing the statement returned by the pool puts it back in the cache, the statements evicted from
+ * the cache are closed.
+ */
+final class StatementCache {
+
+  private static final Class<?>[] IFACES = new Class<?>[] { PreparedStatement.class };
+
+  private final int size;
+  private final DefaultPoolMetrics metrics;
+  private final LinkedHashMap<Key, CachedStatement> statements;
+
+  StatementCache(int size, DefaultPoolMetrics metrics) {
+    this.size = size;
+    this.metrics = metrics;
+    this.statements = new LinkedHashMap<>(16, .75F, true);
+  }
+
+  /**
+   * Returns a cached statement for the arguments of {@code Connection.prepareStatement(...)}, or prepares a new one.
+   */
+  PreparedStatement prepareStatement(PooledConnection owner, Preparer preparer, Object... args) throws SQLException {
+    Key key = new Key(args);
+    CachedStatement cached = take(key);
+    if (cached != null && !cached.statement.isClosed()) {
+      metrics.recordStatementCacheHit();
+    } else {
+      metrics.recordStatementCacheMiss();
+      Connection realConnection = owner.getRealConnection();
+      cached = new CachedStatement(this, key, preparer.prepare(realConnection));
+    }
+    cached.checkout(owner);
+    return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), IFACES, cached);
+  }
+
+  synchronized int size() {
+    return statements.size();
+  }
+
+  private synchronized CachedStatement take(Key key) {
+    return statements.remove(key);
+  }
+
+  /**
+   * Puts a statement back in the cache, called when the statement is closed.
+   */
+  void release(CachedStatement cached) {
+    CachedStatement replaced;
+    List<CachedStatement> evicted = new ArrayList<>();
+    synchronized (this) {
+      replaced = statements.put(cached.key, cached);
+      Iterator<CachedStatement> eldest = statements.values().iterator();
+      while (statements.size() > size && eldest.hasNext()) {
+        evicted.add(eldest.next());
+        eldest.remove();
+      }
+    }
+    if (replaced != null) {
+      replaced.closeQuietly();
+    }
+    for (CachedStatement statement : evicted) {
+      statement.closeQuietly();
+    }
+  }
+
+  /**
+   * Prepares a statement on the real connection when it is not cached.
+   */
+  interface Preparer {
+    PreparedStatement prepare(Connection connection) throws SQLException;
+  }
+
+  /**
+   * The arguments of prepareStatement: the SQL, then the result set type and concurrency, the holdability, or the key
+   * generation mode.
+   */
+  static final class Key {
+
+    private final Object[] args;
+    private final int hashCode;
+
+    Key(Object[] args) {
+      this.args = args == null ? new Object[0] : args.clone();
+      this.hashCode = Arrays.deepHashCode(this.args);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof Key && Arrays.deepEquals(args, ((Key) obj).args);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public String toString() {
+      return Arrays.deepToString(args);
+    }
+
+  }
+
+}
@@ -0,0 +1,47 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.routing;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks the replica with the fewest connections in use relative to its weight. The scan starts at a random replica so
+ * that ties do not always go to the first one.
+ *
+ * @since 3.5.8
+ */
+public class LeastOutstandingReplicaBalancer implements ReplicaBalancer {
+
+  @Override
+  public Replica select(List<Replica> candidates) {
+    int size = candidates.size();
+    int start = size == 1 ? 0 : ThreadLocalRandom.current().nextInt(size);
+    Replica best = null;
+    long bestOutstanding = 0;
+    for (int i = 0; i < size; i++) {
+      Replica replica = candidates.get((start + i) % size);
+      long outstanding = replica.getOutstanding();
+      // outstanding / weight < bestOutstanding / best.weight
+      if (best == null || outstanding * best.getWeight() < bestOutstanding * replica.getWeight()) {
+        best = replica;
+        bestOutstanding = outstanding;
+      }
+    }
+    return best;
+  }
+
+}
@@ -0,0 +1,91 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.routing;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+/**
+ * A read replica of a {@link RoutingDataSource}.
+ *
+ * @since 3.5.8
+ */
+public final class Replica {
+
+  private final String name;
+  private final DataSource dataSource;
+  private final int weight;
+  private final AtomicInteger outstanding = new AtomicInteger();
+  private volatile long downUntil;
+
+  Replica(String name, DataSource dataSource, int weight) {
+    if (weight < 1) {
+      throw new IllegalArgumentException("The weight of replica " + name + " must be positive but was " + weight);
+    }
+    this.name = name;
+    this.dataSource = dataSource;
+    this.weight = weight;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public DataSource getDataSource() {
+    return dataSource;
+  }
+
+  public int getWeight() {
+    return weight;
+  }
+
+  /**
+   * @return the number of connections to this replica that are currently in use
+   */
+  public int getOutstanding() {
+    return outstanding.get();
+  }
+
+  /**
+   * @return false after a connection to this replica failed, until the replica recovers or its retry interval elapses
+   */
+  public boolean isAvailable() {
+    return downUntil <= System.currentTimeMillis();
+  }
+
+  void markDown(long retryInterval) {
+    downUntil = System.currentTimeMillis() + retryInterval;
+  }
+
+  void markUp() {
+    downUntil = 0L;
+  }
+
+  void acquire() {
+    outstanding.incrementAndGet();
+  }
+
+  void release() {
+    outstanding.decrementAndGet();
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+
+}
@@ -0,0 +1,77 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.routing;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * Runs {@link RoutingDataSource#checkReplicas()} periodically. All the data sources share one daemon thread, a data
+ * source that is no longer referenced is not kept alive by its checker.
+ */
+final class ReplicaHealthChecker implements Runnable {
+
+  private static final Log log = LogFactory.getLog(ReplicaHealthChecker.class);
+
+  private final WeakReference<RoutingDataSource> dataSource;
+  private volatile ScheduledFuture<?> future;
+
+  private ReplicaHealthChecker(RoutingDataSource dataSource) {
+    this.dataSource = new WeakReference<>(dataSource);
+  }
+
+  static ReplicaHealthChecker start(RoutingDataSource dataSource, long period) {
+    ReplicaHealthChecker checker = new ReplicaHealthChecker(dataSource);
+    checker.future = Scheduler.INSTANCE.scheduleWithFixedDelay(checker, period, period, TimeUnit.MILLISECONDS);
+    return checker;
+  }
+
+  void stop() {
+    ScheduledFuture<?> scheduled = future;
+    if (scheduled != null) {
+      scheduled.cancel(false);
+    }
+  }
+
+  @Override
+  public void run() {
+    RoutingDataSource routing = dataSource.get();
+    if (routing == null) {
+      stop();
+      return;
+    }
+    try {
+      routing.checkReplicas();
+    } catch (Exception e) {
+      log.warn("Error during the health check of the replicas. Cause: " + e);
+    }
+  }
+
+  private static final class Scheduler {
+    static final ScheduledExecutorService INSTANCE = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "mybatis-replica-health-check");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+}
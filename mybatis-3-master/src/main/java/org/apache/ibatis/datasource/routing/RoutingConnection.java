@@ -0,0 +1,249 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.routing;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.reflection.ExceptionUtil;
+
+/**
+ * Connection handed out by a {@link RoutingDataSource}. It opens at most one connection to the primary and one to a
+ * replica, and sends each new statement to one of them. Reads go to a replica only in auto-commit mode or when the
+ * connection was set read-only: a transaction runs on the primary so it sees a consistent view and its own writes.
+ */
+final class RoutingConnection implements InvocationHandler {
+
+  private final RoutingDataSource dataSource;
+  private final String username;
+  private final String password;
+
+  private Connection primary;
+  private Connection replica;
+  private Replica replicaNode;
+  private Connection current;
+  private boolean autoCommit = true;
+  private boolean readOnly;
+  private Integer transactionIsolation;
+  private boolean writeTransaction;
+  private boolean closed;
+
+  RoutingConnection(RoutingDataSource dataSource, String username, String password) {
+    this.dataSource = dataSource;
+    this.username = username;
+    this.password = password;
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    String methodName = method.getName();
+    if (Object.class.equals(method.getDeclaringClass())) {
+      if ("equals".equals(methodName)) {
+        return proxy == args[0];
+      } else if ("hashCode".equals(methodName)) {
+        return System.identityHashCode(proxy);
+      }
+      return "RoutingConnection[primary=" + primary + ", replica=" + replicaNode + "]";
+    }
+    switch (methodName) {
+      case "close":
+        close();
+        return null;
+      case "isClosed":
+        return closed;
+      default:
+        break;
+    }
+    if (closed) {
+      throw new SQLException("Error accessing RoutingConnection. Connection is closed.");
+    }
+    Connection target;
+    switch (methodName) {
+      case "getAutoCommit":
+        return autoCommit;
+      case "setAutoCommit":
+        setAutoCommit((Boolean) args[0]);
+        return null;
+      case "isReadOnly":
+        return readOnly;
+      case "setReadOnly":
+        readOnly = (Boolean) args[0];
+        applyToOpened(method, args);
+        return null;
+      case "setTransactionIsolation":
+        transactionIsolation = (Integer) args[0];
+        applyToOpened(method, args);
+        return null;
+      case "commit":
+      case "rollback":
+        if (args == null) {
+          applyToOpened(method, args);
+          writeTransaction = false;
+          return null;
+        }
+        target = primary();
+        break;
+      case "prepareStatement":
+      case "prepareCall":
+      case "createStatement":
+        target = route(args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : null);
+        break;
+      default:
+        target = current != null ? current : primary();
+        break;
+    }
+    try {
+      return method.invoke(target, args);
+    } catch (Throwable t) {
+      throw ExceptionUtil.unwrapThrowable(t);
+    }
+  }
+
+  private Connection route(String sql) throws SQLException {
+    if (RoutingContext.isRead(sql)) {
+      if ((autoCommit || readOnly) && !writeTransaction) {
+        Connection conn = replica();
+        if (conn != null) {
+          current = conn;
+          return conn;
+        }
+      }
+    } else if (!autoCommit) {
+      writeTransaction = true;
+    }
+    current = primary();
+    return current;
+  }
+
+  private Connection primary() throws SQLException {
+    if (primary == null) {
+      primary = prepare(connect(dataSource.getPrimary()));
+    }
+    return primary;
+  }
+
+  private Connection replica() throws SQLException {
+    if (replicaNode != null) {
+      return replica;
+    }
+    List<Replica> tried = new ArrayList<>();
+    Replica node;
+    while ((node = dataSource.selectReplica(tried)) != null) {
+      try {
+        replica = prepare(connect(node.getDataSource()));
+        replicaNode = node;
+        node.acquire();
+        return replica;
+      } catch (SQLException e) {
+        dataSource.replicaFailed(node, e);
+        tried.add(node);
+      }
+    }
+    return null;
+  }
+
+  private Connection connect(DataSource target) throws SQLException {
+    return username == null ? target.getConnection() : target.getConnection(username, password);
+  }
+
+  private Connection prepare(Connection conn) throws SQLException {
+    try {
+      if (conn.getAutoCommit() != autoCommit) {
+        conn.setAutoCommit(autoCommit);
+      }
+      if (transactionIsolation != null) {
+        conn.setTransactionIsolation(transactionIsolation);
+      }
+      if (readOnly) {
+        conn.setReadOnly(true);
+      }
+      return conn;
+    } catch (SQLException e) {
+      conn.close();
+      throw e;
+    }
+  }
+
+  private void setAutoCommit(boolean autoCommit) throws Throwable {
+    this.autoCommit = autoCommit;
+    if (autoCommit) {
+      // enabling auto-commit commits the current transaction
+      writeTransaction = false;
+    }
+    for (Connection conn : opened()) {
+      if (conn.getAutoCommit() != autoCommit) {
+        conn.setAutoCommit(autoCommit);
+      }
+    }
+  }
+
+  private void applyToOpened(Method method, Object[] args) throws Throwable {
+    for (Connection conn : opened()) {
+      try {
+        method.invoke(conn, args);
+      } catch (Throwable t) {
+        throw ExceptionUtil.unwrapThrowable(t);
+      }
+    }
+  }
+
+  private List<Connection> opened() {
+    List<Connection> opened = new ArrayList<>(2);
+    if (replica != null) {
+      opened.add(replica);
+    }
+    if (primary != null) {
+      opened.add(primary);
+    }
+    return opened;
+  }
+
+  private void close() throws SQLException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    SQLException failure = null;
+    if (replica != null) {
+      replicaNode.release();
+      try {
+        replica.close();
+      } catch (SQLException e) {
+        failure = e;
+      }
+    }
+    if (primary != null) {
+      try {
+        primary.close();
+      } catch (SQLException e) {
+        failure = failure == null ? e : failure;
+      }
+    }
+    primary = null;
+    replica = null;
+    current = null;
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+}
@@ -0,0 +1,88 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.routing;
+
+import java.util.regex.Pattern;
+
+import org.apache.ibatis.executor.keygen.SelectKeyGenerator;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+
+/**
+ * The mapped statement a connection is being asked to prepare a statement for. It is set by the statement handlers
+ * around {@code Connection.prepareStatement(...)}, a {@link RoutingDataSource} reads it to choose the target of the
+ * statement.
+ *
+ * @since 3.5.8
+ */
+public final class RoutingContext {
+
+  private static final ThreadLocal<MappedStatement> STATEMENT = new ThreadLocal<>();
+  private static final ThreadLocal<String> SQL = new ThreadLocal<>();
+  // FOR UPDATE, FOR SHARE, FOR NO KEY UPDATE, FOR KEY SHARE and LOCK IN SHARE MODE take locks on the primary
+  private static final Pattern LOCKING_READ = Pattern.compile(
+      "\\bfor\\s+(no\\s+key\\s+update|key\\s+share|update|share)\\b|\\block\\s+in\\s+share\\s+mode\\b",
+      Pattern.CASE_INSENSITIVE);
+
+  private RoutingContext() {
+    // Prevent Instantiation
+  }
+
+  public static void setStatement(MappedStatement statement) {
+    setStatement(statement, null);
+  }
+
+  /**
+   * Sets the mapped statement and the sql a statement is being prepared for.
+   *
+   * @param statement
+   *          the mapped statement
+   * @param sql
+   *          the sql that will run, null if unknown
+   */
+  public static void setStatement(MappedStatement statement, String sql) {
+    STATEMENT.set(statement);
+    SQL.set(sql);
+  }
+
+  public static MappedStatement getStatement() {
+    return STATEMENT.get();
+  }
+
+  public static void clear() {
+    STATEMENT.remove();
+    SQL.remove();
+  }
+
+  /**
+   * Checks whether the current statement can run on a replica: a select that does not generate a key, does not flush
+   * the caches and does not lock the rows it reads.
+   *
+   * @param sql
+   *          the sql passed to the connection, null to use the one set with the statement
+   * @return false when no statement is set, e.g. when the connection is used directly
+   */
+  static boolean isRead(String sql) {
+    MappedStatement statement = STATEMENT.get();
+    if (statement == null || statement.getSqlCommandType() != SqlCommandType.SELECT
+        || statement.getId().endsWith(SelectKeyGenerator.SELECT_KEY_SUFFIX) || statement.isFlushCacheRequired()) {
+      return false;
+    }
+    String target = sql != null ? sql : SQL.get();
+    return target == null || !LOCKING_READ.matcher(target).find();
+  }
+
+}
@@ -0,0 +1,252 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.routing;
+
+import java.io.PrintWriter;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * DataSource that splits the statements of a connection between a primary and read replicas. Selects outside a write
+ * transaction go to a replica, everything else goes to the primary. The connections to the targets are opened on the
+ * first statement that needs them, a connection sticks to the replica it chose until it is closed.
+ * <p>
+ * A replica that fails to give a connection is skipped for {@code replicaRetryInterval} milliseconds, reads go to the
+ * primary when no replica is available.
+ *
+ * @since 3.5.8
+ */
+public class RoutingDataSource implements DataSource {
+
+  private static final Log log = LogFactory.getLog(RoutingDataSource.class);
+
+  private static final Class<?>[] IFACES = new Class<?>[] { Connection.class };
+
+  private DataSource primary;
+  private final List<Replica> replicas = new CopyOnWriteArrayList<>();
+  private ReplicaBalancer balancer = new WeightedReplicaBalancer();
+  private int replicaRetryInterval = 30000;
+  private int healthCheckInterval;
+  private int healthCheckTimeout = 5;
+  private ReplicaHealthChecker healthChecker;
+
+  public RoutingDataSource() {
+  }
+
+  public RoutingDataSource(DataSource primary) {
+    this.primary = primary;
+  }
+
+  @Override
+  public Connection getConnection() throws SQLException {
+    return newConnection(null, null);
+  }
+
+  @Override
+  public Connection getConnection(String username, String password) throws SQLException {
+    return newConnection(username, password);
+  }
+
+  private Connection newConnection(String username, String password) throws SQLException {
+    if (primary == null) {
+      throw new SQLException("RoutingDataSource requires a primary DataSource.");
+    }
+    RoutingConnection handler = new RoutingConnection(this, username, password);
+    return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), IFACES, handler);
+  }
+
+  /**
+   * Chooses a replica among the available ones that were not tried yet.
+   *
+   * @return null when there is no such replica
+   */
+  Replica selectReplica(List<Replica> tried) {
+    List<Replica> candidates = new ArrayList<>(replicas.size());
+    for (Replica replica : replicas) {
+      if (replica.isAvailable() && !tried.contains(replica)) {
+        candidates.add(replica);
+      }
+    }
+    return candidates.isEmpty() ? null : balancer.select(candidates);
+  }
+
+  void replicaFailed(Replica replica, SQLException e) {
+    replica.markDown(replicaRetryInterval);
+    log.warn("Could not get a connection from replica " + replica + ", skipping it for " + replicaRetryInterval
+        + " ms. Cause: " + e);
+  }
+
+  /**
+   * Validates a connection of every replica, the replicas that fail are marked down and the others are marked up.
+   */
+  void checkReplicas() {
+    for (Replica replica : replicas) {
+      try (Connection conn = replica.getDataSource().getConnection()) {
+        if (conn.isValid(healthCheckTimeout)) {
+          if (!replica.isAvailable() && log.isDebugEnabled()) {
+            log.debug("Replica " + replica + " is back.");
+          }
+          replica.markUp();
+        } else {
+          replicaFailed(replica, new SQLException("Connection is not valid."));
+        }
+      } catch (SQLException e) {
+        replicaFailed(replica, e);
+      }
+    }
+  }
+
+  public DataSource getPrimary() {
+    return primary;
+  }
+
+  public void setPrimary(DataSource primary) {
+    this.primary = primary;
+  }
+
+  /**
+   * Adds a replica with a weight of 1.
+   *
+   * @param name
+   *          the name of the replica, used in the logs
+   * @param dataSource
+   *          the data source of the replica
+   */
+  public void addReplica(String name, DataSource dataSource) {
+    addReplica(name, dataSource, 1);
+  }
+
+  public void addReplica(String name, DataSource dataSource, int weight) {
+    replicas.add(new Replica(name, dataSource, weight));
+  }
+
+  public List<Replica> getReplicas() {
+    return Collections.unmodifiableList(replicas);
+  }
+
+  public ReplicaBalancer getBalancer() {
+    return balancer;
+  }
+
+  /**
+   * Sets the strategy choosing a replica, {@link WeightedReplicaBalancer} by default.
+   *
+   * @param balancer
+   *          the balancer
+   */
+  public void setBalancer(ReplicaBalancer balancer) {
+    this.balancer = balancer;
+  }
+
+  public int getReplicaRetryInterval() {
+    return replicaRetryInterval;
+  }
+
+  /**
+   * The number of milliseconds a replica is skipped after it failed to give a connection. Default: 30000.
+   *
+   * @param replicaRetryInterval
+   *          the retry interval in milliseconds
+   */
+  public void setReplicaRetryInterval(int replicaRetryInterval) {
+    this.replicaRetryInterval = replicaRetryInterval;
+  }
+
+  public int getHealthCheckInterval() {
+    return healthCheckInterval;
+  }
+
+  /**
+   * The number of milliseconds between two checks of the replicas by a background thread, 0 (the default) disables
+   * them. A check gets a connection of each replica and validates it, so a replica that is down is skipped before a
+   * session fails to use it and a replica that recovers gets reads again before its retry interval elapses.
+   *
+   * @param healthCheckInterval
+   *          the health check interval in milliseconds
+   */
+  public synchronized void setHealthCheckInterval(int healthCheckInterval) {
+    this.healthCheckInterval = healthCheckInterval;
+    if (healthChecker != null) {
+      healthChecker.stop();
+      healthChecker = null;
+    }
+    if (healthCheckInterval > 0) {
+      healthChecker = ReplicaHealthChecker.start(this, healthCheckInterval);
+    }
+  }
+
+  public int getHealthCheckTimeout() {
+    return healthCheckTimeout;
+  }
+
+  /**
+   * The number of seconds a health check waits for a replica to validate a connection. Default: 5.
+   *
+   * @param healthCheckTimeout
+   *          the health check timeout in seconds
+   */
+  public void setHealthCheckTimeout(int healthCheckTimeout) {
+    this.healthCheckTimeout = healthCheckTimeout;
+  }
+
+  @Override
+  public void setLoginTimeout(int loginTimeout) {
+    DriverManager.setLoginTimeout(loginTimeout);
+  }
+
+  @Override
+  public int getLoginTimeout() {
+    return DriverManager.getLoginTimeout();
+  }
+
+  @Override
+  public void setLogWriter(PrintWriter logWriter) {
+    DriverManager.setLogWriter(logWriter);
+  }
+
+  @Override
+  public PrintWriter getLogWriter() {
+    return DriverManager.getLogWriter();
+  }
+
+  @Override
+  public <T> T unwrap(Class<T> iface) throws SQLException {
+    throw new SQLException(getClass().getName() + " is not a wrapper.");
+  }
+
+  @Override
+  public boolean isWrapperFor(Class<?> iface) {
+    return false;
+  }
+
+  @Override
+  public Logger getParentLogger() {
+    return Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+  }
+
+}
@@ -0,0 +1,126 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.routing;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.datasource.DataSourceException;
+import org.apache.ibatis.datasource.DataSourceFactory;
+import org.apache.ibatis.datasource.pooled.ConcurrentPooledDataSourceFactory;
+import org.apache.ibatis.datasource.pooled.PooledDataSourceFactory;
+import org.apache.ibatis.datasource.unpooled.UnpooledDataSourceFactory;
+import org.apache.ibatis.io.Resources;
+
+/**
+ * Builds a {@link RoutingDataSource} and the data sources of its nodes.
+ * <p>
+ * The properties prefixed with {@code primary.} configure the primary, the ones prefixed with
+ * {@code replica.<name>.} configure the replica {@code <name>}. The other properties, except the ones of the routing
+ * data source itself, are shared by every node. {@code nodeType} chooses the data source of the nodes: POOLED (the
+ * default), CONCURRENT_POOLED or UNPOOLED.
+ *
+ * @since 3.5.8
+ */
+public class RoutingDataSourceFactory implements DataSourceFactory {
+
+  private static final String PRIMARY_PREFIX = "primary.";
+  private static final String REPLICA_PREFIX = "replica.";
+  private static final String WEIGHT = "weight";
+
+  private final RoutingDataSource dataSource = new RoutingDataSource();
+
+  @Override
+  public void setProperties(Properties properties) {
+    String nodeType = "POOLED";
+    Properties shared = new Properties();
+    Properties primary = new Properties();
+    Map<String, Properties> replicas = new LinkedHashMap<>();
+    for (String name : properties.stringPropertyNames()) {
+      String value = properties.getProperty(name);
+      if (name.startsWith(PRIMARY_PREFIX)) {
+        primary.setProperty(name.substring(PRIMARY_PREFIX.length()), value);
+      } else if (name.startsWith(REPLICA_PREFIX)) {
+        String rest = name.substring(REPLICA_PREFIX.length());
+        int dot = rest.indexOf('.');
+        if (dot <= 0) {
+          throw new DataSourceException("Invalid replica property '" + name + "', expected replica.<name>.<property>");
+        }
+        replicas.computeIfAbsent(rest.substring(0, dot), k -> new Properties()).setProperty(rest.substring(dot + 1),
+            value);
+      } else if ("nodeType".equals(name)) {
+        nodeType = value;
+      } else if ("balancer".equals(name)) {
+        dataSource.setBalancer(newBalancer(value));
+      } else if ("replicaRetryInterval".equals(name)) {
+        dataSource.setReplicaRetryInterval(Integer.parseInt(value));
+      } else if ("healthCheckInterval".equals(name)) {
+        dataSource.setHealthCheckInterval(Integer.parseInt(value));
+      } else if ("healthCheckTimeout".equals(name)) {
+        dataSource.setHealthCheckTimeout(Integer.parseInt(value));
+      } else {
+        shared.setProperty(name, value);
+      }
+    }
+    dataSource.setPrimary(newNode(nodeType, shared, primary));
+    for (Map.Entry<String, Properties> replica : replicas.entrySet()) {
+      Properties own = replica.getValue();
+      String weight = (String) own.remove(WEIGHT);
+      dataSource.addReplica(replica.getKey(), newNode(nodeType, shared, own),
+          weight == null ? 1 : Integer.parseInt(weight));
+    }
+  }
+
+  @Override
+  public DataSource getDataSource() {
+    return dataSource;
+  }
+
+  private DataSource newNode(String nodeType, Properties shared, Properties own) {
+    DataSourceFactory factory;
+    if ("POOLED".equals(nodeType)) {
+      factory = new PooledDataSourceFactory();
+    } else if ("CONCURRENT_POOLED".equals(nodeType)) {
+      factory = new ConcurrentPooledDataSourceFactory();
+    } else if ("UNPOOLED".equals(nodeType)) {
+      factory = new UnpooledDataSourceFactory();
+    } else {
+      throw new DataSourceException("Unknown nodeType '" + nodeType + "', expected POOLED, CONCURRENT_POOLED or UNPOOLED");
+    }
+    Properties properties = new Properties();
+    properties.putAll(shared);
+    properties.putAll(own);
+    factory.setProperties(properties);
+    return factory.getDataSource();
+  }
+
+  private ReplicaBalancer newBalancer(String balancer) {
+    if ("WEIGHTED".equals(balancer)) {
+      return new WeightedReplicaBalancer();
+    } else if ("LEAST_OUTSTANDING".equals(balancer)) {
+      return new LeastOutstandingReplicaBalancer();
+    }
+    try {
+      return (ReplicaBalancer) Resources.classForName(balancer).getDeclaredConstructor().newInstance();
+    } catch (Exception e) {
+      throw new DataSourceException("Error creating the replica balancer '" + balancer + "'. Cause: " + e, e);
+    }
+  }
+
+}
@@ -0,0 +1,44 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.routing;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks a random replica, the odds of each replica being proportional to its weight.
+ *
+ * @since 3.5.8
+ */
+public class WeightedReplicaBalancer implements ReplicaBalancer {
+
+  @Override
+  public Replica select(List<Replica> candidates) {
+    int totalWeight = 0;
+    for (Replica replica : candidates) {
+      totalWeight += replica.getWeight();
+    }
+    int target = ThreadLocalRandom.current().nextInt(totalWeight);
+    for (Replica replica : candidates) {
+      target -= replica.getWeight();
+      if (target < 0) {
+        return replica;
+      }
+    }
+    return candidates.get(candidates.size() - 1);
+  }
+
+}
@@ -20,10 +20,13 @@ import static org.apache.ibatis.executor.ExecutionPlaceholder.EXECUTION_PLACEHOL
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.impl.LocalCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
 import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.executor.statement.StatementUtil;
@@ -58,7 +61,7 @@ public abstract class BaseExecutor implements Executor {
   protected Executor wrapper;
   /*延迟加载 TODO */
   protected ConcurrentLinkedQueue<DeferredLoad> deferredLoads;
-  protected PerpetualCache localCache;
+  protected LocalCache localCache;
   protected PerpetualCache localOutputParameterCache;
   protected Configuration configuration;
 
@@ -69,8 +72,12 @@ public abstract class BaseExecutor implements Executor {
   protected BaseExecutor(Configuration configuration, Transaction transaction) {
     this.transaction = transaction;
     this.deferredLoads = new ConcurrentLinkedQueue<>();
-    this.localCache = new PerpetualCache("LocalCache");
     this.localOutputParameterCache = new PerpetualCache("LocalOutputParameterCache");
+    /*一级缓存默认不限大小，长时间运行的会话可以配置条数或者字节数上限*/
+    this.localCache = new LocalCache("LocalCache", localOutputParameterCache);
+    if (configuration != null) {
+      this.localCache.setLimits(configuration.getLocalCacheSize(), configuration.getLocalCacheMaxBytes());
+    }
     this.closed = false;
     this.configuration = configuration;
     this.wrapper = this;
@@ -178,6 +185,9 @@ public abstract class BaseExecutor implements Executor {
       if (configuration.getLocalCacheScope() == LocalCacheScope.STATEMENT) {
         // issue #482
         clearLocalCache();
+      } else {
+        // no query is running, the placeholders and the deferred loads are done with the cache
+        localCache.evictEntries();
       }
     }
     return list;
@@ -278,6 +288,55 @@ public abstract class BaseExecutor implements Executor {
     }
   }
 
+  @Override
+  public void setLocalCacheLimits(int maxEntries, long maxBytes) {
+    if (closed) {
+      throw new ExecutorException("Executor was closed.");
+    }
+    localCache.setLimits(maxEntries, maxBytes);
+    if (queryStack == 0) {
+      localCache.evictEntries();
+    }
+  }
+
+  @Override
+  public long getLocalCacheEvictions() {
+    return closed ? 0L : localCache.getEvictions();
+  }
+
+  @Override
+  public Map<CacheKey, Object> getLocalCacheEntries() {
+    if (closed) {
+      throw new ExecutorException("Executor was closed.");
+    }
+    Map<CacheKey, Object> entries = new HashMap<>();
+    for (Map.Entry<Object, Object> entry : localCache.copyEntries().entrySet()) {
+      // skip the queries still running and the ones whose output parameters are cached too
+      if (entry.getValue() != EXECUTION_PLACEHOLDER && localOutputParameterCache.getObject(entry.getKey()) == null) {
+        entries.put((CacheKey) entry.getKey(), entry.getValue());
+      }
+    }
+    return entries;
+  }
+
+  @Override
+  public void putLocalCacheEntries(Map<CacheKey, Object> entries) {
+    if (closed) {
+      throw new ExecutorException("Executor was closed.");
+    }
+    if (queryStack == 0 && configuration.getLocalCacheScope() == LocalCacheScope.STATEMENT) {
+      return;
+    }
+    for (Map.Entry<CacheKey, Object> entry : entries.entrySet()) {
+      if (localCache.getObject(entry.getKey()) == null) {
+        localCache.putObject(entry.getKey(), entry.getValue());
+      }
+    }
+    if (queryStack == 0) {
+      localCache.evictEntries();
+    }
+  }
+
   protected abstract int doUpdate(MappedStatement ms, Object parameter) throws SQLException;
   /*批处理执行器BatchExecutor和可重用的ReuseExecutor才有用（因为他们都没有使用完statement就关闭，每次执行的时候就新建） 刷新statement 就是进行BatchResult的执行，并提交*/
   protected abstract List<BatchResult> doFlushStatements(boolean isRollback) throws SQLException;
@@ -17,12 +17,18 @@ package org.apache.ibatis.executor;
 
 import java.sql.BatchUpdateException;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.ibatis.cache.ObjectSizeEstimator;
 import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
 import org.apache.ibatis.executor.keygen.KeyGenerator;
@@ -40,6 +46,7 @@ import org.apache.ibatis.transaction.Transaction;
  * 1.要是同一个sql
  * 2.要是同一个currentStatement
  * 3.而且他们还需要连续的才行，如果多个插入，其中中间有一个不相同，那么就执行了
+ *   配置了 batchOpenStatements 时不需要连续：每个不同的 sql 和 MappedStatement 各保留一个打开的批次，按第一次使用的顺序执行
  * 什么时候才去执行提交批次到数据库呢？：1.在会话关闭的时候2.在执行查询的时候...3.回滚的时候
  * 在和spring整合的时候可以自己获取，然后自己开启批量的执行器  会话，然后批量执行（如果语句太长，使用动态sql也是会变慢的）
  *  二、基于jdbc的批量处理，把sql分批分statement执行（只有数据不同的sql而且连续需要执行的sql 可以加入批次执行，不然就构建statement分第X批）
@@ -53,11 +60,41 @@ public class BatchExecutor extends BaseExecutor {
   private final List<Statement> statementList = new ArrayList<>();
   /* 这个list里面有多个个 BatchResult说明有多少个批次， */
   private final List<BatchResult> batchResultList = new ArrayList<>();
+  /* 没有监听器时，自动刷新的批次结果保留到下一次 flushStatements 返回 */
+  private final List<BatchResult> autoFlushedResults = new ArrayList<>();
   private String currentSql;
   private MappedStatement currentStatement;
+  /* 自动刷新的阈值，0表示不限 */
+  private final int flushSize;
+  private final long flushMaxBytes;
+  private final long flushIntervalNanos;
+  private BatchFlushListener flushListener;
+  /* 分组模式下每个不同的 sql 和 MappedStatement 各有一个打开的批次，按最近使用的顺序排列，为 null 时只重用最后一个批次 */
+  private final Map<BatchKey, BatchResult> openBatches;
+  private final int openBatchLimit;
+  /* 改写为多行 INSERT ... VALUES 的批次，这些批次在 statementList 中对应的 Statement 为 null，执行时才准备 */
+  private final Map<BatchResult, MultiRowInsert> multiRowInserts = new IdentityHashMap<>();
+  private final int multiRowInsertSize;
+  /* 当前还没有执行的批次的语句数、参数的估算字节数和第一条语句加入的时间 */
+  private int pendingCount;
+  private long pendingBytes;
+  private long pendingSinceNanos;
+  /* 设置了 batchFlushMaxBytes 时每个批次的参数的估算字节数，只执行部分批次时从 pendingBytes 中减去 */
+  private final Map<BatchResult, Long> batchBytes = new IdentityHashMap<>();
 
   public BatchExecutor(Configuration configuration, Transaction transaction) {
     super(configuration, transaction);
+    this.flushSize = configuration.getBatchFlushSize();
+    this.flushMaxBytes = configuration.getBatchFlushMaxBytes();
+    this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(configuration.getBatchFlushInterval(), 0L));
+    this.openBatchLimit = configuration.getBatchOpenStatements();
+    this.openBatches = openBatchLimit > 0 ? new LinkedHashMap<>(16, 0.75f, true) : null;
+    this.multiRowInsertSize = configuration.getMultiRowInsertSize();
+  }
+
+  @Override
+  public void setBatchFlushListener(BatchFlushListener listener) {
+    this.flushListener = listener;
   }
   /*批量更新？通过多个Statement来处理？*/
   @Override
@@ -67,32 +104,106 @@ public class BatchExecutor extends BaseExecutor {
     final BoundSql boundSql = handler.getBoundSql();
     final String sql = boundSql.getSql();
     final Statement stmt;
+    final BatchResult batchResult;
+    final int index = indexOfOpenBatch(ms, sql);
     /*当前执行的sql和Statement要和上次执行的sql一样，参数不一样 。不然的化当作一*/
-    if (sql.equals(currentSql) && ms.equals(currentStatement)) {
-      int last = statementList.size() - 1;
-      stmt = statementList.get(last);
-      /*重新设置一下超时时间*/
-      applyTransactionTimeout(stmt);
-      handler.parameterize(stmt);// fix Issues 322 参数设置
+    if (index >= 0) {
       /*添加参数到这个批次中，如果他们再同一个批次，那么他们的sql肯定都相同，只是参数不一样而已。所以这里只是添加了传入的参数，并没有加入sql和stament，只有第一次的时候才新建一个加入*/
-      BatchResult batchResult = batchResultList.get(last);
+      batchResult = batchResultList.get(index);
       batchResult.addParameterObject(parameterObject);
+      MultiRowInsert multiRowInsert = multiRowInserts.get(batchResult);
+      if (multiRowInsert != null) {
+        multiRowInsert.addRow(boundSql, parameterObject);
+        stmt = null;
+      } else {
+        stmt = statementList.get(index);
+        /*重新设置一下超时时间*/
+        applyTransactionTimeout(stmt);
+        handler.parameterize(stmt);// fix Issues 322 参数设置
+      }
     } else {
+      if (openBatches != null && openBatches.size() >= openBatchLimit) {
+        closeLeastRecentlyUsedBatch();
+      }
       /*不满足以上的条件，当作一个新的批次来处理*/
-      Connection connection = getConnection(ms.getStatementLog());
-      /*准备 Statement*/
-      stmt = handler.prepare(connection, transaction.getTimeout());
-      handler.parameterize(stmt);    // fix Issues 322 给参数设置值 到时候直接执行就行了
+      batchResult = new BatchResult(ms, sql, parameterObject);
+      MultiRowInsert multiRowInsert = MultiRowInsert.of(ms, boundSql, multiRowInsertSize);
+      if (multiRowInsert != null) {
+        /*单行插入先保留参数值，执行时合并成多行插入*/
+        multiRowInsert.addRow(boundSql, parameterObject);
+        multiRowInserts.put(batchResult, multiRowInsert);
+        stmt = null;
+      } else {
+        Connection connection = getConnection(ms.getStatementLog());
+        /*准备 Statement*/
+        stmt = handler.prepare(connection, transaction.getTimeout());
+        handler.parameterize(stmt);    // fix Issues 322 给参数设置值 到时候直接执行就行了
+      }
       currentSql = sql;
       currentStatement = ms;
       statementList.add(stmt);
-      batchResultList.add(new BatchResult(ms, sql, parameterObject));
+      batchResultList.add(batchResult);
+      if (openBatches != null) {
+        openBatches.put(new BatchKey(ms, sql), batchResult);
+      }
+    }
+    if (stmt != null) {
+      /*不同的Statement的处理 jdbc底层操作*/
+      handler.batch(stmt);
+    }
+    if (isFlushThresholdReached(batchResult, parameterObject)) {
+      autoFlush(statementList.size());
     }
-    /*不同的Statement的处理 jdbc底层操作*/
-    handler.batch(stmt);
     return BATCH_UPDATE_RETURN_VALUE;
   }
 
+  private int indexOfOpenBatch(MappedStatement ms, String sql) {
+    if (openBatches == null) {
+      return sql.equals(currentSql) && ms.equals(currentStatement) ? statementList.size() - 1 : -1;
+    }
+    BatchResult batchResult = openBatches.get(new BatchKey(ms, sql));
+    return batchResult == null ? -1 : batchResultList.indexOf(batchResult);
+  }
+
+  /*
+   * 打开的批次达到上限时，按第一次使用的顺序执行最久未使用的批次以及在它之前打开的批次，后面的批次可能依赖它们插入的数据
+   */
+  private void closeLeastRecentlyUsedBatch() throws SQLException {
+    BatchResult eldest = openBatches.values().iterator().next();
+    autoFlush(batchResultList.indexOf(eldest) + 1);
+  }
+
+  private boolean isFlushThresholdReached(BatchResult batchResult, Object parameterObject) {
+    if (pendingCount++ == 0) {
+      pendingSinceNanos = System.nanoTime();
+    }
+    if (flushSize > 0 && pendingCount >= flushSize) {
+      return true;
+    }
+    if (flushMaxBytes > 0) {
+      long bytes = ObjectSizeEstimator.estimate(parameterObject);
+      batchBytes.merge(batchResult, bytes, Long::sum);
+      pendingBytes += bytes;
+      if (pendingBytes >= flushMaxBytes) {
+        return true;
+      }
+    }
+    return flushIntervalNanos > 0 && System.nanoTime() - pendingSinceNanos >= flushIntervalNanos;
+  }
+
+  /*
+   * 达到阈值时执行当前的批次，避免驱动中积累过多的参数。结果交给监听器，没有监听器时保留到下一次 flushStatements
+   */
+  private void autoFlush(int count) throws SQLException {
+    if (flushListener == null) {
+      executeBatches(autoFlushedResults, count);
+    } else {
+      List<BatchResult> results = new ArrayList<>();
+      executeBatches(results, count);
+      flushListener.onFlush(results);
+    }
+  }
+
   @Override
   public <E> List<E> doQuery(MappedStatement ms, Object parameterObject, RowBounds rowBounds, ResultHandler resultHandler, BoundSql boundSql)
       throws SQLException {
@@ -126,15 +237,36 @@ public class BatchExecutor extends BaseExecutor {
   @Override
   public List<BatchResult> doFlushStatements(boolean isRollback) throws SQLException {
     try {
-      List<BatchResult> results = new ArrayList<>();
       if (isRollback) {
         return Collections.emptyList();
       }
-      for (int i = 0, n = statementList.size(); i < n; i++) {
+      List<BatchResult> results = new ArrayList<>(autoFlushedResults);
+      executeBatches(results, statementList.size());
+      if (flushListener != null && !results.isEmpty()) {
+        flushListener.onFlush(results);
+      }
+      return results;
+    } finally {
+      autoFlushedResults.clear();
+      closeBatches();
+    }
+  }
+
+  /*按顺序执行前 count 个批次，结果依次加入 results*/
+  private void executeBatches(List<BatchResult> results, int count) throws SQLException {
+    boolean executed = false;
+    try {
+      for (int i = 0; i < count; i++) {
         Statement stmt = statementList.get(i);
-        applyTransactionTimeout(stmt);
         BatchResult batchResult = batchResultList.get(i);
+        MultiRowInsert multiRowInsert = multiRowInserts.get(batchResult);
         try {
+          if (multiRowInsert != null) {
+            batchResult.setUpdateCounts(executeMultiRowInsert(multiRowInsert, batchResult));
+            results.add(batchResult);
+            continue;
+          }
+          applyTransactionTimeout(stmt);
           /*批量执行sql，返回更新的结果。 */
           batchResult.setUpdateCounts(stmt.executeBatch());
           MappedStatement ms = batchResult.getMappedStatement();
@@ -157,23 +289,141 @@ public class BatchExecutor extends BaseExecutor {
               .append(i + 1)
               .append(")")
               .append(" failed.");
-          if (i > 0) {
+          if (!results.isEmpty()) {
             message.append(" ")
-                .append(i)
+                .append(results.size())
                 .append(" prior sub executor(s) completed successfully, but will be rolled back.");
           }
-          throw new BatchExecutorException(message.toString(), e, results, batchResult);
+          throw new BatchExecutorException(message.toString(), e, new ArrayList<>(results), batchResult);
         }
         results.add(batchResult);
       }
-      return results;
+      executed = true;
     } finally {
-      for (Statement stmt : statementList) {
+      if (executed && count < statementList.size()) {
+        removeBatches(count);
+      } else {
+        closeBatches();
+      }
+    }
+  }
+
+  /*
+   * 按配置的行数合并成多行插入：整组的语句作为一个批次执行，剩下的行单独执行一次，再把更新行数和生成的主键分配回每一行
+   */
+  private int[] executeMultiRowInsert(MultiRowInsert multiRowInsert, BatchResult batchResult) throws SQLException {
+    final MappedStatement ms = batchResult.getMappedStatement();
+    final List<Object> parameterObjects = batchResult.getParameterObjects();
+    final int rows = multiRowInsert.getRowCount();
+    final int width = multiRowInsert.getWidth();
+    final int groupedRows = rows - rows % width;
+    final int[] updateCounts = new int[rows];
+    if (groupedRows > 0) {
+      Statement stmt = null;
+      try {
+        for (int from = 0; from < groupedRows; from += width) {
+          StatementHandler handler = newMultiRowInsertHandler(ms, multiRowInsert.getBoundSql(from, width));
+          if (stmt == null) {
+            stmt = handler.prepare(getConnection(ms.getStatementLog()), transaction.getTimeout());
+          }
+          handler.parameterize(stmt);
+          handler.batch(stmt);
+        }
+        int[] groupCounts = stmt.executeBatch();
+        for (int group = 0; group < groupCounts.length; group++) {
+          MultiRowInsert.spreadUpdateCount(updateCounts, group * width, width, groupCounts[group]);
+        }
+        processMultiRowInsertKeys(ms, stmt, parameterObjects.subList(0, groupedRows));
+      } finally {
         closeStatement(stmt);
       }
-      currentSql = null;
-      statementList.clear();
-      batchResultList.clear();
+    }
+    if (groupedRows < rows) {
+      StatementHandler handler = newMultiRowInsertHandler(ms, multiRowInsert.getBoundSql(groupedRows, rows - groupedRows));
+      Statement stmt = handler.prepare(getConnection(ms.getStatementLog()), transaction.getTimeout());
+      try {
+        handler.parameterize(stmt);
+        PreparedStatement ps = (PreparedStatement) stmt;
+        ps.execute();
+        MultiRowInsert.spreadUpdateCount(updateCounts, groupedRows, rows - groupedRows, ps.getUpdateCount());
+        processMultiRowInsertKeys(ms, stmt, parameterObjects.subList(groupedRows, rows));
+      } finally {
+        closeStatement(stmt);
+      }
+    }
+    return updateCounts;
+  }
+
+  private StatementHandler newMultiRowInsertHandler(MappedStatement ms, BoundSql boundSql) {
+    return ms.getConfiguration().newStatementHandler(this, ms, null, RowBounds.DEFAULT, null, boundSql);
+  }
+
+  private void processMultiRowInsertKeys(MappedStatement ms, Statement stmt, List<Object> parameterObjects) {
+    if (ms.getKeyGenerator() instanceof Jdbc3KeyGenerator) {
+      ((Jdbc3KeyGenerator) ms.getKeyGenerator()).processBatch(ms, stmt, new ArrayList<>(parameterObjects));
+    }
+  }
+
+  /*
+   * 只执行了前 count 个批次时移除它们，剩下的批次重新开始计算 batchFlushInterval
+   */
+  private void removeBatches(int count) {
+    List<BatchResult> executedResults = batchResultList.subList(0, count);
+    openBatches.values().removeIf(batchResult -> batchResultList.indexOf(batchResult) < count);
+    for (BatchResult batchResult : executedResults) {
+      pendingCount -= batchResult.getParameterObjects().size();
+      Long bytes = batchBytes.remove(batchResult);
+      if (bytes != null) {
+        pendingBytes -= bytes;
+      }
+      multiRowInserts.remove(batchResult);
+    }
+    statementList.subList(0, count).clear();
+    executedResults.clear();
+    pendingSinceNanos = System.nanoTime();
+  }
+
+  private void closeBatches() {
+    for (Statement stmt : statementList) {
+      closeStatement(stmt);
+    }
+    currentSql = null;
+    statementList.clear();
+    batchResultList.clear();
+    multiRowInserts.clear();
+    batchBytes.clear();
+    if (openBatches != null) {
+      openBatches.clear();
+    }
+    pendingCount = 0;
+    pendingBytes = 0L;
+  }
+
+  private static final class BatchKey {
+
+    private final MappedStatement mappedStatement;
+    private final String sql;
+
+    BatchKey(MappedStatement mappedStatement, String sql) {
+      this.mappedStatement = mappedStatement;
+      this.sql = sql;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof BatchKey)) {
+        return false;
+      }
+      BatchKey other = (BatchKey) o;
+      return mappedStatement.equals(other.mappedStatement) && sql.equals(other.sql);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * mappedStatement.hashCode() + sql.hashCode();
     }
   }
 
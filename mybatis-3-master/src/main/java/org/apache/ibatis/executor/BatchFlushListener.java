@@ -0,0 +1,32 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import java.util.List;
+
+/**
+ * Receives the results of the batches executed by a {@link BatchExecutor}, whether they were flushed automatically
+ * (see the <code>batchFlushSize</code>, <code>batchFlushMaxBytes</code> and <code>batchFlushInterval</code> settings)
+ * or by a flush, commit or query of the session. The results handed to a listener are not retained by the executor.
+ *
+ * @since 3.5.8
+ */
+@FunctionalInterface
+public interface BatchFlushListener {
+
+  void onFlush(List<BatchResult> results);
+
+}
@@ -0,0 +1,162 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.CacheRevalidation;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.ParameterMode;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.transaction.Transaction;
+import org.apache.ibatis.type.TypeHandlerRegistry;
+
+/**
+ * Re-executes in the background the statements whose cached result is served stale by a
+ * {@link org.apache.ibatis.cache.decorators.ScheduledCache}.
+ * <p>
+ * Each refresh runs in its own transaction with a new executor of the configuration, the result is put in the second
+ * level cache when the executor is closed. The parameter values are read on the calling thread, the caller is free to
+ * change or reuse its parameter object once the query returned. The refresh is dropped if too many refreshes are
+ * pending.
+ *
+ * @since 3.5.8
+ */
+public class CacheRefresher {
+
+  private static final Log log = LogFactory.getLog(CacheRefresher.class);
+
+  private final Configuration configuration;
+  private volatile ThreadPoolExecutor threads;
+
+  public CacheRefresher(Configuration configuration) {
+    this.configuration = configuration;
+  }
+
+  public void refresh(MappedStatement ms, Object parameterObject, RowBounds rowBounds, CacheKey key, BoundSql boundSql) {
+    Environment environment = configuration.getEnvironment();
+    if (environment == null) {
+      return;
+    }
+    BoundSql copy = copyParameterValues(boundSql, parameterObject);
+    try {
+      getThreads().execute(() -> query(environment, ms, rowBounds, key, copy));
+    } catch (RejectedExecutionException e) {
+      if (log.isDebugEnabled()) {
+        log.debug("Too many pending refreshes, the entry " + key + " is refreshed when it expires.");
+      }
+    }
+  }
+
+  private void query(Environment environment, MappedStatement ms, RowBounds rowBounds, CacheKey key,
+      BoundSql boundSql) {
+    Transaction tx = environment.getTransactionFactory().newTransaction(environment.getDataSource(), null, false);
+    Executor executor = configuration.newExecutor(tx, ExecutorType.SIMPLE);
+    boolean success = false;
+    CacheRevalidation.setRevalidating(true);
+    try {
+      if (key.equals(executor.createCacheKey(ms, null, rowBounds, boundSql))) {
+        executor.query(ms, null, rowBounds, Executor.NO_RESULT_HANDLER, key, boundSql);
+      }
+      success = true;
+    } catch (Exception e) {
+      log.warn("Error refreshing the cached result of " + ms.getId() + ". Cause: " + e);
+    } finally {
+      CacheRevalidation.setRevalidating(false);
+      executor.close(!success);
+    }
+  }
+
+  /*参数值在调用线程里取出来放到新的 BoundSql 里，后台线程不再读调用方的参数对象*/
+  private BoundSql copyParameterValues(BoundSql boundSql, Object parameterObject) {
+    TypeHandlerRegistry typeHandlerRegistry = configuration.getTypeHandlerRegistry();
+    List<ParameterMapping> parameterMappings = new ArrayList<>(boundSql.getParameterMappings().size());
+    List<Object> values = new ArrayList<>(boundSql.getParameterMappings().size());
+    MetaObject metaObject = null;
+    // mimic DefaultParameterHandler logic
+    for (ParameterMapping parameterMapping : boundSql.getParameterMappings()) {
+      Object value;
+      String propertyName = parameterMapping.getProperty();
+      if (parameterMapping.getMode() == ParameterMode.OUT) {
+        value = null;
+      } else if (boundSql.hasAdditionalParameter(propertyName)) {
+        value = boundSql.getAdditionalParameter(propertyName);
+      } else if (parameterObject == null) {
+        value = null;
+      } else if (typeHandlerRegistry.hasTypeHandler(parameterObject.getClass())) {
+        value = parameterObject;
+      } else {
+        if (metaObject == null) {
+          metaObject = configuration.newMetaObject(parameterObject);
+        }
+        value = metaObject.getValue(propertyName);
+      }
+      parameterMappings.add(new ParameterMapping.Builder(configuration, "__refresh_" + values.size(),
+          parameterMapping.getTypeHandler())
+        .mode(parameterMapping.getMode())
+        .javaType(parameterMapping.getJavaType())
+        .jdbcType(parameterMapping.getJdbcType())
+        .numericScale(parameterMapping.getNumericScale())
+        .resultMapId(parameterMapping.getResultMapId())
+        .jdbcTypeName(parameterMapping.getJdbcTypeName())
+        .expression(parameterMapping.getExpression())
+        .build());
+      values.add(value);
+    }
+    BoundSql copy = new BoundSql(configuration, boundSql.getSql(), parameterMappings, null);
+    for (int i = 0; i < values.size(); i++) {
+      copy.setAdditionalParameter("__refresh_" + i, values.get(i));
+    }
+    return copy;
+  }
+
+  private ThreadPoolExecutor getThreads() {
+    ThreadPoolExecutor result = threads;
+    if (result == null) {
+      synchronized (this) {
+        result = threads;
+        if (result == null) {
+          int size = Math.min(4, Runtime.getRuntime().availableProcessors());
+          AtomicInteger counter = new AtomicInteger();
+          result = new ThreadPoolExecutor(size, size, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(1024), r -> {
+            Thread thread = new Thread(r, "mybatis-cache-refresh-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          });
+          result.allowCoreThreadTimeOut(true);
+          threads = result;
+        }
+      }
+    }
+    return result;
+  }
+
+}
@@ -16,11 +16,16 @@
 package org.apache.ibatis.executor;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.CacheRevalidation;
 import org.apache.ibatis.cache.TransactionalCacheManager;
+import org.apache.ibatis.cache.tag.CacheInvalidation;
+import org.apache.ibatis.cache.tag.CacheTagResolver;
 import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.mapping.MappedStatement;
@@ -41,10 +46,42 @@ import org.apache.ibatis.transaction.Transaction;
 public class CachingExecutor implements Executor {
 
   private final Executor delegate;
-  private final TransactionalCacheManager tcm = new TransactionalCacheManager();
+  private final TransactionalCacheManager tcm;
+  private final SingleFlight singleFlight;
+  private final CacheTagResolver tagResolver;
+  /*本会话有没有提交的写操作，这时查到的结果可能包含未提交的数据，不能和其他会话共享*/
+  private boolean dirty;
 
   public CachingExecutor(Executor delegate) {
+    this(delegate, null);
+  }
+
+  /**
+   * @param delegate
+   *          the executor
+   * @param singleFlight
+   *          shared by the executors of the configuration to coalesce concurrent misses, null to disable it
+   * @since 3.5.8
+   */
+  public CachingExecutor(Executor delegate, SingleFlight singleFlight) {
+    this(delegate, singleFlight, null);
+  }
+
+  /**
+   * @param delegate
+   *          the executor
+   * @param singleFlight
+   *          shared by the executors of the configuration to coalesce concurrent misses, null to disable it
+   * @param tagResolver
+   *          tags the cached results so a write removes only the results it may have changed, null to clear the whole
+   *          cache on every write
+   * @since 3.5.8
+   */
+  public CachingExecutor(Executor delegate, SingleFlight singleFlight, CacheTagResolver tagResolver) {
     this.delegate = delegate;
+    this.singleFlight = singleFlight;
+    this.tagResolver = tagResolver;
+    this.tcm = new TransactionalCacheManager(tagResolver == null ? null : tagResolver::getIndex);
     delegate.setExecutorWrapper(this);
   }
 
@@ -74,6 +111,18 @@ public class CachingExecutor implements Executor {
   /*二级缓存  默认不是查询的话要更新缓存*/
   @Override
   public int update(MappedStatement ms, Object parameterObject) throws SQLException {
+    dirty = true;
+    Cache cache = ms.getCache();
+    if (tagResolver != null && cache != null && ms.isFlushCacheRequired()) {
+      /*只删除这条语句改到的表和行对应的缓存，推断不出来的话清空整个缓存*/
+      List<CacheInvalidation> invalidations = tagResolver.resolveInvalidations(ms, ms.getBoundSql(parameterObject));
+      if (invalidations == null) {
+        tcm.clear(cache);
+      } else {
+        tcm.invalidate(cache, invalidations);
+      }
+      return delegate.update(ms, parameterObject);
+    }
     flushCacheIfRequired(ms);
     return delegate.update(ms, parameterObject);
   }
@@ -103,10 +152,18 @@ public class CachingExecutor implements Executor {
         @SuppressWarnings("unchecked")
           /*缓存里面没有的话，再去数据库查询*/
         List<E> list = (List<E>) tcm.getObject(cache, key);
+        /*读到的是过期但还能用的值，后台重新查询刷新*/
+        if (CacheRevalidation.consumeRefreshRequest(key) && list != null) {
+          ms.getConfiguration().getCacheRefresher().refresh(ms, parameterObject, rowBounds, key, boundSql);
+        }
         if (list == null) {
-          list = delegate.query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
+          list = queryDatabase(ms, parameterObject, rowBounds, key, boundSql);
           /*查询得到之后放到缓存中*/
-          tcm.putObject(cache, key, list); // issue #578 and #116
+          if (tagResolver != null) {
+            tcm.putObject(cache, key, list, tagResolver.resolveTags(ms, boundSql));
+          } else {
+            tcm.putObject(cache, key, list); // issue #578 and #116
+          }
         }
         return list;
       }
@@ -114,6 +171,28 @@ public class CachingExecutor implements Executor {
     return delegate.query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
   }
 
+  /*
+   * 开启 singleFlight 时，同一个key同时只有一个会话查询数据库，其他会话等它的结果。
+   * 只在只读缓存上共享：读写缓存每个会话都要拿到自己的对象副本。
+   * 本会话有未提交的写操作时也不参与：自己查到的可能是未提交的数据，等别人的又看不到自己的修改。
+   */
+  @SuppressWarnings("unchecked")
+  private <E> List<E> queryDatabase(MappedStatement ms, Object parameterObject, RowBounds rowBounds, CacheKey key, BoundSql boundSql)
+      throws SQLException {
+    Cache cache = ms.getCache();
+    if (singleFlight == null || dirty || tcm.isClearOnCommit(cache)
+        || !ms.getConfiguration().isReadOnlyCache(cache.getId())) {
+      return delegate.query(ms, parameterObject, rowBounds, null, key, boundSql);
+    }
+    boolean[] loaded = new boolean[1];
+    List<E> list = (List<E>) singleFlight.execute(key, () -> {
+      loaded[0] = true;
+      return delegate.query(ms, parameterObject, rowBounds, null, key, boundSql);
+    });
+    // the waiters get their own list, the result objects are shared as with any read of the read-only cache
+    return loaded[0] || list == null ? list : new ArrayList<>(list);
+  }
+
   @Override
   public List<BatchResult> flushStatements() throws SQLException {
     return delegate.flushStatements();
@@ -123,6 +202,7 @@ public class CachingExecutor implements Executor {
   public void commit(boolean required) throws SQLException {
     delegate.commit(required);
     tcm.commit();
+    dirty = false;
   }
 
   @Override
@@ -133,6 +213,7 @@ public class CachingExecutor implements Executor {
       if (required) {
         tcm.rollback();
       }
+      dirty = false;
     }
   }
    /*确保方法没有Out类型的参数，mybatis不支持存储过程的缓存，所以如果是存储过程，这里就会报错。*/
@@ -166,6 +247,31 @@ public class CachingExecutor implements Executor {
     delegate.clearLocalCache();
   }
 
+  @Override
+  public void setLocalCacheLimits(int maxEntries, long maxBytes) {
+    delegate.setLocalCacheLimits(maxEntries, maxBytes);
+  }
+
+  @Override
+  public long getLocalCacheEvictions() {
+    return delegate.getLocalCacheEvictions();
+  }
+
+  @Override
+  public Map<CacheKey, Object> getLocalCacheEntries() {
+    return delegate.getLocalCacheEntries();
+  }
+
+  @Override
+  public void putLocalCacheEntries(Map<CacheKey, Object> entries) {
+    delegate.putLocalCacheEntries(entries);
+  }
+
+  @Override
+  public void setBatchFlushListener(BatchFlushListener listener) {
+    delegate.setBatchFlushListener(listener);
+  }
+
   private void flushCacheIfRequired(MappedStatement ms) {
     /*一般没有再mapper.xml
     * 中配置<cache>配置不会开启二级缓存*/
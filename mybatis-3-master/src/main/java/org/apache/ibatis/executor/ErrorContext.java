@@ -68,6 +68,22 @@ public class ErrorContext {
     return this;
   }
 
+  /**
+   * @return the resource (mapper file or class) being processed, may be null
+   * @since 3.5.8
+   */
+  public String getResource() {
+    return resource;
+  }
+
+  /**
+   * @return the object (e.g. the mapped statement id) being processed, may be null
+   * @since 3.5.8
+   */
+  public String getObject() {
+    return object;
+  }
+
   public ErrorContext message(String message) {
     this.message = message;
     return this;
@@ -16,7 +16,9 @@
 package org.apache.ibatis.executor;
 
 import java.sql.SQLException;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.ibatis.cache.CacheKey;
 import org.apache.ibatis.cursor.Cursor;
@@ -54,6 +56,63 @@ public interface Executor {
 
   void clearLocalCache();
 
+  /**
+   * Bounds the local cache of this executor, zero or less means unbounded. Ignored by the executors without a local
+   * cache.
+   *
+   * @param maxEntries
+   *          the maximum number of cached queries
+   * @param maxBytes
+   *          the maximum estimated size of the cached results
+   * @since 3.5.8
+   */
+  default void setLocalCacheLimits(int maxEntries, long maxBytes) {
+    // NOP
+  }
+
+  /**
+   * @return the number of local cache entries evicted because of the limits
+   * @since 3.5.8
+   */
+  default long getLocalCacheEvictions() {
+    return 0L;
+  }
+
+  /**
+   * Returns the results of the completed queries held by the local cache, except those of callable statements. They
+   * can be shared with another executor of the same configuration, see {@link #putLocalCacheEntries(Map)}.
+   *
+   * @return a copy of the entries
+   * @since 3.5.8
+   */
+  default Map<CacheKey, Object> getLocalCacheEntries() {
+    return Collections.emptyMap();
+  }
+
+  /**
+   * Adds results of queries to the local cache, e.g. run by another executor of the same configuration. The results
+   * already cached are kept. Does nothing when the local cache scope is STATEMENT and no query is running.
+   *
+   * @param entries
+   *          the entries returned by {@link #getLocalCacheEntries()}
+   * @since 3.5.8
+   */
+  default void putLocalCacheEntries(Map<CacheKey, Object> entries) {
+    // NOP
+  }
+
+  /**
+   * Sets the listener receiving the results of the executed batches, the results handed to it are not retained. Ignored
+   * by the executors that do not batch statements.
+   *
+   * @param listener
+   *          the listener, null to return the results of automatic flushes from the next flush instead
+   * @since 3.5.8
+   */
+  default void setBatchFlushListener(BatchFlushListener listener) {
+    // NOP
+  }
+
   void deferLoad(MappedStatement ms, MetaObject resultObject, String property, CacheKey key, Class<?> targetType);
 
   Transaction getTransaction();
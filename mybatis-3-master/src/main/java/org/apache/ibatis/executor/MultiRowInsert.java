@@ -0,0 +1,240 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
+import org.apache.ibatis.executor.keygen.KeyGenerator;
+import org.apache.ibatis.executor.keygen.NoKeyGenerator;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.ParameterMode;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.mapping.StatementType;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.scripting.xmltags.XMLLanguageDriver;
+import org.apache.ibatis.session.Configuration;
+
+/**
+ * The rows of a batched single row <code>INSERT ... VALUES (...)</code>, executed as multi-row
+ * <code>INSERT ... VALUES (...), (...)</code> statements of a fixed width.
+ * <p>
+ * The parameter values of a row are resolved when the row is added, like a batched statement sets its parameters
+ * when it is added to the batch. A multi-row statement gets the parameter mappings of its rows one after another,
+ * their values are passed as additional parameters of its {@link BoundSql}.
+ *
+ * @since 3.5.8
+ */
+final class MultiRowInsert {
+
+  private static final String VALUES = "values";
+  private static final String ROW_PARAMETER_PREFIX = "_row";
+
+  private final Configuration configuration;
+  private final String head;
+  private final String row;
+  private final List<ParameterMapping> rowMappings;
+  private final int width;
+  private final List<Object[]> rows = new ArrayList<>();
+
+  private MultiRowInsert(Configuration configuration, String head, String row, List<ParameterMapping> rowMappings,
+      int width) {
+    this.configuration = configuration;
+    this.head = head;
+    this.row = row;
+    this.rowMappings = rowMappings;
+    this.width = width;
+  }
+
+  /**
+   * Returns a multi-row insert for the statement, or null when it cannot be rewritten: it is not a prepared single row
+   * <code>INSERT ... VALUES (...)</code>, it has a key generator other than {@link Jdbc3KeyGenerator}, output
+   * parameters or a custom language driver.
+   */
+  static MultiRowInsert of(MappedStatement ms, BoundSql boundSql, int width) {
+    if (width < 2 || ms.getSqlCommandType() != SqlCommandType.INSERT || ms.getStatementType() != StatementType.PREPARED
+        || !(ms.getLang() instanceof XMLLanguageDriver)) {
+      return null;
+    }
+    KeyGenerator keyGenerator = ms.getKeyGenerator();
+    if (!Jdbc3KeyGenerator.class.equals(keyGenerator.getClass()) && !NoKeyGenerator.class.equals(keyGenerator.getClass())) {
+      return null;
+    }
+    List<ParameterMapping> mappings = boundSql.getParameterMappings();
+    for (ParameterMapping mapping : mappings) {
+      if (mapping.getMode() != ParameterMode.IN) {
+        return null;
+      }
+    }
+    String sql = boundSql.getSql();
+    int valuesEnd = indexAfterValues(sql);
+    if (valuesEnd < 0) {
+      return null;
+    }
+    int rowStart = skipWhitespace(sql, valuesEnd);
+    int rowEnd = rowStart < sql.length() && sql.charAt(rowStart) == '(' ? indexAfterGroup(sql, rowStart) : -1;
+    if (rowEnd < 0 || skipWhitespace(sql, rowEnd) != sql.length()
+        || countPlaceholders(sql, 0, rowStart) != 0 || countPlaceholders(sql, rowStart, rowEnd) != mappings.size()) {
+      return null;
+    }
+    return new MultiRowInsert(ms.getConfiguration(), sql.substring(0, valuesEnd), sql.substring(rowStart, rowEnd),
+        mappings, width);
+  }
+
+  int getWidth() {
+    return width;
+  }
+
+  int getRowCount() {
+    return rows.size();
+  }
+
+  void addRow(BoundSql boundSql, Object parameterObject) {
+    Object[] values = new Object[rowMappings.size()];
+    MetaObject metaObject = null;
+    for (int i = 0; i < values.length; i++) {
+      String propertyName = rowMappings.get(i).getProperty();
+      // same lookup as DefaultParameterHandler
+      if (boundSql.hasAdditionalParameter(propertyName)) {
+        values[i] = boundSql.getAdditionalParameter(propertyName);
+      } else if (parameterObject == null) {
+        values[i] = null;
+      } else if (configuration.getTypeHandlerRegistry().hasTypeHandler(parameterObject.getClass())) {
+        values[i] = parameterObject;
+      } else {
+        if (metaObject == null) {
+          metaObject = configuration.newMetaObject(parameterObject);
+        }
+        values[i] = metaObject.getValue(propertyName);
+      }
+    }
+    rows.add(values);
+  }
+
+  /**
+   * Builds the statement inserting the given rows.
+   */
+  BoundSql getBoundSql(int from, int count) {
+    StringBuilder sql = new StringBuilder(head.length() + (row.length() + 2) * count);
+    sql.append(head).append(' ');
+    List<ParameterMapping> mappings = new ArrayList<>(rowMappings.size() * count);
+    List<Object> values = new ArrayList<>(rowMappings.size() * count);
+    for (int r = 0; r < count; r++) {
+      if (r > 0) {
+        sql.append(", ");
+      }
+      sql.append(row);
+      Object[] rowValues = rows.get(from + r);
+      for (int i = 0; i < rowValues.length; i++) {
+        ParameterMapping mapping = rowMappings.get(i);
+        mappings.add(new ParameterMapping.Builder(configuration, ROW_PARAMETER_PREFIX + r + '_' + i,
+            mapping.getTypeHandler()).javaType(mapping.getJavaType()).jdbcType(mapping.getJdbcType())
+                .numericScale(mapping.getNumericScale()).build());
+        values.add(rowValues[i]);
+      }
+    }
+    BoundSql boundSql = new BoundSql(configuration, sql.toString(), mappings, null);
+    for (int i = 0; i < mappings.size(); i++) {
+      boundSql.setAdditionalParameter(mappings.get(i).getProperty(), values.get(i));
+    }
+    return boundSql;
+  }
+
+  /**
+   * Spreads the update count of a multi-row statement over its rows. When it does not match the number of rows (e.g.
+   * rows ignored by the database) the count of each row is unknown.
+   */
+  static void spreadUpdateCount(int[] updateCounts, int from, int count, int updateCount) {
+    Arrays.fill(updateCounts, from, from + count, updateCount == count ? 1 : Statement.SUCCESS_NO_INFO);
+  }
+
+  private static int indexAfterValues(String sql) {
+    int start = skipWhitespace(sql, 0);
+    if (!sql.regionMatches(true, start, "insert", 0, 6)) {
+      return -1;
+    }
+    char quote = 0;
+    for (int i = start; i < sql.length(); i++) {
+      char c = sql.charAt(i);
+      if (quote != 0) {
+        if (c == quote) {
+          quote = 0;
+        }
+      } else if (c == '\'' || c == '"' || c == '`') {
+        quote = c;
+      } else if (sql.regionMatches(true, i, VALUES, 0, VALUES.length()) && isBoundary(sql, i - 1)
+          && isBoundary(sql, i + VALUES.length())) {
+        return i + VALUES.length();
+      }
+    }
+    return -1;
+  }
+
+  private static int indexAfterGroup(String sql, int start) {
+    int depth = 0;
+    char quote = 0;
+    for (int i = start; i < sql.length(); i++) {
+      char c = sql.charAt(i);
+      if (quote != 0) {
+        if (c == quote) {
+          quote = 0;
+        }
+      } else if (c == '\'' || c == '"' || c == '`') {
+        quote = c;
+      } else if (c == '(') {
+        depth++;
+      } else if (c == ')' && --depth == 0) {
+        return i + 1;
+      }
+    }
+    return -1;
+  }
+
+  private static int countPlaceholders(String sql, int start, int end) {
+    int count = 0;
+    char quote = 0;
+    for (int i = start; i < end; i++) {
+      char c = sql.charAt(i);
+      if (quote != 0) {
+        if (c == quote) {
+          quote = 0;
+        }
+      } else if (c == '\'' || c == '"' || c == '`') {
+        quote = c;
+      } else if (c == '?') {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private static boolean isBoundary(String sql, int index) {
+    return index < 0 || index >= sql.length() || !Character.isJavaIdentifierPart(sql.charAt(index));
+  }
+
+  private static int skipWhitespace(String sql, int index) {
+    while (index < sql.length() && Character.isWhitespace(sql.charAt(index))) {
+      index++;
+    }
+    return index;
+  }
+
+}
@@ -0,0 +1,112 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Coalesces concurrent second level cache misses on the same key into one query.
+ * <p>
+ * The first session that misses a key runs the query, the sessions that miss the same key while it is running wait
+ * for it and get its result, or its exception. The key is released when the query returns, whatever the outcome, so
+ * unlike {@link org.apache.ibatis.cache.decorators.BlockingCache} the lock does not depend on a later put or commit.
+ * <p>
+ * A thread that is running a query for a key never waits for another key (e.g. for a nested select), it queries the
+ * database itself: the waiters never lead a query, so they cannot wait for each other.
+ *
+ * @since 3.5.8
+ */
+public class SingleFlight {
+
+  private static final ThreadLocal<int[]> LEADING = ThreadLocal.withInitial(() -> new int[1]);
+
+  private final ConcurrentHashMap<Object, Flight> flights = new ConcurrentHashMap<>();
+
+  /**
+   * Runs the loader, or waits for the loader already running for the same key.
+   *
+   * @param key
+   *          the cache key
+   * @param loader
+   *          the query
+   * @return the result of the loader that ran
+   * @throws SQLException
+   *           thrown by the loader that ran
+   */
+  public Object execute(Object key, Loader loader) throws SQLException {
+    int[] leading = LEADING.get();
+    if (leading[0] > 0) {
+      return loader.load();
+    }
+    Flight flight = new Flight();
+    Flight inFlight = flights.putIfAbsent(key, flight);
+    if (inFlight != null) {
+      return inFlight.await(key);
+    }
+    leading[0]++;
+    try {
+      Object result = loader.load();
+      flight.result = result;
+      return result;
+    } catch (SQLException | RuntimeException | Error e) {
+      flight.failure = e;
+      throw e;
+    } finally {
+      leading[0]--;
+      flights.remove(key, flight);
+      flight.latch.countDown();
+    }
+  }
+
+  /**
+   * @return the number of keys being loaded
+   */
+  public int getInFlightCount() {
+    return flights.size();
+  }
+
+  @FunctionalInterface
+  public interface Loader {
+    Object load() throws SQLException;
+  }
+
+  private static final class Flight {
+    private final CountDownLatch latch = new CountDownLatch(1);
+    private volatile Object result;
+    private volatile Throwable failure;
+
+    Object await(Object key) throws SQLException {
+      try {
+        latch.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new ExecutorException("Interrupted while waiting for the query in flight for the key " + key, e);
+      }
+      Throwable t = failure;
+      if (t instanceof SQLException) {
+        throw (SQLException) t;
+      } else if (t instanceof RuntimeException) {
+        throw (RuntimeException) t;
+      } else if (t instanceof Error) {
+        throw (Error) t;
+      }
+      return result;
+    }
+  }
+
+}
@@ -16,13 +16,18 @@
 package org.apache.ibatis.executor.resultset;
 
 import java.lang.reflect.Constructor;
+import java.math.BigDecimal;
 import java.sql.CallableStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -36,6 +41,7 @@ import org.apache.ibatis.cursor.defaults.DefaultCursor;
 import org.apache.ibatis.executor.ErrorContext;
 import org.apache.ibatis.executor.Executor;
 import org.apache.ibatis.executor.ExecutorException;
+import org.apache.ibatis.executor.ResultExtractor;
 import org.apache.ibatis.executor.loader.ResultLoader;
 import org.apache.ibatis.executor.loader.ResultLoaderMap;
 import org.apache.ibatis.executor.parameter.ParameterHandler;
@@ -51,6 +57,7 @@ import org.apache.ibatis.mapping.ResultMap;
 import org.apache.ibatis.mapping.ResultMapping;
 import org.apache.ibatis.reflection.MetaClass;
 import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.ParamNameResolver;
 import org.apache.ibatis.reflection.ReflectorFactory;
 import org.apache.ibatis.reflection.factory.ObjectFactory;
 import org.apache.ibatis.session.AutoMappingBehavior;
@@ -126,11 +133,38 @@ public class DefaultResultSetHandler implements ResultSetHandler {
   // temporary marking flag that indicate using constructor mapping (use field to reduce memory usage)
   private boolean useConstructorMappings;
 
+  // batched nested selects 批量嵌套查询：结果对象全部返回之前才能批量加载，所以自定义ResultHandler和Cursor时逐行查询
+  private boolean batchNestedQueries;
+  private final Map<ResultMapping, PendingBatch> pendingBatches = new IdentityHashMap<>();
+
   private static class PendingRelation {
     public MetaObject metaObject;
     public ResultMapping propertyMapping;
   }
 
+  private static class PendingBatch {
+    private final MappedStatement nestedQuery;
+    private final ResultMapping propertyMapping;
+    // the keys in the order they were read, each with the rows waiting for it
+    private final Map<Object, PendingBatchKey> keys = new LinkedHashMap<>();
+
+    PendingBatch(MappedStatement nestedQuery, ResultMapping propertyMapping) {
+      this.nestedQuery = nestedQuery;
+      this.propertyMapping = propertyMapping;
+    }
+  }
+
+  private static class PendingBatchKey {
+    private final Object value;
+    private final CacheKey cacheKey;
+    private final List<MetaObject> metaObjects = new ArrayList<>();
+
+    PendingBatchKey(Object value, CacheKey cacheKey) {
+      this.value = value;
+      this.cacheKey = cacheKey;
+    }
+  }
+
   private static class UnMappedColumnAutoMapping {
     private final String column;
     private final String property;
@@ -210,6 +244,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     ErrorContext.instance().activity("handling results").object(mappedStatement.getId());
     //该集合用于保存映射结果集得到的结果对象
     final List<Object> multipleResults = new ArrayList<>();
+    batchNestedQueries = resultHandler == null;
 
     int resultSetCount = 0;
     /*包装结果集，可能有一些数据库会返回多个ResultSet*/
@@ -375,6 +410,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     } else {
       handleRowValuesForSimpleResultMap(rsw, resultMap, resultHandler, rowBounds, parentMapping);
     }
+    loadPendingBatches();
   }
   /*带有嵌套结果映射的映射语句不能被RowBounds安全地约束 --实际行数目可能多于十行？*/
   private void ensureNoRowBounds() {
@@ -683,20 +719,20 @@ public class DefaultResultSetHandler implements ResultSetHandler {
   }
 
   private CacheKey createKeyForMultipleResults(ResultSet rs, ResultMapping resultMapping, String names, String columns) throws SQLException {
-    CacheKey cacheKey = new CacheKey();
-    cacheKey.update(resultMapping);
+    CacheKey.Builder cacheKey = CacheKey.builder();
+    cacheKey.add(resultMapping);
     if (columns != null && names != null) {
       String[] columnsArray = columns.split(",");
       String[] namesArray = names.split(",");
       for (int i = 0; i < columnsArray.length; i++) {
         Object value = rs.getString(columnsArray[i]);
         if (value != null) {
-          cacheKey.update(namesArray[i]);
-          cacheKey.update(value);
+          cacheKey.add(namesArray[i]);
+          cacheKey.add(value);
         }
       }
     }
-    return cacheKey;
+    return cacheKey.build();
   }
 
   //
@@ -876,15 +912,21 @@ public class DefaultResultSetHandler implements ResultSetHandler {
      /*获取嵌套查询的参数类型*/
     final Class<?> nestedQueryParameterType = nestedQuery.getParameterMap().getType();
     /*嵌套查询要传的参数对象，用于处理嵌套查询sql的#{}，${}，默认在嵌套的sql上没有配置ParameterType，那么返回值是 一个HashMap*/
-    final Object nestedQueryParameterObject = prepareParameterForNestedQuery(rs, propertyMapping, nestedQueryParameterType, columnPrefix);
+    final Object nestedQueryKey = prepareParameterForNestedQuery(rs, propertyMapping, nestedQueryParameterType, columnPrefix);
     Object value = null;
-    if (nestedQueryParameterObject != null) {
+    if (nestedQueryKey != null) {
+      final boolean batched = propertyMapping.getBatchSize() > 0;
+      /*批量嵌套查询的参数是外键列表，这里是只有当前行外键的列表*/
+      final Object nestedQueryParameterObject = batched ? wrapKeys(Collections.singletonList(nestedQueryKey)) : nestedQueryKey;
       final BoundSql nestedBoundSql = nestedQuery.getBoundSql(nestedQueryParameterObject);
       final CacheKey key = executor.createCacheKey(nestedQuery, nestedQueryParameterObject, RowBounds.DEFAULT, nestedBoundSql);
       final Class<?> targetType = propertyMapping.getJavaType();
       if (executor.isCached(nestedQuery, key)) {
         executor.deferLoad(nestedQuery, metaResultObject, property, key, targetType);
         value = DEFERRED;
+      } else if (batched && batchNestedQueries) {
+        addPendingBatchKey(nestedQuery, propertyMapping, nestedQueryKey, key, metaResultObject);
+        value = DEFERRED;
       } else {
         /*不是懒加载 马上处理 */
         final ResultLoader resultLoader = new ResultLoader(configuration, executor, nestedQuery, nestedQueryParameterObject, targetType, key, nestedBoundSql);
@@ -900,6 +942,113 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     return value;
   }
 
+  //
+  // BATCHED NESTED QUERY
+  //
+
+  private void addPendingBatchKey(MappedStatement nestedQuery, ResultMapping propertyMapping, Object value, CacheKey cacheKey,
+      MetaObject metaResultObject) throws SQLException {
+    PendingBatch batch = MapUtil.computeIfAbsent(pendingBatches, propertyMapping, k -> new PendingBatch(nestedQuery, propertyMapping));
+    MapUtil.computeIfAbsent(batch.keys, normalizeKey(value), k -> new PendingBatchKey(value, cacheKey)).metaObjects.add(metaResultObject);
+    if (batch.keys.size() >= propertyMapping.getBatchSize()) {
+      pendingBatches.remove(propertyMapping);
+      loadBatch(batch);
+    }
+  }
+
+  private void loadPendingBatches() throws SQLException {
+    while (!pendingBatches.isEmpty()) {
+      // loading a batch may add rows to another one
+      Iterator<PendingBatch> iterator = pendingBatches.values().iterator();
+      PendingBatch batch = iterator.next();
+      iterator.remove();
+      loadBatch(batch);
+    }
+  }
+
+  /*一次查询所有外键，再按照子对象的外键列分给各行，每个外键的结果也放入一级缓存*/
+  private void loadBatch(PendingBatch batch) throws SQLException {
+    final MappedStatement nestedQuery = batch.nestedQuery;
+    final ResultMapping propertyMapping = batch.propertyMapping;
+    final List<Object> values = new ArrayList<>(batch.keys.size());
+    for (PendingBatchKey key : batch.keys.values()) {
+      values.add(key.value);
+    }
+    final Object parameterObject = wrapKeys(values);
+    final BoundSql boundSql = nestedQuery.getBoundSql(parameterObject);
+    final CacheKey cacheKey = executor.createCacheKey(nestedQuery, parameterObject, RowBounds.DEFAULT, boundSql);
+    final List<Object> children = executor.query(nestedQuery, parameterObject, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER, cacheKey, boundSql);
+
+    final Map<Object, List<Object>> childrenByKey = new HashMap<>();
+    for (Object child : children) {
+      if (child != null) {
+        Object foreignKey = getForeignKeyValue(child, nestedQuery, propertyMapping);
+        MapUtil.computeIfAbsent(childrenByKey, normalizeKey(foreignKey), k -> new ArrayList<>()).add(child);
+      }
+    }
+
+    final ResultExtractor resultExtractor = new ResultExtractor(configuration, objectFactory);
+    final Map<CacheKey, Object> cacheEntries = new HashMap<>();
+    for (Map.Entry<Object, PendingBatchKey> entry : batch.keys.entrySet()) {
+      PendingBatchKey key = entry.getValue();
+      List<Object> list = childrenByKey.get(entry.getKey());
+      if (list == null) {
+        list = new ArrayList<>();
+      }
+      cacheEntries.put(key.cacheKey, list);
+      Object value = resultExtractor.extractObjectFromList(list, propertyMapping.getJavaType());
+      for (MetaObject metaObject : key.metaObjects) {
+        metaObject.setValue(propertyMapping.getProperty(), value);
+      }
+    }
+    executor.putLocalCacheEntries(cacheEntries);
+  }
+
+  private Object getForeignKeyValue(Object child, MappedStatement nestedQuery, ResultMapping propertyMapping) {
+    final String foreignColumn = propertyMapping.getForeignColumn();
+    if (child instanceof Map) {
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) child).entrySet()) {
+        if (foreignColumn.equalsIgnoreCase(String.valueOf(entry.getKey()))) {
+          return entry.getValue();
+        }
+      }
+    } else {
+      String foreignProperty = null;
+      for (ResultMapping childMapping : nestedQuery.getResultMaps().get(0).getPropertyResultMappings()) {
+        if (foreignColumn.equalsIgnoreCase(childMapping.getColumn())) {
+          foreignProperty = childMapping.getProperty();
+          break;
+        }
+      }
+      if (foreignProperty == null) {
+        MetaClass metaClass = MetaClass.forClass(child.getClass(), reflectorFactory);
+        foreignProperty = metaClass.findProperty(foreignColumn, configuration.isMapUnderscoreToCamelCase());
+      }
+      if (foreignProperty != null) {
+        return configuration.newMetaObject(child).getValue(foreignProperty);
+      }
+    }
+    throw new ExecutorException("Could not find the foreignColumn '" + foreignColumn + "' of property '"
+        + propertyMapping.getProperty() + "' in the results of '" + nestedQuery.getId() + "'");
+  }
+
+  private Object wrapKeys(List<Object> keys) {
+    // the same parameter as selectList(nestedQueryId, keys)
+    return ParamNameResolver.wrapToMapIfCollection(keys, null);
+  }
+
+  private Object normalizeKey(Object key) {
+    // the key read from the row and the one mapped to the child may be different number types
+    if (key instanceof Number) {
+      try {
+        return new BigDecimal(key.toString()).stripTrailingZeros();
+      } catch (NumberFormatException e) {
+        return key;
+      }
+    }
+    return key;
+  }
+
   private Object prepareParameterForNestedQuery(ResultSet rs, ResultMapping resultMapping, Class<?> parameterType, String columnPrefix) throws SQLException {
     /*是否有配置column的值：比如column="id" 那么就会构造一个map存放 这个id值传给 嵌套的查询的查询语句去查询得到结果并赋值*/
     if (resultMapping.isCompositeResult()) {
@@ -1122,8 +1271,9 @@ public class DefaultResultSetHandler implements ResultSetHandler {
   //
 
   private CacheKey createRowKey(ResultMap resultMap, ResultSetWrapper rsw, String columnPrefix) throws SQLException {
-    final CacheKey cacheKey = new CacheKey();
-    cacheKey.update(resultMap.getId());
+    /*行key只在这里生成，用不可变的key，不用为每一行都创建一个ArrayList*/
+    final CacheKey.Builder cacheKey = CacheKey.builder();
+    cacheKey.add(resultMap.getId());
     /*如果有IdResultMappings 就拿IdResultMappings 如果没有，那么就拿 getPropertyResultMappings  */
     List<ResultMapping> resultMappings = getResultMappingsForRowKey(resultMap);
     if (resultMappings.isEmpty()) {
@@ -1139,19 +1289,12 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     if (cacheKey.getUpdateCount() < 2) {
       return CacheKey.NULL_CACHE_KEY;
     }
-    return cacheKey;
+    return cacheKey.build();
   }
 
   private CacheKey combineKeys(CacheKey rowKey, CacheKey parentRowKey) {
     if (rowKey.getUpdateCount() > 1 && parentRowKey.getUpdateCount() > 1) {
-      CacheKey combinedKey;
-      try {
-        combinedKey = rowKey.clone();
-      } catch (CloneNotSupportedException e) {
-        throw new ExecutorException("Error cloning cache key.  Cause: " + e, e);
-      }
-      combinedKey.update(parentRowKey);
-      return combinedKey;
+      return CacheKey.builder(rowKey.getUpdateCount() + 1).addAll(rowKey).add(parentRowKey).build();
     }
     return CacheKey.NULL_CACHE_KEY;
   }
@@ -1164,7 +1307,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     return resultMappings;
   }
   /*根据行值生成一个唯一的 rowKey 代表一行 如果两行的数据的RowKey相同，那么说明，他们是嵌套查询结果级，  比如连接查询一对多的情况*/
-  private void createRowKeyForMappedProperties(ResultMap resultMap, ResultSetWrapper rsw, CacheKey cacheKey, List<ResultMapping> resultMappings, String columnPrefix) throws SQLException {
+  private void createRowKeyForMappedProperties(ResultMap resultMap, ResultSetWrapper rsw, CacheKey.Builder cacheKey, List<ResultMapping> resultMappings, String columnPrefix) throws SQLException {
     for (ResultMapping resultMapping : resultMappings) {
       /*如果不是嵌套查询或者嵌套结果集等*/
       if (resultMapping.isSimple()) {
@@ -1175,15 +1318,15 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         if (column != null && mappedColumnNames.contains(column.toUpperCase(Locale.ENGLISH))) {
           final Object value = th.getResult(rsw.getResultSet(), column);
           if (value != null || configuration.isReturnInstanceForEmptyRow()) {
-            cacheKey.update(column);
-            cacheKey.update(value);
+            cacheKey.add(column);
+            cacheKey.add(value);
           }
         }
       }
     }
   }
 
-  private void createRowKeyForUnmappedProperties(ResultMap resultMap, ResultSetWrapper rsw, CacheKey cacheKey, String columnPrefix) throws SQLException {
+  private void createRowKeyForUnmappedProperties(ResultMap resultMap, ResultSetWrapper rsw, CacheKey.Builder cacheKey, String columnPrefix) throws SQLException {
     final MetaClass metaType = MetaClass.forClass(resultMap.getType(), reflectorFactory);
     List<String> unmappedColumnNames = rsw.getUnmappedColumnNames(resultMap, columnPrefix);
     for (String column : unmappedColumnNames) {
@@ -1199,20 +1342,20 @@ public class DefaultResultSetHandler implements ResultSetHandler {
       if (metaType.findProperty(property, configuration.isMapUnderscoreToCamelCase()) != null) {
         String value = rsw.getResultSet().getString(column);
         if (value != null) {
-          cacheKey.update(column);
-          cacheKey.update(value);
+          cacheKey.add(column);
+          cacheKey.add(value);
         }
       }
     }
   }
 
-  private void createRowKeyForMap(ResultSetWrapper rsw, CacheKey cacheKey) throws SQLException {
+  private void createRowKeyForMap(ResultSetWrapper rsw, CacheKey.Builder cacheKey) throws SQLException {
     List<String> columnNames = rsw.getColumnNames();
     for (String columnName : columnNames) {
       final String value = rsw.getResultSet().getString(columnName);
       if (value != null) {
-        cacheKey.update(columnName);
-        cacheKey.update(value);
+        cacheKey.add(columnName);
+        cacheKey.add(value);
       }
     }
   }
@@ -19,6 +19,7 @@ import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
 
+import org.apache.ibatis.datasource.routing.RoutingContext;
 import org.apache.ibatis.executor.ErrorContext;
 import org.apache.ibatis.executor.Executor;
 import org.apache.ibatis.executor.ExecutorException;
@@ -94,7 +95,12 @@ public abstract class BaseStatementHandler implements StatementHandler {
     Statement statement = null;
     try {
       /*实例化Statement*/
-      statement = instantiateStatement(connection);
+      RoutingContext.setStatement(mappedStatement, boundSql.getSql());
+      try {
+        statement = instantiateStatement(connection);
+      } finally {
+        RoutingContext.clear();
+      }
       /*设置超时时间*/
       setStatementTimeout(statement, transactionTimeout);
       setFetchSize(statement);
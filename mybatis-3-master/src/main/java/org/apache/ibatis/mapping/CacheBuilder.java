@@ -24,13 +24,19 @@ import java.util.Properties;
 import org.apache.ibatis.builder.InitializingObject;
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheMetrics;
+import org.apache.ibatis.cache.ConcurrentCache;
 import org.apache.ibatis.cache.decorators.BlockingCache;
 import org.apache.ibatis.cache.decorators.LoggingCache;
 import org.apache.ibatis.cache.decorators.LruCache;
 import org.apache.ibatis.cache.decorators.ScheduledCache;
 import org.apache.ibatis.cache.decorators.SerializedCache;
 import org.apache.ibatis.cache.decorators.SynchronizedCache;
+import org.apache.ibatis.cache.impl.DefaultCacheMetrics;
+import org.apache.ibatis.cache.impl.OffHeapCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.cache.serializer.CacheSerializer;
+import org.apache.ibatis.cache.serializer.JavaCacheSerializer;
 import org.apache.ibatis.reflection.MetaObject;
 import org.apache.ibatis.reflection.SystemMetaObject;
 
@@ -50,6 +56,8 @@ public class CacheBuilder {
   private Long clearInterval;
  /*是否允许序列化*/
   private boolean readWrite;
+  /*序列化缓存使用的序列化方式，默认是java序列化*/
+  private Class<? extends CacheSerializer> serializer;
   private Properties properties;
   /*是否阻塞缓存操作：*/
   private boolean blocking;
@@ -86,6 +94,11 @@ public class CacheBuilder {
     return this;
   }
 
+  public CacheBuilder serializer(Class<? extends CacheSerializer> serializer) {
+    this.serializer = serializer;
+    return this;
+  }
+
   public CacheBuilder blocking(boolean blocking) {
     this.blocking = blocking;
     return this;
@@ -103,7 +116,7 @@ public class CacheBuilder {
     /*根据传入的 properties设置缓存的一些属性*/
     setCacheProperties(cache);
     // issue #352, 不装饰自定义的缓存
-    if (PerpetualCache.class.equals(cache.getClass())) {
+    if (PerpetualCache.class.equals(cache.getClass()) || OffHeapCache.class.equals(cache.getClass())) {
       for (Class<? extends Cache> decorator : decorators) {
         /*使用装饰器模式装饰缓存*/
         cache = newCacheDecoratorInstance(decorator, cache);
@@ -113,6 +126,11 @@ public class CacheBuilder {
     } else if (!LoggingCache.class.isAssignableFrom(cache.getClass())) {
       cache = new LoggingCache(cache);
     }
+    /*大小和权重从最外层的缓存读，例如 SynchronizedCache 会加锁*/
+    CacheMetrics metrics = cache.getMetrics();
+    if (metrics instanceof DefaultCacheMetrics) {
+      ((DefaultCacheMetrics) metrics).setCache(cache);
+    }
     return cache;
   }
   /*默认使用LRU的缓存机制*/
@@ -131,19 +149,25 @@ public class CacheBuilder {
       if (size != null && metaCache.hasSetter("size")) {
         metaCache.setValue("size", size);
       }
+      /*淘汰策略本身是线程安全的时候不需要再加锁*/
+      boolean concurrent = cache instanceof ConcurrentCache;
       if (clearInterval != null) {
         /*调用的时候才去判断是否清空缓存 */
         cache = new ScheduledCache(cache);
         ((ScheduledCache) cache).setClearInterval(clearInterval);
+        /*jitter、staleWhileRevalidate 等属性*/
+        setProperties(cache);
       }
       if (readWrite) {
         /*允许序列化缓存*/
-        cache = new SerializedCache(cache);
+        cache = new SerializedCache(cache, newSerializerInstance());
       }
       /*允许记录缓存情况*/
       cache = new LoggingCache(cache);
-      /*操作缓存的时候需要加锁*/
-      cache = new SynchronizedCache(cache);
+      if (!concurrent) {
+        /*操作缓存的时候需要加锁*/
+        cache = new SynchronizedCache(cache);
+      }
       if (blocking) {
         /*是否使用读写锁阻塞缓存*/
         cache = new BlockingCache(cache);
@@ -155,8 +179,20 @@ public class CacheBuilder {
   }
 
   private void setCacheProperties(Cache cache) {
+    setProperties(cache);
+    if (InitializingObject.class.isAssignableFrom(cache.getClass())) {
+      try {
+        ((InitializingObject) cache).initialize();
+      } catch (Exception e) {
+        throw new CacheException("Failed cache initialization for '"
+          + cache.getId() + "' on '" + cache.getClass().getName() + "'", e);
+      }
+    }
+  }
+
+  private void setProperties(Object target) {
     if (properties != null) {
-      MetaObject metaCache = SystemMetaObject.forObject(cache);
+      MetaObject metaCache = SystemMetaObject.forObject(target);
       for (Map.Entry<Object, Object> entry : properties.entrySet()) {
         String name = (String) entry.getKey();
         String value = (String) entry.getValue();
@@ -191,14 +227,18 @@ public class CacheBuilder {
         }
       }
     }
-    if (InitializingObject.class.isAssignableFrom(cache.getClass())) {
-      try {
-        ((InitializingObject) cache).initialize();
-      } catch (Exception e) {
-        throw new CacheException("Failed cache initialization for '"
-          + cache.getId() + "' on '" + cache.getClass().getName() + "'", e);
-      }
+  }
+
+  private CacheSerializer newSerializerInstance() {
+    Class<? extends CacheSerializer> serializerClass = serializer == null ? JavaCacheSerializer.class : serializer;
+    CacheSerializer instance;
+    try {
+      instance = serializerClass.getConstructor().newInstance();
+    } catch (Exception e) {
+      throw new CacheException("Could not instantiate cache serializer (" + serializerClass + "). Cause: " + e, e);
     }
+    setProperties(instance);
+    return instance;
   }
 
   private Cache newBaseCacheInstance(Class<? extends Cache> cacheClass, String id) {
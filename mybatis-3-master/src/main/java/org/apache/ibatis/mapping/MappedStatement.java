@@ -76,6 +76,7 @@ public final class MappedStatement {
   private Log statementLog;
   private LanguageDriver lang;
   private String[] resultSets;
+  private String[] cacheTags;
 
   MappedStatement() {
     // constructor disabled
@@ -208,6 +209,17 @@ public final class MappedStatement {
       return this;
     }
 
+    /**
+     * @param cacheTags
+     *          comma separated tables the statement reads or writes, e.g. {@code "person(id), address"}
+     * @return the builder
+     * @since 3.5.8
+     */
+    public Builder cacheTags(String cacheTags) {
+      mappedStatement.cacheTags = delimitedStringToArray(cacheTags);
+      return this;
+    }
+
     public MappedStatement build() {
       assert mappedStatement.configuration != null;
       assert mappedStatement.id != null;
@@ -321,6 +333,14 @@ public final class MappedStatement {
     return resultSets;
   }
 
+  /**
+   * @return the declared cache tags, null when they are inferred from the sql
+   * @since 3.5.8
+   */
+  public String[] getCacheTags() {
+    return cacheTags;
+  }
+
   public BoundSql getBoundSql(Object parameterObject) {
     BoundSql boundSql = sqlSource.getBoundSql(parameterObject);
     List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
@@ -55,6 +55,8 @@ public class ResultMapping {
   /*外键列*/
   private String foreignColumn;
   private boolean lazy;
+  /*批量嵌套查询每次最多查询的外键个数，0表示不批量*/
+  private int batchSize;
 
   ResultMapping() {
   }
@@ -142,6 +144,11 @@ public class ResultMapping {
       return this;
     }
 
+    public Builder batchSize(int batchSize) {
+      resultMapping.batchSize = batchSize;
+      return this;
+    }
+
     public ResultMapping build() {
       // lock down collections
       resultMapping.flags = Collections.unmodifiableList(resultMapping.flags);
@@ -177,6 +184,14 @@ public class ResultMapping {
           throw new IllegalStateException("There should be the same number of columns and foreignColumns in property " + resultMapping.property);
         }
       }
+      if (resultMapping.batchSize > 0) {
+        if (resultMapping.nestedQueryId == null || resultMapping.foreignColumn == null || !resultMapping.composites.isEmpty()) {
+          throw new IllegalStateException("A batched nested select needs a select, a single column and a foreignColumn in property " + resultMapping.property);
+        }
+        if (resultMapping.lazy) {
+          throw new IllegalStateException("A batched nested select cannot be lazy in property " + resultMapping.property);
+        }
+      }
     }
 
     private void resolveTypeHandler() {
@@ -261,6 +276,16 @@ public class ResultMapping {
     this.lazy = lazy;
   }
 
+  /**
+   * Gets the number of keys a batched nested select loads at once.
+   *
+   * @return the batch size, 0 if the nested select is run once per row
+   * @since 3.5.8
+   */
+  public int getBatchSize() {
+    return batchSize;
+  }
+
   public boolean isSimple() {
     return this.nestedResultMapId == null && this.nestedQueryId == null && this.resultSet == null;
   }
@@ -308,6 +333,7 @@ public class ResultMapping {
     sb.append(", resultSet='").append(resultSet).append('\'');
     sb.append(", foreignColumn='").append(foreignColumn).append('\'');
     sb.append(", lazy=").append(lazy);
+    sb.append(", batchSize=").append(batchSize);
     sb.append('}');
     return sb.toString();
   }
@@ -15,11 +15,13 @@
  */
 package org.apache.ibatis.session;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -34,19 +36,30 @@ import org.apache.ibatis.builder.ResultMapResolver;
 import org.apache.ibatis.builder.annotation.MethodResolver;
 import org.apache.ibatis.builder.xml.XMLStatementBuilder;
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheMetrics;
 import org.apache.ibatis.cache.decorators.FifoCache;
 import org.apache.ibatis.cache.decorators.LruCache;
 import org.apache.ibatis.cache.decorators.SoftCache;
+import org.apache.ibatis.cache.decorators.TinyLfuCache;
 import org.apache.ibatis.cache.decorators.WeakCache;
+import org.apache.ibatis.cache.decorators.WeightedCache;
+import org.apache.ibatis.cache.impl.OffHeapCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.cache.serializer.BinaryCacheSerializer;
+import org.apache.ibatis.cache.serializer.JavaCacheSerializer;
+import org.apache.ibatis.cache.tag.CacheTagResolver;
 import org.apache.ibatis.datasource.jndi.JndiDataSourceFactory;
+import org.apache.ibatis.datasource.pooled.ConcurrentPooledDataSourceFactory;
 import org.apache.ibatis.datasource.pooled.PooledDataSourceFactory;
+import org.apache.ibatis.datasource.routing.RoutingDataSourceFactory;
 import org.apache.ibatis.datasource.unpooled.UnpooledDataSourceFactory;
 import org.apache.ibatis.executor.BatchExecutor;
+import org.apache.ibatis.executor.CacheRefresher;
 import org.apache.ibatis.executor.CachingExecutor;
 import org.apache.ibatis.executor.Executor;
 import org.apache.ibatis.executor.ReuseExecutor;
 import org.apache.ibatis.executor.SimpleExecutor;
+import org.apache.ibatis.executor.SingleFlight;
 import org.apache.ibatis.executor.keygen.KeyGenerator;
 import org.apache.ibatis.executor.loader.ProxyFactory;
 import org.apache.ibatis.executor.loader.cglib.CglibProxyFactory;
@@ -110,6 +123,8 @@ public class Configuration {
   protected boolean useGeneratedKeys;
   protected boolean useColumnLabel = true;
   protected boolean cacheEnabled = true;
+  protected boolean singleFlightEnabled;
+  protected boolean fineGrainedCacheInvalidation;
   protected boolean callSettersOnNulls;
   protected boolean useActualParamName = true;
   /*返回空行实例--null行不返回数据，就是行都是null值的，可能比如一些报表如果都返会null，那么可能需要配置这个值，有可能有时候返回 0 也是不映射的，在解析构造row数据的时候不会返回这个对象 ，而是返会null */
@@ -121,6 +136,17 @@ public class Configuration {
   protected Class<? extends VFS> vfsImpl;
   protected Class<?> defaultSqlProviderType;
   protected LocalCacheScope localCacheScope = LocalCacheScope.SESSION;
+  /*一级缓存的条数和字节数上限，0表示不限*/
+  protected int localCacheSize;
+  protected long localCacheMaxBytes;
+  /*批处理执行器自动刷新的阈值：语句数、参数的估算字节数、毫秒数，0表示不自动刷新*/
+  protected int batchFlushSize;
+  protected long batchFlushMaxBytes;
+  protected long batchFlushInterval;
+  /*批处理执行器按 sql 分组时打开的批次上限，0表示只重用最后一个批次*/
+  protected int batchOpenStatements;
+  /*批处理执行器把单行插入合并成多行 INSERT ... VALUES 的行数，0表示不合并*/
+  protected int multiRowInsertSize;
   protected JdbcType jdbcTypeForNull = JdbcType.OTHER;
   protected Set<String> lazyLoadTriggerMethods = new HashSet<>(Arrays.asList("equals", "clone", "hashCode", "toString"));
   protected Integer defaultStatementTimeout;
@@ -167,6 +193,14 @@ public class Configuration {
           ". please check " + savedValue.getResource() + " and " + targetValue.getResource());
   /*缓存*/
   protected final Map<String, Cache> caches = new StrictMap<>("Caches collection");
+  /*只读的二级缓存（readOnly="true" 的 PerpetualCache），等待 singleFlight 的会话可以拿到同一批结果对象*/
+  protected final Set<String> readOnlyCaches = new HashSet<>();
+  /*二级缓存未命中时合并同一个key的并发查询，所有执行器共享*/
+  protected final SingleFlight singleFlight = new SingleFlight();
+  /*后台刷新过期的二级缓存（staleWhileRevalidate）*/
+  protected final CacheRefresher cacheRefresher = new CacheRefresher(this);
+  /*按表和主键失效二级缓存时，推断语句的表并保存每个缓存的索引*/
+  protected final CacheTagResolver cacheTagResolver = new CacheTagResolver(this);
   /*解析出来的 ResultMap*/
   protected final Map<String, ResultMap> resultMaps = new StrictMap<>("Result Maps collection");
   protected final Map<String, ParameterMap> parameterMaps = new StrictMap<>("Parameter Maps collection");
@@ -200,13 +234,21 @@ public class Configuration {
 
     typeAliasRegistry.registerAlias("JNDI", JndiDataSourceFactory.class);
     typeAliasRegistry.registerAlias("POOLED", PooledDataSourceFactory.class);
+    typeAliasRegistry.registerAlias("CONCURRENT_POOLED", ConcurrentPooledDataSourceFactory.class);
     typeAliasRegistry.registerAlias("UNPOOLED", UnpooledDataSourceFactory.class);
+    typeAliasRegistry.registerAlias("ROUTING", RoutingDataSourceFactory.class);
 
     typeAliasRegistry.registerAlias("PERPETUAL", PerpetualCache.class);
+    typeAliasRegistry.registerAlias("OFF_HEAP", OffHeapCache.class);
     typeAliasRegistry.registerAlias("FIFO", FifoCache.class);
     typeAliasRegistry.registerAlias("LRU", LruCache.class);
     typeAliasRegistry.registerAlias("SOFT", SoftCache.class);
     typeAliasRegistry.registerAlias("WEAK", WeakCache.class);
+    typeAliasRegistry.registerAlias("TINYLFU", TinyLfuCache.class);
+    typeAliasRegistry.registerAlias("WEIGHTED", WeightedCache.class);
+
+    typeAliasRegistry.registerAlias("JAVA_SERIALIZER", JavaCacheSerializer.class);
+    typeAliasRegistry.registerAlias("BINARY_SERIALIZER", BinaryCacheSerializer.class);
 
     typeAliasRegistry.registerAlias("DB_VENDOR", VendorDatabaseIdProvider.class);
 
@@ -463,6 +505,49 @@ public class Configuration {
     this.cacheEnabled = cacheEnabled;
   }
 
+  /**
+   * Gets whether concurrent second level cache misses on the same key run one query.
+   *
+   * @return true if enabled
+   * @since 3.5.8
+   */
+  public boolean isSingleFlightEnabled() {
+    return singleFlightEnabled;
+  }
+
+  /**
+   * Sets whether concurrent second level cache misses on the same key run one query.
+   *
+   * @param singleFlightEnabled
+   *          true to coalesce the misses
+   * @since 3.5.8
+   */
+  public void setSingleFlightEnabled(boolean singleFlightEnabled) {
+    this.singleFlightEnabled = singleFlightEnabled;
+  }
+
+  /**
+   * Gets whether a write removes only the second level cache entries of the tables and rows it touched.
+   *
+   * @return true if enabled
+   * @since 3.5.8
+   */
+  public boolean isFineGrainedCacheInvalidation() {
+    return fineGrainedCacheInvalidation;
+  }
+
+  /**
+   * Sets whether a write removes only the second level cache entries of the tables and rows it touched instead of
+   * clearing the whole cache.
+   *
+   * @param fineGrainedCacheInvalidation
+   *          true to tag the cached results
+   * @since 3.5.8
+   */
+  public void setFineGrainedCacheInvalidation(boolean fineGrainedCacheInvalidation) {
+    this.fineGrainedCacheInvalidation = fineGrainedCacheInvalidation;
+  }
+
   public Integer getDefaultStatementTimeout() {
     return defaultStatementTimeout;
   }
@@ -529,6 +614,160 @@ public class Configuration {
     this.localCacheScope = localCacheScope;
   }
 
+  /**
+   * Gets the maximum number of queries cached by the local cache of a session.
+   *
+   * @return the maximum number of entries, zero when unbounded
+   * @since 3.5.8
+   */
+  public int getLocalCacheSize() {
+    return localCacheSize;
+  }
+
+  /**
+   * Sets the maximum number of queries cached by the local cache of a session, the least recently used are evicted
+   * first.
+   *
+   * @param localCacheSize
+   *          the maximum number of entries, zero or less for unbounded
+   * @since 3.5.8
+   */
+  public void setLocalCacheSize(int localCacheSize) {
+    this.localCacheSize = localCacheSize;
+  }
+
+  /**
+   * Gets the maximum estimated size of the results cached by the local cache of a session.
+   *
+   * @return the maximum size in bytes, zero when unbounded
+   * @since 3.5.8
+   */
+  public long getLocalCacheMaxBytes() {
+    return localCacheMaxBytes;
+  }
+
+  /**
+   * Sets the maximum estimated size of the results cached by the local cache of a session, the least recently used
+   * are evicted first.
+   *
+   * @param localCacheMaxBytes
+   *          the maximum size in bytes, zero or less for unbounded
+   * @since 3.5.8
+   */
+  public void setLocalCacheMaxBytes(long localCacheMaxBytes) {
+    this.localCacheMaxBytes = localCacheMaxBytes;
+  }
+
+  /**
+   * Gets the number of batched statements after which a BATCH executor executes its pending batches.
+   *
+   * @return the number of statements, zero when batches are not flushed by size
+   * @since 3.5.8
+   */
+  public int getBatchFlushSize() {
+    return batchFlushSize;
+  }
+
+  /**
+   * Sets the number of batched statements after which a BATCH executor executes its pending batches.
+   *
+   * @param batchFlushSize
+   *          the number of statements, zero or less to not flush by size
+   * @since 3.5.8
+   */
+  public void setBatchFlushSize(int batchFlushSize) {
+    this.batchFlushSize = batchFlushSize;
+  }
+
+  /**
+   * Gets the estimated size of the parameters after which a BATCH executor executes its pending batches.
+   *
+   * @return the size in bytes, zero when batches are not flushed by size
+   * @since 3.5.8
+   */
+  public long getBatchFlushMaxBytes() {
+    return batchFlushMaxBytes;
+  }
+
+  /**
+   * Sets the estimated size of the parameters after which a BATCH executor executes its pending batches.
+   *
+   * @param batchFlushMaxBytes
+   *          the size in bytes, zero or less to not flush by size
+   * @since 3.5.8
+   */
+  public void setBatchFlushMaxBytes(long batchFlushMaxBytes) {
+    this.batchFlushMaxBytes = batchFlushMaxBytes;
+  }
+
+  /**
+   * Gets the time after which a BATCH executor executes its pending batches.
+   *
+   * @return the time in milliseconds, zero when batches are not flushed by time
+   * @since 3.5.8
+   */
+  public long getBatchFlushInterval() {
+    return batchFlushInterval;
+  }
+
+  /**
+   * Sets the time after which a BATCH executor executes its pending batches. It is checked when a statement is
+   * batched, batches are never executed from another thread.
+   *
+   * @param batchFlushInterval
+   *          the time in milliseconds since the first pending statement was batched, zero or less to not flush by time
+   * @since 3.5.8
+   */
+  public void setBatchFlushInterval(long batchFlushInterval) {
+    this.batchFlushInterval = batchFlushInterval;
+  }
+
+  /**
+   * Gets the maximum number of batches a BATCH executor keeps open, one per distinct SQL and mapped statement.
+   *
+   * @return the maximum number of open batches, zero when only the last statement is batched
+   * @since 3.5.8
+   */
+  public int getBatchOpenStatements() {
+    return batchOpenStatements;
+  }
+
+  /**
+   * Sets the maximum number of batches a BATCH executor keeps open, one per distinct SQL and mapped statement, so that
+   * interleaved statements do not break the batches. The batches are executed in the order they were opened. When the
+   * limit is reached the least recently used batch is executed, along with the batches opened before it.
+   *
+   * @param batchOpenStatements
+   *          the maximum number of open batches, zero or less to only batch consecutive executions of a statement
+   * @since 3.5.8
+   */
+  public void setBatchOpenStatements(int batchOpenStatements) {
+    this.batchOpenStatements = batchOpenStatements;
+  }
+
+  /**
+   * Gets the number of rows a BATCH executor merges into one multi-row <code>INSERT ... VALUES</code> statement.
+   *
+   * @return the number of rows, zero when batched inserts are not rewritten
+   * @since 3.5.8
+   */
+  public int getMultiRowInsertSize() {
+    return multiRowInsertSize;
+  }
+
+  /**
+   * Sets the number of rows a BATCH executor merges into one multi-row <code>INSERT ... VALUES (...), (...)</code>
+   * statement. Only prepared single row inserts without key generator or with the JDBC 3 one are rewritten; the update
+   * count and the generated keys of each row are mapped back to it.
+   *
+   * @param multiRowInsertSize
+   *          the number of rows, less than 2 to not rewrite batched inserts
+   * @since 3.5.8
+   */
+  public void setMultiRowInsertSize(int multiRowInsertSize) {
+    this.multiRowInsertSize = multiRowInsertSize;
+  }
+
   public JdbcType getJdbcTypeForNull() {
     return jdbcTypeForNull;
   }
@@ -695,7 +934,8 @@ public class Configuration {
     }
     /*默认是开启这个缓存，使用的是装饰器模式，增强方法添加缓存 ，但是具体用不用还要看配置有没有cache，缓存（这个是二级缓存） */
     if (cacheEnabled) {
-      executor = new CachingExecutor(executor);
+      executor = new CachingExecutor(executor, singleFlightEnabled ? singleFlight : null,
+          fineGrainedCacheInvalidation ? cacheTagResolver : null);
     }
     /*创建代理对象，执行的时候代理*/
     executor = (Executor) interceptorChain.pluginAll(executor);
@@ -734,13 +974,62 @@ public class Configuration {
     return caches.values();
   }
 
+  /**
+   * @return the refresher of the stale second level cache entries
+   * @since 3.5.8
+   */
+  public CacheRefresher getCacheRefresher() {
+    return cacheRefresher;
+  }
+
   public Cache getCache(String id) {
     return caches.get(id);
   }
 
+  /**
+   * Returns the metrics of the caches that record them, once per cache.
+   *
+   * @return the cache metrics
+   * @since 3.5.8
+   */
+  public Collection<CacheMetrics> getCacheMetrics() {
+    Set<CacheMetrics> metrics = new LinkedHashSet<>();
+    /*StrictMap 里面同一个缓存会用全名和短名各存一次，短名冲突时存的是 Ambiguity*/
+    for (Object cache : caches.values()) {
+      if (cache instanceof Cache && ((Cache) cache).getMetrics() != null) {
+        metrics.add(((Cache) cache).getMetrics());
+      }
+    }
+    return new ArrayList<>(metrics);
+  }
+
   public boolean hasCache(String id) {
     return caches.containsKey(id);
   }
+
+  /**
+   * Marks a cache as returning the cached objects themselves instead of copies.
+   *
+   * @param id
+   *          the cache id
+   * @since 3.5.8
+   */
+  public void addReadOnlyCache(String id) {
+    readOnlyCaches.add(id);
+  }
+
+  /**
+   * Gets whether a cache returns the cached objects themselves, so the objects loaded for one session can be handed to
+   * others.
+   *
+   * @param id
+   *          the cache id
+   * @return true if the cache is read-only
+   * @since 3.5.8
+   */
+  public boolean isReadOnlyCache(String id) {
+    return readOnlyCaches.contains(id);
+  }
   /*添加结果映射器*/
   public void addResultMap(ResultMap rm) {
     resultMaps.put(rm.getId(), rm);
@@ -0,0 +1,67 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.session;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * Runs independent calls concurrently, each on a session of its own, see {@link SqlSession#parallel()}.
+ * <p>
+ * Each call gets a new session of the SIMPLE executor type, opened on its own connection from the data source of the
+ * environment, and closed when the call returns. Changes made by a call are rolled back. An instance must be used by
+ * the thread of the session that created it, the calls run on the threads of its executor.
+ *
+ * @since 3.5.8
+ */
+public interface ParallelQueries {
+
+  /**
+   * Submits a call to a mapper.
+   *
+   * @param <M>
+   *          the mapper type
+   * @param <T>
+   *          the result type
+   * @param mapperType
+   *          the mapper interface
+   * @param call
+   *          the call, e.g. <code>mapper -&gt; mapper.selectBlog(1)</code>
+   * @return a future completed with the result of the call
+   */
+  <M, T> CompletableFuture<T> submit(Class<M> mapperType, Function<? super M, ? extends T> call);
+
+  /**
+   * Submits a call to a session.
+   *
+   * @param <T>
+   *          the result type
+   * @param call
+   *          the call, e.g. <code>session -&gt; session.selectList("selectBlogs")</code>
+   * @return a future completed with the result of the call
+   */
+  <T> CompletableFuture<T> submit(Function<? super SqlSession, ? extends T> call);
+
+  /**
+   * Waits for all the submitted calls, then adds the results of their queries to the local cache of the session that
+   * created this instance, unless it updated the database after they were submitted.
+   *
+   * @throws org.apache.ibatis.exceptions.PersistenceException
+   *           the first failure of the calls
+   */
+  void join();
+
+}
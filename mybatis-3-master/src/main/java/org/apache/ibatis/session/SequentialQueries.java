@@ -0,0 +1,64 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.session;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * Runs the calls one after the other on the session itself, the default {@link SqlSession#parallel()} of the sessions
+ * that cannot open sessions of their own.
+ *
+ * @since 3.5.8
+ */
+class SequentialQueries implements ParallelQueries {
+
+  private final SqlSession session;
+  private RuntimeException failure;
+
+  SequentialQueries(SqlSession session) {
+    this.session = session;
+  }
+
+  @Override
+  public <M, T> CompletableFuture<T> submit(Class<M> mapperType, Function<? super M, ? extends T> call) {
+    return submit(s -> call.apply(s.getMapper(mapperType)));
+  }
+
+  @Override
+  public <T> CompletableFuture<T> submit(Function<? super SqlSession, ? extends T> call) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    try {
+      future.complete(call.apply(session));
+    } catch (RuntimeException e) {
+      if (failure == null) {
+        failure = e;
+      }
+      future.completeExceptionally(e);
+    }
+    return future;
+  }
+
+  @Override
+  public void join() {
+    RuntimeException e = failure;
+    failure = null;
+    if (e != null) {
+      throw e;
+    }
+  }
+
+}
@@ -19,8 +19,10 @@ import java.io.Closeable;
 import java.sql.Connection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.executor.BatchFlushListener;
 import org.apache.ibatis.executor.BatchResult;
 
 /**
@@ -264,6 +266,77 @@ public interface SqlSession extends Closeable {
    */
   void clearCache();
 
+  /**
+   * Bounds the local (first level) cache of this session, the least recently used queries are evicted first. Zero or
+   * less means unbounded. Overrides the <code>localCacheSize</code> and <code>localCacheMaxBytes</code> settings. Ignored
+   * by the sessions without a local cache.
+   *
+   * @param maxEntries
+   *          the maximum number of cached queries
+   * @param maxBytes
+   *          the maximum estimated size of the cached results
+   * @since 3.5.8
+   */
+  default void setLocalCacheLimits(int maxEntries, long maxBytes) {
+    // NOP
+  }
+
+  /**
+   * @return the number of local cache entries evicted because of the limits
+   * @since 3.5.8
+   */
+  default long getLocalCacheEvictions() {
+    return 0L;
+  }
+
+  /**
+   * Sets the listener receiving the results of the batches executed by this session, including the batches flushed
+   * automatically because of the <code>batchFlushSize</code>, <code>batchFlushMaxBytes</code> or
+   * <code>batchFlushInterval</code> settings. The results handed to the listener are not retained by the session, so a
+   * long import does not keep the update counts and parameters of every row. Ignored by the sessions that do not batch
+   * statements.
+   *
+   * @param listener
+   *          the listener, null to return the results of automatic flushes from the next flush instead
+   * @since 3.5.8
+   */
+  default void setBatchFlushListener(BatchFlushListener listener) {
+    // NOP
+  }
+
+  /**
+   * Starts a group of calls that run concurrently, each on a connection and an executor of its own, on a virtual
+   * thread when the runtime supports them. The results of their queries are added to the local cache of this session
+   * when the group is joined. The calls do not see the uncommitted changes of this session, so this is rejected while
+   * the session has any. Sessions that cannot open sessions of their own run the calls one after the other on this
+   * session instead.
+   *
+   * <pre>
+   * ParallelQueries parallel = session.parallel();
+   * CompletableFuture&lt;Blog&gt; blog = parallel.submit(BlogMapper.class, mapper -&gt; mapper.selectBlog(1));
+   * CompletableFuture&lt;List&lt;Author&gt;&gt; authors = parallel.submit(AuthorMapper.class, AuthorMapper::selectAll);
+   * parallel.join();
+   * </pre>
+   *
+   * @return the group of calls
+   * @since 3.5.8
+   */
+  default ParallelQueries parallel() {
+    return parallel(null);
+  }
+
+  /**
+   * Same as {@link #parallel()}, running the calls on the given executor.
+   *
+   * @param taskExecutor
+   *          the executor running the calls, null for the default one
+   * @return the group of calls
+   * @since 3.5.8
+   */
+  default ParallelQueries parallel(Executor taskExecutor) {
+    return new SequentialQueries(this);
+  }
+
   /**
    * Retrieves current configuration.
    * @return Configuration
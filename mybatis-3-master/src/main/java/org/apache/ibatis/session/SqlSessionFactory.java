@@ -16,6 +16,7 @@
 package org.apache.ibatis.session;
 
 import java.sql.Connection;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Creates an {@link SqlSession} out of a connection or a DataSource
@@ -40,6 +41,40 @@ public interface SqlSessionFactory {
 
   SqlSession openSession(ExecutorType execType, Connection connection);
 
+  /**
+   * Opens a session once a connection is available.
+   *
+   * @return a future completed with the session
+   * @see #openSessionAsync(ExecutorType, boolean)
+   * @since 3.5.8
+   */
+  default CompletableFuture<SqlSession> openSessionAsync() {
+    return openSessionAsync(getConfiguration().getDefaultExecutorType(), false);
+  }
+
+  /**
+   * Opens a session once a connection is available. When the data source is a
+   * {@link org.apache.ibatis.datasource.pooled.PooledDataSource} the calling thread does not wait for the pool, the
+   * session is opened by the thread that hands it a connection, and cancelling the future withdraws the connection
+   * request or closes a session opened too late. Otherwise the session is opened by the calling thread.
+   *
+   * @param execType
+   *          the executor type
+   * @param autoCommit
+   *          the auto-commit mode of the connection
+   * @return a future completed with the session
+   * @since 3.5.8
+   */
+  default CompletableFuture<SqlSession> openSessionAsync(ExecutorType execType, boolean autoCommit) {
+    CompletableFuture<SqlSession> session = new CompletableFuture<>();
+    try {
+      session.complete(openSession(execType, autoCommit));
+    } catch (RuntimeException e) {
+      session.completeExceptionally(e);
+    }
+    return session;
+  }
+
   Configuration getConfiguration();
 
 }
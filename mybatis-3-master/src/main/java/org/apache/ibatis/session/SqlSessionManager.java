@@ -24,8 +24,10 @@ import java.sql.Connection;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Executor;
 
 import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.executor.BatchFlushListener;
 import org.apache.ibatis.executor.BatchResult;
 import org.apache.ibatis.reflection.ExceptionUtil;
 
@@ -281,6 +283,47 @@ public class SqlSessionManager implements SqlSessionFactory, SqlSession {
     sqlSession.clearCache();
   }
 
+  @Override
+  public void setLocalCacheLimits(int maxEntries, long maxBytes) {
+    final SqlSession sqlSession = localSqlSession.get();
+    if (sqlSession == null) {
+      throw new SqlSessionException("Error:  Cannot limit the cache.  No managed session is started.");
+    }
+    sqlSession.setLocalCacheLimits(maxEntries, maxBytes);
+  }
+
+  @Override
+  public long getLocalCacheEvictions() {
+    final SqlSession sqlSession = localSqlSession.get();
+    if (sqlSession == null) {
+      throw new SqlSessionException("Error:  Cannot get the cache evictions.  No managed session is started.");
+    }
+    return sqlSession.getLocalCacheEvictions();
+  }
+
+  @Override
+  public void setBatchFlushListener(BatchFlushListener listener) {
+    final SqlSession sqlSession = localSqlSession.get();
+    if (sqlSession == null) {
+      throw new SqlSessionException("Error:  Cannot set the batch flush listener.  No managed session is started.");
+    }
+    sqlSession.setBatchFlushListener(listener);
+  }
+
+  @Override
+  public ParallelQueries parallel() {
+    return parallel(null);
+  }
+
+  @Override
+  public ParallelQueries parallel(Executor taskExecutor) {
+    final SqlSession sqlSession = localSqlSession.get();
+    if (sqlSession == null) {
+      throw new SqlSessionException("Error:  Cannot run parallel queries.  No managed session is started.");
+    }
+    return sqlSession.parallel(taskExecutor);
+  }
+
   @Override
   public void commit() {
     final SqlSession sqlSession = localSqlSession.get();
@@ -0,0 +1,140 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.session.defaults;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.exceptions.ExceptionFactory;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.ParallelQueries;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+
+/**
+ * The default implementation of {@link ParallelQueries}, created by {@link DefaultSqlSession#parallel()}.
+ *
+ * @since 3.5.8
+ */
+class DefaultParallelQueries implements ParallelQueries {
+
+  private final DefaultSqlSession session;
+  private final SqlSessionFactory sessionFactory;
+  private final Executor taskExecutor;
+  private final List<CompletableFuture<?>> futures = new ArrayList<>();
+  private final Queue<LocalCacheEntries> localCacheEntries = new ConcurrentLinkedQueue<>();
+
+  DefaultParallelQueries(DefaultSqlSession session, Executor taskExecutor) {
+    this.session = session;
+    this.sessionFactory = new DefaultSqlSessionFactory(session.getConfiguration());
+    this.taskExecutor = taskExecutor == null ? DefaultExecutorHolder.INSTANCE : taskExecutor;
+  }
+
+  @Override
+  public <M, T> CompletableFuture<T> submit(Class<M> mapperType, Function<? super M, ? extends T> call) {
+    return submit(parallelSession -> call.apply(parallelSession.getMapper(mapperType)));
+  }
+
+  @Override
+  public <T> CompletableFuture<T> submit(Function<? super SqlSession, ? extends T> call) {
+    session.checkNoUncommittedChanges();
+    final long modificationCount = session.getModificationCount();
+    CompletableFuture<T> future = CompletableFuture.supplyAsync(() -> run(call, modificationCount), taskExecutor);
+    futures.add(future);
+    return future;
+  }
+
+  private <T> T run(Function<? super SqlSession, ? extends T> call, long modificationCount) {
+    try (SqlSession parallelSession = sessionFactory.openSession(ExecutorType.SIMPLE)) {
+      T result = call.apply(parallelSession);
+      if (parallelSession instanceof DefaultSqlSession) {
+        localCacheEntries.add(new LocalCacheEntries(modificationCount,
+            ((DefaultSqlSession) parallelSession).getLocalCacheEntries()));
+      }
+      return result;
+    }
+  }
+
+  @Override
+  public void join() {
+    try {
+      CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+    } catch (CompletionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw ExceptionFactory.wrapException("Error running parallel queries.  Cause: " + cause, (Exception) cause);
+    } finally {
+      futures.clear();
+      LocalCacheEntries entries;
+      while ((entries = localCacheEntries.poll()) != null) {
+        // results read before an update or a cache clear of the session may be stale
+        if (entries.modificationCount == session.getModificationCount()) {
+          session.putLocalCacheEntries(entries.entries);
+        }
+      }
+    }
+  }
+
+  private static final class LocalCacheEntries {
+    private final long modificationCount;
+    private final Map<CacheKey, Object> entries;
+
+    LocalCacheEntries(long modificationCount, Map<CacheKey, Object> entries) {
+      this.modificationCount = modificationCount;
+      this.entries = entries;
+    }
+  }
+
+  /*
+   * A virtual thread per call when the runtime supports them (Java 21 and later), a cached pool of daemon threads
+   * otherwise. Calls spend most of their time waiting for a connection or the database.
+   */
+  private static final class DefaultExecutorHolder {
+
+    static final Executor INSTANCE = create();
+
+    private static Executor create() {
+      try {
+        Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        return (ExecutorService) factory.invoke(null);
+      } catch (ReflectiveOperationException e) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return Executors.newCachedThreadPool(runnable -> {
+          Thread thread = new Thread(runnable, "mybatis-parallel-" + threadNumber.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        });
+      }
+    }
+  }
+
+}
@@ -24,9 +24,11 @@ import java.util.List;
 import java.util.Map;
 
 import org.apache.ibatis.binding.BindingException;
+import org.apache.ibatis.cache.CacheKey;
 import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.exceptions.ExceptionFactory;
 import org.apache.ibatis.exceptions.TooManyResultsException;
+import org.apache.ibatis.executor.BatchFlushListener;
 import org.apache.ibatis.executor.BatchResult;
 import org.apache.ibatis.executor.ErrorContext;
 import org.apache.ibatis.executor.Executor;
@@ -35,9 +37,11 @@ import org.apache.ibatis.executor.result.DefaultResultContext;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.reflection.ParamNameResolver;
 import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ParallelQueries;
 import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.RowBounds;
 import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionException;
 
 /**
  * 会话执行：真正执行操作的是：Executor类
@@ -53,6 +57,8 @@ public class DefaultSqlSession implements SqlSession {
 
   private final boolean autoCommit;
   private boolean dirty;
+  /*每次更新或清空本地缓存时递增，用于判断并行查询的结果是否仍可合并到本地缓存*/
+  private long modificationCount;
   private List<Cursor<?>> cursorList;
 
   public DefaultSqlSession(Configuration configuration, Executor executor, boolean autoCommit) {
@@ -191,6 +197,7 @@ public class DefaultSqlSession implements SqlSession {
   public int update(String statement, Object parameter) {
     try {
       dirty = true;
+      modificationCount++;
       MappedStatement ms = configuration.getMappedStatement(statement);
       return executor.update(ms, wrapCollection(parameter));
     } catch (Exception e) {
@@ -300,9 +307,59 @@ public class DefaultSqlSession implements SqlSession {
 
   @Override
   public void clearCache() {
+    modificationCount++;
     executor.clearLocalCache();
   }
 
+  @Override
+  public void setLocalCacheLimits(int maxEntries, long maxBytes) {
+    executor.setLocalCacheLimits(maxEntries, maxBytes);
+  }
+
+  @Override
+  public long getLocalCacheEvictions() {
+    return executor.getLocalCacheEvictions();
+  }
+
+  @Override
+  public void setBatchFlushListener(BatchFlushListener listener) {
+    executor.setBatchFlushListener(listener);
+  }
+
+  @Override
+  public ParallelQueries parallel() {
+    return parallel(null);
+  }
+
+  @Override
+  public ParallelQueries parallel(java.util.concurrent.Executor taskExecutor) {
+    if (configuration.getEnvironment() == null) {
+      throw new SqlSessionException("Error:  Cannot run parallel queries.  No environment is configured.");
+    }
+    checkNoUncommittedChanges();
+    return new DefaultParallelQueries(this, taskExecutor);
+  }
+
+  void checkNoUncommittedChanges() {
+    // 并行查询使用其他连接，看不到本事务中未提交的修改
+    if (isCommitOrRollbackRequired(false)) {
+      throw new SqlSessionException(
+          "Error:  Cannot run parallel queries.  The session has uncommitted changes, commit or roll back first.");
+    }
+  }
+
+  long getModificationCount() {
+    return modificationCount;
+  }
+
+  Map<CacheKey, Object> getLocalCacheEntries() {
+    return executor.getLocalCacheEntries();
+  }
+
+  void putLocalCacheEntries(Map<CacheKey, Object> entries) {
+    executor.putLocalCacheEntries(entries);
+  }
+
   private <T> void registerCursor(Cursor<T> cursor) {
     if (cursorList == null) {
       cursorList = new ArrayList<>();
@@ -17,7 +17,9 @@ package org.apache.ibatis.session.defaults;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
 
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
 import org.apache.ibatis.exceptions.ExceptionFactory;
 import org.apache.ibatis.executor.ErrorContext;
 import org.apache.ibatis.executor.Executor;
@@ -82,6 +84,53 @@ public class DefaultSqlSessionFactory implements SqlSessionFactory {
     return openSessionFromConnection(execType, connection);
   }
 
+  @Override
+  public CompletableFuture<SqlSession> openSessionAsync(ExecutorType execType, boolean autoCommit) {
+    final Environment environment = configuration.getEnvironment();
+    if (environment == null || !(environment.getDataSource() instanceof PooledDataSource)) {
+      return SqlSessionFactory.super.openSessionAsync(execType, autoCommit);
+    }
+    PooledDataSource dataSource = (PooledDataSource) environment.getDataSource();
+    CompletableFuture<SqlSession> result = new CompletableFuture<>();
+    CompletableFuture<Connection> checkout = dataSource.getConnectionAsync();
+    checkout.whenComplete((connection, failure) -> {
+      if (failure != null) {
+        result.completeExceptionally(failure);
+        return;
+      }
+      if (result.isDone()) {
+        // cancelled while the connection was being handed over
+        closeConnection(connection);
+        return;
+      }
+      SqlSession session;
+      try {
+        if (connection.getAutoCommit() != autoCommit) {
+          connection.setAutoCommit(autoCommit);
+        }
+        session = openSessionFromConnection(execType, connection);
+      } catch (SQLException e) {
+        closeConnection(connection);
+        result.completeExceptionally(ExceptionFactory.wrapException("Error opening session.  Cause: " + e, e));
+        return;
+      } catch (RuntimeException e) {
+        closeConnection(connection); // the session did not take ownership of the connection
+        result.completeExceptionally(e);
+        return;
+      }
+      if (!result.complete(session)) {
+        session.close();
+      }
+    });
+    // cancelling the session withdraws the connection request
+    result.whenComplete((session, failure) -> {
+      if (failure != null) {
+        checkout.cancel(false);
+      }
+    });
+    return result;
+  }
+
   @Override
   public Configuration getConfiguration() {
     return configuration;
@@ -132,6 +181,14 @@ public class DefaultSqlSessionFactory implements SqlSessionFactory {
     return environment.getTransactionFactory();
   }
 
+  private void closeConnection(Connection connection) {
+    try {
+      connection.close();
+    } catch (SQLException ignore) {
+      // Intentionally ignore. Prefer previous error.
+    }
+  }
+
   private void closeTransaction(Transaction tx) {
     if (tx != null) {
       try {
@@ -79,6 +79,8 @@ class XmlConfigBuilderTest {
       assertThat(config.getAutoMappingBehavior()).isEqualTo(AutoMappingBehavior.PARTIAL);
       assertThat(config.getAutoMappingUnknownColumnBehavior()).isEqualTo(AutoMappingUnknownColumnBehavior.NONE);
       assertThat(config.isCacheEnabled()).isTrue();
+      assertThat(config.isSingleFlightEnabled()).isFalse();
+      assertThat(config.isFineGrainedCacheInvalidation()).isFalse();
       assertThat(config.getProxyFactory()).isInstanceOf(JavassistProxyFactory.class);
       assertThat(config.isLazyLoadingEnabled()).isFalse();
       assertThat(config.isAggressiveLazyLoading()).isFalse();
@@ -92,6 +94,13 @@ class XmlConfigBuilderTest {
       assertThat(config.isMapUnderscoreToCamelCase()).isFalse();
       assertThat(config.isSafeRowBoundsEnabled()).isFalse();
       assertThat(config.getLocalCacheScope()).isEqualTo(LocalCacheScope.SESSION);
+      assertThat(config.getLocalCacheSize()).isZero();
+      assertThat(config.getLocalCacheMaxBytes()).isZero();
+      assertThat(config.getBatchFlushSize()).isZero();
+      assertThat(config.getBatchFlushMaxBytes()).isZero();
+      assertThat(config.getBatchFlushInterval()).isZero();
+      assertThat(config.getBatchOpenStatements()).isZero();
+      assertThat(config.getMultiRowInsertSize()).isZero();
       assertThat(config.getJdbcTypeForNull()).isEqualTo(JdbcType.OTHER);
       assertThat(config.getLazyLoadTriggerMethods()).isEqualTo(new HashSet<>(Arrays.asList("equals", "clone", "hashCode", "toString")));
       assertThat(config.isSafeResultHandlerEnabled()).isTrue();
@@ -176,6 +185,8 @@ class XmlConfigBuilderTest {
       assertThat(config.getAutoMappingBehavior()).isEqualTo(AutoMappingBehavior.NONE);
       assertThat(config.getAutoMappingUnknownColumnBehavior()).isEqualTo(AutoMappingUnknownColumnBehavior.WARNING);
       assertThat(config.isCacheEnabled()).isFalse();
+      assertThat(config.isSingleFlightEnabled()).isTrue();
+      assertThat(config.isFineGrainedCacheInvalidation()).isTrue();
       assertThat(config.getProxyFactory()).isInstanceOf(CglibProxyFactory.class);
       assertThat(config.isLazyLoadingEnabled()).isTrue();
       assertThat(config.isAggressiveLazyLoading()).isTrue();
@@ -189,6 +200,13 @@ class XmlConfigBuilderTest {
       assertThat(config.isMapUnderscoreToCamelCase()).isTrue();
       assertThat(config.isSafeRowBoundsEnabled()).isTrue();
       assertThat(config.getLocalCacheScope()).isEqualTo(LocalCacheScope.STATEMENT);
+      assertThat(config.getLocalCacheSize()).isEqualTo(10000);
+      assertThat(config.getLocalCacheMaxBytes()).isEqualTo(67108864L);
+      assertThat(config.getBatchFlushSize()).isEqualTo(1000);
+      assertThat(config.getBatchFlushMaxBytes()).isEqualTo(8388608L);
+      assertThat(config.getBatchFlushInterval()).isEqualTo(5000L);
+      assertThat(config.getBatchOpenStatements()).isEqualTo(16);
+      assertThat(config.getMultiRowInsertSize()).isEqualTo(100);
       assertThat(config.getJdbcTypeForNull()).isEqualTo(JdbcType.NULL);
       assertThat(config.getLazyLoadTriggerMethods()).isEqualTo(new HashSet<>(Arrays.asList("equals", "clone", "hashCode", "toString", "xxx")));
       assertThat(config.isSafeResultHandlerEnabled()).isFalse();
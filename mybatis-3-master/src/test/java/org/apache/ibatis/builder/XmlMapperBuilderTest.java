@@ -19,10 +19,19 @@ import static com.googlecode.catchexception.apis.BDDCatchException.*;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.BDDAssertions.then;
 
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.regex.Pattern;
 
 import org.apache.ibatis.builder.xml.XMLMapperBuilder;
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.decorators.FifoCache;
+import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.impl.OffHeapCache;
 import org.apache.ibatis.io.Resources;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.mapping.ResultSetType;
@@ -44,6 +53,43 @@ class XmlMapperBuilderTest {
     }
   }
 
+  @Test
+  void shouldNotBoundOffHeapCacheWithDefaultEviction() throws Exception {
+    List<Class<?>> chain = cacheChain("<cache type=\"OFF_HEAP\"><property name=\"capacity\" value=\"65536\"/>"
+        + "<property name=\"segmentSize\" value=\"16384\"/></cache>");
+    assertThat(chain).doesNotContain(LruCache.class).endsWith(OffHeapCache.class);
+
+    chain = cacheChain("<cache type=\"OFF_HEAP\" eviction=\"FIFO\"><property name=\"capacity\" value=\"65536\"/>"
+        + "<property name=\"segmentSize\" value=\"16384\"/></cache>");
+    assertThat(chain).contains(FifoCache.class).endsWith(OffHeapCache.class);
+
+    assertThat(cacheChain("<cache/>")).contains(LruCache.class);
+  }
+
+  private static List<Class<?>> cacheChain(String cacheElement) throws Exception {
+    String mapper = "<?xml version=\"1.0\" encoding=\"UTF-8\" ?>"
+        + "<!DOCTYPE mapper PUBLIC \"-//mybatis.org//DTD Mapper 3.0//EN\" \"http://mybatis.org/dtd/mybatis-3-mapper.dtd\">"
+        + "<mapper namespace=\"cached\">" + cacheElement + "</mapper>";
+    Configuration configuration = new Configuration();
+    try (InputStream inputStream = new ByteArrayInputStream(mapper.getBytes(StandardCharsets.UTF_8))) {
+      new XMLMapperBuilder(inputStream, configuration, "cached.xml", configuration.getSqlFragments()).parse();
+    }
+    List<Class<?>> chain = new ArrayList<>();
+    Object cache = configuration.getCache("cached");
+    while (cache != null) {
+      chain.add(cache.getClass());
+      Field delegate;
+      try {
+        delegate = cache.getClass().getDeclaredField("delegate");
+      } catch (NoSuchFieldException e) {
+        break;
+      }
+      delegate.setAccessible(true);
+      cache = (Cache) delegate.get(cache);
+    }
+    return chain;
+  }
+
   @Test
   void mappedStatementWithOptions() throws Exception {
     Configuration configuration = new Configuration();
@@ -0,0 +1,181 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.apache.ibatis.cache.decorators.SerializedCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.cache.serializer.BinaryCacheSerializer;
+import org.apache.ibatis.cache.serializer.JavaCacheSerializer;
+import org.apache.ibatis.domain.blog.Author;
+import org.apache.ibatis.domain.blog.Blog;
+import org.apache.ibatis.domain.blog.Post;
+import org.apache.ibatis.domain.blog.Section;
+import org.junit.jupiter.api.Test;
+
+class BinaryCacheSerializerTest {
+
+  @Test
+  void shouldCopyResultObjectGraphWithCircularReferences() {
+    Author author = new Author(101, "jim", "********", "jim@ibatis.apache.org", "", Section.NEWS);
+    Blog blog = new Blog(1, "Blog", author, new ArrayList<>());
+    for (int i = 0; i < 3; i++) {
+      Post post = new Post();
+      post.setId(i);
+      post.setAuthor(author);
+      post.setBlog(blog);
+      post.setSubject("subject " + i);
+      post.setCreatedOn(new Date(1000L * i));
+      post.setSection(Section.VIDEOS);
+      blog.getPosts().add(post);
+    }
+
+    Blog copy = (Blog) new BinaryCacheSerializer().deserialize(new BinaryCacheSerializer().serialize(blog));
+
+    assertNotSame(blog, copy);
+    assertEquals("Blog", copy.getTitle());
+    assertEquals(author, copy.getAuthor());
+    assertEquals(3, copy.getPosts().size());
+    for (int i = 0; i < 3; i++) {
+      Post post = copy.getPosts().get(i);
+      assertSame(copy, post.getBlog());
+      assertSame(copy.getAuthor(), post.getAuthor());
+      assertEquals("subject " + i, post.getSubject());
+      assertEquals(new Date(1000L * i), post.getCreatedOn());
+      assertEquals(Section.VIDEOS, post.getSection());
+    }
+  }
+
+  @Test
+  void shouldCopyMapsAndTypeHandlerValues() {
+    Map<String, Object> row = new LinkedHashMap<>();
+    row.put("ID", 1L);
+    row.put("AMOUNT", new BigDecimal("-12345.678"));
+    row.put("NAME", "été");
+    row.put("FLAG", Boolean.TRUE);
+    row.put("RATE", 0.25d);
+    row.put("DATA", new byte[] { 1, 2, 3 });
+    row.put("SQL_DATE", java.sql.Date.valueOf("2021-03-04"));
+    row.put("SQL_TIMESTAMP", java.sql.Timestamp.valueOf("2021-03-04 05:06:07.123456789"));
+    row.put("LOCAL_DATE", LocalDate.of(2021, 3, 4));
+    row.put("LOCAL_TIME", LocalTime.of(5, 6, 7, 8));
+    row.put("LOCAL_DATE_TIME", LocalDateTime.of(2021, 3, 4, 5, 6, 7, 8));
+    row.put("OFFSET_DATE_TIME", OffsetDateTime.of(2021, 3, 4, 5, 6, 7, 8, ZoneOffset.ofHours(9)));
+    row.put("ZONED_DATE_TIME", ZonedDateTime.of(2021, 3, 4, 5, 6, 7, 8, ZoneId.of("Asia/Tokyo")));
+    row.put("INSTANT", Instant.ofEpochSecond(1614800000L, 123));
+    row.put("ARRAY", new int[] { -1, 0, Integer.MAX_VALUE });
+    row.put("NULL", null);
+
+    @SuppressWarnings("unchecked")
+    Map<String, Object> copy = (Map<String, Object>) new BinaryCacheSerializer()
+        .deserialize(new BinaryCacheSerializer().serialize(row));
+
+    assertEquals(LinkedHashMap.class, copy.getClass());
+    assertEquals(new ArrayList<>(row.keySet()), new ArrayList<>(copy.keySet()));
+    for (Map.Entry<String, Object> entry : row.entrySet()) {
+      Object expected = entry.getValue();
+      Object actual = copy.get(entry.getKey());
+      if (expected instanceof byte[]) {
+        assertArrayEquals((byte[]) expected, (byte[]) actual);
+      } else if (expected instanceof int[]) {
+        assertArrayEquals((int[]) expected, (int[]) actual);
+      } else {
+        assertEquals(expected, actual, entry.getKey());
+      }
+    }
+  }
+
+  @Test
+  void shouldFallBackToJavaSerialization() {
+    TreeSet<String> set = new TreeSet<>(Collections.reverseOrder());
+    set.addAll(Arrays.asList("a", "b", "c"));
+    List<Object> list = Arrays.asList(set, Collections.unmodifiableList(new ArrayList<>(set)));
+
+    @SuppressWarnings("unchecked")
+    List<Object> copy = (List<Object>) new BinaryCacheSerializer().deserialize(new BinaryCacheSerializer().serialize(list));
+
+    assertEquals(list, copy);
+    assertEquals("c", ((TreeSet<?>) copy.get(0)).first());
+  }
+
+  @Test
+  void shouldCompressLargeValues() {
+    List<Map<String, Object>> rows = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      Map<String, Object> row = new HashMap<>();
+      row.put("ID", i);
+      row.put("NAME", "some repeated column value");
+      rows.add(row);
+    }
+    BinaryCacheSerializer serializer = new BinaryCacheSerializer();
+    byte[] plain = serializer.serialize(rows);
+    serializer.setCompressionThreshold(1024);
+    byte[] compressed = serializer.serialize(rows);
+
+    assertTrue(compressed.length < plain.length / 2);
+    assertEquals(rows, serializer.deserialize(compressed));
+    assertEquals(rows, serializer.deserialize(plain));
+  }
+
+  @Test
+  void shouldBeSmallerThanJavaSerialization() {
+    List<Author> authors = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      authors.add(new Author(i, "user" + i, "password", "user" + i + "@example.com", "bio", Section.NEWS));
+    }
+    byte[] binary = new BinaryCacheSerializer().serialize(authors);
+    byte[] java = new JavaCacheSerializer().serialize(authors);
+    assertTrue(binary.length * 4 < java.length * 3, binary.length + " vs " + java.length);
+    assertEquals(authors, new BinaryCacheSerializer().deserialize(binary));
+  }
+
+  @Test
+  void shouldBeUsedBySerializedCache() {
+    SerializedCache cache = new SerializedCache(new PerpetualCache("default"), new BinaryCacheSerializer());
+    Post post = new Post();
+    post.setId(1);
+    cache.putObject(0, post);
+    Post copy = (Post) cache.getObject(0);
+    assertNotSame(post, copy);
+    assertEquals(1, copy.getId());
+  }
+
+  @Test
+  void throwExceptionWhenTryingToCacheNonSerializableJdkObject() {
+    assertThrows(CacheException.class, () -> new BinaryCacheSerializer().serialize(new Object()));
+  }
+
+}
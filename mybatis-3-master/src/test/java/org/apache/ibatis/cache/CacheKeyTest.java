@@ -122,6 +122,80 @@ class CacheKeyTest {
     assertEquals(cacheKey, serialize(cacheKey));
   }
 
+  @Test
+  void shouldTestBuiltKeysEqualUpdatedKeys() {
+    CacheKey key1 = new CacheKey(new Object[] { "select", 1, 2L, null, new byte[] { 1 } });
+    CacheKey key2 = CacheKey.builder().add("select").add(1).add(2L).add(null).add(new byte[] { 1 }).build();
+    CacheKey key3 = new CacheKey();
+    key3.update("select");
+    key3.update(1);
+    key3.update(2L);
+    key3.update(null);
+    key3.update(new byte[] { 1 });
+    assertEquals(key1, key2);
+    assertEquals(key2, key1);
+    assertEquals(key1, key3);
+    assertEquals(key1.hashCode(), key2.hashCode());
+    assertEquals(key1.hashCode(), key3.hashCode());
+    assertEquals(key1.toString(), key2.toString());
+    assertEquals(5, key2.getUpdateCount());
+  }
+
+  @Test
+  void shouldTestCacheKeysNotEqualDueToPrimitiveType() {
+    CacheKey key1 = CacheKey.builder().add(1).build();
+    CacheKey key2 = CacheKey.builder().add(1L).build();
+    assertNotEquals(key1, key2);
+    assertNotEquals(key2, key1);
+  }
+
+  @Test
+  void shouldTestCacheKeysWithManyComponents() {
+    CacheKey key1 = new CacheKey();
+    CacheKey.Builder builder = CacheKey.builder(2);
+    for (int i = 0; i < 100; i++) {
+      key1.update("column" + i);
+      key1.update(i);
+      builder.add("column" + i).add(Integer.valueOf(i));
+    }
+    CacheKey key2 = builder.build();
+    assertEquals(key1, key2);
+    assertEquals(key1.hashCode(), key2.hashCode());
+    key1.update(100);
+    assertNotEquals(key1, key2);
+  }
+
+  @Test
+  void shouldCombineKeysLikeClonedKeys() throws Exception {
+    CacheKey rowKey = CacheKey.builder().add("resultMap").add("id").add(1).build();
+    CacheKey parentKey = CacheKey.builder().add("parentMap").add("id").add(2).build();
+    CacheKey clonedKey = rowKey.clone();
+    clonedKey.update(parentKey);
+    CacheKey combinedKey = CacheKey.builder().addAll(rowKey).add(parentKey).build();
+    CacheKey appendedKey = CacheKey.builder().add("resultMap").addAll(CacheKey.builder().add("id").add(1).build())
+        .add(parentKey).build();
+    assertEquals(clonedKey, combinedKey);
+    assertEquals(clonedKey, appendedKey);
+    assertEquals(clonedKey.hashCode(), combinedKey.hashCode());
+    assertEquals(3, rowKey.getUpdateCount());
+  }
+
+  @Test
+  void throwExceptionWhenTryingToUpdateBuiltCacheKey() {
+    CacheKey.Builder builder = CacheKey.builder().add("built");
+    CacheKey cacheKey = builder.build();
+    assertThrows(CacheException.class, () -> cacheKey.update("null"));
+    assertThrows(CacheException.class, () -> cacheKey.update(1));
+    assertThrows(CacheException.class, () -> cacheKey.updateAll(new Object[] { "null" }));
+    assertThrows(IllegalStateException.class, () -> builder.add("again"));
+  }
+
+  @Test
+  void serializationOfBuiltKeyTest() throws Exception {
+    CacheKey cacheKey = CacheKey.builder().add("serializable").add(1).add(2L).build();
+    assertEquals(cacheKey, serialize(cacheKey));
+  }
+
   private static <T> T serialize(T object) throws Exception {
       ByteArrayOutputStream baos = new ByteArrayOutputStream();
       new ObjectOutputStream(baos).writeObject(object);
@@ -0,0 +1,137 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.util.LatencyHistogram;
+import org.junit.jupiter.api.Test;
+
+class CacheMetricsTest {
+
+  @Test
+  void shouldRecordHitsMissesPutsAndEvictions() {
+    Cache cache = new CacheBuilder("metrics").size(2).build();
+    cache.putObject("a", "A");
+    cache.putObject("b", "B");
+    cache.putObject("c", "C");
+    assertNull(cache.getObject("a"));
+    assertEquals("C", cache.getObject("c"));
+    cache.clear();
+
+    CacheMetrics metrics = cache.getMetrics();
+    assertEquals("metrics", metrics.getId());
+    assertEquals(1, metrics.getHits());
+    assertEquals(1, metrics.getMisses());
+    assertEquals(0.5, metrics.getHitRatio());
+    assertEquals(3, metrics.getPuts());
+    assertEquals(1, metrics.getEvictions());
+    assertEquals(1, metrics.getClears());
+    assertEquals(2, metrics.getGetLatency().getCount());
+    assertEquals(3, metrics.getPutLatency().getCount());
+    assertEquals(0, metrics.getSize());
+  }
+
+  @Test
+  void shouldShareMetricsAcrossDecoratorChain() {
+    Cache cache = new CacheBuilder("metrics").readWrite(true).blocking(true).build();
+    assertNull(cache.getObject("a"));
+    cache.putObject("a", "A");
+    assertEquals(1, cache.getMetrics().getSize());
+    assertTrue(cache.getMetrics().getWeight() < 0);
+    assertSame(cache.getMetrics(), cache.getMetrics());
+  }
+
+  @Test
+  void shouldRecordBlockedWaits() throws Exception {
+    Cache cache = new CacheBuilder("metrics").blocking(true).build();
+    assertNull(cache.getObject("a"));
+    CountDownLatch done = new CountDownLatch(1);
+    Thread reader = new Thread(() -> {
+      cache.getObject("a");
+      done.countDown();
+    });
+    reader.start();
+    while (cache.getMetrics().getBlockedWaits() == 0) {
+      Thread.sleep(10);
+    }
+    cache.putObject("a", "A");
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(1, cache.getMetrics().getBlockedWaits());
+  }
+
+  @Test
+  void shouldRecordMetricsOfCustomCaches() {
+    Cache cache = new CacheBuilder("metrics").implementation(CustomCache.class).build();
+    cache.putObject("a", "A");
+    assertEquals("A", cache.getObject("a"));
+    assertEquals(1, cache.getMetrics().getHits());
+    assertEquals(1, cache.getMetrics().getSize());
+  }
+
+  @Test
+  void shouldReturnCacheMetricsOncePerCache() {
+    Configuration configuration = new Configuration();
+    configuration.addCache(new CacheBuilder("org.apache.ibatis.FirstMapper").build());
+    configuration.addCache(new CacheBuilder("org.apache.ibatis.SecondMapper").build());
+    configuration.addCache(new CacheBuilder("org.apache.other.SecondMapper").build());
+    assertEquals(5, configuration.getCaches().size());
+    assertEquals(3, configuration.getCacheMetrics().size());
+  }
+
+  @Test
+  void shouldNotRecordMetricsOfUndecoratedBaseCache() {
+    Cache cache = new LruCache(new PerpetualCache("metrics"));
+    assertNotNull(cache.getMetrics());
+    assertNull(new CustomCache("metrics").getMetrics());
+  }
+
+  @Test
+  void shouldComputePercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 100; i++) {
+      histogram.record(i * 1000L);
+    }
+    assertEquals(100, histogram.getCount());
+    assertEquals(100_000L, histogram.getMaxNanos());
+    assertEquals(50_500.0, histogram.getMeanNanos());
+    long p50 = histogram.getPercentileNanos(50);
+    assertTrue(p50 >= 50_000L && p50 <= 50_000L * 5 / 4, "p50 was " + p50);
+    assertEquals(100_000L, histogram.getPercentileNanos(100));
+    histogram.reset();
+    assertEquals(0L, histogram.getPercentileNanos(99));
+  }
+
+  public static class CustomCache extends PerpetualCache {
+
+    public CustomCache(String id) {
+      super(id);
+    }
+
+    @Override
+    public CacheMetrics getMetrics() {
+      return null;
+    }
+  }
+
+}
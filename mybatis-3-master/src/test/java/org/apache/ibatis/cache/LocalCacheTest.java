@@ -0,0 +1,73 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.apache.ibatis.cache.impl.LocalCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.executor.ExecutionPlaceholder;
+import org.junit.jupiter.api.Test;
+
+class LocalCacheTest {
+
+  @Test
+  void shouldEvictLeastRecentlyUsedEntriesOnlyWhenAsked() {
+    LocalCache cache = new LocalCache("local");
+    cache.setLimits(2, 0);
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(i, i);
+    }
+    assertThat(cache.getSize()).isEqualTo(5);
+    cache.getObject(0);
+    cache.evictEntries();
+    assertThat(cache.getSize()).isEqualTo(2);
+    assertThat(cache.getObject(0)).isEqualTo(0);
+    assertThat(cache.getObject(4)).isEqualTo(4);
+    assertThat(cache.getEvictions()).isEqualTo(3);
+  }
+
+  @Test
+  void shouldEvictByEstimatedSize() {
+    LocalCache cache = new LocalCache("local");
+    cache.setLimits(0, 3000);
+    cache.putObject("a", new byte[1000]);
+    cache.putObject("b", new byte[1000]);
+    cache.putObject("c", new byte[1000]);
+    cache.evictEntries();
+    assertThat(cache.getObject("a")).isNull();
+    assertThat(cache.getSize()).isEqualTo(2);
+    assertThat(cache.getWeight()).isLessThanOrEqualTo(3000);
+  }
+
+  @Test
+  void shouldKeepPlaceholdersAndRemoveCompanionEntries() {
+    Cache outputParameters = new PerpetualCache("output");
+    LocalCache cache = new LocalCache("local", outputParameters);
+    cache.setLimits(1, 0);
+    cache.putObject("running", ExecutionPlaceholder.EXECUTION_PLACEHOLDER);
+    cache.putObject("done", "result");
+    outputParameters.putObject("done", "parameter");
+    cache.putObject("last", "result");
+    cache.evictEntries();
+    assertThat(cache.getObject("running")).isSameAs(ExecutionPlaceholder.EXECUTION_PLACEHOLDER);
+    assertThat(cache.getObject("done")).isNull();
+    assertThat(outputParameters.getObject("done")).isNull();
+    assertThat(cache.getObject("last")).isNull();
+    assertThat(cache.getEvictions()).isEqualTo(2);
+  }
+
+}
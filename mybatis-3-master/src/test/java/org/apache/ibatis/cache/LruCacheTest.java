@@ -36,6 +36,19 @@ class LruCacheTest {
     assertEquals(5, cache.getSize());
   }
 
+  @Test
+  void shouldCheckForAnItemWithoutUsingIt() {
+    LruCache cache = new LruCache(new PerpetualCache("default"));
+    cache.setSize(5);
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(i, i);
+    }
+    assertTrue(cache.containsKey(0));
+    cache.putObject(5, 5);
+    assertFalse(cache.containsKey(0));
+    assertTrue(cache.containsKey(1));
+  }
+
   @Test
   void shouldRemoveItemOnDemand() {
     Cache cache = new LruCache(new PerpetualCache("default"));
@@ -0,0 +1,41 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import org.junit.jupiter.api.Test;
+
+class ObjectSizeEstimatorTest {
+
+  @Test
+  void shouldEstimateLargeBigDecimalsLargerThanLongs() {
+    BigDecimal large = new BigDecimal("123456789012345678901234567890123456789012345678901234567890.123456789");
+    assertThat(ObjectSizeEstimator.estimate(large)).isGreaterThan(ObjectSizeEstimator.estimate(Long.MAX_VALUE));
+  }
+
+  @Test
+  void shouldEstimateBigIntegersByTheirMagnitude() {
+    BigInteger small = BigInteger.ONE;
+    BigInteger large = BigInteger.ONE.shiftLeft(1024);
+    assertThat(ObjectSizeEstimator.estimate(small)).isGreaterThan(ObjectSizeEstimator.estimate(Long.MAX_VALUE));
+    assertThat(ObjectSizeEstimator.estimate(large)).isGreaterThan(ObjectSizeEstimator.estimate(small));
+  }
+
+}
@@ -0,0 +1,214 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.cache.decorators.LoggingCache;
+import org.apache.ibatis.cache.impl.OffHeapCache;
+import org.apache.ibatis.domain.blog.Author;
+import org.apache.ibatis.domain.blog.Section;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class OffHeapCacheTest {
+
+  @TempDir
+  File tempDir;
+
+  @Test
+  void shouldStoreAndCopyValues() {
+    OffHeapCache cache = new OffHeapCache("default");
+    List<String> value = new ArrayList<>(Arrays.asList("a", "b"));
+    cache.putObject(key(1), value);
+    Object copy = cache.getObject(key(1));
+    assertEquals(value, copy);
+    assertNotSame(value, copy);
+    assertNull(cache.getObject(key(2)));
+    assertEquals(1, cache.getSize());
+    assertTrue(cache.getWeight() > 0);
+  }
+
+  @Test
+  void shouldReplaceRemoveAndClear() {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.putObject(key(1), "one");
+    cache.putObject(key(1), "uno");
+    assertEquals("uno", cache.getObject(key(1)));
+    assertEquals(1, cache.getSize());
+    assertEquals("uno", cache.removeObject(key(1)));
+    assertNull(cache.getObject(key(1)));
+    cache.putObject(key(2), "two");
+    cache.clear();
+    assertNull(cache.getObject(key(2)));
+    assertEquals(0, cache.getSize());
+  }
+
+  @Test
+  void shouldEvictOldestSegment() {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.setSegmentSize(4096);
+    cache.setCapacity(4 * 4096);
+    for (int i = 0; i < 1000; i++) {
+      cache.putObject(key(i), "value " + i);
+    }
+    assertNull(cache.getObject(key(0)));
+    assertEquals("value 999", cache.getObject(key(999)));
+    assertTrue(cache.getSize() < 1000);
+    assertTrue(cache.getWeight() <= 4 * 4096);
+  }
+
+  @Test
+  void shouldReloadFromMappedFile() throws Exception {
+    String file = new File(tempDir, "cache.bin").getAbsolutePath();
+    OffHeapCache cache = newMappedCache(file);
+    for (int i = 0; i < 10; i++) {
+      cache.putObject(key(i), "value " + i);
+    }
+    cache.putObject(key(3), "changed");
+    cache.removeObject(key(5));
+
+    OffHeapCache reloaded = newMappedCache(file);
+    assertEquals(9, reloaded.getSize());
+    assertEquals("value 0", reloaded.getObject(key(0)));
+    assertEquals("changed", reloaded.getObject(key(3)));
+    assertNull(reloaded.getObject(key(5)));
+    reloaded.putObject(key(10), "value 10");
+    assertEquals("value 10", reloaded.getObject(key(10)));
+  }
+
+  @Test
+  void shouldBeDecoratedByCacheBuilder() {
+    Cache cache = new CacheBuilder("test").implementation(OffHeapCache.class).build();
+    // locks on its own, no SynchronizedCache needed
+    assertTrue(cache instanceof LoggingCache);
+    cache.putObject(key(1), "one");
+    assertEquals("one", cache.getObject(key(1)));
+  }
+
+  @Test
+  void shouldReadOnlyAllowedClassesFromFile() throws Exception {
+    String file = new File(tempDir, "authors.bin").getAbsolutePath();
+    OffHeapCache cache = newMappedCache(file, "org.apache.ibatis.domain.blog.*");
+    cache.putObject(key(1), new Author(1, "jim", "secret", "jim@example.com", "bio", Section.NEWS));
+    cache.putObject(key(2), "two");
+    cache.close();
+
+    OffHeapCache restricted = newMappedCache(file, null);
+    assertEquals("two", restricted.getObject(key(2)));
+    assertThrows(CacheException.class, () -> restricted.getObject(key(1)));
+    restricted.close();
+
+    OffHeapCache allowed = newMappedCache(file, "org.apache.ibatis.domain.blog.Author, org.apache.ibatis.domain.blog.Section");
+    assertEquals("jim", ((Author) allowed.getObject(key(1))).getUsername());
+  }
+
+  @Test
+  void shouldReleaseTheSegmentsOnClose() throws Exception {
+    String file = new File(tempDir, "closed.bin").getAbsolutePath();
+    OffHeapCache cache = newMappedCache(file, null);
+    cache.putObject(key(1), "one");
+    cache.close();
+    assertEquals(0, cache.getSize());
+    assertEquals(0L, cache.getWeight());
+    // mapped again from the file on the next use
+    assertEquals("one", cache.getObject(key(1)));
+    assertEquals(1, cache.getSize());
+
+    OffHeapCache direct = new OffHeapCache("default");
+    direct.putObject(key(1), "one");
+    direct.close();
+    assertNull(direct.getObject(key(1)));
+    direct.putObject(key(2), "two");
+    assertEquals("two", direct.getObject(key(2)));
+  }
+
+  @Test
+  void shouldSupportConcurrentAccess() throws Exception {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.setSegmentSize(4096);
+    cache.setCapacity(4 * 4096);
+    ExecutorService pool = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < 8; t++) {
+        futures.add(pool.submit(() -> {
+          ThreadLocalRandom random = ThreadLocalRandom.current();
+          for (int i = 0; i < 5000; i++) {
+            int k = random.nextInt(200);
+            switch (random.nextInt(3)) {
+              case 0:
+                cache.putObject(key(k), "value " + k);
+                break;
+              case 1:
+                Object value = cache.getObject(key(k));
+                assertTrue(value == null || ("value " + k).equals(value), "key " + k + " read " + value);
+                break;
+              default:
+                cache.removeObject(key(k));
+                break;
+            }
+          }
+          return null;
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get(30, TimeUnit.SECONDS);
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+    assertTrue(cache.getSize() <= 200);
+  }
+
+  private OffHeapCache newMappedCache(String file, String allowedClasses) throws Exception {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.setFile(file);
+    cache.setSegmentSize(64 * 1024);
+    cache.setCapacity(4 * 64 * 1024);
+    cache.setAllowedClasses(allowedClasses);
+    cache.initialize();
+    return cache;
+  }
+
+  private OffHeapCache newMappedCache(String file) throws Exception {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.setFile(file);
+    cache.setSegmentSize(64 * 1024);
+    cache.setCapacity(4 * 64 * 1024);
+    cache.initialize();
+    return cache;
+  }
+
+  private static CacheKey key(int i) {
+    CacheKey key = new CacheKey();
+    key.update("org.apache.ibatis.domain.blog.mappers.AuthorMapper.selectAuthor");
+    key.update(i);
+    return key;
+  }
+
+}
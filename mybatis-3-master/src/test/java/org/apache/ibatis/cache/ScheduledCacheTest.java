@@ -17,7 +17,11 @@ package org.apache.ibatis.cache;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.lang.reflect.Field;
+import java.util.Map;
+
 import org.apache.ibatis.cache.decorators.LoggingCache;
+import org.apache.ibatis.cache.decorators.LruCache;
 import org.apache.ibatis.cache.decorators.ScheduledCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
 import org.junit.jupiter.api.Test;
@@ -66,4 +70,75 @@ class ScheduledCacheTest {
     assertNull(cache.getObject(4));
   }
 
+  @Test
+  void shouldExpireEachItemOnItsOwn() throws Exception {
+    ScheduledCache cache = new ScheduledCache(new PerpetualCache("DefaultCache"));
+    cache.setClearInterval(500);
+    cache.setJitter(0);
+    cache.putObject(0, 0);
+    Thread.sleep(300);
+    cache.putObject(1, 1);
+    Thread.sleep(300);
+    assertNull(cache.getObject(0));
+    assertEquals(1, cache.getObject(1));
+    assertEquals(1, cache.getSize());
+  }
+
+  @Test
+  void shouldServeStaleItemAndRequestOneRefresh() throws Exception {
+    ScheduledCache cache = new ScheduledCache(new PerpetualCache("DefaultCache"));
+    cache.setClearInterval(100);
+    cache.setStaleWhileRevalidate(60000);
+    cache.putObject(0, 0);
+    Thread.sleep(200);
+    assertEquals(0, cache.getObject(0));
+    assertTrue(CacheRevalidation.consumeRefreshRequest(0));
+    assertEquals(0, cache.getObject(0));
+    assertFalse(CacheRevalidation.consumeRefreshRequest(0));
+
+    CacheRevalidation.setRevalidating(true);
+    try {
+      assertNull(cache.getObject(0));
+    } finally {
+      CacheRevalidation.setRevalidating(false);
+    }
+    cache.putObject(0, 1);
+    assertEquals(1, cache.getObject(0));
+    assertFalse(CacheRevalidation.consumeRefreshRequest(0));
+  }
+
+  @Test
+  void shouldRemoveItemAfterStaleWindow() throws Exception {
+    ScheduledCache cache = new ScheduledCache(new PerpetualCache("DefaultCache"));
+    cache.setClearInterval(100);
+    cache.setStaleWhileRevalidate(100);
+    cache.putObject(0, 0);
+    Thread.sleep(300);
+    assertNull(cache.getObject(0));
+    assertFalse(CacheRevalidation.consumeRefreshRequest(0));
+    assertEquals(0, cache.getSize());
+  }
+
+  @Test
+  void shouldRejectInvalidJitter() {
+    ScheduledCache cache = new ScheduledCache(new PerpetualCache("DefaultCache"));
+    assertThrows(IllegalArgumentException.class, () -> cache.setJitter(1.0));
+  }
+
+  @Test
+  void shouldForgetTheItemsEvictedByTheDelegate() throws Exception {
+    LruCache lru = new LruCache(new PerpetualCache("DefaultCache"));
+    lru.setSize(100);
+    ScheduledCache cache = new ScheduledCache(lru);
+    cache.setClearInterval(60000);
+    for (int i = 0; i < 10000; i++) {
+      cache.putObject(i, i);
+    }
+    assertEquals(100, cache.getSize());
+    Field field = ScheduledCache.class.getDeclaredField("expirations");
+    field.setAccessible(true);
+    assertTrue(((Map<?, ?>) field.get(cache)).size() <= 200);
+    assertEquals(9999, cache.getObject(9999));
+  }
+
 }
@@ -0,0 +1,103 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.ibatis.cache.decorators.LoggingCache;
+import org.apache.ibatis.cache.decorators.SerializedCache;
+import org.apache.ibatis.cache.decorators.SynchronizedCache;
+import org.apache.ibatis.cache.decorators.WeightedCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.domain.blog.Author;
+import org.apache.ibatis.domain.blog.Section;
+import org.junit.jupiter.api.Test;
+
+class WeightedCacheTest {
+
+  @Test
+  void shouldEvictLeastRecentlyUsedItemsBeyondMaxBytes() {
+    WeightedCache cache = new WeightedCache(new PerpetualCache("default"));
+    cache.setMaxBytes(10_000);
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(i, new byte[1000]);
+    }
+    assertNotNull(cache.getObject(0));
+    cache.putObject(5, new byte[5000]);
+    assertNotNull(cache.getObject(0));
+    assertNull(cache.getObject(1));
+    assertNotNull(cache.getObject(5));
+    assertTrue(cache.getWeight() <= 10_000);
+  }
+
+  @Test
+  void shouldNotCacheValuesHeavierThanMaxBytes() {
+    WeightedCache cache = new WeightedCache(new PerpetualCache("default"));
+    cache.setMaxBytes(1000);
+    cache.putObject(0, new byte[10]);
+    cache.putObject(1, new byte[2000]);
+    assertNotNull(cache.getObject(0));
+    assertNull(cache.getObject(1));
+    assertEquals(1, cache.getSize());
+  }
+
+  @Test
+  void shouldWeighResultObjects() {
+    List<Author> small = new ArrayList<>();
+    List<Author> large = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      Author author = new Author(i, "user" + i, "password" + i, "user" + i + "@example.com", "bio", Section.NEWS);
+      if (i < 10) {
+        small.add(author);
+      }
+      large.add(author);
+    }
+    WeightedCache cache = new WeightedCache(new PerpetualCache("default"));
+    cache.putObject(0, small);
+    long smallWeight = cache.getWeight();
+    cache.putObject(1, large);
+    long largeWeight = cache.getWeight() - smallWeight;
+    assertTrue(smallWeight > 10 * 40);
+    assertTrue(largeWeight > 50 * smallWeight);
+  }
+
+  @Test
+  void shouldReportWeightThroughStandardDecorators() {
+    WeightedCache weighted = new WeightedCache(new PerpetualCache("default"));
+    Cache cache = new SynchronizedCache(new LoggingCache(new SerializedCache(weighted)));
+    cache.putObject(0, "value");
+    assertTrue(cache.getWeight() > 0);
+    assertEquals(weighted.getWeight(), cache.getWeight());
+    cache.removeObject(0);
+    assertEquals(0, cache.getWeight());
+  }
+
+  @Test
+  void shouldFlushAllItemsOnDemand() {
+    WeightedCache cache = new WeightedCache(new PerpetualCache("default"));
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(i, i);
+    }
+    assertNotNull(cache.getObject(4));
+    cache.clear();
+    assertNull(cache.getObject(4));
+    assertEquals(0, cache.getWeight());
+  }
+
+}
@@ -0,0 +1,115 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.tag;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.junit.jupiter.api.Test;
+
+class CacheTagIndexTest {
+
+  @Test
+  void shouldRemoveOnlyTheAffectedEntries() {
+    Cache cache = new PerpetualCache("default");
+    CacheTagIndex index = new CacheTagIndex(cache);
+    index.putObject(cache, "person1", "a", Collections.singletonList(CacheTag.row("person", "id", 1)));
+    index.putObject(cache, "person2", "b", Collections.singletonList(CacheTag.row("person", "id", 2)));
+    index.putObject(cache, "people", "c", Collections.singletonList(CacheTag.table("person")));
+    index.putObject(cache, "address", "d", Collections.singletonList(CacheTag.table("address")));
+    index.putObject(cache, "unknown", "e", null);
+
+    List<CacheInvalidation> write = Collections
+        .singletonList(CacheInvalidation.rows("person", Collections.singletonMap("id", Collections.singleton(1))));
+    assertThat(index.isAffected("person1", write)).isTrue();
+    assertThat(index.isAffected("person2", write)).isFalse();
+    assertThat(index.invalidate(cache, write)).isEqualTo(3);
+
+    assertThat(cache.getObject("person1")).isNull();
+    assertThat(cache.getObject("person2")).isEqualTo("b");
+    assertThat(cache.getObject("people")).isNull();
+    assertThat(cache.getObject("address")).isEqualTo("d");
+    assertThat(cache.getObject("unknown")).isNull();
+    assertThat(index.size()).isEqualTo(2);
+  }
+
+  @Test
+  void shouldRemoveEveryKeyOfTheTableWhenTheRowsAreNotKnown() {
+    Cache cache = new PerpetualCache("default");
+    CacheTagIndex index = new CacheTagIndex(cache);
+    index.putObject(cache, "person1", "a",
+        Arrays.asList(CacheTag.row("person", "id", 1), CacheTag.table("address")));
+    index.putObject(cache, "person2", "b", Collections.singletonList(CacheTag.row("person", "name", "x")));
+
+    assertThat(index.invalidate(cache, Collections.singletonList(CacheInvalidation.table("address")))).isEqualTo(1);
+    assertThat(index.invalidate(cache, Collections.singletonList(CacheInvalidation.table("person")))).isEqualTo(1);
+    assertThat(cache.getSize()).isZero();
+    assertThat(index.size()).isZero();
+  }
+
+  @Test
+  void shouldClearEntriesPutBeforeTheIndex() {
+    Cache cache = new PerpetualCache("default");
+    cache.putObject("old", "a");
+    CacheTagIndex index = new CacheTagIndex(cache);
+    index.putObject(cache, "new", "b", Collections.singletonList(CacheTag.table("address")));
+    assertThat(index.isAffected("old", Collections.singletonList(CacheInvalidation.table("person")))).isTrue();
+
+    assertThat(index.invalidate(cache, Collections.singletonList(CacheInvalidation.table("person")))).isEqualTo(-1);
+    assertThat(cache.getSize()).isZero();
+  }
+
+  @Test
+  void shouldForgetTheKeysEvictedByTheCache() {
+    LruCache cache = new LruCache(new PerpetualCache("default"));
+    cache.setSize(10);
+    CacheTagIndex index = new CacheTagIndex(cache);
+    for (int i = 0; i < 5000; i++) {
+      index.putObject(cache, i, i, Collections.singletonList(CacheTag.row("person", "id", i)));
+    }
+    assertThat(cache.getSize()).isEqualTo(10);
+    assertThat(index.size()).isLessThan(1000);
+
+    List<CacheInvalidation> write = Collections
+        .singletonList(CacheInvalidation.rows("person", Collections.singletonMap("id", Collections.singleton(4999))));
+    assertThat(index.invalidate(cache, write)).isEqualTo(1);
+    assertThat(cache.getObject(4999)).isNull();
+    assertThat(cache.getObject(4998)).isEqualTo(4998);
+  }
+
+  @Test
+  void shouldClearACacheThatCannotTellWhichKeysItHolds() {
+    Cache cache = new LruCache(new PerpetualCache("default") {
+      @Override
+      public boolean containsKey(Object key) {
+        return true;
+      }
+    });
+    CacheTagIndex index = new CacheTagIndex(cache);
+    for (int i = 0; i < 4097; i++) {
+      index.putObject(cache, i, i, Collections.singletonList(CacheTag.table("person")));
+    }
+    assertThat(cache.getSize()).isZero();
+    assertThat(index.size()).isZero();
+  }
+
+}
@@ -0,0 +1,114 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.tag;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.ibatis.cache.tag.SqlTagParser.ParsedSql;
+import org.junit.jupiter.api.Test;
+
+class SqlTagParserTest {
+
+  @Test
+  void shouldFindTheKeyOfASingleTableSelect() {
+    ParsedSql sql = SqlTagParser.parse("select id, name from Person p where p.name like ? and p.ID = ? order by name");
+    assertThat(sql.isWrite()).isFalse();
+    assertThat(sql.getTables()).containsExactly("person");
+    assertThat(sql.getKeys()).containsOnlyKeys("id");
+    assertThat(sql.getKeys().get("id")).containsExactly(1);
+  }
+
+  @Test
+  void shouldFindTheKeysOfAnInList() {
+    ParsedSql sql = SqlTagParser.parse("select * from person where id in (?, ?, ?)");
+    assertThat(sql.getKeys().get("id")).containsExactly(0, 1, 2);
+  }
+
+  @Test
+  void shouldFindAllTablesOfAJoin() {
+    ParsedSql sql = SqlTagParser.parse("select * from blog b join author a on a.id = b.author_id, post "
+        + "where b.id = ? and exists (select 1 from comment c where c.post_id = post.id)");
+    assertThat(sql.getTables()).containsExactlyInAnyOrder("blog", "author", "post", "comment");
+    assertThat(sql.getKeys()).isNull();
+  }
+
+  @Test
+  void shouldNotUseAKeyOfADisjunction() {
+    ParsedSql sql = SqlTagParser.parse("select * from person where id = ? or name = ?");
+    assertThat(sql.getTables()).containsExactly("person");
+    assertThat(sql.getKeys()).isNull();
+  }
+
+  @Test
+  void shouldIgnoreCommentsAndLiterals() {
+    ParsedSql sql = SqlTagParser.parse("select * /* from secret */ from person -- join other\n"
+        + "where name = 'from x where id = ?' and id = ?");
+    assertThat(sql.getTables()).containsExactly("person");
+    assertThat(sql.getKeys().get("id")).containsExactly(0);
+  }
+
+  @Test
+  void shouldFindTheKeyOfAnUpdate() {
+    ParsedSql sql = SqlTagParser.parse("update person set name = ?, age = age + 1 where id = ?");
+    assertThat(sql.isWrite()).isTrue();
+    assertThat(sql.getTables()).containsExactly("person");
+    assertThat(sql.getKeys().get("id")).containsExactly(1);
+  }
+
+  @Test
+  void shouldTouchBothKeysWhenAnUpdateChangesTheKey() {
+    assertThat(SqlTagParser.parse("update person set id = ? where id = ?").getKeys().get("id"))
+        .containsExactlyInAnyOrder(0, 1);
+    assertThat(SqlTagParser.parse("update person set id = id + 1 where id = ?").getKeys()).isEmpty();
+  }
+
+  @Test
+  void shouldFindTheKeysOfAMultiRowInsert() {
+    ParsedSql sql = SqlTagParser.parse("insert into person (id, name, created) values (?, ?, now()), (?, ?, now())");
+    assertThat(sql.getTables()).containsExactly("person");
+    assertThat(sql.getKeys()).containsOnlyKeys("id", "name");
+    assertThat(sql.getKeys().get("id")).containsExactly(0, 2);
+  }
+
+  @Test
+  void shouldTouchTheWholeTableWhenTheRowsAreNotKnown() {
+    assertThat(SqlTagParser.parse("insert into person select * from staging").getKeys()).isEmpty();
+    assertThat(SqlTagParser.parse("delete from person").getKeys()).isEmpty();
+    assertThat(SqlTagParser.parse("update person set name = ? where age > ?").getKeys()).isEmpty();
+  }
+
+  @Test
+  void shouldNotUnderstandOtherStatements() {
+    assertThat(SqlTagParser.parse("{call refresh(?)}").isUnknown()).isTrue();
+    assertThat(SqlTagParser.parse("merge into person using staging on (1 = 1)").isUnknown()).isTrue();
+    assertThat(SqlTagParser.parse("delete from a; delete from b").isUnknown()).isTrue();
+  }
+
+  @Test
+  void shouldInvalidateOnlyTheAffectedTags() {
+    CacheInvalidation write = CacheInvalidation.rows("PERSON", Collections.singletonMap("id", Arrays.asList(1, 2)));
+    assertThat(write.affects(CacheTag.row("person", "id", 1))).isTrue();
+    assertThat(write.affects(CacheTag.row("person", "id", 3))).isFalse();
+    assertThat(write.affects(CacheTag.row("person", "name", "x"))).isTrue();
+    assertThat(write.affects(CacheTag.table("person"))).isTrue();
+    assertThat(write.affects(CacheTag.table("address"))).isFalse();
+    assertThat(write.affects(CacheTag.ALL)).isTrue();
+  }
+
+}
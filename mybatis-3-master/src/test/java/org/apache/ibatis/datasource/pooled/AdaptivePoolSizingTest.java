@@ -0,0 +1,162 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.BaseDataTest;
+import org.apache.ibatis.io.Resources;
+import org.junit.jupiter.api.Test;
+
+class AdaptivePoolSizingTest extends BaseDataTest {
+
+  private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  @Test
+  void shouldShrinkTowardsLittlesLawEstimate() {
+    DefaultPoolMetrics metrics = new DefaultPoolMetrics(() -> 0, () -> 0, () -> 10);
+    AdaptivePoolSizer sizer = new AdaptivePoolSizer();
+    assertNull(sizer.evaluate(metrics, 10, 1, 10, SECOND));
+    // 100 checkouts/s held 40 ms each: 4 connections in use, 5 with the headroom
+    recordCheckouts(metrics, 100, 40);
+    PoolResize resize = sizer.evaluate(metrics, 10, 1, 10, 2 * SECOND);
+    assertEquals(100.0, resize.getCheckoutsPerSecond(), 0.001);
+    assertEquals(40.0, resize.getMeanUsageMillis(), 0.001);
+    assertEquals(4.0, resize.getConnectionsInUse(), 0.001);
+    assertEquals(7, resize.getNewSize());
+    recordCheckouts(metrics, 100, 40);
+    assertEquals(6, sizer.evaluate(metrics, 7, 1, 10, 3 * SECOND).getNewSize());
+    recordCheckouts(metrics, 100, 40);
+    assertEquals(5, sizer.evaluate(metrics, 6, 1, 10, 4 * SECOND).getNewSize());
+    recordCheckouts(metrics, 100, 40);
+    assertEquals(5, sizer.evaluate(metrics, 5, 1, 10, 5 * SECOND).getNewSize());
+  }
+
+  @Test
+  void shouldGrowAtOnceForTheLoadAndTheWaitingThreads() {
+    DefaultPoolMetrics metrics = new DefaultPoolMetrics(() -> 3, () -> 0, () -> 3);
+    AdaptivePoolSizer sizer = new AdaptivePoolSizer();
+    sizer.evaluate(metrics, 3, 1, 20, SECOND);
+    // 200 checkouts/s held 40 ms each: 8 connections in use, 10 with the headroom
+    recordCheckouts(metrics, 200, 40);
+    assertEquals(10, sizer.evaluate(metrics, 3, 1, 20, 2 * SECOND).getNewSize());
+    metrics.recordWaitStart();
+    metrics.recordWaitStart();
+    recordCheckouts(metrics, 200, 40);
+    assertEquals(12, sizer.evaluate(metrics, 10, 1, 20, 3 * SECOND).getNewSize());
+    recordCheckouts(metrics, 200, 40);
+    assertEquals(12, sizer.evaluate(metrics, 11, 1, 12, 4 * SECOND).getNewSize());
+  }
+
+  @Test
+  void shouldNotShrinkBelowTheMinimumOrTheActiveConnections() {
+    DefaultPoolMetrics metrics = new DefaultPoolMetrics(() -> 4, () -> 0, () -> 10);
+    AdaptivePoolSizer sizer = new AdaptivePoolSizer();
+    sizer.evaluate(metrics, 10, 2, 10, SECOND);
+    for (int i = 2; i < 10; i++) {
+      sizer.evaluate(metrics, 10, 2, 10, i * SECOND);
+    }
+    assertEquals(4, sizer.evaluate(metrics, 4, 2, 10, 10 * SECOND).getNewSize());
+    assertEquals(6, sizer.evaluate(metrics, 4, 6, 10, 11 * SECOND).getNewSize());
+  }
+
+  @Test
+  void shouldCloseIdleConnectionsWhenThePoolShrinks() throws Exception {
+    for (PooledDataSource ds : dataSources()) {
+      try {
+        List<PoolResize> resizes = new ArrayList<>();
+        ds.setPoolAdaptiveSizing(true);
+        ds.setPoolAdaptiveMinimumConnections(2);
+        ds.setPoolResizeListener(resizes::add);
+        List<Connection> connections = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+          connections.add(ds.getConnection());
+        }
+        for (Connection c : connections) {
+          c.close();
+        }
+        assertEquals(6, ds.getPoolState().getIdleConnectionCount());
+        for (int i = 0; i < 5; i++) {
+          Thread.sleep(5);
+          ds.housekeep();
+        }
+        PoolMetrics metrics = ds.getPoolState().getMetrics();
+        assertEquals(2, metrics.getMaximumActiveConnections());
+        assertEquals(2, ds.getPoolState().getIdleConnectionCount());
+        assertEquals(resizes.size(), metrics.getResizes());
+        assertEquals(10, resizes.get(0).getPreviousSize());
+        assertEquals(2, resizes.get(resizes.size() - 1).getNewSize());
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  void shouldOpenConnectionsForWaitingThreadsWhenThePoolGrows() throws Exception {
+    for (PooledDataSource ds : dataSources()) {
+      try {
+        ds.setPoolAdaptiveSizing(true);
+        for (int i = 0; i < 6; i++) {
+          Thread.sleep(5);
+          ds.housekeep();
+        }
+        assertEquals(1, ds.getPoolState().getMetrics().getMaximumActiveConnections());
+        Connection c = ds.getConnection();
+        CompletableFuture<Connection> waiting = ds.getConnectionAsync();
+        assertFalse(waiting.isDone());
+        Thread.sleep(5);
+        ds.housekeep();
+        assertEquals(2, ds.getPoolState().getMetrics().getMaximumActiveConnections());
+        waiting.get(10, TimeUnit.SECONDS).close();
+        c.close();
+        assertTrue(ds.getPoolState().getIdleConnectionCount() <= 2);
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  private static void recordCheckouts(DefaultPoolMetrics metrics, int count, long usageMillis) {
+    for (int i = 0; i < count; i++) {
+      metrics.recordCheckout(1000);
+      metrics.recordReturn(usageMillis);
+    }
+  }
+
+  private PooledDataSource[] dataSources() throws Exception {
+    Properties props = Resources.getResourceAsProperties(JPETSTORE_PROPERTIES);
+    PooledDataSource[] dataSources = { new PooledDataSource(), new ConcurrentPooledDataSource() };
+    for (PooledDataSource ds : dataSources) {
+      ds.setDriver(props.getProperty("driver"));
+      ds.setUrl(props.getProperty("url"));
+      ds.setUsername(props.getProperty("username"));
+      ds.setPassword(props.getProperty("password"));
+    }
+    return dataSources;
+  }
+
+}
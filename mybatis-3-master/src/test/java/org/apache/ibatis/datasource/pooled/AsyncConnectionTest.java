@@ -0,0 +1,205 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.sql.SQLTimeoutException;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.BaseDataTest;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.junit.jupiter.api.Test;
+
+class AsyncConnectionTest extends BaseDataTest {
+
+  @Test
+  void shouldCompleteAtOnceWhenAConnectionIsAvailable() throws Exception {
+    for (PooledDataSource ds : dataSources()) {
+      try {
+        CompletableFuture<Connection> future = ds.getConnectionAsync();
+        assertTrue(future.isDone());
+        future.get().close();
+        assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  void shouldHandReturnedConnectionsInRequestOrder() throws Exception {
+    for (PooledDataSource ds : dataSources()) {
+      try {
+        ds.setPoolMaximumActiveConnections(1);
+        Connection c = ds.getConnection();
+        Connection real = PooledDataSource.unwrapConnection(c);
+        CompletableFuture<Connection> first = ds.getConnectionAsync();
+        CompletableFuture<Connection> second = ds.getConnectionAsync();
+        assertFalse(first.isDone());
+        assertEquals(2, ds.getPoolState().getMetrics().getPendingThreads());
+        c.close();
+        assertSame(real, PooledDataSource.unwrapConnection(first.get(10, TimeUnit.SECONDS)));
+        assertFalse(second.isDone());
+        first.get().close();
+        second.get(10, TimeUnit.SECONDS).close();
+        assertEquals(0, ds.getPoolState().getMetrics().getPendingThreads());
+        assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  void shouldServeQueuedRequestsBeforeLaterBlockingThreads() throws Exception {
+    for (PooledDataSource ds : dataSources()) {
+      ExecutorService executor = Executors.newSingleThreadExecutor();
+      try {
+        ds.setPoolMaximumActiveConnections(1);
+        Connection c = ds.getConnection();
+        CompletableFuture<Connection> queued = ds.getConnectionAsync();
+        Future<?> blocked = executor.submit(() -> {
+          ds.getConnection().close();
+          return null;
+        });
+        while (ds.getPoolState().getMetrics().getPendingThreads() < 2) {
+          Thread.sleep(1);
+        }
+        c.close();
+        Connection handed = queued.get(10, TimeUnit.SECONDS);
+        assertFalse(blocked.isDone());
+        handed.close();
+        blocked.get(10, TimeUnit.SECONDS);
+      } finally {
+        executor.shutdownNow();
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  void shouldFailWithTimeoutAfterTheDeadline() throws Exception {
+    for (PooledDataSource ds : dataSources()) {
+      try {
+        ds.setPoolMaximumActiveConnections(1);
+        Connection c = ds.getConnection();
+        CompletableFuture<Connection> future = ds.getConnectionAsync(20, TimeUnit.MILLISECONDS);
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(10, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof SQLTimeoutException);
+        assertEquals(0, ds.getPoolState().getMetrics().getPendingThreads());
+        assertEquals(1, ds.getPoolState().getMetrics().getTimeouts());
+        c.close();
+        assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  void shouldReturnTheConnectionOfACancelledRequestToThePool() throws Exception {
+    for (PooledDataSource ds : dataSources()) {
+      try {
+        ds.setPoolMaximumActiveConnections(1);
+        Connection c = ds.getConnection();
+        CompletableFuture<Connection> future = ds.getConnectionAsync();
+        future.cancel(false);
+        c.close();
+        assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+        assertEquals(0, ds.getPoolState().getActiveConnectionCount());
+        ds.getConnection().close();
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  void shouldOpenSessionAsync() throws Exception {
+    for (PooledDataSource ds : dataSources()) {
+      try {
+        ds.setPoolMaximumActiveConnections(1);
+        Configuration configuration = new Configuration(new Environment("async", new JdbcTransactionFactory(), ds));
+        SqlSessionFactory factory = new SqlSessionFactoryBuilder().build(configuration);
+        CompletableFuture<SqlSession> pending;
+        try (SqlSession first = factory.openSessionAsync().get(10, TimeUnit.SECONDS)) {
+          assertFalse(first.getConnection().getAutoCommit());
+          pending = factory.openSessionAsync();
+          assertFalse(pending.isDone());
+        }
+        try (SqlSession second = pending.get(10, TimeUnit.SECONDS)) {
+          assertNotNull(second.getConnection());
+        }
+        assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  void shouldGiveBackTheConnectionOfACancelledSession() throws Exception {
+    for (PooledDataSource ds : dataSources()) {
+      try {
+        ds.setPoolMaximumActiveConnections(1);
+        Configuration configuration = new Configuration(new Environment("async", new JdbcTransactionFactory(), ds));
+        SqlSessionFactory factory = new SqlSessionFactoryBuilder().build(configuration);
+        Connection c = ds.getConnection();
+        CompletableFuture<SqlSession> pending = factory.openSessionAsync();
+        assertEquals(1, ds.getPoolState().getMetrics().getPendingThreads());
+        pending.cancel(false);
+        assertEquals(0, ds.getPoolState().getMetrics().getPendingThreads());
+        c.close();
+        assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+        assertEquals(0, ds.getPoolState().getActiveConnectionCount());
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  private PooledDataSource[] dataSources() throws Exception {
+    Properties props = Resources.getResourceAsProperties(JPETSTORE_PROPERTIES);
+    PooledDataSource[] dataSources = { new PooledDataSource(), new ConcurrentPooledDataSource() };
+    for (PooledDataSource ds : dataSources) {
+      ds.setDriver(props.getProperty("driver"));
+      ds.setUrl(props.getProperty("url"));
+      ds.setUsername(props.getProperty("username"));
+      ds.setPassword(props.getProperty("password"));
+    }
+    return dataSources;
+  }
+
+}
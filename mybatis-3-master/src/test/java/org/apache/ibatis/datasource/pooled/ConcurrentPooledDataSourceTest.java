@@ -0,0 +1,250 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.BaseDataTest;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.session.Configuration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ConcurrentPooledDataSourceTest extends BaseDataTest {
+
+  private ConcurrentPooledDataSource ds;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    Properties props = Resources.getResourceAsProperties(JPETSTORE_PROPERTIES);
+    ds = new ConcurrentPooledDataSource();
+    ds.setDriver(props.getProperty("driver"));
+    ds.setUrl(props.getProperty("url"));
+    ds.setUsername(props.getProperty("username"));
+    ds.setPassword(props.getProperty("password"));
+  }
+
+  @AfterEach
+  void tearDown() {
+    ds.forceCloseAll();
+  }
+
+  @Test
+  void shouldMaintainPoolOf3ActiveAnd2IdleConnections() throws Exception {
+    ds.setPoolMaximumActiveConnections(3);
+    ds.setPoolMaximumIdleConnections(2);
+    List<Connection> connections = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      connections.add(ds.getConnection());
+    }
+    assertEquals(3, ds.getPoolState().getActiveConnectionCount());
+    for (Connection c : connections) {
+      c.close();
+    }
+    assertEquals(0, ds.getPoolState().getActiveConnectionCount());
+    assertEquals(2, ds.getPoolState().getIdleConnectionCount());
+    assertEquals(3, ds.getPoolState().getRequestCount());
+    assertEquals(0, ds.getPoolState().getBadConnectionCount());
+    assertEquals(0, ds.getPoolState().getHadToWaitCount());
+  }
+
+  @Test
+  void shouldHandBackTheConnectionLastReturnedByTheThread() throws Exception {
+    Connection first = ds.getConnection();
+    Connection second = ds.getConnection();
+    Connection realSecond = PooledDataSource.unwrapConnection(second);
+    first.close();
+    second.close();
+    Connection c = ds.getConnection();
+    assertSame(realSecond, PooledDataSource.unwrapConnection(c));
+    assertNotSame(second, c);
+    c.close();
+  }
+
+  @Test
+  void shouldNeverExceedTheMaximumNumberOfActiveConnections() throws Exception {
+    ds.setPoolMaximumActiveConnections(4);
+    ds.setPoolMaximumIdleConnections(4);
+    AtomicInteger active = new AtomicInteger();
+    AtomicInteger maxActive = new AtomicInteger();
+    CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(16);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < 16; i++) {
+        futures.add(executor.submit(() -> {
+          start.await();
+          for (int j = 0; j < 50; j++) {
+            try (Connection c = ds.getConnection()) {
+              maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+              c.getAutoCommit();
+              active.decrementAndGet();
+            }
+          }
+          return null;
+        }));
+      }
+      start.countDown();
+      for (Future<?> future : futures) {
+        future.get(30, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertThat(maxActive.get()).isLessThanOrEqualTo(4);
+    assertEquals(800, ds.getPoolState().getRequestCount());
+    assertEquals(0, ds.getPoolState().getActiveConnectionCount());
+    assertThat(ds.getPoolState().getIdleConnectionCount()).isBetween(1, 4);
+    assertEquals(0, ds.getPoolState().getBadConnectionCount());
+  }
+
+  @Test
+  void shouldHandAReturnedConnectionToAWaitingThread() throws Exception {
+    ds.setPoolMaximumActiveConnections(1);
+    Connection c = ds.getConnection();
+    Connection real = PooledDataSource.unwrapConnection(c);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<Connection> waiting = executor.submit(() -> {
+        try (Connection other = ds.getConnection()) {
+          return PooledDataSource.unwrapConnection(other);
+        }
+      });
+      while (ds.getPoolState().getHadToWaitCount() == 0) {
+        Thread.sleep(1);
+      }
+      c.close();
+      assertSame(real, waiting.get(10, TimeUnit.SECONDS));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void shouldWaitWithoutLimitWhenPoolTimeToWaitIsZero() throws Exception {
+    ds.setPoolMaximumActiveConnections(1);
+    ds.setPoolTimeToWait(0);
+    Connection c = ds.getConnection();
+    Connection real = PooledDataSource.unwrapConnection(c);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<Connection> waiting = executor.submit(() -> {
+        try (Connection other = ds.getConnection()) {
+          return PooledDataSource.unwrapConnection(other);
+        }
+      });
+      Thread.sleep(300);
+      assertThat(waiting.isDone()).isFalse();
+      assertEquals(0, ds.getPoolMetrics().getTimeouts());
+      c.close();
+      assertSame(real, waiting.get(10, TimeUnit.SECONDS));
+      assertEquals(0, ds.getPoolMetrics().getTimeouts());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void shouldOpenAConnectionForAWaitingThreadWhenOneIsDiscarded() throws Exception {
+    ds.setPoolMaximumActiveConnections(1);
+    ds.setPoolTimeToWait(0);
+    Connection c = ds.getConnection();
+    Connection real = PooledDataSource.unwrapConnection(c);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<Connection> waiting = executor.submit(() -> {
+        try (Connection other = ds.getConnection()) {
+          return PooledDataSource.unwrapConnection(other);
+        }
+      });
+      while (ds.getPoolMetrics().getPendingThreads() == 0) {
+        Thread.sleep(1);
+      }
+      real.close();
+      c.close();
+      assertNotSame(real, waiting.get(10, TimeUnit.SECONDS));
+      assertEquals(1, ds.getPoolState().getBadConnectionCount());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void shouldClaimOverdueConnection() throws Exception {
+    ds.setPoolMaximumActiveConnections(1);
+    ds.setPoolMaximumCheckoutTime(10);
+    Connection c = ds.getConnection();
+    Thread.sleep(20);
+    Connection claimed = ds.getConnection();
+    assertSame(PooledDataSource.unwrapConnection(c), PooledDataSource.unwrapConnection(claimed));
+    assertEquals(1, ds.getPoolState().getClaimedOverdueConnectionCount());
+    assertThrows(SQLException.class, c::getAutoCommit);
+    c.close();
+    assertEquals(1, ds.getPoolState().getBadConnectionCount());
+    assertEquals(1, ds.getPoolState().getActiveConnectionCount());
+    claimed.close();
+    assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+  }
+
+  @Test
+  void shouldIgnoreAConnectionClosedTwice() throws Exception {
+    Connection c = ds.getConnection();
+    c.close();
+    c.close();
+    assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+    assertEquals(1, ds.getPoolState().getBadConnectionCount());
+  }
+
+  @Test
+  void shouldInvalidateCheckedOutConnectionsOnForceCloseAll() throws Exception {
+    Connection c = ds.getConnection();
+    ds.getConnection().close();
+    ds.forceCloseAll();
+    assertEquals(0, ds.getPoolState().getActiveConnectionCount());
+    assertEquals(0, ds.getPoolState().getIdleConnectionCount());
+    assertThrows(SQLException.class, c::getAutoCommit);
+    c.close();
+    try (Connection another = ds.getConnection()) {
+      assertEquals(1, ds.getPoolState().getActiveConnectionCount());
+    }
+  }
+
+  @Test
+  void shouldResolveTheFactoryAlias() {
+    Configuration configuration = new Configuration();
+    assertEquals(ConcurrentPooledDataSourceFactory.class,
+        configuration.getTypeAliasRegistry().resolveAlias("CONCURRENT_POOLED"));
+    assertThat(new ConcurrentPooledDataSourceFactory().getDataSource()).isInstanceOf(ConcurrentPooledDataSource.class);
+  }
+
+}
@@ -0,0 +1,129 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.ibatis.BaseDataTest;
+import org.apache.ibatis.executor.ErrorContext;
+import org.apache.ibatis.io.Resources;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class ConnectionLeakDetectionTest extends BaseDataTest {
+
+  private final List<ConnectionLeak> leaks = new CopyOnWriteArrayList<>();
+
+  @AfterEach
+  void resetErrorContext() {
+    ErrorContext.instance().reset();
+  }
+
+  @Test
+  void shouldReportTheStatementThatHeldTheConnection() throws Exception {
+    for (PooledDataSource ds : dataSources()) {
+      leaks.clear();
+      try {
+        ds.setPoolLeakDetectionThreshold(10);
+        ErrorContext.instance().resource("org/apache/ibatis/BlogMapper.xml").object("BlogMapper.selectBlog");
+        Connection c = ds.getConnection();
+        ErrorContext.instance().reset();
+        Thread.sleep(20);
+        ds.housekeep();
+        assertEquals(1, leaks.size());
+        ConnectionLeak leak = leaks.get(0);
+        assertEquals("BlogMapper.selectBlog", leak.getStatementId());
+        assertEquals("org/apache/ibatis/BlogMapper.xml", leak.getResource());
+        assertEquals(Thread.currentThread().getName(), leak.getThreadName());
+        assertThat(leak.getHeldMillis()).isGreaterThan(10);
+        assertFalse(leak.isReclaimed());
+        assertNull(leak.getCheckoutStackTrace());
+        assertThat(leak.toString()).contains("BlogMapper.selectBlog", "possible connection leak");
+        ds.housekeep();
+        c.close();
+        assertEquals(1, leaks.size());
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  void shouldReportLateReturnsAndReclaims() throws Exception {
+    for (PooledDataSource ds : dataSources()) {
+      leaks.clear();
+      try {
+        ds.setPoolMaximumActiveConnections(1);
+        ds.setPoolMaximumCheckoutTime(30);
+        ds.setPoolLeakDetectionThreshold(10);
+        ds.setPoolLeakDetectionStackTrace(true);
+        ds.getConnection();
+        Thread.sleep(40);
+        Connection claimed = ds.getConnection();
+        assertEquals(1, leaks.size());
+        assertTrue(leaks.get(0).isReclaimed());
+        assertThat(leaks.get(0).getCheckoutStackTrace().getStackTrace()[0].getClassName())
+            .isEqualTo(ConnectionLeakDetectionTest.class.getName());
+        assertThat(leaks.get(0).toString()).contains("reclaimed as overdue", "Connection checked out here");
+        Thread.sleep(20);
+        claimed.close();
+        assertEquals(2, leaks.size());
+        assertFalse(leaks.get(1).isReclaimed());
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  void shouldNotTraceCheckoutsWhenDisabled() throws Exception {
+    for (PooledDataSource ds : dataSources()) {
+      leaks.clear();
+      try {
+        Connection c = ds.getConnection();
+        Thread.sleep(5);
+        ds.housekeep();
+        c.close();
+        assertTrue(leaks.isEmpty());
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  private PooledDataSource[] dataSources() throws Exception {
+    Properties props = Resources.getResourceAsProperties(JPETSTORE_PROPERTIES);
+    PooledDataSource[] dataSources = { new PooledDataSource(), new ConcurrentPooledDataSource() };
+    for (PooledDataSource ds : dataSources) {
+      ds.setDriver(props.getProperty("driver"));
+      ds.setUrl(props.getProperty("url"));
+      ds.setUsername(props.getProperty("username"));
+      ds.setPassword(props.getProperty("password"));
+      ds.setConnectionLeakListener(leaks::add);
+    }
+    return dataSources;
+  }
+
+}
@@ -0,0 +1,159 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.BaseDataTest;
+import org.apache.ibatis.executor.ErrorContext;
+import org.apache.ibatis.io.Resources;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class PoolBulkheadTest extends BaseDataTest {
+
+  @AfterEach
+  void resetErrorContext() {
+    ErrorContext.instance().reset();
+  }
+
+  @Test
+  void shouldRefuseCheckoutsBeyondTheLimitOfTheNamespace() throws Exception {
+    for (PooledDataSource ds : dataSources()) {
+      try {
+        ds.setPoolBulkhead("ReportMapper", 1);
+        ds.setPoolBulkheadFastFail(true);
+        PoolBulkhead bulkhead = ds.getBulkheads().iterator().next();
+        ErrorContext.instance().object("ReportMapper.monthlyReport");
+        Connection report = ds.getConnection();
+        assertEquals(1, bulkhead.getActiveConnections());
+        assertThrows(SQLException.class, ds::getConnection);
+        assertEquals(1, bulkhead.getRejections());
+        assertEquals(1, ds.getPoolState().getMetrics().getBulkheadRejections());
+        ErrorContext.instance().object("OrderMapper.selectOrder");
+        ds.getConnection().close();
+        report.close();
+        report.close();
+        assertEquals(0, bulkhead.getActiveConnections());
+        ErrorContext.instance().object("ReportMapper.monthlyReport");
+        ds.getConnection().close();
+        assertEquals(1, bulkhead.getRejections());
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  void shouldPreferTheBulkheadOfTheStatement() throws Exception {
+    for (PooledDataSource ds : dataSources()) {
+      try {
+        ds.setPoolBulkheads("ReportMapper=1, ReportMapper.smallReport=2");
+        ds.setPoolBulkheadFastFail(true);
+        assertEquals(2, ds.getBulkheads().size());
+        ErrorContext.instance().object("ReportMapper.smallReport");
+        Connection first = ds.getConnection();
+        Connection second = ds.getConnection();
+        assertThrows(SQLException.class, ds::getConnection);
+        ErrorContext.instance().object("ReportMapper.monthlyReport");
+        ds.getConnection().close();
+        first.close();
+        second.close();
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  void shouldWaitForAPlaceUpToPoolTimeToWait() throws Exception {
+    for (PooledDataSource ds : dataSources()) {
+      try {
+        ds.setPoolTimeToWait(50);
+        ds.setPoolBulkhead("ReportMapper", 1);
+        ErrorContext.instance().object("ReportMapper.monthlyReport");
+        Connection report = ds.getConnection();
+        long start = System.nanoTime();
+        assertThrows(SQLException.class, ds::getConnection);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(40));
+        report.close();
+        ds.getConnection().close();
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  void shouldRefuseAsynchronousCheckoutsAtOnce() throws Exception {
+    for (PooledDataSource ds : dataSources()) {
+      try {
+        ds.setPoolBulkhead("ReportMapper", 1);
+        ErrorContext.instance().object("ReportMapper.monthlyReport");
+        Connection report = ds.getConnectionAsync().get(10, TimeUnit.SECONDS);
+        CompletableFuture<Connection> refused = ds.getConnectionAsync();
+        ExecutionException e = assertThrows(ExecutionException.class, () -> refused.get(10, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof SQLException);
+        report.close();
+        assertEquals(0, ds.getBulkheads().iterator().next().getActiveConnections());
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  void shouldLeaveTheBulkheadWhenAConnectionIsClaimedAsOverdue() throws Exception {
+    for (PooledDataSource ds : dataSources()) {
+      try {
+        ds.setPoolMaximumCheckoutTime(10);
+        ds.setPoolBulkhead("ReportMapper", 1);
+        ds.setPoolMaximumActiveConnections(1);
+        ErrorContext.instance().object("ReportMapper.monthlyReport");
+        ds.getConnection();
+        Thread.sleep(20);
+        ErrorContext.instance().object("OrderMapper.selectOrder");
+        Connection claimed = ds.getConnection();
+        assertEquals(0, ds.getBulkheads().iterator().next().getActiveConnections());
+        claimed.close();
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  private PooledDataSource[] dataSources() throws Exception {
+    Properties props = Resources.getResourceAsProperties(JPETSTORE_PROPERTIES);
+    PooledDataSource[] dataSources = { new PooledDataSource(), new ConcurrentPooledDataSource() };
+    for (PooledDataSource ds : dataSources) {
+      ds.setDriver(props.getProperty("driver"));
+      ds.setUrl(props.getProperty("url"));
+      ds.setUsername(props.getProperty("username"));
+      ds.setPassword(props.getProperty("password"));
+    }
+    return dataSources;
+  }
+
+}
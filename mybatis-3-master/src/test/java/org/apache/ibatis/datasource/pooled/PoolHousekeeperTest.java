@@ -0,0 +1,183 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.util.Properties;
+
+import org.apache.ibatis.BaseDataTest;
+import org.apache.ibatis.io.Resources;
+import org.junit.jupiter.api.Test;
+
+class PoolHousekeeperTest extends BaseDataTest {
+
+  @Test
+  void shouldOpenMinimumIdleConnections() throws Exception {
+    for (PooledDataSource ds : dataSources()) {
+      try {
+        ds.setPoolMinimumIdle(3);
+        ds.housekeep();
+        assertEquals(3, ds.getPoolState().getIdleConnectionCount());
+        try (Connection c = ds.getConnection()) {
+          assertEquals(2, ds.getPoolState().getIdleConnectionCount());
+        }
+        ds.housekeep();
+        assertEquals(3, ds.getPoolState().getIdleConnectionCount());
+        assertEquals(0, ds.getPoolState().getActiveConnectionCount());
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  void shouldNotOpenMoreThanMaximumIdleConnections() throws Exception {
+    for (PooledDataSource ds : dataSources()) {
+      try {
+        ds.setPoolMaximumIdleConnections(2);
+        ds.setPoolMinimumIdle(5);
+        ds.housekeep();
+        assertEquals(2, ds.getPoolState().getIdleConnectionCount());
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  void shouldNotOpenMoreThanMaximumActiveConnections() throws Exception {
+    for (PooledDataSource ds : dataSources()) {
+      try {
+        ds.setPoolMaximumActiveConnections(2);
+        ds.setPoolMaximumIdleConnections(5);
+        ds.setPoolMinimumIdle(4);
+        ds.housekeep();
+        assertEquals(2, ds.getPoolState().getIdleConnectionCount());
+        try (Connection c1 = ds.getConnection(); Connection c2 = ds.getConnection()) {
+          ds.housekeep();
+          assertEquals(2, ds.getPoolState().getActiveConnectionCount());
+          assertEquals(0, ds.getPoolState().getIdleConnectionCount());
+        }
+        assertEquals(2, ds.getPoolState().getIdleConnectionCount());
+        assertEquals(0, ds.getPoolState().getActiveConnectionCount());
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  void shouldRetireConnectionsPastMaximumLifetime() throws Exception {
+    for (PooledDataSource ds : dataSources()) {
+      try {
+        ds.setPoolMaximumLifetime(50);
+        Connection idle = ds.getConnection();
+        Connection realIdle = PooledDataSource.unwrapConnection(idle);
+        Connection active = ds.getConnection();
+        Connection realActive = PooledDataSource.unwrapConnection(active);
+        idle.close();
+        Thread.sleep(60);
+        ds.housekeep();
+        assertEquals(0, ds.getPoolState().getIdleConnectionCount());
+        assertTrue(realIdle.isClosed());
+        active.close();
+        assertEquals(0, ds.getPoolState().getIdleConnectionCount());
+        assertTrue(realActive.isClosed());
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  void shouldValidateIdleConnectionsOffTheRequestPath() throws Exception {
+    for (PooledDataSource ds : dataSources()) {
+      try {
+        ds.setPoolPingEnabled(true);
+        ds.setPoolPingQuery("SELECT 1 FROM INFORMATION_SCHEMA.SYSTEM_USERS");
+        ds.setPoolPingConnectionsNotUsedFor(0);
+        Connection good = ds.getConnection();
+        Connection bad = ds.getConnection();
+        Connection realGood = PooledDataSource.unwrapConnection(good);
+        Connection realBad = PooledDataSource.unwrapConnection(bad);
+        good.close();
+        bad.close();
+        assertEquals(2, ds.getPoolState().getIdleConnectionCount());
+        realBad.close();
+        Thread.sleep(5);
+        ds.housekeep();
+        assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+        try (Connection c = ds.getConnection()) {
+          assertSame(realGood, PooledDataSource.unwrapConnection(c));
+        }
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  void shouldWarmThePoolWhenConfiguredByTheFactory() throws Exception {
+    PooledDataSourceFactory factory = new ConcurrentPooledDataSourceFactory();
+    Properties props = Resources.getResourceAsProperties(JPETSTORE_PROPERTIES);
+    props.setProperty("poolMinimumIdle", "2");
+    props.setProperty("poolHousekeepingPeriod", "60000");
+    factory.setProperties(props);
+    PooledDataSource ds = (PooledDataSource) factory.getDataSource();
+    try {
+      long deadline = System.currentTimeMillis() + 10000;
+      while (ds.getPoolState().getIdleConnectionCount() < 2 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      assertEquals(2, ds.getPoolState().getIdleConnectionCount());
+      assertEquals(0, ds.getPoolState().getRequestCount());
+    } finally {
+      ds.stopHousekeeping();
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  void shouldSpreadTheRetirementOfConnections() throws Exception {
+    PooledDataSource ds = new PooledDataSource();
+    ds.setPoolMaximumLifetime(400000);
+    long created = System.currentTimeMillis() - 399000;
+    int expired = 0;
+    for (int i = 0; i < 100; i++) {
+      if (ds.isExpired(created, i * 7919)) {
+        expired++;
+      }
+    }
+    assertTrue(expired > 0 && expired < 100);
+  }
+
+  private PooledDataSource[] dataSources() throws Exception {
+    Properties props = Resources.getResourceAsProperties(JPETSTORE_PROPERTIES);
+    PooledDataSource[] dataSources = { new PooledDataSource(), new ConcurrentPooledDataSource() };
+    for (PooledDataSource ds : dataSources) {
+      ds.setDriver(props.getProperty("driver"));
+      ds.setUrl(props.getProperty("url"));
+      ds.setUsername(props.getProperty("username"));
+      ds.setPassword(props.getProperty("password"));
+    }
+    return dataSources;
+  }
+
+}
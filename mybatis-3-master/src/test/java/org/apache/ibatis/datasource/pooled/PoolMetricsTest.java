@@ -0,0 +1,158 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.sql.Connection;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.BaseDataTest;
+import org.apache.ibatis.io.Resources;
+import org.junit.jupiter.api.Test;
+
+class PoolMetricsTest extends BaseDataTest {
+
+  @Test
+  void shouldRecordCheckoutsAndReturns() throws Exception {
+    for (PooledDataSource ds : dataSources()) {
+      try {
+        PoolMetrics metrics = ds.getPoolState().getMetrics();
+        Connection first = ds.getConnection();
+        Connection second = ds.getConnection();
+        assertEquals(2, metrics.getActiveConnections());
+        assertEquals(0, metrics.getIdleConnections());
+        assertEquals(2, metrics.getCreationTime().getCount());
+        assertEquals(2, metrics.getWaitTime().getCount());
+        first.close();
+        assertEquals(1, metrics.getActiveConnections());
+        assertEquals(1, metrics.getIdleConnections());
+        assertEquals(1, metrics.getUsageTime().getCount());
+        second.close();
+        ds.getConnection().close();
+        assertEquals(0, metrics.getActiveConnections());
+        assertEquals(2, metrics.getIdleConnections());
+        assertEquals(3, metrics.getWaitTime().getCount());
+        assertEquals(3, metrics.getUsageTime().getCount());
+        assertEquals(2, metrics.getCreationTime().getCount());
+        assertEquals(0, metrics.getPendingThreads());
+        assertEquals(0, metrics.getTimeouts());
+        assertThat(metrics.toString()).contains("active=0", "idle=2");
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  void shouldRecordWaitersAndTimeouts() throws Exception {
+    for (PooledDataSource ds : dataSources()) {
+      ds.setPoolMaximumActiveConnections(1);
+      ds.setPoolTimeToWait(20);
+      PoolMetrics metrics = ds.getPoolState().getMetrics();
+      ExecutorService executor = Executors.newSingleThreadExecutor();
+      try {
+        Connection c = ds.getConnection();
+        Future<?> waiting = executor.submit(() -> {
+          ds.getConnection().close();
+          return null;
+        });
+        long deadline = System.currentTimeMillis() + 10000;
+        while (metrics.getTimeouts() < 2 && System.currentTimeMillis() < deadline) {
+          Thread.sleep(5);
+        }
+        assertThat(metrics.getTimeouts()).isGreaterThanOrEqualTo(2);
+        assertThat(metrics.getPendingThreads()).isLessThanOrEqualTo(1);
+        c.close();
+        waiting.get(10, TimeUnit.SECONDS);
+        assertEquals(0, metrics.getPendingThreads());
+        assertEquals(2, metrics.getWaitTime().getCount());
+        assertThat(metrics.getWaitTime().getMaxNanos()).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(40));
+      } finally {
+        executor.shutdownNow();
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  void shouldNotRecordTimeoutsWhenPoolTimeToWaitIsZero() throws Exception {
+    for (PooledDataSource ds : dataSources()) {
+      ds.setPoolMaximumActiveConnections(1);
+      ds.setPoolTimeToWait(0);
+      PoolMetrics metrics = ds.getPoolState().getMetrics();
+      ExecutorService executor = Executors.newSingleThreadExecutor();
+      try {
+        Connection c = ds.getConnection();
+        Future<?> waiting = executor.submit(() -> {
+          ds.getConnection().close();
+          return null;
+        });
+        Thread.sleep(200);
+        assertEquals(1, metrics.getPendingThreads());
+        assertEquals(0, metrics.getTimeouts());
+        c.close();
+        waiting.get(10, TimeUnit.SECONDS);
+        assertEquals(0, metrics.getPendingThreads());
+        assertEquals(0, metrics.getTimeouts());
+      } finally {
+        executor.shutdownNow();
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  void shouldRecordBadAndOverdueConnections() throws Exception {
+    for (PooledDataSource ds : dataSources()) {
+      try {
+        ds.setPoolMaximumActiveConnections(1);
+        ds.setPoolMaximumCheckoutTime(10);
+        PoolMetrics metrics = ds.getPoolState().getMetrics();
+        Connection overdue = ds.getConnection();
+        Thread.sleep(20);
+        Connection claimed = ds.getConnection();
+        assertEquals(1, metrics.getClaimedOverdueConnections());
+        overdue.close();
+        assertEquals(1, metrics.getBadConnections());
+        PooledDataSource.unwrapConnection(claimed).close();
+        claimed.close();
+        assertEquals(2, metrics.getBadConnections());
+        assertEquals(0, metrics.getActiveConnections());
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  private PooledDataSource[] dataSources() throws Exception {
+    Properties props = Resources.getResourceAsProperties(JPETSTORE_PROPERTIES);
+    PooledDataSource[] dataSources = { new PooledDataSource(), new ConcurrentPooledDataSource() };
+    for (PooledDataSource ds : dataSources) {
+      ds.setDriver(props.getProperty("driver"));
+      ds.setUrl(props.getProperty("url"));
+      ds.setUsername(props.getProperty("username"));
+      ds.setPassword(props.getProperty("password"));
+    }
+    return dataSources;
+  }
+
+}
@@ -0,0 +1,123 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.apache.ibatis.reflection.ExceptionUtil;
+
+/**
+ * Measures the time a call on a pooled connection takes: on the real connection, through a reflective proxy
+ * dispatching like the former {@code PooledConnection.invoke}, and through {@link ProxyConnection}. The connections
+ * are opened on an in-memory HSQLDB database.
+ * <p>
+ * Not run by the build, run its main method to print the time per call of each variant.
+ */
+public class PooledConnectionBenchmark {
+
+  private static final int WARMUP_ROUNDS = 5;
+  private static final int ROUNDS = 10;
+  private static final int GET_AUTO_COMMIT_CALLS = 10_000_000;
+  private static final int PREPARE_CALLS = 20_000;
+
+  // keeps the results of the calls alive so that the JIT cannot drop them
+  private static int sink;
+
+  public static void main(String[] args) throws Exception {
+    PooledDataSource dataSource = new PooledDataSource("org.hsqldb.jdbcDriver", "jdbc:hsqldb:mem:benchmark", "sa", "");
+    try (Connection real = DriverManager.getConnection("jdbc:hsqldb:mem:benchmark", "sa", "")) {
+      PooledConnection pooled = new PooledConnection(real, dataSource);
+      Connection[] connections = { real, reflectiveProxy(pooled), pooled.getProxyConnection() };
+      String[] names = { "real connection", "reflective proxy", "ProxyConnection" };
+      for (int i = 0; i < connections.length; i++) {
+        System.out.printf("%-18s getAutoCommit %7.1f ns   prepareStatement+close %7.2f us%n", names[i],
+            measure(connections[i], PooledConnectionBenchmark::getAutoCommit, GET_AUTO_COMMIT_CALLS),
+            measure(connections[i], PooledConnectionBenchmark::prepareAndClose, PREPARE_CALLS) / 1000);
+      }
+    } finally {
+      dataSource.forceCloseAll();
+    }
+  }
+
+  /**
+   * Returns the best time per call in nanoseconds.
+   */
+  private static double measure(Connection connection, Call call, int calls) throws SQLException {
+    for (int i = 0; i < WARMUP_ROUNDS; i++) {
+      call.run(connection, calls);
+    }
+    long best = Long.MAX_VALUE;
+    for (int i = 0; i < ROUNDS; i++) {
+      long start = System.nanoTime();
+      call.run(connection, calls);
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    return (double) best / calls;
+  }
+
+  private static void getAutoCommit(Connection connection, int calls) throws SQLException {
+    int result = 0;
+    for (int i = 0; i < calls; i++) {
+      if (connection.getAutoCommit()) {
+        result++;
+      }
+    }
+    sink += result;
+  }
+
+  private static void prepareAndClose(Connection connection, int calls) throws SQLException {
+    int result = 0;
+    for (int i = 0; i < calls; i++) {
+      try (PreparedStatement statement = connection.prepareStatement("VALUES (1)")) {
+        result += statement.getMaxRows();
+      }
+    }
+    sink += result;
+  }
+
+  private static Connection reflectiveProxy(PooledConnection pooled) {
+    InvocationHandler handler = new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String methodName = method.getName();
+        if ("close".equals(methodName)) {
+          return null;
+        }
+        try {
+          if (!Object.class.equals(method.getDeclaringClass())) {
+            pooled.checkConnection();
+          }
+          return method.invoke(pooled.getRealConnection(), args);
+        } catch (Throwable t) {
+          throw ExceptionUtil.unwrapThrowable(t);
+        }
+      }
+    };
+    return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class },
+        handler);
+  }
+
+  interface Call {
+    void run(Connection connection, int calls) throws SQLException;
+  }
+
+}
@@ -0,0 +1,93 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLClientInfoException;
+import java.sql.SQLException;
+
+import org.apache.ibatis.BaseDataTest;
+import org.junit.jupiter.api.Test;
+
+class ProxyConnectionTest extends BaseDataTest {
+
+  @Test
+  void shouldDelegateToTheRealConnection() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      Connection c = ds.getConnection();
+      Connection real = PooledDataSource.unwrapConnection(c);
+      assertTrue(c instanceof ProxyConnection);
+      assertEquals(real.hashCode(), c.hashCode());
+      assertEquals(real.toString(), c.toString());
+      c.setAutoCommit(false);
+      assertFalse(real.getAutoCommit());
+      try (PreparedStatement ps = c.prepareStatement("VALUES (1)"); ResultSet rs = ps.executeQuery()) {
+        assertTrue(rs.next());
+        assertEquals(1, rs.getInt(1));
+      }
+      c.rollback();
+      c.close();
+      assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  void shouldCallTheRealConnectionWithoutReflection() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try (Connection c = ds.getConnection()) {
+      Connection real = PooledDataSource.unwrapConnection(c);
+      assertFalse(Proxy.isProxyClass(c.getClass()));
+      try (PreparedStatement ps = c.prepareStatement("VALUES (1)");
+          PreparedStatement realPs = real.prepareStatement("VALUES (1)")) {
+        // without the statement cache the statement of the driver is returned as is
+        assertSame(realPs.getClass(), ps.getClass());
+        assertSame(real, ps.getConnection());
+      }
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  void shouldRejectCallsOnceReturned() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      Connection c = ds.getConnection();
+      c.close();
+      assertThrows(SQLException.class, c::getAutoCommit);
+      assertThrows(SQLException.class, () -> c.prepareStatement("VALUES (1)"));
+      assertThrows(SQLClientInfoException.class, () -> c.setClientInfo("ApplicationName", "test"));
+      assertNotNull(c.toString());
+      assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+}
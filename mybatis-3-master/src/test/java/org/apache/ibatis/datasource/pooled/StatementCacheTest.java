@@ -0,0 +1,195 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+import org.apache.ibatis.BaseDataTest;
+import org.apache.ibatis.io.Resources;
+import org.junit.jupiter.api.Test;
+
+class StatementCacheTest extends BaseDataTest {
+
+  private static final String SQL = "SELECT COUNT(*) FROM INFORMATION_SCHEMA.SYSTEM_USERS WHERE USER_NAME = ?";
+
+  @Test
+  void shouldReuseStatementsAcrossCheckouts() throws Exception {
+    for (PooledDataSource ds : dataSources(2)) {
+      try {
+        PoolMetrics metrics = ds.getPoolState().getMetrics();
+        PreparedStatement first;
+        try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement(SQL)) {
+          assertSame(c, ps.getConnection());
+          assertEquals(1, count(ps, "SA"));
+          first = ps.unwrap(PreparedStatement.class);
+        }
+        try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement(SQL)) {
+          assertSame(first, ps.unwrap(PreparedStatement.class));
+          assertEquals(0, count(ps, "NOBODY"));
+        }
+        assertFalse(first.isClosed());
+        assertEquals(1, metrics.getStatementCacheHits());
+        assertEquals(1, metrics.getStatementCacheMisses());
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  void shouldKeyStatementsByTheirArguments() throws Exception {
+    for (PooledDataSource ds : dataSources(4)) {
+      try (Connection c = ds.getConnection()) {
+        PreparedStatement plain = c.prepareStatement(SQL);
+        PreparedStatement scrollable = c.prepareStatement(SQL, ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+        PreparedStatement sameSql = c.prepareStatement(SQL);
+        assertNotSame(plain.unwrap(PreparedStatement.class), sameSql.unwrap(PreparedStatement.class));
+        PreparedStatement realPlain = plain.unwrap(PreparedStatement.class);
+        PreparedStatement realScrollable = scrollable.unwrap(PreparedStatement.class);
+        plain.close();
+        scrollable.close();
+        sameSql.close();
+        try (PreparedStatement ps = c.prepareStatement(SQL, ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY)) {
+          assertSame(realScrollable, ps.unwrap(PreparedStatement.class));
+        }
+        // only one statement is kept per key
+        assertTrue(realPlain.isClosed());
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  void shouldCloseEvictedStatements() throws Exception {
+    for (PooledDataSource ds : dataSources(1)) {
+      try (Connection c = ds.getConnection()) {
+        PreparedStatement first = c.prepareStatement(SQL);
+        PreparedStatement realFirst = first.unwrap(PreparedStatement.class);
+        first.close();
+        c.prepareStatement(SQL + " AND 1 = 1").close();
+        assertTrue(realFirst.isClosed());
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  void shouldRestoreStatementSettings() throws Exception {
+    for (PooledDataSource ds : dataSources(2)) {
+      try (Connection c = ds.getConnection()) {
+        try (PreparedStatement ps = c.prepareStatement(SQL)) {
+          ps.setQueryTimeout(7);
+          ps.setMaxRows(3);
+        }
+        try (PreparedStatement ps = c.prepareStatement(SQL)) {
+          assertEquals(0, ps.getQueryTimeout());
+          assertEquals(0, ps.getMaxRows());
+          assertEquals(1, ds.getPoolState().getMetrics().getStatementCacheHits());
+        }
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  void shouldRejectAccessToAClosedStatement() throws Exception {
+    for (PooledDataSource ds : dataSources(2)) {
+      try (Connection c = ds.getConnection()) {
+        PreparedStatement ps = c.prepareStatement(SQL);
+        ps.close();
+        assertTrue(ps.isClosed());
+        assertThrows(SQLException.class, () -> ps.setString(1, "SA"));
+        ps.close();
+        try (Statement other = c.createStatement()) {
+          assertFalse(other.isClosed());
+        }
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  void shouldClearPendingBatchOnRelease() throws Exception {
+    for (PooledDataSource ds : dataSources(2)) {
+      try (Connection c = ds.getConnection()) {
+        try (Statement ddl = c.createStatement()) {
+          ddl.execute("CREATE TABLE STATEMENT_CACHE_BATCH (ID INT)");
+        }
+        try {
+          final String insert = "INSERT INTO STATEMENT_CACHE_BATCH (ID) VALUES (?)";
+          PreparedStatement realFirst;
+          try (PreparedStatement ps = c.prepareStatement(insert)) {
+            realFirst = ps.unwrap(PreparedStatement.class);
+            ps.setInt(1, 1);
+            ps.addBatch();
+            ps.setInt(1, 2);
+            ps.addBatch();
+          }
+          try (PreparedStatement ps = c.prepareStatement(insert)) {
+            assertSame(realFirst, ps.unwrap(PreparedStatement.class));
+            ps.setInt(1, 3);
+            ps.addBatch();
+            assertEquals(1, ps.executeBatch().length);
+          }
+        } finally {
+          try (Statement ddl = c.createStatement()) {
+            ddl.execute("DROP TABLE STATEMENT_CACHE_BATCH");
+          }
+        }
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  private int count(PreparedStatement ps, String user) throws SQLException {
+    ps.setString(1, user);
+    try (ResultSet rs = ps.executeQuery()) {
+      rs.next();
+      return rs.getInt(1);
+    }
+  }
+
+  private PooledDataSource[] dataSources(int statementCacheSize) throws Exception {
+    Properties props = Resources.getResourceAsProperties(JPETSTORE_PROPERTIES);
+    PooledDataSource[] dataSources = { new PooledDataSource(), new ConcurrentPooledDataSource() };
+    for (PooledDataSource ds : dataSources) {
+      ds.setDriver(props.getProperty("driver"));
+      ds.setUrl(props.getProperty("url"));
+      ds.setUsername(props.getProperty("username"));
+      ds.setPassword(props.getProperty("password"));
+      ds.setPoolPreparedStatementCacheSize(statementCacheSize);
+    }
+    return dataSources;
+  }
+
+}
@@ -0,0 +1,277 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.routing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Options;
+import org.apache.ibatis.annotations.Options.FlushCachePolicy;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+class RoutingDataSourceTest {
+
+  private static DataSource primary;
+  private static DataSource replica1;
+  private static DataSource replica2;
+
+  interface NodeMapper {
+    @Select("select name from node")
+    String whoAmI();
+
+    @Select("select name from node for update")
+    String whoAmIForUpdate();
+
+    @Select("select name from node")
+    @Options(flushCache = FlushCachePolicy.TRUE)
+    String whoAmIFlushingCache();
+
+    @Insert("insert into node_log (name) values (#{name})")
+    int log(String name);
+  }
+
+  @BeforeAll
+  static void setUp() throws Exception {
+    primary = node("primary");
+    replica1 = node("replica1");
+    replica2 = node("replica2");
+  }
+
+  @Test
+  void shouldSendReadsToReplicaAndWritesToPrimary() {
+    RoutingDataSource ds = new RoutingDataSource(primary);
+    ds.addReplica("replica1", replica1);
+    try (SqlSession session = sqlSessionFactory(ds).openSession(true)) {
+      NodeMapper mapper = session.getMapper(NodeMapper.class);
+      assertEquals("replica1", mapper.whoAmI());
+      assertEquals(1, mapper.log("routed"));
+      assertEquals(1, countLogs(primary, "routed"));
+      assertEquals(0, countLogs(replica1, "routed"));
+    }
+    assertEquals(0, ds.getReplicas().get(0).getOutstanding());
+  }
+
+  @Test
+  void shouldRunTransactionsOnPrimary() {
+    RoutingDataSource ds = new RoutingDataSource(primary);
+    ds.addReplica("replica1", replica1);
+    try (SqlSession session = sqlSessionFactory(ds).openSession()) {
+      NodeMapper mapper = session.getMapper(NodeMapper.class);
+      // reads before the first write are part of the transaction too
+      assertEquals("primary", mapper.whoAmI());
+      mapper.log("write");
+      assertEquals("primary", mapper.whoAmI());
+      session.commit();
+      assertEquals("primary", mapper.whoAmI());
+    }
+    assertEquals(0, ds.getReplicas().get(0).getOutstanding());
+  }
+
+  @Test
+  void shouldRunReadOnlyTransactionsOnReplica() throws Exception {
+    RoutingDataSource ds = new RoutingDataSource(primary);
+    ds.addReplica("replica1", replica1);
+    try (SqlSession session = sqlSessionFactory(ds).openSession()) {
+      session.getConnection().setReadOnly(true);
+      NodeMapper mapper = session.getMapper(NodeMapper.class);
+      assertEquals("replica1", mapper.whoAmI());
+      session.commit();
+      assertEquals("replica1", mapper.whoAmI());
+    }
+  }
+
+  @Test
+  void shouldSendLockingAndCacheFlushingReadsToPrimary() throws Exception {
+    RoutingDataSource ds = new RoutingDataSource(primary);
+    ds.addReplica("replica1", replica1);
+    try (SqlSession session = sqlSessionFactory(ds).openSession(true)) {
+      session.getConnection().setReadOnly(true);
+      NodeMapper mapper = session.getMapper(NodeMapper.class);
+      assertEquals("primary", mapper.whoAmIForUpdate());
+      assertEquals("primary", mapper.whoAmIFlushingCache());
+      assertEquals("replica1", mapper.whoAmI());
+    }
+  }
+
+  @Test
+  void shouldReadFromReplicaAfterAutoCommittedWrite() {
+    RoutingDataSource ds = new RoutingDataSource(primary);
+    ds.addReplica("replica1", replica1);
+    try (SqlSession session = sqlSessionFactory(ds).openSession(true)) {
+      NodeMapper mapper = session.getMapper(NodeMapper.class);
+      mapper.log("write");
+      assertEquals("replica1", mapper.whoAmI());
+    }
+  }
+
+  @Test
+  void shouldReadFromPrimaryWithoutReplicas() {
+    RoutingDataSource ds = new RoutingDataSource(primary);
+    try (SqlSession session = sqlSessionFactory(ds).openSession()) {
+      assertEquals("primary", session.getMapper(NodeMapper.class).whoAmI());
+    }
+  }
+
+  @Test
+  void shouldSendStatementsPreparedOutsideMyBatisToPrimary() throws Exception {
+    RoutingDataSource ds = new RoutingDataSource(primary);
+    ds.addReplica("replica1", replica1);
+    try (Connection conn = ds.getConnection(); Statement st = conn.createStatement()) {
+      st.execute("select name from node");
+      assertEquals(0, ds.getReplicas().get(0).getOutstanding());
+    }
+  }
+
+  @Test
+  void shouldBalanceToTheReplicaWithLeastOutstandingConnections() {
+    RoutingDataSource ds = new RoutingDataSource(primary);
+    ds.addReplica("replica1", replica1);
+    ds.addReplica("replica2", replica2);
+    ds.setBalancer(new LeastOutstandingReplicaBalancer());
+    SqlSessionFactory factory = sqlSessionFactory(ds);
+    try (SqlSession first = factory.openSession(true); SqlSession second = factory.openSession(true)) {
+      String firstNode = first.getMapper(NodeMapper.class).whoAmI();
+      String secondNode = second.getMapper(NodeMapper.class).whoAmI();
+      assertTrue(firstNode.startsWith("replica"));
+      assertTrue(secondNode.startsWith("replica"));
+      assertNotEquals(firstNode, secondNode);
+    }
+  }
+
+  @Test
+  void shouldPickReplicasInProportionToTheirWeight() {
+    List<Replica> replicas = Arrays.asList(new Replica("heavy", replica1, 3), new Replica("light", replica2, 1));
+    WeightedReplicaBalancer balancer = new WeightedReplicaBalancer();
+    int heavy = 0;
+    for (int i = 0; i < 10000; i++) {
+      if (balancer.select(replicas) == replicas.get(0)) {
+        heavy++;
+      }
+    }
+    assertTrue(heavy > 7000 && heavy < 8000, "heavy replica picked " + heavy + " times");
+  }
+
+  @Test
+  void shouldReadFromPrimaryWhenReplicaFails() {
+    RoutingDataSource ds = new RoutingDataSource(primary);
+    ds.addReplica("down", missingNode());
+    try (SqlSession session = sqlSessionFactory(ds).openSession(true)) {
+      assertEquals("primary", session.getMapper(NodeMapper.class).whoAmI());
+    }
+    assertFalse(ds.getReplicas().get(0).isAvailable());
+  }
+
+  @Test
+  void shouldSkipReplicasFailingTheHealthCheck() {
+    RoutingDataSource ds = new RoutingDataSource(primary);
+    ds.addReplica("down", missingNode());
+    ds.addReplica("replica1", replica1);
+    ds.checkReplicas();
+    assertFalse(ds.getReplicas().get(0).isAvailable());
+    assertTrue(ds.getReplicas().get(1).isAvailable());
+    SqlSessionFactory factory = sqlSessionFactory(ds);
+    for (int i = 0; i < 5; i++) {
+      try (SqlSession session = factory.openSession(true)) {
+        assertEquals("replica1", session.getMapper(NodeMapper.class).whoAmI());
+      }
+    }
+  }
+
+  @Test
+  void shouldBuildNodesFromProperties() {
+    Properties props = new Properties();
+    props.setProperty("driver", "org.hsqldb.jdbcDriver");
+    props.setProperty("username", "sa");
+    props.setProperty("password", "");
+    props.setProperty("nodeType", "UNPOOLED");
+    props.setProperty("balancer", "LEAST_OUTSTANDING");
+    props.setProperty("primary.url", "jdbc:hsqldb:mem:routing_primary");
+    props.setProperty("replica.r1.url", "jdbc:hsqldb:mem:routing_replica1");
+    props.setProperty("replica.r1.weight", "3");
+    props.setProperty("replica.r2.url", "jdbc:hsqldb:mem:routing_replica2");
+    RoutingDataSourceFactory factory = new RoutingDataSourceFactory();
+    factory.setProperties(props);
+    RoutingDataSource ds = (RoutingDataSource) factory.getDataSource();
+    assertEquals("jdbc:hsqldb:mem:routing_primary", ((UnpooledDataSource) ds.getPrimary()).getUrl());
+    assertEquals(2, ds.getReplicas().size());
+    for (Replica replica : ds.getReplicas()) {
+      UnpooledDataSource node = (UnpooledDataSource) replica.getDataSource();
+      assertEquals("sa", node.getUsername());
+      assertEquals("r1".equals(replica.getName()) ? 3 : 1, replica.getWeight());
+    }
+    assertTrue(ds.getBalancer() instanceof LeastOutstandingReplicaBalancer);
+    try (SqlSession session = sqlSessionFactory(ds).openSession(true)) {
+      assertTrue(session.getMapper(NodeMapper.class).whoAmI().startsWith("replica"));
+    }
+  }
+
+  private static SqlSessionFactory sqlSessionFactory(DataSource ds) {
+    Configuration configuration = new Configuration(new Environment("routing", new JdbcTransactionFactory(), ds));
+    configuration.addMapper(NodeMapper.class);
+    return new SqlSessionFactoryBuilder().build(configuration);
+  }
+
+  private static int countLogs(DataSource ds, String name) {
+    try (Connection conn = ds.getConnection();
+        PreparedStatement ps = conn.prepareStatement("select count(*) from node_log where name = ?")) {
+      ps.setString(1, name);
+      try (ResultSet rs = ps.executeQuery()) {
+        rs.next();
+        return rs.getInt(1);
+      }
+    } catch (SQLException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static DataSource missingNode() {
+    return new UnpooledDataSource("org.hsqldb.jdbcDriver", "jdbc:hsqldb:mem:routing_missing;ifexists=true", "sa", "");
+  }
+
+  private static DataSource node(String name) throws Exception {
+    UnpooledDataSource ds = new UnpooledDataSource("org.hsqldb.jdbcDriver", "jdbc:hsqldb:mem:routing_" + name, "sa", "");
+    try (Connection conn = ds.getConnection(); Statement st = conn.createStatement()) {
+      st.execute("create table node (name varchar(20))");
+      st.execute("create table node_log (name varchar(20))");
+      st.execute("insert into node (name) values ('" + name + "')");
+    }
+    return ds;
+  }
+
+}
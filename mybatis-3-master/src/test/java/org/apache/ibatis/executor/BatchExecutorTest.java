@@ -15,7 +15,19 @@
  */
 package org.apache.ibatis.executor;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.ibatis.cache.ObjectSizeEstimator;
+import org.apache.ibatis.domain.blog.Author;
+import org.apache.ibatis.domain.blog.Section;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.session.RowBounds;
 import org.apache.ibatis.transaction.Transaction;
+import org.apache.ibatis.transaction.jdbc.JdbcTransaction;
 import org.junit.jupiter.api.Test;
 
 class BatchExecutorTest extends BaseExecutorTest {
@@ -24,6 +36,169 @@ class BatchExecutorTest extends BaseExecutorTest {
   void dummy() {
   }
 
+  @Test
+  void shouldFlushBatchesAutomaticallyToTheListener() throws Exception {
+    config.setBatchFlushSize(2);
+    Executor executor = createExecutor(new JdbcTransaction(ds, null, false));
+    try {
+      List<List<BatchResult>> flushes = new ArrayList<>();
+      executor.setBatchFlushListener(flushes::add);
+      MappedStatement insertStatement = ExecutorTestHelper.prepareInsertAuthorMappedStatement(config);
+      executor.update(insertStatement, newAuthor(200));
+      assertEquals(0, flushes.size());
+      executor.update(insertStatement, newAuthor(201));
+      assertEquals(1, flushes.size());
+      assertEquals(1, flushes.get(0).size());
+      assertArrayEquals(new int[] { 1, 1 }, flushes.get(0).get(0).getUpdateCounts());
+
+      executor.update(insertStatement, newAuthor(202));
+      List<BatchResult> results = executor.flushStatements();
+      assertEquals(1, results.size());
+      assertEquals(1, results.get(0).getParameterObjects().size());
+      assertEquals(2, flushes.size());
+      assertEquals(results, flushes.get(1));
+    } finally {
+      executor.rollback(true);
+      executor.close(false);
+    }
+  }
+
+  @Test
+  void shouldReturnAutomaticallyFlushedBatchesWithoutListener() throws Exception {
+    config.setBatchFlushSize(2);
+    Executor executor = createExecutor(new JdbcTransaction(ds, null, false));
+    try {
+      MappedStatement insertStatement = ExecutorTestHelper.prepareInsertAuthorMappedStatement(config);
+      for (int id = 200; id < 205; id++) {
+        executor.update(insertStatement, newAuthor(id));
+      }
+      List<BatchResult> results = executor.flushStatements();
+      assertEquals(3, results.size());
+      assertArrayEquals(new int[] { 1, 1 }, results.get(0).getUpdateCounts());
+      assertArrayEquals(new int[] { 1, 1 }, results.get(1).getUpdateCounts());
+      assertArrayEquals(new int[] { 1 }, results.get(2).getUpdateCounts());
+      assertEquals(0, executor.flushStatements().size());
+    } finally {
+      executor.rollback(true);
+      executor.close(false);
+    }
+  }
+
+  @Test
+  void shouldKeepOneBatchPerStatementWhenStatementsAreInterleaved() throws Exception {
+    config.setBatchOpenStatements(4);
+    Executor executor = createExecutor(new JdbcTransaction(ds, null, false));
+    try {
+      MappedStatement insertStatement = ExecutorTestHelper.prepareInsertAuthorMappedStatement(config);
+      MappedStatement updateStatement = ExecutorTestHelper.prepareUpdateAuthorMappedStatement(config);
+      for (int id = 300; id < 303; id++) {
+        executor.update(insertStatement, newAuthor(id));
+        executor.update(updateStatement, newAuthor(id));
+      }
+      List<BatchResult> results = executor.flushStatements();
+      assertEquals(2, results.size());
+      assertEquals(insertStatement, results.get(0).getMappedStatement());
+      assertArrayEquals(new int[] { 1, 1, 1 }, results.get(0).getUpdateCounts());
+      assertEquals(updateStatement, results.get(1).getMappedStatement());
+      assertArrayEquals(new int[] { 1, 1, 1 }, results.get(1).getUpdateCounts());
+    } finally {
+      executor.rollback(true);
+      executor.close(false);
+    }
+  }
+
+  @Test
+  void shouldExecuteLeastRecentlyUsedBatchWhenTooManyAreOpen() throws Exception {
+    config.setBatchOpenStatements(2);
+    Executor executor = createExecutor(new JdbcTransaction(ds, null, false));
+    try {
+      MappedStatement insertStatement = ExecutorTestHelper.prepareInsertAuthorMappedStatement(config);
+      MappedStatement updateStatement = ExecutorTestHelper.prepareUpdateAuthorMappedStatement(config);
+      MappedStatement deleteStatement = ExecutorTestHelper.prepareDeleteAuthorMappedStatement(config);
+      List<List<BatchResult>> flushes = new ArrayList<>();
+      executor.setBatchFlushListener(flushes::add);
+      executor.update(insertStatement, newAuthor(300));
+      executor.update(updateStatement, newAuthor(300));
+      executor.update(updateStatement, newAuthor(300));
+      assertEquals(0, flushes.size());
+      executor.update(deleteStatement, newAuthor(300));
+      assertEquals(1, flushes.size());
+      assertEquals(1, flushes.get(0).size());
+      assertEquals(insertStatement, flushes.get(0).get(0).getMappedStatement());
+      assertArrayEquals(new int[] { 1 }, flushes.get(0).get(0).getUpdateCounts());
+
+      List<BatchResult> results = executor.flushStatements();
+      assertEquals(2, results.size());
+      assertEquals(updateStatement, results.get(0).getMappedStatement());
+      assertArrayEquals(new int[] { 1, 1 }, results.get(0).getUpdateCounts());
+      assertEquals(deleteStatement, results.get(1).getMappedStatement());
+      assertArrayEquals(new int[] { 1 }, results.get(1).getUpdateCounts());
+      assertEquals(2, flushes.size());
+    } finally {
+      executor.rollback(true);
+      executor.close(false);
+    }
+  }
+
+  @Test
+  void shouldOnlyCountTheBatchesLeftOpenAfterExecutingTheLeastRecentlyUsedOne() throws Exception {
+    config.setBatchOpenStatements(2);
+    config.setBatchFlushMaxBytes(ObjectSizeEstimator.estimate(newAuthor(300)) * 4);
+    Executor executor = createExecutor(new JdbcTransaction(ds, null, false));
+    try {
+      MappedStatement insertStatement = ExecutorTestHelper.prepareInsertAuthorMappedStatement(config);
+      MappedStatement updateStatement = ExecutorTestHelper.prepareUpdateAuthorMappedStatement(config);
+      MappedStatement deleteStatement = ExecutorTestHelper.prepareDeleteAuthorMappedStatement(config);
+      List<List<BatchResult>> flushes = new ArrayList<>();
+      executor.setBatchFlushListener(flushes::add);
+      executor.update(insertStatement, newAuthor(300));
+      executor.update(updateStatement, newAuthor(300));
+      executor.update(updateStatement, newAuthor(300));
+      // executes the insert only, the update and the delete hold three authors, below the limit of four
+      executor.update(deleteStatement, newAuthor(300));
+      assertEquals(1, flushes.size());
+      assertEquals(insertStatement, flushes.get(0).get(0).getMappedStatement());
+
+      executor.update(updateStatement, newAuthor(300));
+      assertEquals(2, flushes.size());
+      assertEquals(2, flushes.get(1).size());
+      assertArrayEquals(new int[] { 1, 1, 1 }, flushes.get(1).get(0).getUpdateCounts());
+      assertArrayEquals(new int[] { 1 }, flushes.get(1).get(1).getUpdateCounts());
+      assertEquals(0, executor.flushStatements().size());
+    } finally {
+      executor.rollback(true);
+      executor.close(false);
+    }
+  }
+
+  @Test
+  void shouldMergeBatchedInsertsIntoMultiRowInserts() throws Exception {
+    config.setMultiRowInsertSize(2);
+    Executor executor = createExecutor(new JdbcTransaction(ds, null, false));
+    try {
+      MappedStatement insertStatement = ExecutorTestHelper.prepareInsertAuthorMappedStatement(config);
+      MappedStatement selectStatement = ExecutorTestHelper.prepareSelectOneAuthorMappedStatement(config);
+      for (int id = 400; id < 405; id++) {
+        executor.update(insertStatement, newAuthor(id));
+      }
+      List<BatchResult> results = executor.flushStatements();
+      assertEquals(1, results.size());
+      assertEquals(5, results.get(0).getParameterObjects().size());
+      assertArrayEquals(new int[] { 1, 1, 1, 1, 1 }, results.get(0).getUpdateCounts());
+      for (int id = 400; id < 405; id++) {
+        List<Author> authors = executor.query(selectStatement, id, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+        assertEquals(newAuthor(id).toString(), authors.get(0).toString());
+      }
+    } finally {
+      executor.rollback(true);
+      executor.close(false);
+    }
+  }
+
+  private static Author newAuthor(int id) {
+    return new Author(id, "someone", "******", "someone@apache.org", null, Section.NEWS);
+  }
+
   @Override
   protected Executor createExecutor(Transaction transaction) {
     return new BatchExecutor(config, transaction);
@@ -0,0 +1,94 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.domain.blog.Author;
+import org.apache.ibatis.domain.blog.Section;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.session.Configuration;
+import org.junit.jupiter.api.Test;
+
+class MultiRowInsertTest {
+
+  private final Configuration config = new Configuration();
+
+  @Test
+  void shouldMergeRowsWithTheirParameters() {
+    MappedStatement ms = insert("INSERT INTO author (id, username) VALUES (?, ?)", "id", "username");
+    MultiRowInsert multiRowInsert = MultiRowInsert.of(ms, ms.getBoundSql(null), 3);
+    assertNotNull(multiRowInsert);
+    multiRowInsert.addRow(ms.getBoundSql(null), new Author(1, "one", null, null, null, Section.NEWS));
+    multiRowInsert.addRow(ms.getBoundSql(null), new Author(2, "two", null, null, null, Section.NEWS));
+    BoundSql boundSql = multiRowInsert.getBoundSql(0, 2);
+    assertEquals("INSERT INTO author (id, username) VALUES (?, ?), (?, ?)", boundSql.getSql());
+    assertEquals(4, boundSql.getParameterMappings().size());
+    List<Object> values = new ArrayList<>();
+    for (ParameterMapping mapping : boundSql.getParameterMappings()) {
+      values.add(boundSql.getAdditionalParameter(mapping.getProperty()));
+    }
+    assertEquals(Arrays.asList(1, "one", 2, "two"), values);
+  }
+
+  @Test
+  void shouldOnlyRewriteSingleRowInserts() {
+    assertNotNull(rewrite("insert into t(a, \"values\") values ( ?, 'x)' )"));
+    assertNotNull(rewrite("INSERT INTO t VALUES (?, coalesce(?, 0))", "a", "b"));
+    assertNull(rewrite("INSERT INTO t SELECT ? FROM dual"));
+    assertNull(rewrite("INSERT INTO t VALUES (?) ON DUPLICATE KEY UPDATE a = VALUES(a)"));
+    assertNull(rewrite("INSERT INTO t VALUES (?), (?)", "a", "b"));
+    assertNull(rewrite("UPDATE t SET a = ?"));
+  }
+
+  @Test
+  void shouldSpreadUpdateCountsOverTheRows() {
+    int[] updateCounts = new int[4];
+    MultiRowInsert.spreadUpdateCount(updateCounts, 0, 2, 2);
+    MultiRowInsert.spreadUpdateCount(updateCounts, 2, 2, 1);
+    assertArrayEquals(new int[] { 1, 1, Statement.SUCCESS_NO_INFO, Statement.SUCCESS_NO_INFO }, updateCounts);
+  }
+
+  private MultiRowInsert rewrite(String sql, String... properties) {
+    if (properties.length == 0 && sql.contains("?")) {
+      properties = new String[] { "a" };
+    }
+    MappedStatement ms = insert(sql, properties);
+    return MultiRowInsert.of(ms, ms.getBoundSql(null), 10);
+  }
+
+  private MappedStatement insert(String sql, String... properties) {
+    List<ParameterMapping> mappings = new ArrayList<>();
+    for (String property : properties) {
+      mappings.add(new ParameterMapping.Builder(config, property, Object.class).build());
+    }
+    SqlCommandType type = sql.startsWith("UPDATE") ? SqlCommandType.UPDATE : SqlCommandType.INSERT;
+    return new MappedStatement.Builder(config, "insert", new StaticSqlSource(config, sql, mappings), type).build();
+  }
+
+}
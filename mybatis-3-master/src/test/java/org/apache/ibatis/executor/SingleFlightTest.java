@@ -0,0 +1,178 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.lang.reflect.Proxy;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.builder.MapperBuilderAssistant;
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.RowBounds;
+import org.junit.jupiter.api.Test;
+
+class SingleFlightTest {
+
+  @Test
+  void shouldRunOneQueryForConcurrentMisses() throws Exception {
+    SingleFlight singleFlight = new SingleFlight();
+    AtomicInteger loads = new AtomicInteger();
+    CountDownLatch release = new CountDownLatch(1);
+    Object result = new Object();
+    ExecutorService pool = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<Object>> futures = new ArrayList<>();
+      futures.add(pool.submit(() -> singleFlight.execute("key", () -> {
+        loads.incrementAndGet();
+        awaitQuietly(release);
+        return result;
+      })));
+      while (singleFlight.getInFlightCount() == 0) {
+        Thread.sleep(5);
+      }
+      for (int i = 0; i < 7; i++) {
+        futures.add(pool.submit(() -> singleFlight.execute("key", () -> {
+          loads.incrementAndGet();
+          return new Object();
+        })));
+      }
+      Thread.sleep(200);
+      release.countDown();
+      for (Future<Object> future : futures) {
+        assertSame(result, future.get(5, TimeUnit.SECONDS));
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+    assertEquals(1, loads.get());
+    assertEquals(0, singleFlight.getInFlightCount());
+  }
+
+  @Test
+  void shouldShareTheExceptionAndReleaseTheKey() throws Exception {
+    SingleFlight singleFlight = new SingleFlight();
+    CountDownLatch release = new CountDownLatch(1);
+    SQLException failure = new SQLException("failed");
+    ExecutorService pool = Executors.newFixedThreadPool(2);
+    try {
+      Future<Object> leader = pool.submit(() -> singleFlight.execute("key", () -> {
+        awaitQuietly(release);
+        throw failure;
+      }));
+      while (singleFlight.getInFlightCount() == 0) {
+        Thread.sleep(5);
+      }
+      Future<Object> waiter = pool.submit(() -> singleFlight.execute("key", () -> "not shared"));
+      Thread.sleep(200);
+      release.countDown();
+      assertSame(failure, assertThrows(ExecutionException.class, () -> leader.get(5, TimeUnit.SECONDS)).getCause());
+      assertSame(failure, assertThrows(ExecutionException.class, () -> waiter.get(5, TimeUnit.SECONDS)).getCause());
+    } finally {
+      pool.shutdownNow();
+    }
+    assertEquals(0, singleFlight.getInFlightCount());
+    assertEquals("next", singleFlight.execute("key", () -> "next"));
+  }
+
+  @Test
+  void shouldNotWaitForItselfOnNestedQueries() throws Exception {
+    SingleFlight singleFlight = new SingleFlight();
+    Object result = singleFlight.execute("key", () -> singleFlight.execute("key", () -> "nested"));
+    assertEquals("nested", result);
+    assertEquals(0, singleFlight.getInFlightCount());
+  }
+
+  @Test
+  void shouldShareTheResultsOnlyForReadOnlyCaches() throws Exception {
+    assertEquals(1, countConcurrentLoads(false, false));
+    assertEquals(2, countConcurrentLoads(true, false));
+  }
+
+  @Test
+  void shouldNotShareTheResultsWhileTheSessionHasUncommittedWrites() throws Exception {
+    assertEquals(2, countConcurrentLoads(false, true));
+  }
+
+  private static int countConcurrentLoads(boolean readWrite, boolean leaderWrites) throws Exception {
+    Configuration config = new Configuration();
+    MapperBuilderAssistant assistant = new MapperBuilderAssistant(config, "SingleFlightTest");
+    assistant.setCurrentNamespace("singleFlight");
+    Cache cache = assistant.useNewCache(null, null, null, null, readWrite, false, null);
+    MappedStatement select = new MappedStatement.Builder(config, "singleFlight.select",
+        new StaticSqlSource(config, "select 1"), SqlCommandType.SELECT).cache(cache).useCache(true).build();
+    MappedStatement update = new MappedStatement.Builder(config, "singleFlight.update",
+        new StaticSqlSource(config, "update t set c = 1"), SqlCommandType.UPDATE).build();
+    AtomicInteger loads = new AtomicInteger();
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    Executor delegate = (Executor) Proxy.newProxyInstance(Executor.class.getClassLoader(), new Class<?>[] { Executor.class },
+        (proxy, method, args) -> {
+          if ("query".equals(method.getName())) {
+            if (loads.incrementAndGet() == 1) {
+              started.countDown();
+              awaitQuietly(release);
+            }
+            return new ArrayList<>(Collections.singletonList(new Object()));
+          }
+          return "update".equals(method.getName()) ? 1 : null;
+        });
+    SingleFlight singleFlight = new SingleFlight();
+    CachingExecutor leader = new CachingExecutor(delegate, singleFlight);
+    CachingExecutor waiter = new CachingExecutor(delegate, singleFlight);
+    if (leaderWrites) {
+      leader.update(update, null);
+    }
+    CacheKey key = new CacheKey(new Object[] { "select 1" });
+    ExecutorService pool = Executors.newFixedThreadPool(2);
+    try {
+      Future<List<Object>> first = pool.submit(() -> leader.query(select, null, RowBounds.DEFAULT, null, key, select.getBoundSql(null)));
+      assertTrue(started.await(5, TimeUnit.SECONDS));
+      Future<List<Object>> second = pool.submit(() -> waiter.query(select, null, RowBounds.DEFAULT, null, key, select.getBoundSql(null)));
+      Thread.sleep(200);
+      release.countDown();
+      first.get(5, TimeUnit.SECONDS);
+      second.get(5, TimeUnit.SECONDS);
+    } finally {
+      pool.shutdownNow();
+    }
+    return loads.get();
+  }
+
+  private static void awaitQuietly(CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+}
@@ -19,11 +19,18 @@ import static com.googlecode.catchexception.apis.BDDCatchException.*;
 import static org.assertj.core.api.BDDAssertions.then;
 
 import java.lang.reflect.Field;
+import java.util.Properties;
 
 import org.apache.ibatis.builder.InitializingObject;
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.decorators.LoggingCache;
+import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.decorators.SerializedCache;
+import org.apache.ibatis.cache.decorators.SynchronizedCache;
+import org.apache.ibatis.cache.decorators.TinyLfuCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.cache.serializer.BinaryCacheSerializer;
 import org.assertj.core.api.Assertions;
 import org.junit.jupiter.api.Test;
 
@@ -43,11 +50,39 @@ class CacheBuilderTest {
       .hasMessage("Failed cache initialization for 'test' on 'org.apache.ibatis.mapping.CacheBuilderTest$InitializingFailureCache'");
   }
 
-  @SuppressWarnings("unchecked")
+  @Test
+  void testSynchronizedByDefault() {
+    Cache cache = new CacheBuilder("test").addDecorator(LruCache.class).build();
+    Assertions.assertThat(cache).isInstanceOf(SynchronizedCache.class);
+  }
+
+  @Test
+  void testConcurrentEvictionSkipsSynchronization() {
+    Cache cache = new CacheBuilder("test").addDecorator(TinyLfuCache.class).size(10).build();
+    Assertions.assertThat(cache).isInstanceOf(LoggingCache.class);
+    Assertions.assertThat((Cache) unwrap(cache)).isInstanceOf(TinyLfuCache.class);
+  }
+
+  @Test
+  void testSerializerWithProperties() {
+    Properties properties = new Properties();
+    properties.setProperty("compressionThreshold", "4096");
+    Cache cache = new CacheBuilder("test").addDecorator(LruCache.class).readWrite(true)
+        .serializer(BinaryCacheSerializer.class).properties(properties).build();
+    SerializedCache serializedCache = unwrap(unwrap(cache));
+    BinaryCacheSerializer serializer = unwrap(serializedCache, "serializer");
+    Assertions.assertThat(serializer.getCompressionThreshold()).isEqualTo(4096);
+  }
+
   private <T> T unwrap(Cache cache) {
+    return unwrap(cache, "delegate");
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T> T unwrap(Cache cache, String fieldName) {
     Field field;
     try {
-      field = cache.getClass().getDeclaredField("delegate");
+      field = cache.getClass().getDeclaredField(fieldName);
     } catch (NoSuchFieldException e) {
       throw new IllegalStateException(e);
     }
@@ -0,0 +1,129 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.session;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.Reader;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.BaseDataTest;
+import org.apache.ibatis.domain.blog.Author;
+import org.apache.ibatis.domain.blog.mappers.AuthorMapper;
+import org.apache.ibatis.exceptions.TooManyResultsException;
+import org.apache.ibatis.io.Resources;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+class ParallelQueriesTest extends BaseDataTest {
+
+  private static SqlSessionFactory sqlMapper;
+
+  @BeforeAll
+  static void setup() throws Exception {
+    createBlogDataSource();
+    final String resource = "org/apache/ibatis/builder/MapperConfig.xml";
+    try (Reader reader = Resources.getResourceAsReader(resource)) {
+      sqlMapper = new SqlSessionFactoryBuilder().build(reader);
+    }
+  }
+
+  @Test
+  void shouldRunCallsAndMergeTheirResultsIntoTheLocalCache() {
+    int authorCount;
+    try (SqlSession session = sqlMapper.openSession()) {
+      // the blog database is shared with the other tests
+      authorCount = session.getMapper(AuthorMapper.class).selectAllAuthors().size();
+    }
+    try (SqlSession session = sqlMapper.openSession()) {
+      ParallelQueries parallel = session.parallel();
+      CompletableFuture<Author> author = parallel.submit(AuthorMapper.class, mapper -> mapper.selectAuthor(101));
+      CompletableFuture<List<Author>> authors = parallel.submit(AuthorMapper.class, AuthorMapper::selectAllAuthors);
+      parallel.join();
+
+      assertEquals(101, author.join().getId());
+      assertEquals(authorCount, authors.join().size());
+      assertSame(author.join(), session.getMapper(AuthorMapper.class).selectAuthor(101));
+      assertSame(authors.join(), session.getMapper(AuthorMapper.class).selectAllAuthors());
+    }
+  }
+
+  @Test
+  void shouldRunCallsOnTheGivenExecutor() {
+    AtomicInteger tasks = new AtomicInteger();
+    try (SqlSession session = sqlMapper.openSession()) {
+      ParallelQueries parallel = session.parallel(task -> {
+        tasks.incrementAndGet();
+        task.run();
+      });
+      CompletableFuture<Author> author = parallel.submit(
+          s -> s.selectOne("org.apache.ibatis.domain.blog.mappers.AuthorMapper.selectAuthor", 101));
+      parallel.join();
+      assertEquals(101, author.join().getId());
+      assertEquals(1, tasks.get());
+    }
+  }
+
+  @Test
+  void shouldNotMergeResultsReadBeforeTheCacheWasCleared() {
+    try (SqlSession session = sqlMapper.openSession()) {
+      ParallelQueries parallel = session.parallel(Runnable::run);
+      CompletableFuture<Author> author = parallel.submit(AuthorMapper.class, mapper -> mapper.selectAuthor(101));
+      session.clearCache();
+      parallel.join();
+      assertNotSame(author.join(), session.getMapper(AuthorMapper.class).selectAuthor(101));
+    }
+  }
+
+  @Test
+  void shouldRejectSessionWithUncommittedChanges() {
+    try (SqlSession session = sqlMapper.openSession()) {
+      AuthorMapper mapper = session.getMapper(AuthorMapper.class);
+      Author author = mapper.selectAuthor(101);
+      mapper.updateAuthor(author);
+      assertThrows(SqlSessionException.class, session::parallel);
+      session.rollback();
+      session.parallel().join();
+    }
+  }
+
+  @Test
+  void shouldRethrowTheFirstFailure() {
+    try (SqlSession session = sqlMapper.openSession()) {
+      ParallelQueries parallel = session.parallel();
+      parallel.submit(s -> s.selectOne("org.apache.ibatis.domain.blog.mappers.AuthorMapper.selectAllAuthors"));
+      assertThrows(TooManyResultsException.class, parallel::join);
+    }
+  }
+
+  @Test
+  void shouldRunCallsOnTheSessionItselfWhenItCannotOpenOthers() {
+    try (SqlSession session = sqlMapper.openSession()) {
+      ParallelQueries parallel = new SequentialQueries(session);
+      CompletableFuture<Author> author = parallel.submit(AuthorMapper.class, mapper -> mapper.selectAuthor(101));
+      parallel.submit(s -> s.selectOne("org.apache.ibatis.domain.blog.mappers.AuthorMapper.selectAllAuthors"));
+      assertThrows(TooManyResultsException.class, parallel::join);
+      assertSame(author.join(), session.getMapper(AuthorMapper.class).selectAuthor(101));
+      parallel.join();
+    }
+  }
+
+}
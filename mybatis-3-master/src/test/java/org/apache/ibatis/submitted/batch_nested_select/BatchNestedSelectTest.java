@@ -0,0 +1,107 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.submitted.batch_nested_select;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.ibatis.BaseDataTest;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+class BatchNestedSelectTest {
+
+  private static SqlSessionFactory sqlSessionFactory;
+
+  @BeforeAll
+  static void setUp() throws Exception {
+    // create an SqlSessionFactory
+    try (Reader reader = Resources
+        .getResourceAsReader("org/apache/ibatis/submitted/batch_nested_select/mybatis-config.xml")) {
+      sqlSessionFactory = new SqlSessionFactoryBuilder().build(reader);
+    }
+
+    // populate in-memory database
+    BaseDataTest.runScript(sqlSessionFactory.getConfiguration().getEnvironment().getDataSource(),
+        "org/apache/ibatis/submitted/batch_nested_select/CreateDB.sql");
+  }
+
+  @Test
+  void shouldParseBatchFetchType() {
+    List<ResultMapping> mappings = sqlSessionFactory.getConfiguration()
+        .getResultMap("org.apache.ibatis.submitted.batch_nested_select.Mapper.blogResult").getPropertyResultMappings();
+    ResultMapping author = mappings.stream().filter(m -> "author".equals(m.getProperty())).findFirst().get();
+    ResultMapping posts = mappings.stream().filter(m -> "posts".equals(m.getProperty())).findFirst().get();
+    assertEquals(2, author.getBatchSize());
+    assertEquals(100, posts.getBatchSize());
+  }
+
+  @Test
+  void shouldLoadNestedSelectsInBatches() {
+    try (SqlSession sqlSession = sqlSessionFactory.openSession()) {
+      Mapper mapper = sqlSession.getMapper(Mapper.class);
+      List<Blog> blogs = mapper.selectBlogs();
+      assertBlogs(blogs);
+      // the same author is shared by the blogs referencing it
+      assertSame(blogs.get(0).getAuthor(), blogs.get(2).getAuthor());
+      // the children of each key are in the local cache, as if the nested select was run for that key only
+      assertSame(blogs.get(0).getPosts(), mapper.selectPostsByBlogIds(Collections.singletonList(1)));
+      assertSame(blogs.get(1).getPosts(), mapper.selectPostsByBlogIds(Collections.singletonList(2)));
+    }
+  }
+
+  @Test
+  void shouldLoadNestedSelectsPerRowWithResultHandler() {
+    try (SqlSession sqlSession = sqlSessionFactory.openSession()) {
+      Mapper mapper = sqlSession.getMapper(Mapper.class);
+      List<Blog> blogs = new ArrayList<>();
+      mapper.selectBlogs(context -> {
+        // every row is complete when handed to the result handler
+        assertTrue(context.getResultObject().getPosts() != null);
+        blogs.add(context.getResultObject());
+      });
+      assertBlogs(blogs);
+    }
+  }
+
+  private void assertBlogs(List<Blog> blogs) {
+    assertEquals(5, blogs.size());
+    assertEquals("Author1", blogs.get(0).getAuthor().getName());
+    assertEquals("Author2", blogs.get(1).getAuthor().getName());
+    assertEquals("Author1", blogs.get(2).getAuthor().getName());
+    assertEquals("Author3", blogs.get(3).getAuthor().getName());
+    assertNull(blogs.get(4).getAuthor());
+    assertEquals(2, blogs.get(0).getPosts().size());
+    assertEquals("Post2", blogs.get(0).getPosts().get(1).getSubject());
+    assertEquals(0, blogs.get(1).getPosts().size());
+    assertEquals(1, blogs.get(2).getPosts().size());
+    assertEquals(1, blogs.get(3).getPosts().size());
+    assertEquals(0, blogs.get(4).getPosts().size());
+  }
+
+}
@@ -20,6 +20,8 @@ import static org.assertj.core.api.BDDAssertions.then;
 
 import java.io.Reader;
 import java.lang.reflect.Field;
+import java.sql.Connection;
+import java.sql.Statement;
 
 import org.apache.ibatis.BaseDataTest;
 import org.apache.ibatis.annotations.CacheNamespace;
@@ -343,4 +345,103 @@ class CacheTest {
   private interface InvalidCacheNamespaceRefEmptyMapper {
   }
 
+  @Test
+  void shouldServeStaleResultWhileRefreshingIt() throws Exception {
+    sqlSessionFactory.getConfiguration().addMapper(StalePersonMapper.class);
+    try (SqlSession sqlSession = sqlSessionFactory.openSession()) {
+      Assertions.assertEquals(2, sqlSession.getMapper(StalePersonMapper.class).findAll().size());
+    }
+    try (Connection conn = sqlSessionFactory.getConfiguration().getEnvironment().getDataSource().getConnection();
+        Statement stmt = conn.createStatement()) {
+      stmt.execute("delete from person where id = 1");
+    }
+    Thread.sleep(600);
+    try (SqlSession sqlSession = sqlSessionFactory.openSession()) {
+      Assertions.assertEquals(2, sqlSession.getMapper(StalePersonMapper.class).findAll().size());
+    }
+    long deadline = System.currentTimeMillis() + 5000;
+    int size;
+    do {
+      Thread.sleep(50);
+      try (SqlSession sqlSession = sqlSessionFactory.openSession()) {
+        size = sqlSession.getMapper(StalePersonMapper.class).findAll().size();
+      }
+    } while (size != 1 && System.currentTimeMillis() < deadline);
+    Assertions.assertEquals(1, size);
+  }
+
+  @Test
+  void shouldRefreshWithTheParameterValuesOfTheStaleRead() throws Exception {
+    sqlSessionFactory.getConfiguration().addMapper(StalePersonMapper.class);
+    Person parameter = new Person(1, null, null);
+    try (SqlSession sqlSession = sqlSessionFactory.openSession()) {
+      Assertions.assertEquals(2, sqlSession.getMapper(StalePersonMapper.class).findFrom(parameter).size());
+    }
+    try (Connection conn = sqlSessionFactory.getConfiguration().getEnvironment().getDataSource().getConnection();
+        Statement stmt = conn.createStatement()) {
+      stmt.execute("delete from person where id = 1");
+    }
+    Thread.sleep(600);
+    try (SqlSession sqlSession = sqlSessionFactory.openSession()) {
+      Assertions.assertEquals(2, sqlSession.getMapper(StalePersonMapper.class).findFrom(parameter).size());
+    }
+    // the caller reuses its parameter object while the refresh is pending
+    parameter.setId(2);
+    long deadline = System.currentTimeMillis() + 5000;
+    int size;
+    do {
+      Thread.sleep(50);
+      try (SqlSession sqlSession = sqlSessionFactory.openSession()) {
+        size = sqlSession.getMapper(StalePersonMapper.class).findFrom(new Person(1, null, null)).size();
+      }
+    } while (size != 1 && System.currentTimeMillis() < deadline);
+    Assertions.assertEquals(1, size);
+  }
+
+  @Test
+  void shouldInvalidateOnlyTheRowsTouchedByAWrite() throws Exception {
+    sqlSessionFactory.getConfiguration().setFineGrainedCacheInvalidation(true);
+    sqlSessionFactory.getConfiguration().addMapper(TaggedPersonMapper.class);
+    try (SqlSession sqlSession = sqlSessionFactory.openSession()) {
+      TaggedPersonMapper mapper = sqlSession.getMapper(TaggedPersonMapper.class);
+      Assertions.assertEquals("Doe", mapper.findById(1).getLastname());
+      Assertions.assertEquals("Smith", mapper.findById(2).getLastname());
+      Assertions.assertEquals(2, mapper.findAll().size());
+    }
+    try (Connection conn = sqlSessionFactory.getConfiguration().getEnvironment().getDataSource().getConnection();
+        Statement stmt = conn.createStatement()) {
+      stmt.execute("update person set lastname = 'Jones' where id = 2");
+    }
+    try (SqlSession sqlSession = sqlSessionFactory.openSession()) {
+      TaggedPersonMapper mapper = sqlSession.getMapper(TaggedPersonMapper.class);
+      mapper.updateLastname(1, "Roe");
+      // read your own writes, the others are still cached
+      Assertions.assertEquals("Roe", mapper.findById(1).getLastname());
+      Assertions.assertEquals("Smith", mapper.findById(2).getLastname());
+      sqlSession.commit();
+    }
+    try (SqlSession sqlSession = sqlSessionFactory.openSession()) {
+      TaggedPersonMapper mapper = sqlSession.getMapper(TaggedPersonMapper.class);
+      Assertions.assertEquals("Roe", mapper.findById(1).getLastname());
+      Assertions.assertEquals("Smith", mapper.findById(2).getLastname());
+      Assertions.assertEquals("Jones",
+          mapper.findAll().stream().filter(p -> p.getId() == 2).findFirst().get().getLastname());
+      mapper.create(new Person(3, "Jim", "Beam"));
+      sqlSession.commit();
+    }
+    try (SqlSession sqlSession = sqlSessionFactory.openSession()) {
+      TaggedPersonMapper mapper = sqlSession.getMapper(TaggedPersonMapper.class);
+      Assertions.assertEquals("Smith", mapper.findById(2).getLastname());
+      Assertions.assertEquals(3, mapper.findAll().size());
+      // the or defeats the inference, the declared tags are used
+      mapper.updateFirstname(1, "Joan");
+      sqlSession.commit();
+    }
+    try (SqlSession sqlSession = sqlSessionFactory.openSession()) {
+      TaggedPersonMapper mapper = sqlSession.getMapper(TaggedPersonMapper.class);
+      Assertions.assertEquals("Joan", mapper.findById(1).getFirstname());
+      Assertions.assertEquals("Smith", mapper.findById(2).getLastname());
+    }
+  }
+
 }
@@ -0,0 +1,46 @@
+/*
+ *    Copyright 2009-2021 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.submitted.cache;
+
+import java.util.List;
+
+import org.apache.ibatis.annotations.CacheNamespace;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Options;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
+
+@CacheNamespace
+public interface TaggedPersonMapper {
+
+  @Select("select id, firstname, lastname from person where id = #{id}")
+  Person findById(int id);
+
+  @Select("select id, firstname, lastname from person")
+  List<Person> findAll();
+
+  @Update("update person set lastname = #{lastname} where id = #{id}")
+  void updateLastname(@Param("id") int id, @Param("lastname") String lastname);
+
+  @Insert("insert into person (id, firstname, lastname) values (#{id}, #{firstname}, #{lastname})")
+  void create(Person person);
+
+  @Update("update person set firstname = #{firstname} where id = #{id} or id is null")
+  @Options(cacheTags = "person(id)")
+  void updateFirstname(@Param("id") int id, @Param("firstname") String firstname);
+
+}